@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.delivery.IDeliverySpecification;
+import org.holodeckb2b.interfaces.delivery.IMessageDeliverer;
+import org.holodeckb2b.interfaces.delivery.MessageDeliveryException;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+import org.holodeckb2b.interfaces.pmode.IPModeSet;
+import org.holodeckb2b.pmode.InMemoryPModeSet;
+
+/**
+ * Is the Holodeck B2B core used by the benchmarks. It extends the core used in the unit tests of the Core module with
+ * a private home directory, a configurable P-Mode set and a message deliverer that does nothing so only the processing
+ * done by Holodeck B2B itself is measured.
+ * <p>The embedded Derby database is created in the home directory of the core, so each benchmark starts with an empty
+ * database. Because Derby determines its home directory when it is started there can be only one benchmark core per
+ * JVM, which is guaranteed by JMH as it runs each benchmark in its own forked JVM.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public class BenchmarkCore extends HolodeckB2BTestCore {
+
+    /**
+     * The JVM argument for the forked benchmark JVMs to disable logging, as it would otherwise dominate the measured
+     * time.
+     */
+    public static final String NO_LOGGING = "-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.NoOpLog";
+    /**
+     * The connection pool of the default persistency provider keeps running after the benchmark is completed. This JVM
+     * argument ensures that JMH does not wait for it to finish.
+     */
+    public static final String NO_SHUTDOWN_WAIT = "-Djmh.shutdownTimeout=0";
+
+    /**
+     * The message deliverer used for all deliveries, it just accepts the message unit
+     */
+    private static final IMessageDeliverer NO_OP_DELIVERER = new IMessageDeliverer() {
+        @Override
+        public void deliver(final IMessageUnit rcvdMsgUnit) throws MessageDeliveryException {
+        }
+    };
+
+    /**
+     * The home directory of this core instance
+     */
+    private final File    homeDir;
+
+    /**
+     * The set of P-Modes used by this core instance
+     */
+    private IPModeSet     pmodeSet = new InMemoryPModeSet();
+
+    /**
+     * Creates a new benchmark core with a new and empty home directory and installs it as the Holodeck B2B core
+     * implementation.
+     *
+     * @return  The new core instance
+     * @throws IOException  When the home directory could not be created
+     */
+    public static BenchmarkCore create() throws IOException {
+        final File homeDir = Files.createTempDirectory("hb2b-bench").toFile();
+        // The database is created relative to the Derby system home, so it must be set before the database is started
+        System.setProperty("derby.system.home", homeDir.getAbsolutePath());
+        final BenchmarkCore core = new BenchmarkCore(homeDir);
+        HolodeckB2BCoreInterface.setImplementation(core);
+        return core;
+    }
+
+    private BenchmarkCore(final File homeDir) {
+        super(homeDir.getAbsolutePath());
+        this.homeDir = homeDir;
+    }
+
+    /**
+     * Sets the P-Mode set to use.
+     *
+     * @param pmodes    The P-Mode set
+     */
+    public void setPModeSet(final IPModeSet pmodes) {
+        this.pmodeSet = pmodes;
+    }
+
+    @Override
+    public IPModeSet getPModeSet() {
+        return pmodeSet;
+    }
+
+    @Override
+    public IMessageDeliverer getMessageDeliverer(final IDeliverySpecification deliverySpec)
+                                                                                    throws MessageDeliveryException {
+        return NO_OP_DELIVERER;
+    }
+
+    /**
+     * Removes the home directory of this core instance.
+     */
+    public void cleanup() {
+        delete(homeDir);
+    }
+
+    private static void delete(final File f) {
+        final File[] children = f.listFiles();
+        if (children != null)
+            for (final File c : children)
+                delete(c);
+        f.delete();
+    }
+}
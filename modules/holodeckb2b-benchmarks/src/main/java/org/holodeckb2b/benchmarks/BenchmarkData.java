@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.benchmarks;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.UUID;
+import org.holodeckb2b.common.messagemodel.AgreementReference;
+import org.holodeckb2b.common.messagemodel.CollaborationInfo;
+import org.holodeckb2b.common.messagemodel.Payload;
+import org.holodeckb2b.common.messagemodel.Property;
+import org.holodeckb2b.common.messagemodel.Service;
+import org.holodeckb2b.common.messagemodel.TradingPartner;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.interfaces.general.EbMSConstants;
+import org.holodeckb2b.interfaces.general.ReplyPattern;
+import org.holodeckb2b.interfaces.messagemodel.IPayload;
+import org.holodeckb2b.pmode.helpers.Agreement;
+import org.holodeckb2b.pmode.helpers.BusinessInfo;
+import org.holodeckb2b.pmode.helpers.DeliverySpecification;
+import org.holodeckb2b.pmode.helpers.Leg;
+import org.holodeckb2b.pmode.helpers.PMode;
+import org.holodeckb2b.pmode.helpers.PartnerConfig;
+import org.holodeckb2b.pmode.helpers.PartyId;
+import org.holodeckb2b.pmode.helpers.ReceiptConfiguration;
+import org.holodeckb2b.pmode.helpers.ReceptionAwarenessConfig;
+import org.holodeckb2b.pmode.helpers.UserMessageFlow;
+
+/**
+ * Generates the P-Modes, message units and payloads used by the benchmarks. All data is generated so the benchmarks
+ * do not depend on external resources. The generated P-Mode with index <i>n</i> is the one that matches to the User
+ * Messages generated for index <i>n</i>, each index represents a separate exchange with its own trading partner.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public final class BenchmarkData {
+
+    private static final String PARTY_ID_TYPE = "urn:oasis:names:tc:ebcore:partyid-type:unregistered";
+    private static final String SERVICE = "urn:holodeckb2b:benchmark:service";
+    private static final String ROLE_SENDER = "Sender";
+    private static final String ROLE_RECEIVER = "Receiver";
+
+    /**
+     * Words used to generate payload data that compresses like normal business documents
+     */
+    private static final String[] WORDS = { "<Invoice>", "</Invoice>", "<Line>", "</Line>", "<Amount>", "</Amount>",
+                                            "holodeck", "b2b", "order", "12345", "EUR", "quantity", "2017-06-30",
+                                            "description", "\n", " " };
+
+    private BenchmarkData() {}
+
+    /**
+     * Creates the P-Mode for receiving the User Messages of the exchange with the given index.
+     *
+     * @param index     The index of the exchange
+     * @return          The P-Mode for the exchange
+     */
+    public static PMode createPMode(final int index) {
+        final PMode pmode = new PMode();
+        pmode.setId(getPModeId(index));
+        pmode.setMep(EbMSConstants.ONE_WAY_MEP);
+        pmode.setMepBinding(EbMSConstants.ONE_WAY_PUSH);
+
+        final Agreement agreement = new Agreement();
+        agreement.setName("agreement-" + index);
+        pmode.setAgreement(agreement);
+
+        final PartnerConfig initiator = new PartnerConfig();
+        initiator.setRole(ROLE_SENDER);
+        initiator.addPartyId(createPModePartyId(getSenderId(index)));
+        pmode.setInitiator(initiator);
+        final PartnerConfig responder = new PartnerConfig();
+        responder.setRole(ROLE_RECEIVER);
+        responder.addPartyId(createPModePartyId(getReceiverId()));
+        pmode.setResponder(responder);
+
+        final Leg leg = new Leg();
+        final BusinessInfo busInfo = new BusinessInfo();
+        final org.holodeckb2b.pmode.helpers.Service service = new org.holodeckb2b.pmode.helpers.Service();
+        service.setName(SERVICE);
+        busInfo.setService(service);
+        busInfo.setAction(getAction(index));
+        final UserMessageFlow flow = new UserMessageFlow();
+        flow.setBusinnessInfo(busInfo);
+        leg.setUserMessageFlow(flow);
+
+        final ReceiptConfiguration rcptConfig = new ReceiptConfiguration();
+        rcptConfig.setPattern(ReplyPattern.RESPONSE);
+        leg.setReceiptConfiguration(rcptConfig);
+        final ReceptionAwarenessConfig raConfig = new ReceptionAwarenessConfig();
+        raConfig.setDuplicateDetection(true);
+        leg.setReceptionAwareness(raConfig);
+        final DeliverySpecification delivery = new DeliverySpecification();
+        delivery.setId("benchmark-delivery");
+        leg.setDefaultDelivery(delivery);
+        pmode.addLeg(leg);
+
+        return pmode;
+    }
+
+    /**
+     * Creates a new User Message for the exchange with the given index. Each User Message gets a unique message id.
+     *
+     * @param index     The index of the exchange
+     * @return          A new User Message for the exchange
+     */
+    public static UserMessage createUserMessage(final int index) {
+        final UserMessage um = new UserMessage();
+        um.setMessageId(UUID.randomUUID().toString() + "@benchmark.holodeck-b2b.org");
+        um.setTimestamp(new Date());
+        um.setMPC(EbMSConstants.DEFAULT_MPC);
+
+        final TradingPartner sender = new TradingPartner();
+        sender.setRole(ROLE_SENDER);
+        sender.addPartyId(new org.holodeckb2b.common.messagemodel.PartyId(getSenderId(index), PARTY_ID_TYPE));
+        um.setSender(sender);
+        final TradingPartner receiver = new TradingPartner();
+        receiver.setRole(ROLE_RECEIVER);
+        receiver.addPartyId(new org.holodeckb2b.common.messagemodel.PartyId(getReceiverId(), PARTY_ID_TYPE));
+        um.setReceiver(receiver);
+
+        final CollaborationInfo collabInfo = new CollaborationInfo();
+        collabInfo.setAgreement(new AgreementReference("agreement-" + index, null, null));
+        collabInfo.setService(new Service(SERVICE));
+        collabInfo.setAction(getAction(index));
+        collabInfo.setConversationId("conversation-" + index);
+        um.setCollaborationInfo(collabInfo);
+
+        um.addMessageProperty(new Property("originalSender", getSenderId(index)));
+        um.addMessageProperty(new Property("finalRecipient", getReceiverId()));
+
+        final Payload payload = new Payload();
+        payload.setContainment(IPayload.Containment.ATTACHMENT);
+        payload.setPayloadURI("payload-" + index + "@benchmark.holodeck-b2b.org");
+        payload.setMimeType("application/xml");
+        payload.addProperty(new Property("MimeType", "application/xml"));
+        um.addPayload(payload);
+
+        return um;
+    }
+
+    /**
+     * Creates payload data of the given size that has a compression ratio comparable to XML business documents. The
+     * data is generated using a fixed seed so all runs use the same data.
+     *
+     * @param size      The size of the payload in bytes
+     * @return          The payload data
+     */
+    public static byte[] createPayload(final int size) {
+        final Random random = new Random(size);
+        final StringBuilder data = new StringBuilder(size + 32);
+        while (data.length() < size)
+            if (random.nextInt(4) == 0)
+                data.append(Long.toHexString(random.nextLong()));
+            else
+                data.append(WORDS[random.nextInt(WORDS.length)]);
+        data.setLength(size);
+        return data.toString().getBytes();
+    }
+
+    /**
+     * Gets the P-Mode id of the exchange with the given index.
+     *
+     * @param index     The index of the exchange
+     * @return          The P-Mode id
+     */
+    public static String getPModeId(final int index) {
+        return "pm-benchmark-" + index;
+    }
+
+    private static String getSenderId(final int index) {
+        return "partner-" + index;
+    }
+
+    private static String getReceiverId() {
+        return "holodeck-b2b";
+    }
+
+    private static String getAction(final int index) {
+        return "Deliver-" + (index % 10);
+    }
+
+    private static PartyId createPModePartyId(final String id) {
+        final PartyId pid = new PartyId();
+        pid.setId(id);
+        pid.setType(PARTY_ID_TYPE);
+        return pid;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import javax.activation.DataHandler;
+import org.apache.axiom.attachments.ByteArrayDataSource;
+import org.holodeckb2b.as4.compression.CompressionDataHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the compression and decompression of payloads by the {@link CompressionDataHandler}. Compression is
+ * measured both when the payload is written to the message, as done when sending, and when it is read through the
+ * input stream of the data handler.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = BenchmarkCore.NO_LOGGING)
+@State(Scope.Thread)
+public class CompressionBenchmark {
+
+    private static final String MIME_TYPE = "application/xml";
+
+    @Param({"10240", "1048576"})
+    private int         payloadSize;
+
+    private DataHandler uncompressed;
+    private DataHandler compressed;
+    private final byte[] buffer = new byte[8192];
+
+    @Setup
+    public void setUp() throws IOException {
+        uncompressed = new DataHandler(new ByteArrayDataSource(BenchmarkData.createPayload(payloadSize), MIME_TYPE));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(payloadSize);
+        new CompressionDataHandler(uncompressed).writeTo(out);
+        compressed = new DataHandler(new ByteArrayDataSource(out.toByteArray(), "application/gzip"));
+    }
+
+    @Benchmark
+    public void compressWrite(final Blackhole bh) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(payloadSize);
+        new CompressionDataHandler(uncompressed).writeTo(out);
+        bh.consume(out.size());
+    }
+
+    @Benchmark
+    public long compressRead() throws IOException {
+        return drain(new CompressionDataHandler(uncompressed).getInputStream());
+    }
+
+    @Benchmark
+    public void decompressWrite(final Blackhole bh) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(payloadSize);
+        new CompressionDataHandler(compressed, MIME_TYPE).writeTo(out);
+        bh.consume(out.size());
+    }
+
+    @Benchmark
+    public long decompressRead() throws IOException {
+        return drain(new CompressionDataHandler(compressed, MIME_TYPE).getInputStream());
+    }
+
+    private long drain(final InputStream is) throws IOException {
+        long total = 0;
+        try {
+            int r;
+            while ((r = is.read(buffer)) > 0)
+                total += r;
+        } finally {
+            is.close();
+        }
+        return total;
+    }
+}
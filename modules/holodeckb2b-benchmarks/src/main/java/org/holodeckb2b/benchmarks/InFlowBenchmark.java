@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.apache.axiom.om.OMXMLBuilderFactory;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.engine.Handler;
+import org.holodeckb2b.as4.handlers.inflow.CreateReceipt;
+import org.holodeckb2b.as4.receptionawareness.DetectDuplicateUserMessages;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.ebms3.constants.MessageContextProperties;
+import org.holodeckb2b.ebms3.handlers.inflow.BasicHeaderValidation;
+import org.holodeckb2b.ebms3.handlers.inflow.DeliverUserMessage;
+import org.holodeckb2b.ebms3.handlers.inflow.EndUnitOfWork;
+import org.holodeckb2b.ebms3.handlers.inflow.FindPModes;
+import org.holodeckb2b.ebms3.handlers.inflow.ReadUserMessage;
+import org.holodeckb2b.ebms3.handlers.inflow.SaveUserMsgAttachments;
+import org.holodeckb2b.ebms3.handlers.inflow.StartProcessingUsrMessage;
+import org.holodeckb2b.ebms3.handlers.inflow.StartUnitOfWork;
+import org.holodeckb2b.ebms3.packaging.Messaging;
+import org.holodeckb2b.ebms3.packaging.SOAPEnv;
+import org.holodeckb2b.ebms3.packaging.UserMessageElement;
+import org.holodeckb2b.interfaces.pmode.IPModeSet;
+import org.holodeckb2b.pmode.PModeManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the processing of a received User Message by the handlers of the in flow, from parsing the message until
+ * the Receipt is created. As the message is not signed or encrypted and has no payloads the handlers for security
+ * and decompression are not included. Each invocation processes a new message with a unique message id so the
+ * complete processing, including storage in the embedded Derby database, is executed and the message is not handled
+ * as a duplicate.
+ * <p>The <i>unitOfWork</i> parameter indicates whether the database updates are grouped in a unit of work as is done
+ * in the configured in flow, or executed in separate transactions.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { BenchmarkCore.NO_LOGGING, BenchmarkCore.NO_SHUTDOWN_WAIT })
+@State(Scope.Benchmark)
+public class InFlowBenchmark {
+
+    /**
+     * The number of P-Modes deployed, the received messages match to the last one
+     */
+    private static final int PMODES = 100;
+
+    /**
+     * Is replaced by the actual message id in the canned message
+     */
+    private static final String MSG_ID_PLACEHOLDER = "@@MESSAGE-ID@@";
+
+    @Param({ "true", "false" })
+    public boolean          unitOfWork;
+
+    private BenchmarkCore   core;
+    private String          cannedMessage;
+    private Handler[]       handlers;
+
+    @Setup
+    public void setUp() throws Exception {
+        core = BenchmarkCore.create();
+        final IPModeSet pmodes = new PModeManager(null, null);
+        for (int i = 0; i < PMODES; i++)
+            pmodes.add(BenchmarkData.createPMode(i));
+        core.setPModeSet(pmodes);
+
+        final UserMessage um = BenchmarkData.createUserMessage(PMODES - 1);
+        um.setMessageId(MSG_ID_PLACEHOLDER);
+        um.setPayloads(null);
+        final SOAPEnvelope env = SOAPEnv.createEnvelope(SOAPEnv.SOAPVersion.SOAP_12);
+        UserMessageElement.createElement(Messaging.createElement(env), um);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        env.serialize(out);
+        cannedMessage = out.toString(StandardCharsets.UTF_8.name());
+
+        final Handler[] msgHandlers = new Handler[] { new ReadUserMessage(), new BasicHeaderValidation(),
+                                                      new FindPModes(), new StartProcessingUsrMessage(),
+                                                      new SaveUserMsgAttachments(), new DetectDuplicateUserMessages(),
+                                                      new DeliverUserMessage(), new CreateReceipt() };
+        if (unitOfWork) {
+            handlers = new Handler[msgHandlers.length + 2];
+            handlers[0] = new StartUnitOfWork();
+            System.arraycopy(msgHandlers, 0, handlers, 1, msgHandlers.length);
+            handlers[handlers.length - 1] = new EndUnitOfWork();
+        } else
+            handlers = msgHandlers;
+        // Check that the message is processed completely, otherwise the benchmark would measure the wrong thing
+        if (processMessage().getProperty(MessageContextProperties.RESPONSE_RECEIPT) == null)
+            throw new IllegalStateException("Canned message was not processed successfully");
+    }
+
+    @TearDown
+    public void tearDown() {
+        core.cleanup();
+    }
+
+    @Benchmark
+    public MessageContext processMessage() throws Exception {
+        final String msg = cannedMessage.replace(MSG_ID_PLACEHOLDER,
+                                                 UUID.randomUUID().toString() + "@benchmark.holodeck-b2b.org");
+        final MessageContext mc = new MessageContext();
+        mc.setServerSide(true);
+        mc.setFLOW(MessageContext.IN_FLOW);
+        mc.setEnvelope(OMXMLBuilderFactory.createSOAPModelBuilder(
+                                        new ByteArrayInputStream(msg.getBytes(StandardCharsets.UTF_8)), "UTF-8")
+                                        .getSOAPEnvelope());
+        for (final Handler h : handlers)
+            if (h.invoke(mc) != Handler.InvocationResponse.CONTINUE)
+                throw new IllegalStateException(h.getClass().getSimpleName() + " did not continue processing");
+        return mc;
+    }
+}
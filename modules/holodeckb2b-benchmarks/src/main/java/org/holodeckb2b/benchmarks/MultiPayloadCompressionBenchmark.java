@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+import org.holodeckb2b.as4.compression.CompressionDataHandler;
+import org.holodeckb2b.as4.compression.PayloadCompressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of sending messages with multiple compressed payloads. Compression while the message is
+ * written, as done by the {@link CompressionDataHandler}, is compared with compression of all payloads ahead of the
+ * transmission by the {@link PayloadCompressor} and with the retransmission of a message whose payloads are already
+ * compressed. The message is "sent" by writing all payloads to a stream that discards the data.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = BenchmarkCore.NO_LOGGING)
+@State(Scope.Thread)
+public class MultiPayloadCompressionBenchmark {
+
+    @Param({"4"})
+    private int         payloads;
+
+    @Param({"1048576"})
+    private int         payloadSize;
+
+    @Param({"-1", "1"})
+    private int         level;
+
+    private Path                payloadDir;
+    private List<File>          payloadFiles;
+    private PayloadCompressor   compressor;
+
+    private final OutputStream  discard = new OutputStream() {
+        @Override
+        public void write(final int b) {
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        payloadDir = Files.createTempDirectory("hb2b-compression-bench");
+        payloadFiles = new ArrayList<>(payloads);
+        for (int i = 0; i < payloads; i++) {
+            final Path payload = payloadDir.resolve("payload-" + i + ".xml");
+            Files.write(payload, BenchmarkData.createPayload(payloadSize + i));
+            payloadFiles.add(payload.toFile());
+        }
+        compressor = new PayloadCompressor(payloads);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        compressor.shutdown();
+        for (final File f : payloadFiles) {
+            PayloadCompressor.deleteCacheFiles(f.getPath());
+            f.delete();
+        }
+        new File(payloadDir.toFile(), PayloadCompressor.CACHE_DIRECTORY).delete();
+        Files.deleteIfExists(payloadDir);
+    }
+
+    @Benchmark
+    public void compressWhileSending() throws IOException {
+        for (final File f : payloadFiles)
+            new CompressionDataHandler(new DataHandler(new FileDataSource(f)), level).writeTo(discard);
+    }
+
+    @Benchmark
+    public void compressAhead() throws IOException {
+        for (final File f : payloadFiles)
+            PayloadCompressor.deleteCacheFiles(f.getPath());
+        final List<Future<File>> compressed = new ArrayList<>(payloads);
+        for (final File f : payloadFiles)
+            compressed.add(compressor.compress(f.getPath(), level));
+        for (final Future<File> c : compressed)
+            new DataHandler(new FileDataSource(PayloadCompressor.waitFor(c))).writeTo(discard);
+    }
+
+    @Benchmark
+    public void retransmitCompressed() throws IOException {
+        for (final File f : payloadFiles)
+            new DataHandler(new FileDataSource(compressor.getCompressed(f.getPath(), level))).writeTo(discard);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.interfaces.pmode.IPMode;
+import org.holodeckb2b.interfaces.pmode.IPModeSet;
+import org.holodeckb2b.pmode.InMemoryPModeSet;
+import org.holodeckb2b.pmode.PModeFinder;
+import org.holodeckb2b.pmode.PModeManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time needed by the {@link PModeFinder} to find the P-Mode for a received User Message. The P-Mode set
+ * is managed either by the {@link PModeManager}, which uses the P-Mode matching index, or by a plain {@link
+ * InMemoryPModeSet} in which case all P-Modes are evaluated.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { BenchmarkCore.NO_LOGGING, BenchmarkCore.NO_SHUTDOWN_WAIT })
+@State(Scope.Benchmark)
+public class PModeFinderBenchmark {
+
+    /**
+     * The number of messages to cycle through, they are spread evenly over the exchanges
+     */
+    private static final int MESSAGES = 64;
+
+    @Param({"10", "100", "1000"})
+    private int     pmodeCount;
+
+    @Param({"manager", "inmemory"})
+    private String  pmodeSet;
+
+    private BenchmarkCore   core;
+    private UserMessage[]   messages;
+    private int             next;
+
+    @Setup
+    public void setUp() throws Exception {
+        core = BenchmarkCore.create();
+        final IPModeSet pmodes = "manager".equals(pmodeSet) ? new PModeManager(null, null) : new InMemoryPModeSet();
+        for (int i = 0; i < pmodeCount; i++)
+            pmodes.add(BenchmarkData.createPMode(i));
+        core.setPModeSet(pmodes);
+
+        messages = new UserMessage[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++)
+            messages[i] = BenchmarkData.createUserMessage(i * pmodeCount / MESSAGES);
+        // Check that the messages can be matched, otherwise the benchmark would measure the wrong thing
+        if (PModeFinder.forReceivedUserMessage(messages[MESSAGES - 1]) == null)
+            throw new IllegalStateException("Generated message can not be matched to a P-Mode");
+    }
+
+    @TearDown
+    public void tearDown() {
+        core.cleanup();
+    }
+
+    @Benchmark
+    public IPMode findForReceivedUserMessage() {
+        next = (next + 1) % MESSAGES;
+        return PModeFinder.forReceivedUserMessage(messages[next]);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.dao.IQueryManager;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.persistency.dao.StorageManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the queries of the {@link IQueryManager} that are executed for every message or by the workers on the
+ * embedded Derby database of the default persistency provider. Before the benchmark is run the database is filled with
+ * the given number of sent User Messages of which one percent is waiting to be pushed, and a quarter of that number of
+ * received and delivered User Messages.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { BenchmarkCore.NO_LOGGING, BenchmarkCore.NO_SHUTDOWN_WAIT })
+@State(Scope.Benchmark)
+public class QueryManagerBenchmark {
+
+    /**
+     * The number of different P-Modes the stored messages are spread over
+     */
+    private static final int PMODES = 20;
+
+    @Param({"1000", "10000"})
+    private int     storedMessages;
+
+    private BenchmarkCore   core;
+    private IQueryManager   queryManager;
+    private List<String>    sentMessageIds;
+    private List<String>    receivedMessageIds;
+    private List<String>    pmodeIds;
+    private int             next;
+
+    @Setup
+    public void setUp() throws Exception {
+        core = BenchmarkCore.create();
+        queryManager = core.getQueryManager();
+        final StorageManager storageManager = core.getStorageManager();
+
+        sentMessageIds = new ArrayList<>(storedMessages);
+        for (int i = 0; i < storedMessages; i++) {
+            final UserMessage um = BenchmarkData.createUserMessage(i % PMODES);
+            um.setPModeId(BenchmarkData.getPModeId(i % PMODES));
+            final IUserMessageEntity stored = storageManager.storeOutGoingMessageUnit(um);
+            storageManager.setProcessingState(stored, i % 100 == 0 ? ProcessingState.READY_TO_PUSH
+                                                                    : ProcessingState.DELIVERED);
+            sentMessageIds.add(stored.getMessageId());
+        }
+        receivedMessageIds = new ArrayList<>(storedMessages / 4);
+        for (int i = 0; i < storedMessages / 4; i++) {
+            final UserMessage um = BenchmarkData.createUserMessage(i % PMODES);
+            um.setPModeId(BenchmarkData.getPModeId(i % PMODES));
+            final IUserMessageEntity stored = storageManager.storeIncomingMessageUnit(um);
+            storageManager.setProcessingState(stored, ProcessingState.DELIVERED);
+            receivedMessageIds.add(stored.getMessageId());
+        }
+        pmodeIds = new ArrayList<>();
+        for (int i = 0; i < PMODES / 2; i++)
+            pmodeIds.add(BenchmarkData.getPModeId(i));
+    }
+
+    @TearDown
+    public void tearDown() {
+        core.cleanup();
+    }
+
+    @Benchmark
+    public List<IUserMessageEntity> getMessageUnitsInState() throws PersistenceException {
+        return queryManager.getMessageUnitsInState(IUserMessage.class, IMessageUnit.Direction.OUT,
+                                                   new ProcessingState[] { ProcessingState.READY_TO_PUSH });
+    }
+
+    @Benchmark
+    public List<IUserMessageEntity> getMessageUnitsForPModesInState() throws PersistenceException {
+        return queryManager.getMessageUnitsForPModesInState(IUserMessage.class, pmodeIds,
+                                                            ProcessingState.READY_TO_PUSH);
+    }
+
+    @Benchmark
+    public Collection<IMessageUnitEntity> getMessageUnitsWithId() throws PersistenceException {
+        next = (next + 1) % sentMessageIds.size();
+        return queryManager.getMessageUnitsWithId(sentMessageIds.get(next));
+    }
+
+    @Benchmark
+    public boolean isAlreadyDelivered() throws PersistenceException {
+        next = (next + 1) % receivedMessageIds.size();
+        return queryManager.isAlreadyDelivered(receivedMessageIds.get(next));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMXMLBuilderFactory;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.apache.axis2.context.MessageContext;
+import org.apache.xml.security.Init;
+import org.apache.xml.security.utils.XMLUtils;
+import org.holodeckb2b.axis2.Axis2Utils;
+import org.holodeckb2b.ebms3.packaging.Messaging;
+import org.holodeckb2b.ebms3.packaging.SOAPEnv;
+import org.holodeckb2b.ebms3.packaging.UserMessageElement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * Measures the conversion of the SOAP envelope to DOM and back that is done by the WS-Security handlers. The conversion
+ * done by {@link Axis2Utils} is compared with serializing and parsing the envelope, as was done before version 3.1.0.
+ * Run with the <i>gc</i> profiler (<code>-prof gc</code>) to also compare the allocation per message.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = BenchmarkCore.NO_LOGGING)
+@State(Scope.Thread)
+public class SecurityConversionBenchmark {
+
+    @Param({"1024", "102400"})
+    private int             bodySize;
+
+    private MessageContext  mc;
+
+    @Setup
+    public void setUp() throws Exception {
+        // The serialization of the DOM tree uses the canonicalizer of the XML Security library
+        Init.init();
+        final SOAPEnvelope env = SOAPEnv.createEnvelope(SOAPEnv.SOAPVersion.SOAP_12);
+        UserMessageElement.createElement(Messaging.createElement(env), BenchmarkData.createUserMessage(1));
+        final SOAPFactory factory = (SOAPFactory) OMAbstractFactory.getSOAP12Factory();
+        final OMElement content = factory.createOMElement("payload", "http://holodeck-b2b.org/benchmarks", "p");
+        content.setText(new String(BenchmarkData.createPayload(bodySize)));
+        env.getBody().addChild(content);
+        mc = new MessageContext();
+        mc.setEnvelope(env);
+    }
+
+    @Benchmark
+    public Document convertToDOM() {
+        return Axis2Utils.convertToDOM(mc);
+    }
+
+    @Benchmark
+    public SOAPEnvelope convertRoundTrip() {
+        return Axis2Utils.convertToAxiom(Axis2Utils.convertToDOM(mc));
+    }
+
+    @Benchmark
+    public SOAPEnvelope serializeRoundTrip() throws Exception {
+        final ByteArrayOutputStream envBytes = new ByteArrayOutputStream();
+        mc.getEnvelope().serialize(envBytes);
+        final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        final Document doc = dbf.newDocumentBuilder().parse(new ByteArrayInputStream(envBytes.toByteArray()));
+
+        final ByteArrayOutputStream domBytes = new ByteArrayOutputStream();
+        XMLUtils.outputDOM(doc.getDocumentElement(), domBytes, true);
+        final SOAPEnvelope env = OMXMLBuilderFactory.createSOAPModelBuilder(
+                                                new ByteArrayInputStream(domBytes.toByteArray()), null)
+                                                .getSOAPEnvelope();
+        env.build();
+        return env;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMXMLBuilderFactory;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPHeaderBlock;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.ebms3.packaging.Messaging;
+import org.holodeckb2b.ebms3.packaging.SOAPEnv;
+import org.holodeckb2b.ebms3.packaging.UserMessageElement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the creation and reading of the <code>eb:UserMessage</code> element by {@link UserMessageElement}. Reading
+ * is measured both on an element that is already in memory and on a serialized message that needs to be parsed first,
+ * as happens for received messages.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = BenchmarkCore.NO_LOGGING)
+@State(Scope.Thread)
+public class UserMessageElementBenchmark {
+
+    private UserMessage userMessage;
+    private OMElement   umElement;
+    private byte[]      serializedEnvelope;
+
+    @Setup
+    public void setUp() throws Exception {
+        userMessage = BenchmarkData.createUserMessage(1);
+        final SOAPEnvelope env = SOAPEnv.createEnvelope(SOAPEnv.SOAPVersion.SOAP_12);
+        umElement = UserMessageElement.createElement(Messaging.createElement(env), userMessage);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        env.serialize(out);
+        serializedEnvelope = out.toByteArray();
+    }
+
+    @Benchmark
+    public OMElement createElement() {
+        final SOAPEnvelope env = SOAPEnv.createEnvelope(SOAPEnv.SOAPVersion.SOAP_12);
+        final SOAPHeaderBlock messaging = Messaging.createElement(env);
+        return UserMessageElement.createElement(messaging, userMessage);
+    }
+
+    @Benchmark
+    public UserMessage readElement() {
+        return UserMessageElement.readElement(umElement);
+    }
+
+    @Benchmark
+    public UserMessage parseAndReadElement() {
+        final SOAPEnvelope env = OMXMLBuilderFactory.createSOAPModelBuilder(
+                                                    new ByteArrayInputStream(serializedEnvelope), "UTF-8")
+                                                    .getSOAPEnvelope();
+        return UserMessageElement.readElement(UserMessageElement.getElements(Messaging.getElement(env)).next());
+    }
+}
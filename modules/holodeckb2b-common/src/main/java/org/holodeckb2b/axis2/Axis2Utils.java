@@ -22,9 +22,17 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.util.UUID;
 
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stax.StAXSource;
 
 import org.apache.axiom.om.OMXMLBuilderFactory;
+import org.apache.axiom.om.util.StAXUtils;
 import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.axiom.soap.SOAPModelBuilder;
 import org.apache.axis2.AxisFault;
@@ -48,6 +56,12 @@ public final class Axis2Utils {
      */
     private static final String HB2B_ANON_SVC = "hb2b:axis2utils:anon_svc";
 
+    /**
+     * The transformers used to convert the SOAP envelope to DOM. As creating the factory and transformer is expensive
+     * and a transformer can not be used concurrently each thread gets its own transformer which is reused.
+     */
+    private static final ThreadLocal<Transformer> domTransformer = new ThreadLocal<>();
+
     /**
      * Creates the {@link MessageContext} for the response to message currently being processed.
      *
@@ -80,6 +94,8 @@ public final class Axis2Utils {
 
     /**
      * Converts the SOAP Envelope element from the Axis2 representation to the standard DOM representation.
+     * <p>The DOM tree is created by streaming the events of the Axiom tree directly into it, so the envelope does not
+     * need to be serialized and parsed again.
      *
      * @param mc The MessageContext representing the SOAP message
      * @return A {@link Document} object that represents to the SOAP envelope element contained in the message, or<br>
@@ -87,21 +103,38 @@ public final class Axis2Utils {
      */
     public static Document convertToDOM(final MessageContext mc) {
         try {
-            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            mc.getEnvelope().serialize(baos);
-            final ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
-
-            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            return factory.newDocumentBuilder().parse(bais);
+            final DOMResult domResult = new DOMResult();
+            getDOMTransformer().transform(new StAXSource(mc.getEnvelope().getXMLStreamReader()), domResult);
+            return (Document) domResult.getNode();
         } catch (final Exception e) {
-            // If anything goes wrong converting the document, just return null
+            // If anything goes wrong converting the document, just return null. As the transformer may be left in an
+            // inconsistent state it is not reused
+            domTransformer.remove();
             return null;
         }
     }
 
+    /**
+     * Gets the transformer for converting the SOAP envelope to DOM for the current thread, creating it when the thread
+     * does not have one yet.
+     *
+     * @return The identity {@link Transformer} of the current thread
+     * @throws TransformerConfigurationException When the transformer can not be created
+     */
+    private static Transformer getDOMTransformer() throws TransformerConfigurationException {
+        Transformer transformer = domTransformer.get();
+        if (transformer == null) {
+            transformer = TransformerFactory.newInstance().newTransformer();
+            domTransformer.set(transformer);
+        } else
+            transformer.reset();
+        return transformer;
+    }
+
     /**
      * Converts a {@link Document} representation of the SOAP Envelope into a Axiom representation.
+     * <p>The Axiom tree is built by reading the DOM tree directly using a {@link XMLStreamReader}. Only when the StAX
+     * implementation in use can not read a DOM tree the document is serialized and parsed again.
      *
      * @param document The standard DOM representation of the SOAP Envelope
      * @return An {@link SOAPEnvelope} object containing the Axiom representation of the SOAP envelope, or <br>
@@ -109,11 +142,15 @@ public final class Axis2Utils {
      */
     public static SOAPEnvelope convertToAxiom(final Document document) {
         try {
-            final ByteArrayOutputStream os = new ByteArrayOutputStream();
-            XMLUtils.outputDOM(document.getDocumentElement(), os, true);
-            final ByteArrayInputStream bais = new ByteArrayInputStream(os.toByteArray());
-
-            final SOAPModelBuilder stAXSOAPModelBuilder = OMXMLBuilderFactory.createSOAPModelBuilder(bais, null);
+            XMLStreamReader domReader;
+            try {
+                domReader = StAXUtils.getXMLInputFactory().createXMLStreamReader(new DOMSource(document));
+            } catch (final UnsupportedOperationException | XMLStreamException noDOMSupport) {
+                final ByteArrayOutputStream os = new ByteArrayOutputStream();
+                XMLUtils.outputDOM(document.getDocumentElement(), os, true);
+                domReader = StAXUtils.createXMLStreamReader(new ByteArrayInputStream(os.toByteArray()));
+            }
+            final SOAPModelBuilder stAXSOAPModelBuilder = OMXMLBuilderFactory.createStAXSOAPModelBuilder(domReader);
             final SOAPEnvelope env = stAXSOAPModelBuilder.getSOAPEnvelope();
             env.build();
             return env;
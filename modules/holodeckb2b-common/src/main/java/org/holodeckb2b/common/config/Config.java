@@ -148,6 +148,83 @@ public class Config implements InternalConfiguration {
      */
     private String persistencyProviderClass = null;
 
+    /*
+     * The settings of the pool of HTTP connections used for sending messages
+     * @since  3.1.0
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 10;
+    public static final int DEFAULT_MAX_CONNECTIONS = 100;
+    public static final long DEFAULT_IDLE_CONNECTION_TIMEOUT = 60000;
+
+    private int  maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    private int  maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private long idleConnectionTimeout = DEFAULT_IDLE_CONNECTION_TIMEOUT;
+
+    /*
+     * The number of message units that can be sent in parallel
+     * @since  3.1.0
+     */
+    public static final int DEFAULT_MAX_PARALLEL_SENDS = 10;
+    public static final int DEFAULT_MAX_PARALLEL_SENDS_PER_DESTINATION = 2;
+
+    private int maxParallelSends = DEFAULT_MAX_PARALLEL_SENDS;
+    private int maxParallelSendsPerDestination = DEFAULT_MAX_PARALLEL_SENDS_PER_DESTINATION;
+
+    /*
+     * The settings for asynchronous delivery of received user messages
+     * @since  3.1.0
+     */
+    public static final int DEFAULT_DELIVERY_THREADS = 4;
+    public static final int DEFAULT_MAX_DELIVERY_ATTEMPTS = 5;
+    public static final long DEFAULT_DELIVERY_RETRY_INTERVAL = 30000;
+
+    private boolean asyncDelivery = false;
+    private int     deliveryThreads = DEFAULT_DELIVERY_THREADS;
+    private int     maxDeliveryAttempts = DEFAULT_MAX_DELIVERY_ATTEMPTS;
+    private long    deliveryRetryInterval = DEFAULT_DELIVERY_RETRY_INTERVAL;
+
+    /*
+     * The number of message ids the in-memory index used for duplicate detection is sized for
+     * @since  3.1.0
+     */
+    public static final int DEFAULT_DUPLICATE_INDEX_CAPACITY = 100000;
+
+    private int duplicateIndexCapacity = DEFAULT_DUPLICATE_INDEX_CAPACITY;
+
+    /*
+     * The number of threads used to compress payloads ahead of their transmission
+     * @since  3.1.0
+     */
+    public static final int DEFAULT_PAYLOAD_COMPRESSION_THREADS = 0;
+
+    private int payloadCompressionThreads = DEFAULT_PAYLOAD_COMPRESSION_THREADS;
+
+    /*
+     * The settings for logging the SOAP envelopes of processed messages
+     * @since  3.1.0
+     */
+    public static final int DEFAULT_SOAP_ENVELOPE_LOG_SAMPLE_RATE = 1;
+    public static final int DEFAULT_SOAP_ENVELOPE_LOG_MAX_SIZE = 0;
+
+    private int     soapEnvelopeLogSampleRate = DEFAULT_SOAP_ENVELOPE_LOG_SAMPLE_RATE;
+    private int     soapEnvelopeLogMaxSize = DEFAULT_SOAP_ENVELOPE_LOG_MAX_SIZE;
+    private boolean soapEnvelopeLogAsync = false;
+
+    /*
+     * The settings for asynchronous processing of message processing events
+     * @since  3.1.0
+     */
+    private int     eventQueueSize = -1;
+    private int     eventProcessingThreads = -1;
+    private String  eventQueueOverflowPolicy = null;
+
+    /*
+     * The settings for collecting metrics
+     * @since  3.1.0
+     */
+    private boolean metricsEnabled = false;
+    private String  metricsRegistryClass = null;
+
     private boolean isTrue (final String s) {
       return "on".equalsIgnoreCase(s) || "true".equalsIgnoreCase(s) || "1".equalsIgnoreCase(s);
     }
@@ -263,6 +340,71 @@ public class Config implements InternalConfiguration {
 
         // The class name of the persistency provider
         persistencyProviderClass = configFile.getParameter("PersistencyProvider");
+
+        // The settings for the HTTP connection pool
+        maxConnectionsPerHost = (int) getNumber(configFile, "HTTPMaxConnectionsPerHost",
+                                                DEFAULT_MAX_CONNECTIONS_PER_HOST);
+        maxConnections = (int) getNumber(configFile, "HTTPMaxConnections", DEFAULT_MAX_CONNECTIONS);
+        idleConnectionTimeout = getNumber(configFile, "HTTPIdleConnectionTimeout", DEFAULT_IDLE_CONNECTION_TIMEOUT);
+
+        // The number of message units that can be sent in parallel
+        maxParallelSends = (int) getNumber(configFile, "MaxParallelSends", DEFAULT_MAX_PARALLEL_SENDS);
+        maxParallelSendsPerDestination = (int) getNumber(configFile, "MaxParallelSendsPerDestination",
+                                                         DEFAULT_MAX_PARALLEL_SENDS_PER_DESTINATION);
+
+        // The settings for asynchronous delivery of received user messages
+        asyncDelivery = isTrue(configFile.getParameter("AsyncDelivery"));
+        deliveryThreads = (int) getNumber(configFile, "DeliveryThreads", DEFAULT_DELIVERY_THREADS);
+        maxDeliveryAttempts = (int) getNumber(configFile, "DeliveryMaxAttempts", DEFAULT_MAX_DELIVERY_ATTEMPTS);
+        deliveryRetryInterval = getNumber(configFile, "DeliveryRetryInterval", DEFAULT_DELIVERY_RETRY_INTERVAL);
+
+        // The size of the in-memory index used for duplicate detection
+        duplicateIndexCapacity = (int) getNumber(configFile, "DuplicateIndexCapacity",
+                                                 DEFAULT_DUPLICATE_INDEX_CAPACITY);
+
+        // The number of threads used to compress payloads ahead of their transmission
+        payloadCompressionThreads = (int) getNumber(configFile, "PayloadCompressionThreads",
+                                                    DEFAULT_PAYLOAD_COMPRESSION_THREADS);
+
+        // The settings for logging the SOAP envelopes of processed messages
+        soapEnvelopeLogSampleRate = (int) getNumber(configFile, "SOAPEnvelopeLogSampleRate",
+                                                    DEFAULT_SOAP_ENVELOPE_LOG_SAMPLE_RATE);
+        soapEnvelopeLogMaxSize = (int) getNumber(configFile, "SOAPEnvelopeLogMaxSize",
+                                                 DEFAULT_SOAP_ENVELOPE_LOG_MAX_SIZE);
+        soapEnvelopeLogAsync = isTrue(configFile.getParameter("SOAPEnvelopeLogAsync"));
+
+        // The settings for asynchronous processing of message processing events
+        eventQueueSize = (int) getNumber(configFile, "EventQueueSize", -1);
+        eventProcessingThreads = (int) getNumber(configFile, "EventProcessingThreads", -1);
+        eventQueueOverflowPolicy = configFile.getParameter("EventQueueOverflowPolicy");
+
+        // The settings for collecting metrics
+        metricsEnabled = isTrue(configFile.getParameter("MetricsEnabled"));
+        metricsRegistryClass = configFile.getParameter("MetricsRegistry");
+    }
+
+    /**
+     * Helper method to get the value of a numeric parameter. When the parameter is not specified or does not contain a
+     * positive number the given default value is used.
+     *
+     * @param configFile    The configuration file
+     * @param name          The name of the parameter
+     * @param defaultValue  The default value for the parameter
+     * @return              The value of the parameter
+     */
+    private long getNumber(final ConfigXmlFile configFile, final String name, final long defaultValue) {
+        final String value = configFile.getParameter(name);
+        if (Utils.isNullOrEmpty(value))
+            return defaultValue;
+        try {
+            final long number = Long.parseLong(value.trim());
+            if (number > 0)
+                return number;
+        } catch (final NumberFormatException invalid) {}
+
+        Logger.getLogger(Config.class.getName()).log(Level.WARNING, "Invalid value specified for parameter " + name
+                                                                    + ", using default value " + defaultValue);
+        return defaultValue;
     }
 
     /**
@@ -550,4 +692,236 @@ public class Config implements InternalConfiguration {
     public String getPersistencyProviderClass() {
         return persistencyProviderClass;
     }
+
+    /**
+     * Gets the maximum number of connections Holodeck B2B may open to one host when sending messages. The default
+     * value is 10 and can be changed using the <i>HTTPMaxConnectionsPerHost</i> parameter.
+     *
+     * @return  The maximum number of connections to one host
+     * @since  3.1.0
+     */
+    @Override
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * Gets the maximum number of connections Holodeck B2B may have open at the same time when sending messages. The
+     * default value is 100 and can be changed using the <i>HTTPMaxConnections</i> parameter.
+     *
+     * @return  The maximum number of connections to all hosts
+     * @since  3.1.0
+     */
+    @Override
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Gets the time after which a connection that is not used is closed. The default is one minute and can be changed
+     * using the <i>HTTPIdleConnectionTimeout</i> parameter which takes the number of milliseconds.
+     *
+     * @return  The idle time, in milliseconds, after which a connection is closed
+     * @since  3.1.0
+     */
+    @Override
+    public long getIdleConnectionTimeout() {
+        return idleConnectionTimeout;
+    }
+
+    /**
+     * Gets the maximum number of message units that Holodeck B2B sends at the same time. The default value is 10 and
+     * can be changed using the <i>MaxParallelSends</i> parameter.
+     *
+     * @return  The maximum number of message units that are sent in parallel
+     * @since  3.1.0
+     */
+    @Override
+    public int getMaxParallelSends() {
+        return maxParallelSends;
+    }
+
+    /**
+     * Gets the maximum number of message units that Holodeck B2B sends at the same time to one destination. The default
+     * value is 2 and can be changed using the <i>MaxParallelSendsPerDestination</i> parameter.
+     *
+     * @return  The maximum number of message units that are sent in parallel to one destination
+     * @since  3.1.0
+     */
+    @Override
+    public int getMaxParallelSendsPerDestination() {
+        return maxParallelSendsPerDestination;
+    }
+
+    /**
+     * Indicates whether received user messages are delivered asynchronously, i.e. after the response to the sender has
+     * been sent. The default is to deliver the user message before responding, asynchronous delivery is enabled by
+     * setting the <i>AsyncDelivery</i> parameter to <i>true</i>.
+     *
+     * @return  <code>true</code> if user messages are delivered asynchronously,<br><code>false</code> otherwise
+     * @since  3.1.0
+     */
+    @Override
+    public boolean useAsyncDelivery() {
+        return asyncDelivery;
+    }
+
+    /**
+     * Gets the number of threads used for the asynchronous delivery of user messages. The default value is 4 and can
+     * be changed using the <i>DeliveryThreads</i> parameter.
+     *
+     * @return  The number of delivery threads
+     * @since  3.1.0
+     */
+    @Override
+    public int getDeliveryThreads() {
+        return deliveryThreads;
+    }
+
+    /**
+     * Gets the maximum number of attempts to deliver a user message when it is delivered asynchronously. The default
+     * value is 5 and can be changed using the <i>DeliveryMaxAttempts</i> parameter.
+     *
+     * @return  The maximum number of delivery attempts
+     * @since  3.1.0
+     */
+    @Override
+    public int getMaxDeliveryAttempts() {
+        return maxDeliveryAttempts;
+    }
+
+    /**
+     * Gets the time to wait before the first retry of a failed asynchronous delivery. The default is 30 seconds and
+     * can be changed using the <i>DeliveryRetryInterval</i> parameter which takes the number of milliseconds.
+     *
+     * @return  The interval, in milliseconds, before the first retry
+     * @since  3.1.0
+     */
+    @Override
+    public long getDeliveryRetryInterval() {
+        return deliveryRetryInterval;
+    }
+
+    /**
+     * Gets the number of message ids the in-memory index used for the detection of duplicate user messages is sized
+     * for. The default value is 100000 and can be changed using the <i>DuplicateIndexCapacity</i> parameter. When set
+     * to 0 the index is not used and all checks are done in the database.
+     *
+     * @return  The capacity of the duplicate index, 0 if the index is disabled
+     * @since  3.1.0
+     */
+    @Override
+    public int getDuplicateIndexCapacity() {
+        return duplicateIndexCapacity;
+    }
+
+    /**
+     * Gets the number of threads used to compress the payloads of outgoing user messages ahead of their transmission.
+     * By default payloads are compressed while the message is sent, compression ahead of transmission is enabled by
+     * setting the <i>PayloadCompressionThreads</i> parameter to a positive number.
+     *
+     * @return  The number of compression threads, 0 if payloads are compressed while the message is sent
+     * @since  3.1.0
+     */
+    @Override
+    public int getPayloadCompressionThreads() {
+        return payloadCompressionThreads;
+    }
+
+    /**
+     * Gets the rate at which SOAP envelopes are logged, i.e. one in every <i>n</i> messages is logged. By default all
+     * envelopes are logged, this can be changed using the <i>SOAPEnvelopeLogSampleRate</i> parameter.
+     *
+     * @return  The sample rate of the envelope log
+     * @since  3.1.0
+     */
+    @Override
+    public int getSOAPEnvelopeLogSampleRate() {
+        return soapEnvelopeLogSampleRate;
+    }
+
+    /**
+     * Gets the maximum number of characters of a SOAP envelope that is logged. By default envelopes are logged
+     * completely, this can be changed using the <i>SOAPEnvelopeLogMaxSize</i> parameter.
+     *
+     * @return  The maximum size of a logged envelope, 0 if envelopes are logged completely
+     * @since  3.1.0
+     */
+    @Override
+    public int getSOAPEnvelopeLogMaxSize() {
+        return soapEnvelopeLogMaxSize;
+    }
+
+    /**
+     * Indicates whether SOAP envelopes are written to the log asynchronously. By default the envelopes are logged by
+     * the thread processing the message, this can be changed using the <i>SOAPEnvelopeLogAsync</i> parameter.
+     *
+     * @return  <code>true</code> when envelopes are logged asynchronously,<br><code>false</code> otherwise
+     * @since  3.1.0
+     */
+    @Override
+    public boolean isSOAPEnvelopeLogAsync() {
+        return soapEnvelopeLogAsync;
+    }
+
+    /**
+     * Gets the maximum number of message processing events that can wait to be processed when events are processed
+     * asynchronously. This is an optional parameter set using <i>EventQueueSize</i>.
+     *
+     * @return  The size of the event queue, or -1 if not configured
+     * @since  3.1.0
+     */
+    @Override
+    public int getEventQueueSize() {
+        return eventQueueSize;
+    }
+
+    /**
+     * Gets the number of threads that process message processing events when events are processed asynchronously. This
+     * is an optional parameter set using <i>EventProcessingThreads</i>.
+     *
+     * @return  The number of event processing threads, or -1 if not configured
+     * @since  3.1.0
+     */
+    @Override
+    public int getEventProcessingThreads() {
+        return eventProcessingThreads;
+    }
+
+    /**
+     * Gets the policy that should be applied when the queue of message processing events is full. This is an optional
+     * parameter set using <i>EventQueueOverflowPolicy</i>.
+     *
+     * @return  The name of the overflow policy, or <code>null</code> if not configured
+     * @since  3.1.0
+     */
+    @Override
+    public String getEventQueueOverflowPolicy() {
+        return eventQueueOverflowPolicy;
+    }
+
+    /**
+     * Indicates whether metrics on the processing of messages should be collected. By default no metrics are collected,
+     * this can be changed using the <i>MetricsEnabled</i> parameter.
+     *
+     * @return  <code>true</code> when metrics should be collected,<br><code>false</code> otherwise
+     * @since  3.1.0
+     */
+    @Override
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * Gets the class name of the {@link org.holodeckb2b.interfaces.metrics.IMetricsRegistry} implementation that
+     * should be used to collect the metrics. This is an optional parameter set using <i>MetricsRegistry</i>, when not
+     * set the default implementation that makes the metrics available through JMX is used.
+     *
+     * @return  The class name of the registry implementation, or <code>null</code> if not configured
+     * @since  3.1.0
+     */
+    @Override
+    public String getMetricsRegistryClass() {
+        return metricsRegistryClass;
+    }
 }
@@ -81,4 +81,169 @@ public interface InternalConfiguration extends IConfiguration {
      * @since  3.0.0
      */
     public String getPersistencyProviderClass();
+
+    /**
+     * Gets the maximum number of connections Holodeck B2B may open to one host when sending messages. The connections
+     * are kept in a pool shared by all workers that send messages.
+     *
+     * @return  The maximum number of connections to one host
+     * @since  3.1.0
+     */
+    public int getMaxConnectionsPerHost();
+
+    /**
+     * Gets the maximum number of connections Holodeck B2B may have open at the same time when sending messages.
+     *
+     * @return  The maximum number of connections to all hosts
+     * @since  3.1.0
+     */
+    public int getMaxConnections();
+
+    /**
+     * Gets the time after which a connection that is not used is closed and removed from the connection pool.
+     *
+     * @return  The idle time, in milliseconds, after which a connection is closed
+     * @since  3.1.0
+     */
+    public long getIdleConnectionTimeout();
+
+    /**
+     * Gets the maximum number of message units that Holodeck B2B sends at the same time.
+     *
+     * @return  The maximum number of message units that are sent in parallel
+     * @since  3.1.0
+     */
+    public int getMaxParallelSends();
+
+    /**
+     * Gets the maximum number of message units that Holodeck B2B sends at the same time to one destination. This limit
+     * prevents that a slow destination uses all available capacity for sending.
+     *
+     * @return  The maximum number of message units that are sent in parallel to one destination
+     * @since  3.1.0
+     */
+    public int getMaxParallelSendsPerDestination();
+
+    /**
+     * Indicates whether received user messages are delivered asynchronously. When enabled the response to the sender
+     * is sent as soon as the user message is accepted and the delivery to the back-end is done afterwards by the
+     * delivery dispatcher, which retries failed deliveries.
+     *
+     * @return  <code>true</code> if user messages are delivered asynchronously,<br><code>false</code> otherwise
+     * @since  3.1.0
+     */
+    public boolean useAsyncDelivery();
+
+    /**
+     * Gets the number of threads used for the asynchronous delivery of user messages.
+     *
+     * @return  The number of delivery threads
+     * @since  3.1.0
+     */
+    public int getDeliveryThreads();
+
+    /**
+     * Gets the maximum number of attempts to deliver a user message asynchronously. When the last attempt fails the
+     * user message is set to failed.
+     *
+     * @return  The maximum number of delivery attempts
+     * @since  3.1.0
+     */
+    public int getMaxDeliveryAttempts();
+
+    /**
+     * Gets the time to wait before the first retry of a failed asynchronous delivery. The interval doubles with each
+     * following attempt.
+     *
+     * @return  The interval, in milliseconds, before the first retry
+     * @since  3.1.0
+     */
+    public long getDeliveryRetryInterval();
+
+    /**
+     * Gets the number of message ids the in-memory index used for the detection of duplicate user messages is sized
+     * for. The index prevents that the database must be queried for every received user message.
+     *
+     * @return  The capacity of the duplicate index, 0 if the index should not be used
+     * @since  3.1.0
+     */
+    public int getDuplicateIndexCapacity();
+
+    /**
+     * Gets the number of threads used to compress the payloads of outgoing user messages ahead of their transmission.
+     * The compressed payloads are cached so retransmissions do not need to compress them again.
+     *
+     * @return  The number of compression threads, 0 if payloads should be compressed while the message is sent
+     * @since  3.1.0
+     */
+    public int getPayloadCompressionThreads();
+
+    /**
+     * Gets the rate at which the SOAP envelopes of processed messages are logged, i.e. one in every <i>n</i> messages
+     * is logged.
+     *
+     * @return  The sample rate of the envelope log, 1 if all envelopes should be logged
+     * @since  3.1.0
+     */
+    public int getSOAPEnvelopeLogSampleRate();
+
+    /**
+     * Gets the maximum number of characters of a SOAP envelope that is written to the envelope log.
+     *
+     * @return  The maximum size of a logged envelope, 0 if envelopes should be logged completely
+     * @since  3.1.0
+     */
+    public int getSOAPEnvelopeLogMaxSize();
+
+    /**
+     * Indicates whether SOAP envelopes should be written to the envelope log asynchronously, so writing the log does
+     * not delay the processing of the message.
+     *
+     * @return  <code>true</code> when envelopes should be logged asynchronously,<br><code>false</code> otherwise
+     * @since  3.1.0
+     */
+    public boolean isSOAPEnvelopeLogAsync();
+
+    /**
+     * Gets the maximum number of message processing events that can wait to be processed when an asynchronous event
+     * processor is used.
+     *
+     * @return  The size of the event queue, or -1 when the processor's default should be used
+     * @since  3.1.0
+     */
+    public int getEventQueueSize();
+
+    /**
+     * Gets the number of threads that process message processing events when an asynchronous event processor is used.
+     *
+     * @return  The number of event processing threads, or -1 when the processor's default should be used
+     * @since  3.1.0
+     */
+    public int getEventProcessingThreads();
+
+    /**
+     * Gets the name of the policy to apply when the queue of an asynchronous event processor is full.
+     *
+     * @return  The name of the overflow policy, or <code>null</code> when the processor's default should be used
+     * @since  3.1.0
+     */
+    public String getEventQueueOverflowPolicy();
+
+    /**
+     * Indicates whether metrics on the processing of messages should be collected.
+     *
+     * @return  <code>true</code> when metrics should be collected,<br><code>false</code> otherwise
+     * @since  3.1.0
+     */
+    public boolean isMetricsEnabled();
+
+    /**
+     * Gets the class name of the {@link org.holodeckb2b.interfaces.metrics.IMetricsRegistry} implementation that
+     * should be used to collect the metrics.
+     *
+     * @return  The class name of the registry implementation, or <code>null</code> when the default implementation
+     *          should be used
+     * @since  3.1.0
+     */
+    public String getMetricsRegistryClass();
 }
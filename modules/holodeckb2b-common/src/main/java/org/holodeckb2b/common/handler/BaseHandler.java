@@ -16,15 +16,21 @@
  */
 package org.holodeckb2b.common.handler;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.context.MessageContext;
 import org.apache.axis2.handlers.AbstractHandler;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.metrics.IMetricsRegistry;
 
 /**
  * Is an <i>abstract</i> implementation of an Axis2 handler that acts as the base class for the Holodeck B2B handlers.
  * It ensures that the handler runs only in the correct flows and prepares the logging.
+ * <p>As Axis2 uses one handler instance for processing all messages the handler does not keep the flow of the message
+ * in its own fields. The flow is determined for each message and made available to the implementation for the
+ * duration of the invocation. The logs of the handler are resolved once for each flow the handler runs in.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  */
@@ -66,18 +72,37 @@ public abstract class BaseHandler extends AbstractHandler {
 
     /**
      * The log facility. The name of the log will include both identification of the handler as well as the flow it is
-     * running in.
+     * running in. As the handler is shared by all threads processing messages this log delegates to the log for the
+     * flow of the message that is being processed by the current thread.
      */
-    protected Log log = null;
+    protected final Log log = new FlowLog();
 
     /**
-     * The current flow as a byte
+     * The flow of the message that is currently processed by the thread. Because a message is processed by one thread
+     * at a time this is the flow context of the message and is set for the duration of the handler's invocation.
+     * @since 3.1.0
      */
-    private byte currentFlow = 0;
+    private static final ThreadLocal<Byte> CURRENT_FLOW = new ThreadLocal<>();
+
+    /**
+     * The logs of this handler per flow, indexed by the flow byte. The logs are resolved once when the handler first
+     * runs in a flow.
+     * @since 3.1.0
+     */
+    private final AtomicReferenceArray<Log> flowLogs = new AtomicReferenceArray<>(64);
+
     /**
-     * The name of the current flow
+     * The log used when the handler's log is used outside the processing of a message, for example by a delivery that
+     * is executed asynchronously
+     * @since 3.1.0
      */
-    private String currentFlowName = null;
+    private final Log defaultLog = LogFactory.getLog("org.holodeckb2b.msgproc." + this.getClass().getSimpleName());
+
+    /**
+     * The name of the timer that records the processing time of the handler
+     * @since 3.1.0
+     */
+    private final String timerName = "handler." + this.getClass().getSimpleName();
 
     /**
      * Checks that the handler runs in the given flow.
@@ -91,6 +116,8 @@ public abstract class BaseHandler extends AbstractHandler {
      * @return  <code>true</code> when handler runs in the given flow,<br><code>false</code> when not.
      */
     protected boolean isInFlow(final byte flow) {
+        final Byte current = CURRENT_FLOW.get();
+        final byte currentFlow = current != null ? current : 0;
         // Check has two parts, first checking flow, second checking initiator or responder
         return  ((currentFlow>>>2 & flow>>>2) >= flow>>>2)
              && (((currentFlow&0x03) & (flow&0x03)) >= (flow&0x03));
@@ -98,7 +125,8 @@ public abstract class BaseHandler extends AbstractHandler {
 
     /**
      * Prepares the handler for processing of the message. Checks if the handler is run in the correct flow and
-     * creates a correctly named {@link Log}.
+     * creates a correctly named {@link Log}. When metrics are collected the time needed for processing is recorded as
+     * <i>"handler.</i>&lt;<i>class name</i>&gt;<i>"</i>.
      * <p>NOTE: To prevent sub classes from overriding this method it is declared final.
      *
      * @param mc            The Axis2 {@link MessageContext}. Will be passed onto the implementation for the actual
@@ -111,49 +139,38 @@ public abstract class BaseHandler extends AbstractHandler {
      */
     public final InvocationResponse invoke(final MessageContext mc) throws AxisFault {
         // Determine which flow the handler currently runs is
-        if (mc.isServerSide()) {
-            // Running serverside means Holodeck B2B acts as responder
-            currentFlow = RESPONDER;
-            currentFlowName = "RESPONDER_";
-        } else {
-            currentFlow = INITIATOR;
-            currentFlowName = "INITIATOR_";
-        }
-        switch (mc.getFLOW()) {
-            case MessageContext.IN_FLOW :
-                currentFlowName += "IN_FLOW"; currentFlow |= IN_FLOW;
-                break;
-            case MessageContext.IN_FAULT_FLOW :
-                currentFlowName += "IN_FAULT_FLOW"; currentFlow |= IN_FAULT_FLOW;
-                break;
-            case MessageContext.OUT_FLOW :
-                currentFlowName += "OUT_FLOW"; currentFlow |= OUT_FLOW;
-                break;
-            case MessageContext.OUT_FAULT_FLOW :
-                currentFlowName += "OUT_FAULT_FLOW"; currentFlow |= OUT_FAULT_FLOW;
-                break;
-        }
+        final byte currentFlow = getFlow(mc);
 
         // Check if running in correct flow (check has two parts, first check the for IN or OUT flow,
         //   then check whether message is initiated by Holodeck B2B or response)
-        if (!runningInCorrectFlow()) {
+        if (!runningInCorrectFlow(currentFlow)) {
             // This is handler is not supposed to run in the current flow
             return InvocationResponse.CONTINUE;
         }
 
-        // Running in correct flow, create a logger
-        log = LogFactory.getLog("org.holodeckb2b.msgproc." + currentFlowName + "." + this.getClass().getSimpleName());
+        // Running in correct flow, set the flow context of the message so the correct log is used
+        final Byte previousFlow = CURRENT_FLOW.get();
+        CURRENT_FLOW.set(currentFlow);
+        final Log flowLog = getLog(currentFlow);
 
+        // When metrics are collected, record the time the handler needs for processing
+        final IMetricsRegistry metrics = HolodeckB2BCoreInterface.isInitialized() ?
+                                                                HolodeckB2BCoreInterface.getMetricsRegistry() : null;
+        final long start = metrics != null && metrics.isEnabled() ? System.nanoTime() : 0;
         // Do actual processing in implementation
         try {
-            log.trace("Start processing");
+            flowLog.trace("Start processing");
             final InvocationResponse result = doProcessing(mc);
-            log.trace("End processing");
+            flowLog.trace("End processing");
             return result;
         } catch (final Throwable t) {
             // Unhandled exception during processing, should not happen!
-            log.fatal("An unhandled exception occurred while processing the message! Details: " + t.getMessage());
+            flowLog.fatal("An unhandled exception occurred while processing the message! Details: " + t.getMessage());
             throw new AxisFault("Internal error", t);
+        } finally {
+            if (start != 0)
+                metrics.recordTime(timerName, System.nanoTime() - start);
+            restoreFlow(previousFlow);
         }
     }
 
@@ -165,18 +182,94 @@ public abstract class BaseHandler extends AbstractHandler {
      */
     @Override
     public final void flowComplete(final MessageContext mc) {
-        if (runningInCorrectFlow())
-            doFlowComplete(mc);
+        final byte currentFlow = getFlow(mc);
+        if (runningInCorrectFlow(currentFlow)) {
+            final Byte previousFlow = CURRENT_FLOW.get();
+            CURRENT_FLOW.set(currentFlow);
+            try {
+                doFlowComplete(mc);
+            } finally {
+                restoreFlow(previousFlow);
+            }
+        }
+    }
+
+    /**
+     * Determines the flow the given message is processed in.
+     *
+     * @param mc    The message context of the processed message
+     * @return      The current flow expressed using the constants defined in this class
+     * @since 3.1.0
+     */
+    private static byte getFlow(final MessageContext mc) {
+        // Running serverside means Holodeck B2B acts as responder
+        byte flow = mc.isServerSide() ? RESPONDER : INITIATOR;
+        switch (mc.getFLOW()) {
+            case MessageContext.IN_FLOW :
+                flow |= IN_FLOW;
+                break;
+            case MessageContext.IN_FAULT_FLOW :
+                flow |= IN_FAULT_FLOW;
+                break;
+            case MessageContext.OUT_FLOW :
+                flow |= OUT_FLOW;
+                break;
+            case MessageContext.OUT_FAULT_FLOW :
+                flow |= OUT_FAULT_FLOW;
+                break;
+        }
+        return flow;
+    }
+
+    /**
+     * Restores the flow context that applied before the handler was invoked.
+     *
+     * @param previousFlow  The flow that was set before the handler was invoked, <code>null</code> if none
+     * @since 3.1.0
+     */
+    private static void restoreFlow(final Byte previousFlow) {
+        if (previousFlow != null)
+            CURRENT_FLOW.set(previousFlow);
+        else
+            CURRENT_FLOW.remove();
+    }
+
+    /**
+     * Gets the log of this handler for the given flow. The log is created when the handler is first used in the flow.
+     *
+     * @param flow  The flow expressed using the constants defined in this class
+     * @return      The log for the handler in the given flow
+     * @since 3.1.0
+     */
+    private Log getLog(final byte flow) {
+        Log flowLog = flowLogs.get(flow);
+        if (flowLog == null) {
+            final StringBuilder name = new StringBuilder("org.holodeckb2b.msgproc.");
+            name.append((flow & RESPONDER) != 0 ? "RESPONDER_" : "INITIATOR_");
+            if ((flow & IN_FLOW) != 0)
+                name.append("IN_FLOW");
+            else if ((flow & IN_FAULT_FLOW) != 0)
+                name.append("IN_FAULT_FLOW");
+            else if ((flow & OUT_FLOW) != 0)
+                name.append("OUT_FLOW");
+            else if ((flow & OUT_FAULT_FLOW) != 0)
+                name.append("OUT_FAULT_FLOW");
+            name.append('.').append(this.getClass().getSimpleName());
+            flowLog = LogFactory.getLog(name.toString());
+            flowLogs.set(flow, flowLog);
+        }
+        return flowLog;
     }
 
     /**
      * Checks if the handler is running in the correct flow. The check has two parts, first check the for IN or OUT
      * flow, then check whether message is initiated by Holodeck B2B or is a response.
      *
+     * @param currentFlow   The flow the message is processed in
      * @return  <code>true</code>   When running in the correct flow, or<br>
      *          <code>false</code>  otherwise
      */
-    private boolean runningInCorrectFlow() {
+    private boolean runningInCorrectFlow(final byte currentFlow) {
         return ((currentFlow>>>2 & inFlows()>>>2) > 0)
                && (((currentFlow&0x03) & (inFlows()&0x03)) >= (inFlows()&0x03));
     }
@@ -225,4 +318,106 @@ public abstract class BaseHandler extends AbstractHandler {
      * @param mc    The current message context
      */
     protected void doFlowComplete(final MessageContext mc) {}
+
+    /**
+     * Is the {@link Log} used by the handler which delegates to the log for the flow of the message that is processed
+     * by the current thread.
+     */
+    private final class FlowLog implements Log {
+
+        private Log current() {
+            final Byte flow = CURRENT_FLOW.get();
+            return flow != null ? getLog(flow) : defaultLog;
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return current().isDebugEnabled();
+        }
+
+        @Override
+        public boolean isErrorEnabled() {
+            return current().isErrorEnabled();
+        }
+
+        @Override
+        public boolean isFatalEnabled() {
+            return current().isFatalEnabled();
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return current().isInfoEnabled();
+        }
+
+        @Override
+        public boolean isTraceEnabled() {
+            return current().isTraceEnabled();
+        }
+
+        @Override
+        public boolean isWarnEnabled() {
+            return current().isWarnEnabled();
+        }
+
+        @Override
+        public void trace(final Object message) {
+            current().trace(message);
+        }
+
+        @Override
+        public void trace(final Object message, final Throwable t) {
+            current().trace(message, t);
+        }
+
+        @Override
+        public void debug(final Object message) {
+            current().debug(message);
+        }
+
+        @Override
+        public void debug(final Object message, final Throwable t) {
+            current().debug(message, t);
+        }
+
+        @Override
+        public void info(final Object message) {
+            current().info(message);
+        }
+
+        @Override
+        public void info(final Object message, final Throwable t) {
+            current().info(message, t);
+        }
+
+        @Override
+        public void warn(final Object message) {
+            current().warn(message);
+        }
+
+        @Override
+        public void warn(final Object message, final Throwable t) {
+            current().warn(message, t);
+        }
+
+        @Override
+        public void error(final Object message) {
+            current().error(message);
+        }
+
+        @Override
+        public void error(final Object message, final Throwable t) {
+            current().error(message, t);
+        }
+
+        @Override
+        public void fatal(final Object message) {
+            current().fatal(message);
+        }
+
+        @Override
+        public void fatal(final Object message, final Throwable t) {
+            current().fatal(message, t);
+        }
+    }
 }
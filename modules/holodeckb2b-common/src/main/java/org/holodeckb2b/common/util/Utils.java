@@ -27,6 +27,7 @@ import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -257,6 +258,36 @@ public final class Utils {
         return targetPath;
     }
 
+    /**
+     * Makes the content of the source file available at the target path without copying the data if possible. When
+     * both paths are on the same file system a hard link to the source file is created which replaces the target file
+     * atomically, so the target may be a file reserved using {@link #createFileWithUniqueName(String)}. When a link can
+     * not be created the content is copied.
+     * <p><b>NOTE: </b>As a hard link shares the content with the source file, changes made to the content of one of
+     * the files are visible in the other one. Removing one of the files however does not affect the other one. So this
+     * method should only be used when the content of the source file is not changed anymore.
+     *
+     * @param source        Path to the source file
+     * @param target        Path where the content should be available, an existing file is replaced
+     * @return              <code>true</code> if the content was linked,<br><code>false</code> if it was copied
+     * @throws IOException  When the content could neither be linked nor copied
+     * @since 3.1.0
+     */
+    public static boolean linkOrCopyFile(final Path source, final Path target) throws IOException {
+        // The link is created with a temporary name so an existing target file is replaced in one step
+        final Path link = target.resolveSibling(target.getFileName() + ".lnk");
+        try {
+            Files.createLink(link, source);
+            Files.move(link, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (final IOException | UnsupportedOperationException | SecurityException linkFailure) {
+            // The file system does not support hard links or the files are on different file systems
+            Files.deleteIfExists(link);
+        }
+        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        return false;
+    }
+
     /**
      * Sorts an array of files so that the filenames are in alphabetical order. The sort operational is done in the
      * array itself so there is no return value.
@@ -18,6 +18,8 @@ package org.holodeckb2b.common.workerpool;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.metrics.IMetricsRegistry;
 import org.holodeckb2b.interfaces.workerpool.IWorkerTask;
 
 /**
@@ -39,6 +41,12 @@ public abstract class AbstractWorkerTask implements IWorkerTask {
      */
     protected   Log     log;
 
+    /**
+     * Indicates whether the task has been requested to stop
+     * @since 3.1.0
+     */
+    private volatile boolean stopRequested = false;
+
     /**
      * Default constructor. Initializes the log.
      */
@@ -73,9 +81,14 @@ public abstract class AbstractWorkerTask implements IWorkerTask {
     /**
      * Executes the functionality of the task by calling {@link #doProcessing()} and by catching all exceptions prevents
      * the task from halting further executing.
+     * <p>When metrics are collected the time needed for each execution is recorded as <i>"worker.</i>&lt;<i>task
+     * name</i>&gt;<i>"</i>.
      */
     @Override
     public void run() {
+        final IMetricsRegistry metrics = HolodeckB2BCoreInterface.isInitialized() ?
+                                                                HolodeckB2BCoreInterface.getMetricsRegistry() : null;
+        final long start = metrics != null && metrics.isEnabled() ? System.nanoTime() : 0;
         try {
             doProcessing();
         } catch (final InterruptedException interrupted) {
@@ -83,9 +96,33 @@ public abstract class AbstractWorkerTask implements IWorkerTask {
             Thread.currentThread().interrupt();
         } catch (final Throwable t) {
             log.error("Exception occurred during execution! Details: " + t.getMessage());
+        } finally {
+            if (start != 0)
+                metrics.recordTime("worker." + getName(), System.nanoTime() - start);
         }
     }
 
+    /**
+     * Requests the task to stop. Called by the {@link WorkerPool} when it stops or when the worker is removed from the
+     * pool, before the thread executing the task is interrupted. Tasks that run for a long time, for example because
+     * they wait for events, should check {@link #isStopRequested()} regularly and return when it is set.
+     *
+     * @since 3.1.0
+     */
+    public void requestStop() {
+        stopRequested = true;
+    }
+
+    /**
+     * Indicates whether the task has been requested to stop.
+     *
+     * @return <code>true</code> if the task should stop, <code>false</code> otherwise
+     * @since 3.1.0
+     */
+    protected boolean isStopRequested() {
+        return stopRequested;
+    }
+
     /**
      * Implements the functionality of the task.
      *
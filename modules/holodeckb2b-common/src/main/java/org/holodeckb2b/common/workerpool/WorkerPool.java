@@ -148,6 +148,9 @@ public class WorkerPool {
             return;
 
         pool.shutdown();
+        // Let the workers that are waiting for events know they should stop
+        for (final RunningWorkerInstance w : workers)
+            requestStop(w);
         try {
             // Wait the given delay for workers to terminate
             if (!pool.awaitTermination(delay, TimeUnit.SECONDS)) {
@@ -326,6 +329,7 @@ public class WorkerPool {
         log.debug("Stopping all running instances of the worker " + workerName);
         for (final RunningWorkerInstance w : workers) {
             if (w.workerName.equals(workerName)) {
+                requestStop(w);
                 w.runningWorker.cancel(true);
                 stoppedWorkers.add(w);
             }
@@ -335,6 +339,18 @@ public class WorkerPool {
         log.debug("All instances of worker " + workerName + " removed from the pool");
     }
 
+    /**
+     * Helper method to request a running worker instance to stop. Only tasks based on {@link AbstractWorkerTask} can
+     * be requested to stop, other tasks are only interrupted.
+     *
+     * @param w     The running worker instance
+     * @since 3.1.0
+     */
+    private void requestStop(final RunningWorkerInstance w) {
+        if (w.task instanceof AbstractWorkerTask)
+            ((AbstractWorkerTask) w.task).requestStop();
+    }
+
     /**
      * Helper method to check whether the <i>running</i> configuration of a worker has changed, i.e. whether the new
      * configuration requires rescheduling of the worker.
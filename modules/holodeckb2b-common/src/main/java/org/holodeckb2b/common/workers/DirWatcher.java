@@ -18,7 +18,19 @@ package org.holodeckb2b.common.workers;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.interfaces.workerpool.TaskConfigurationException;
@@ -28,10 +40,18 @@ import org.holodeckb2b.interfaces.workerpool.TaskConfigurationException;
  * <p>This worker watches a specified directory for changes in its file listing. Whenever
  * a change is detected {@link #onChange(java.io.File, org.holodeckb2b.common.workers.PathWatcher.Event)}
  * is called. Descendants must implement this method to do the actual processing.
- * <p>This worker has two parameters:
+ * <p>This worker has three parameters:
  * <ul><li><i>watchedPath</i>: The path to the directory to watch for changes</li>
  * <li><i>extension</i>: (optional) Only look for changes in files with the specified extension</li>
+ * <li><i>rescanInterval</i>: (optional) When specified the directory is watched for changes using the file system's
+ * {@link WatchService} and changed files are checked as soon as they have settled, i.e. when no new events have been
+ * received for them during {@link #SETTLE_TIME} milliseconds. As a safety net, for example in case the file system
+ * does not report all events, the complete directory is scanned every <i>rescanInterval</i> seconds.<br>
+ * As the worker keeps running while it watches the directory the interval of the worker in the worker pool is the
+ * time between the end of one watch period and the start of the next and can be short.</li>
  * </ul>
+ * <p>When the parameter is not specified or the directory can not be watched the directory is scanned every time the
+ * worker runs.
  *
  * @see PathWatcher
  * @author Sander Fieten <sander@holodeck-b2b.org>
@@ -43,6 +63,25 @@ public abstract class DirWatcher extends PathWatcher {
      */
     private String  extensionFilter;
 
+    /**
+     * The time in milliseconds between full scans of the directory when it is watched for changes, 0 if the directory
+     * is only scanned
+     * @since 3.1.0
+     */
+    private long    rescanInterval = 0;
+
+    /**
+     * The time in milliseconds that no new events should have been received for a file before it is checked
+     * @since 3.1.0
+     */
+    protected static final long SETTLE_TIME = 200;
+
+    /**
+     * The maximum time in milliseconds to wait for an event before checking whether the worker should stop
+     * @since 3.1.0
+     */
+    private static final long MAX_POLL_TIME = 1000;
+
     /**
      * Sets the extension that should be used to filter the directory listing. This
      * method is defined to allow subclasses to use a specific extension without
@@ -56,12 +95,14 @@ public abstract class DirWatcher extends PathWatcher {
 
     /**
      * Sets the parameters.
-     * <p>Two parameters can be set:
+     * <p>Three parameters can be set:
      * <ul><li><b>watchPath</b>: The path tp the directory to watch for changes</li>
      * <li><b>extension<b>: (optional) Only look for changes in files with the specified extension</li>
+     * <li><b>rescanInterval<b>: (optional) The interval in seconds between full scans when the directory is watched
+     * for changes</li>
      * </ul>
      * <p>The first parameter is already handled by the super class, this class only reads the <i>extension</i>
-     * parameter.
+     * and <i>rescanInterval</i> parameters.
      *
      * @param  parameters    The parameters to configure this worker
      * @throws TaskConfigurationException   When the task can not be configured correctly
@@ -72,6 +113,121 @@ public abstract class DirWatcher extends PathWatcher {
         super.setParameters(parameters);
 
         setExtension((String) parameters.get("extension"));
+
+        final String rescan = (String) parameters.get("rescanInterval");
+        if (Utils.isNullOrEmpty(rescan))
+            rescanInterval = 0;
+        else {
+            try {
+                rescanInterval = Long.parseLong(rescan.trim()) * 1000;
+            } catch (final NumberFormatException invalidNumber) {
+                log.error("Unable to configure task: Invalid value for parameter \"rescanInterval\": " + rescan);
+                throw new TaskConfigurationException("Invalid value for parameter \"rescanInterval\": " + rescan);
+            }
+        }
+    }
+
+    /**
+     * Checks for changes in the directory. When no rescan interval is set the directory is scanned as done by {@link
+     * PathWatcher#doProcessing()}. Otherwise the directory is first scanned and then watched for changes until the
+     * next full scan is due.
+     */
+    @Override
+    public void doProcessing() {
+        if (rescanInterval <= 0) {
+            super.doProcessing();
+            return;
+        }
+
+        final WatchService watcher;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            Paths.get(watchPath).register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                                                   StandardWatchEventKinds.ENTRY_MODIFY,
+                                                   StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (final IOException watchFailure) {
+            log.warn("Can not watch directory [" + watchPath + "] for changes, only scanning it. Details: "
+                     + watchFailure.getMessage());
+            super.doProcessing();
+            return;
+        }
+        try {
+            // Scan after the registration so changes made in between are not missed
+            super.doProcessing();
+            watchUntil(watcher, System.currentTimeMillis() + rescanInterval);
+        } catch (final InterruptedException interrupted) {
+            log.debug("Watching directory [" + watchPath + "] is interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                watcher.close();
+            } catch (final IOException closeFailure) {
+                log.warn("Could not close the watch service of directory [" + watchPath + "]");
+            }
+        }
+    }
+
+    /**
+     * Processes the events on the watched directory until the given time. The files for which events are received are
+     * checked for changes when no new events have been received for them during {@link #SETTLE_TIME}, so files that
+     * are still being written are not processed. When the file system indicates events may have been lost, the
+     * directory is scanned completely.
+     * <p>Watching also stops when the worker is requested to stop, the files for which events were received but that
+     * are not yet checked will then be found by the scan when the worker runs again.
+     *
+     * @param watcher       The watch service the directory is registered with
+     * @param rescanAt      The time at which watching should stop because a full scan is due
+     * @throws InterruptedException When the thread is interrupted while waiting for events
+     */
+    private void watchUntil(final WatchService watcher, final long rescanAt) throws InterruptedException {
+        final String ext = extensionFilter;
+        // The files for which events were received with the time of the last event
+        final Map<String, Long> pending = new LinkedHashMap<>();
+        long now;
+        while (((now = System.currentTimeMillis()) < rescanAt || !pending.isEmpty()) && !isStopRequested()) {
+            // Wait in short slices so a stop request is handled quickly
+            final WatchKey key = watcher.poll(pending.isEmpty() ? Math.min(rescanAt - now, MAX_POLL_TIME)
+                                                                : SETTLE_TIME,
+                                              TimeUnit.MILLISECONDS);
+            boolean overflow = false;
+            if (key != null) {
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                        overflow = true;
+                    else {
+                        final String name = event.context().toString();
+                        if (ext == null || name.toLowerCase().endsWith("." + ext)) {
+                            // Remove first so the file is moved to the end of the pending list
+                            pending.remove(name);
+                            pending.put(name, System.currentTimeMillis());
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    log.warn("Directory [" + watchPath + "] can no longer be watched");
+                    return;
+                }
+            }
+            if (overflow) {
+                log.debug("Events on directory [" + watchPath + "] may be lost, scanning it");
+                pending.clear();
+                super.doProcessing();
+                continue;
+            }
+            // Check the files for which no events were received during the settle time
+            final long settled = System.currentTimeMillis() - SETTLE_TIME;
+            final List<File> changed = new ArrayList<>();
+            final Iterator<Map.Entry<String, Long>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<String, Long> p = it.next();
+                if (p.getValue() > settled)
+                    break;
+                changed.add(new File(watchPath, p.getKey()));
+                it.remove();
+            }
+            if (!changed.isEmpty())
+                processChanges(changed);
+        }
     }
 
     /**
@@ -18,9 +18,9 @@ package org.holodeckb2b.common.workers;
 
 import java.io.File;
 import java.nio.file.Paths;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Collection;
 import java.util.Map;
+import java.util.TreeMap;
 import org.apache.commons.logging.LogFactory;
 import org.holodeckb2b.common.workerpool.AbstractWorkerTask;
 import org.holodeckb2b.common.workerpool.WorkerPool;
@@ -32,6 +32,8 @@ import org.holodeckb2b.interfaces.workerpool.TaskConfigurationException;
  * Holodeck B2B worker pool.
  * <p>This worker takes one <code>String</code> parameter named <i>watchedPath</i> indicating the path to watch for
  * changes. Sub classes are responsible for getting the file list to check by implementing {@link #getFileList()}.
+ * <p>Sub classes that are notified of changes to individual files can report them using {@link
+ * #processChanges(Collection)} so the changed files are checked without scanning the complete path.
  * <p><b>NOTE:</b> When comparing files for changes the timestamp of the file system is used. This can lead to problems
  * if the file system does not handle these timestamps in milliseconds and changes occur very quickly.
  *
@@ -67,9 +69,9 @@ public abstract class PathWatcher extends AbstractWorkerTask {
     protected String watchPath;
 
     /**
-     * File listing of last check
+     * File listing of last check, sorted and indexed by path
      */
-    private List<FileListing> lastListing = new LinkedList<>();
+    private TreeMap<String, FileListing> lastListing = new TreeMap<>();
 
     /**
      * Is called before processing of changes in the file list starts.
@@ -152,9 +154,9 @@ public abstract class PathWatcher extends AbstractWorkerTask {
             N = new File[0];
 
         // Convert the last listing to simply accessible array
-        final FileListing[] O = lastListing.toArray(new FileListing[0]);
+        final FileListing[] O = lastListing.values().toArray(new FileListing[0]);
         // While going through the listing we build a new list of meta data on current files
-        final List<FileListing> C = new LinkedList<>();
+        final TreeMap<String, FileListing> C = new TreeMap<>();
         // i, j are indexes for going through both array. r,c and n count then number of removals, changes and new files
         int i = 0, j = 0, r = 0, c = 0, n = 0;
         while ( i < O.length || j < N.length) {
@@ -165,14 +167,14 @@ public abstract class PathWatcher extends AbstractWorkerTask {
                 finally { i++; r++; }
             }
             else if (i == O.length) {
-                C.add(new FileListing(N[j].getAbsolutePath(), N[j].lastModified()));
+                C.put(N[j].getAbsolutePath(), new FileListing(N[j].getAbsolutePath(), N[j].lastModified()));
                 try { onChange(N[j], Event.ADDED); }
                 catch (final Exception e)
                     { log.error("Unhandled exception while processing changed file. Details: " + e.getMessage()); }
                 finally { j++; n++; }
             }
             else if (O[i].path.equals(N[j].getAbsolutePath())) {
-                C.add(new FileListing(N[j].getAbsolutePath(), N[j].lastModified()));
+                C.put(N[j].getAbsolutePath(), new FileListing(N[j].getAbsolutePath(), N[j].lastModified()));
                 if (O[i].lastModified < N[j].lastModified()) {
                     try { onChange(N[j], Event.CHANGED); }
                     catch (final Exception e)
@@ -182,7 +184,7 @@ public abstract class PathWatcher extends AbstractWorkerTask {
                 i++; j++;
             }
             else if (O[i].path.compareTo(N[j].getAbsolutePath()) > 0) {
-                C.add(new FileListing(N[j].getAbsolutePath(), N[j].lastModified()));
+                C.put(N[j].getAbsolutePath(), new FileListing(N[j].getAbsolutePath(), N[j].lastModified()));
                 try { onChange(N[j], Event.ADDED); }
                 catch (final Exception e)
                     { log.error("Unhandled exception while processing changed file. Details: " + e.getMessage()); }
@@ -197,6 +199,47 @@ public abstract class PathWatcher extends AbstractWorkerTask {
         doPostProcessing();
     }
 
+    /**
+     * Checks the given files for changes compared to the last known state of the file, i.e. the state found in the
+     * last scan of the path or the last call of this method. The given files should only include files that are
+     * included in the file list of the path (or would have been when they still existed).
+     * <p>As in {@link #doProcessing()} <code>onChange()</code> is called for each detected change and <code>
+     * doPreProcessing()</code> and <code>doPostProcessing()</code> are called before and after reporting the changes.
+     *
+     * @param files     The files that may have changed
+     * @since 3.1.0
+     */
+    protected void processChanges(final Collection<File> files) {
+        doPreProcessing();
 
+        int r = 0, c = 0, n = 0;
+        for (final File f : files) {
+            final String path = f.getAbsolutePath();
+            final FileListing last = lastListing.get(path);
+            Event event = null;
+            if (f.isFile()) {
+                final long lastModified = f.lastModified();
+                if (last == null) {
+                    lastListing.put(path, new FileListing(path, lastModified));
+                    event = Event.ADDED; n++;
+                } else if (last.lastModified < lastModified) {
+                    last.lastModified = lastModified;
+                    event = Event.CHANGED; c++;
+                }
+            } else if (last != null) {
+                lastListing.remove(path);
+                event = Event.REMOVED; r++;
+            }
+            if (event != null) {
+                try { onChange(f, event); }
+                catch (final Exception e)
+                    { log.error("Unhandled exception while processing changed file. Details: " + e.getMessage()); }
+            }
+        }
 
+        log.debug("Checked " + files.size() + " files in " + watchPath + ", " + (r+c+n) + " changes: " + r
+                    + " files removed, " + n + " files added and " + c + " files modified.");
+
+        doPostProcessing();
+    }
 }
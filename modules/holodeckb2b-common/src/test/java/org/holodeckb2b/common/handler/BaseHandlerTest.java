@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.common.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.axis2.context.MessageContext;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the {@link BaseHandler} keeps the flow per processed message when the handler is used concurrently.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class BaseHandlerTest {
+
+    @Test
+    public void testInFlow() throws Exception {
+        final FlowRecordingHandler handler = new FlowRecordingHandler(null);
+
+        handler.invoke(createMessageContext(true, MessageContext.IN_FLOW));
+        assertTrue(handler.responder);
+        assertTrue(handler.inFlow);
+
+        handler.invoke(createMessageContext(false, MessageContext.OUT_FLOW));
+        assertFalse(handler.responder);
+        assertFalse(handler.inFlow);
+    }
+
+    @Test
+    public void testNotInFlow() throws Exception {
+        final FlowRecordingHandler handler = new FlowRecordingHandler(null);
+
+        handler.invoke(createMessageContext(true, MessageContext.IN_FAULT_FLOW));
+        assertEquals(0, handler.invocations);
+    }
+
+    @Test
+    public void testConcurrentFlows() throws Exception {
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        final FlowRecordingHandler handler = new FlowRecordingHandler(bothRunning);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (final boolean serverSide : new boolean[] { true, false })
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        final MessageContext mc = createMessageContext(serverSide, MessageContext.IN_FLOW);
+                        handler.invoke(mc);
+                        return (Boolean) mc.getProperty("responder");
+                    }
+                }));
+
+            assertTrue(results.get(0).get());
+            assertFalse(results.get(1).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static MessageContext createMessageContext(final boolean serverSide, final int flow) {
+        final MessageContext mc = new MessageContext();
+        mc.setServerSide(serverSide);
+        mc.setFLOW(flow);
+        return mc;
+    }
+
+    /**
+     * Handler that records in which flow it was invoked. When a latch is given the handler waits until all invocations
+     * are running before checking the flow.
+     */
+    static class FlowRecordingHandler extends BaseHandler {
+
+        private final CountDownLatch latch;
+        int     invocations = 0;
+        boolean responder;
+        boolean inFlow;
+
+        FlowRecordingHandler(final CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        protected byte inFlows() {
+            return IN_FLOW | OUT_FLOW;
+        }
+
+        @Override
+        protected InvocationResponse doProcessing(final MessageContext mc) throws Exception {
+            if (latch != null) {
+                latch.countDown();
+                latch.await();
+            }
+            invocations++;
+            responder = isInFlow(RESPONDER);
+            inFlow = isInFlow(IN_FLOW);
+            log.debug("Processed message in flow");
+            mc.setProperty("responder", isInFlow(RESPONDER));
+            return InvocationResponse.CONTINUE;
+        }
+    }
+}
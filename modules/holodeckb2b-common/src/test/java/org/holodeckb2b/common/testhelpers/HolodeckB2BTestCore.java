@@ -22,6 +22,8 @@ import org.holodeckb2b.interfaces.delivery.IDeliverySpecification;
 import org.holodeckb2b.interfaces.delivery.IMessageDeliverer;
 import org.holodeckb2b.interfaces.delivery.MessageDeliveryException;
 import org.holodeckb2b.interfaces.events.IMessageProcessingEventProcessor;
+import org.holodeckb2b.interfaces.metrics.IGauge;
+import org.holodeckb2b.interfaces.metrics.IMetricsRegistry;
 import org.holodeckb2b.interfaces.persistency.dao.IQueryManager;
 import org.holodeckb2b.interfaces.pmode.IPModeSet;
 import org.holodeckb2b.interfaces.submit.IMessageSubmitter;
@@ -100,4 +102,30 @@ public class HolodeckB2BTestCore implements IHolodeckB2BCore {
     public IQueryManager getQueryManager() {
         throw new UnsupportedOperationException("Not supported yet.");
     }
+
+    @Override
+    public IMetricsRegistry getMetricsRegistry() {
+        return new IMetricsRegistry() {
+            @Override
+            public boolean isEnabled() {
+                return false;
+            }
+
+            @Override
+            public void incrementCounter(String name) {
+            }
+
+            @Override
+            public void recordTime(String name, long nanos) {
+            }
+
+            @Override
+            public void registerGauge(String name, IGauge gauge) {
+            }
+
+            @Override
+            public void shutdown() {
+            }
+        };
+    }
 }
@@ -18,6 +18,8 @@ package org.holodeckb2b.common.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.SortedSet;
 import org.apache.tika.mime.MediaType;
@@ -131,6 +133,26 @@ public class UtilsTest {
         }
     }
 
+    @Test
+    public void testLinkOrCopyFile() throws IOException {
+        final Path dir = Files.createTempDirectory("utilstest");
+        try {
+            final Path source = Files.write(dir.resolve("source.txt"), "payload".getBytes());
+            final Path target = Utils.createFileWithUniqueName(dir.resolve("target.txt").toString());
+
+            Utils.linkOrCopyFile(source, target);
+            assertEquals("payload", new String(Files.readAllBytes(target)));
+            // Removing the source must not affect the target
+            Files.delete(source);
+            assertEquals("payload", new String(Files.readAllBytes(target)));
+            assertFalse(Files.exists(dir.resolve("target.txt.lnk")));
+        } finally {
+            for (final File f : dir.toFile().listFiles())
+                f.delete();
+            Files.delete(dir);
+        }
+    }
+
     @Test
     public void testGetKeyByValue() {
         HashMap<String, String> map = new HashMap<>();
@@ -17,12 +17,18 @@
 package org.holodeckb2b.common.workers;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -172,6 +178,79 @@ public class DirWatcherTest {
         assertEquals(2, instance.c);
     }
 
+    /**
+     * Watch the directory for changes, a new file should be reported without waiting for the next scan
+     */
+    @Test
+    public void testWatchForChanges() throws Exception {
+        final EventRecorder watcher = new EventRecorder();
+        final Map<String, String> parameters = new HashMap<>();
+        parameters.put("watchPath", basePath);
+        parameters.put("extension", "jpg");
+        parameters.put("rescanInterval", "60");
+        watcher.setParameters(parameters);
+
+        final Thread worker = new Thread(watcher);
+        worker.start();
+        try {
+            // Initial scan
+            assertNotNull(watcher.events.poll(2, TimeUnit.SECONDS));
+            assertNotNull(watcher.events.poll(2, TimeUnit.SECONDS));
+            assertNull(watcher.events.poll(500, TimeUnit.MILLISECONDS));
+
+            FileUtils.copyFile(new File(basePath + "/ignore-me/Foto-5.JPG"), new File(basePath + "/Foto-5.JPG"));
+            assertEquals("ADDED Foto-5.JPG", watcher.events.poll(5, TimeUnit.SECONDS));
+
+            new File(basePath + "/Foto-1.jpg").delete();
+            assertEquals("REMOVED Foto-1.jpg", watcher.events.poll(5, TimeUnit.SECONDS));
+
+            // Files with other extensions are not reported
+            FileUtils.copyFile(new File(basePath + "/Foto-3.pdf"), new File(basePath + "/Foto-6.pdf"));
+            assertNull(watcher.events.poll(1, TimeUnit.SECONDS));
+        } finally {
+            worker.interrupt();
+            worker.join(5000);
+        }
+    }
+
+    /**
+     * A worker watching the directory must stop within a few seconds after it is requested to stop, not only when the
+     * next full scan is due
+     */
+    @Test
+    public void testStopWhileWatching() throws Exception {
+        final EventRecorder watcher = new EventRecorder();
+        final Map<String, String> parameters = new HashMap<>();
+        parameters.put("watchPath", basePath);
+        parameters.put("extension", "jpg");
+        parameters.put("rescanInterval", "300");
+        watcher.setParameters(parameters);
+
+        final Thread worker = new Thread(watcher);
+        worker.start();
+        try {
+            // Wait for the initial scan to complete
+            assertNotNull(watcher.events.poll(2, TimeUnit.SECONDS));
+            assertNotNull(watcher.events.poll(2, TimeUnit.SECONDS));
+
+            watcher.requestStop();
+            worker.join(3000);
+            assertFalse(worker.isAlive());
+        } finally {
+            worker.interrupt();
+            worker.join(5000);
+        }
+    }
+
+    public class EventRecorder extends DirWatcher {
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onChange(final File f, final Event event) {
+            events.add(event.name() + " " + f.getName());
+        }
+    }
+
     public class DirWatcherImpl extends DirWatcher {
         public int c = 0;
 
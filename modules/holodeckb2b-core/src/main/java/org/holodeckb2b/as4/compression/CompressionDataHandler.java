@@ -19,6 +19,7 @@ package org.holodeckb2b.as4.compression;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipException;
@@ -38,6 +39,11 @@ import javax.activation.DataHandler;
  */
 public class CompressionDataHandler extends DataHandler {
 
+    /**
+     * The size of the buffers used for (de)compressing the data
+     */
+    static final int BUFFER_SIZE = 65536;
+
     /**
      * The source DataHandler containing the actual data
      *
@@ -55,6 +61,11 @@ public class CompressionDataHandler extends DataHandler {
      */
     private boolean     compressing;
 
+    /**
+     * The compression level to use when compressing the data
+     */
+    private int         level = Deflater.DEFAULT_COMPRESSION;
+
     /**
      * This constructor should be used to create a facade to a {@link DataHandler} for decompressing the contained data.
      * The specified MIME type is not used by this class itself but only to inform using classes about the expected
@@ -76,10 +87,23 @@ public class CompressionDataHandler extends DataHandler {
      * @param source    The {@link DataHandler} that contains the uncompressed data
      */
     public CompressionDataHandler(final DataHandler source) {
+        this(source, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * This constructor should be used to create a facade to a {@link DataHandler} for compressing the contained data
+     * using a specific compression level.
+     *
+     * @param source    The {@link DataHandler} that contains the uncompressed data
+     * @param level     The compression level (0-9), or -1 to use the default level
+     * @since 3.1.0
+     */
+    public CompressionDataHandler(final DataHandler source, final int level) {
         super(source.getDataSource());
         this.source = source;
         this.resultContentType = CompressionFeature.COMPRESSED_CONTENT_TYPE;
         this.compressing = true;
+        this.level = level;
     }
 
     /**
@@ -142,9 +166,9 @@ public class CompressionDataHandler extends DataHandler {
     @Override
     public InputStream getInputStream() throws IOException, ZipException {
         if (compressing)
-            return new GZIPCompressingInputStream(super.getInputStream());
+            return new GZIPCompressingInputStream(super.getInputStream(), level);
         else
-            return new GZIPInputStream(super.getInputStream());
+            return new GZIPInputStream(super.getInputStream(), BUFFER_SIZE);
     }
 
 
@@ -157,11 +181,28 @@ public class CompressionDataHandler extends DataHandler {
     private void compress(final OutputStream out) throws IOException {
         // Writing compressed data is easy, we only need to wrap the given output stream in a GZIPOutputStream to get
         // compression.
-        final GZIPOutputStream gzOutputStream = new GZIPOutputStream(out);
+        final GZIPOutputStream gzOutputStream = createGZIPOutputStream(out, level);
         source.writeTo(gzOutputStream);
         gzOutputStream.finish();
     }
 
+    /**
+     * Creates a {@link GZIPOutputStream} that compresses the data written to it with the given compression level.
+     *
+     * @param out           The {@link OutputStream} to write the compressed data to
+     * @param level         The compression level (0-9), or -1 to use the default level
+     * @return              The GZIP output stream
+     * @throws IOException  When an error occurs while writing the GZIP header
+     * @since 3.1.0
+     */
+    static GZIPOutputStream createGZIPOutputStream(final OutputStream out, final int level) throws IOException {
+        return new GZIPOutputStream(out, BUFFER_SIZE) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
     /**
      * Writes the uncompressed data to the given output stream.
      *
@@ -171,9 +212,9 @@ public class CompressionDataHandler extends DataHandler {
      *                      exception
      */
     private void decompress(final OutputStream out) throws ZipException {
-        try (GZIPInputStream gzInputStream = new GZIPInputStream(source.getInputStream()))
+        try (GZIPInputStream gzInputStream = new GZIPInputStream(source.getInputStream(), BUFFER_SIZE))
         {
-            final byte[]  buffer = new byte[2048];
+            final byte[]  buffer = new byte[BUFFER_SIZE];
             int     r = 0;
             while ((r = gzInputStream.read(buffer)) > 0)
                 out.write(buffer, 0, r);
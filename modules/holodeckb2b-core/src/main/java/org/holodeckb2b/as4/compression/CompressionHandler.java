@@ -16,9 +16,15 @@
  */
 package org.holodeckb2b.as4.compression;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
 import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.context.MessageContext;
 import org.holodeckb2b.common.messagemodel.Property;
@@ -43,7 +49,11 @@ import org.holodeckb2b.module.HolodeckB2BCore;
  * <li><code>@name = <i>"MimeType"</i></code> and value the MIME Type of the uncompressed data.</li></ol>
  * <p>The actual compression of the data is done by the {@link CompressionDataHandler} that will encapsulate the
  * original <code>DataHandler</code> that contains the payload data. This way the compression is only executed at the
- * moment the payload data is sent to the receiving MSH and an extra operation is prevented.
+ * moment the payload data is sent to the receiving MSH and an extra operation is prevented.<br>
+ * When the {@link PayloadCompressor} is enabled the payloads are instead compressed ahead of the transmission, in
+ * parallel, and the attachment is replaced by the file with the compressed data. The compression may already have been
+ * started when the message was submitted and the compressed data is reused when the message is retransmitted.
+ * <p>The compression level can be set in the P-Mode, see {@link IAS4PayloadProfile#getCompressionLevel()}.
  * <p>NOTE: Although the AS4 profiles states that payloads containing already compressed data do not need to be
  * compressed Holodeck B2B will compress all payloads regardless of their content.
  *
@@ -68,11 +78,21 @@ public class CompressionHandler extends AbstractUserMessageHandler {
              CompressionFeature.COMPRESSED_CONTENT_TYPE.equalsIgnoreCase(
                                                                ((IAS4PayloadProfile) plProfile).getCompressionType())) {
             log.debug("AS4 Compression feature is used");
+            final int level = ((IAS4PayloadProfile) plProfile).getCompressionLevel();
+            // When available start the compression of all payloads before using them, so they are compressed in
+            // parallel
+            final Map<IPayload, Future<File>> compressed = new HashMap<>();
+            final PayloadCompressor compressor = HolodeckB2BCore.getPayloadCompressor();
+            if (compressor != null)
+                for (final IPayload p : um.getPayloads())
+                    if (p.getContainment() == IPayload.Containment.ATTACHMENT
+                        && !Utils.isNullOrEmpty(p.getContentLocation()))
+                        compressed.put(p, compressor.compress(p.getContentLocation(), level));
             // enable compression by decorating DataHandler and setting payload properties
             for (final IPayload p : um.getPayloads())
                 // Only payloads contained in attachment can use compression
                 if (p.getContainment() == IPayload.Containment.ATTACHMENT)
-                    enableCompression(p, mc);
+                    enableCompression(p, mc, level, compressed.get(p));
 
             log.debug("Enabled compression for all attached payloads");
         } else
@@ -87,13 +107,33 @@ public class CompressionHandler extends AbstractUserMessageHandler {
     }
 
 
-    private void enableCompression(final IPayload p, final MessageContext mc) {
+    private void enableCompression(final IPayload p, final MessageContext mc, final int level,
+                                   final Future<File> compressed) {
 
-        // Replace current datahandler of attachment with CompressionDataHandler to facilitate compression
         final String cid = p.getPayloadURI();
         final DataHandler source = mc.getAttachment(cid);
-        mc.addAttachment(cid, new CompressionDataHandler(source));
-        log.debug("Replaced DataHandler to enable compression");
+        DataHandler compressedData = null;
+        if (compressed != null) {
+            try {
+                // Replace current datahandler of attachment with one for the already compressed data
+                compressedData = new DataHandler(new FileDataSource(PayloadCompressor.waitFor(compressed)) {
+                    @Override
+                    public String getContentType() {
+                        return CompressionFeature.COMPRESSED_CONTENT_TYPE;
+                    }
+                });
+                log.debug("Replaced DataHandler with compressed data");
+            } catch (final IOException compressionFailure) {
+                log.warn("Could not compress payload ahead of transmission, compressing while sending. Details: "
+                         + compressionFailure.getMessage());
+            }
+        }
+        if (compressedData == null) {
+            // Replace current datahandler of attachment with CompressionDataHandler to facilitate compression
+            compressedData = new CompressionDataHandler(source, level);
+            log.debug("Replaced DataHandler to enable compression");
+        }
+        mc.addAttachment(cid, compressedData);
 
         // Set the part properties to indicate AS4 Compression feature was used and original MIME Type
         // First ensure that there do not exists properties with this name
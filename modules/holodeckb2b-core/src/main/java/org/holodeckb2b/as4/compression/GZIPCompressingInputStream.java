@@ -68,7 +68,19 @@ public class GZIPCompressingInputStream extends DeflaterInputStream {
      * @param in The uncompressed {@link InputStream}.
      */
     public GZIPCompressingInputStream(final InputStream in) {
-        super(new CheckedInputStream(in, new CRC32()), new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+        this(in, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates a new {@link GZIPCompressingInputStream} from an uncompressed {@link InputStream} that compresses using
+     * the given compression level.
+     *
+     * @param in    The uncompressed {@link InputStream}.
+     * @param level The compression level (0-9), or -1 to use the default level
+     * @since 3.1.0
+     */
+    public GZIPCompressingInputStream(final InputStream in, final int level) {
+        super(new CheckedInputStream(in, new CRC32()), new Deflater(level, true));
         part = Part.HEADER;
     }
 
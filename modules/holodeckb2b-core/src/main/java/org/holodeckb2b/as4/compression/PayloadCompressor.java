@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.as4.compression;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.holodeckb2b.common.util.Utils;
+import org.holodeckb2b.interfaces.as4.pmode.IAS4PayloadProfile;
+import org.holodeckb2b.interfaces.messagemodel.IPayload;
+import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.pmode.IPMode;
+import org.holodeckb2b.interfaces.pmode.IPayloadProfile;
+import org.holodeckb2b.interfaces.pmode.IUserMessageFlow;
+
+/**
+ * Compresses the payloads of outgoing User Messages ahead of their transmission using a pool of threads, so the
+ * payloads of a message are compressed in parallel and the compression does not delay the sending of the message.
+ * <p>The compressed data is cached in a file in the {@link #CACHE_DIRECTORY} sub directory of the directory holding
+ * the payload file, so retransmissions of the message do not need to compress the payloads again. As the names of the
+ * payload files are unique within their directory the cached files can not be mixed up. The compression level is
+ * included in the name of the cached file, so a payload is compressed again when the level in the P-Mode is changed.
+ * The cached file is only used when it is newer than the payload file and is removed when the payload file is removed
+ * by the {@link org.holodeckb2b.ebms3.workers.PurgeOldMessagesWorker}.
+ * <p>The compression of a payload can be started when the User Message is submitted using {@link
+ * #compressAhead(IUserMessage, IPMode)}, the {@link CompressionHandler} then waits for the compression to complete
+ * using {@link #getCompressed(String, int)}. When the compression of a payload is already running it is not started
+ * again.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public class PayloadCompressor {
+
+    private static final Log log = LogFactory.getLog(PayloadCompressor.class);
+
+    /**
+     * The name of the sub directory where the compressed data of the payload files is cached
+     */
+    public static final String CACHE_DIRECTORY = ".compressed";
+
+    /**
+     * The extension added to the name of the payload file and the compression level to get the name of the file
+     * holding the compressed data
+     */
+    public static final String CACHE_FILE_EXTENSION = ".gz";
+
+    /**
+     * The pool of threads that compress the payloads
+     */
+    private final ThreadPoolExecutor compressors;
+
+    /**
+     * The running compressions, by the cache file they write to. Access is synchronized on the map itself.
+     */
+    private final Map<String, Future<File>> running = new HashMap<>();
+
+    /**
+     * Creates and starts a new compressor.
+     *
+     * @param threads   The number of threads used for compressing payloads
+     */
+    public PayloadCompressor(final int threads) {
+        compressors = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                                             new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "hb2b-compression-" + threadNumber.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        compressors.allowCoreThreadTimeOut(true);
+        log.debug("Started payload compressor [threads=" + threads + "]");
+    }
+
+    /**
+     * Gets the file that holds the data of the given payload file compressed with the given level. The name of the file
+     * is the name of the payload file followed by the compression level, or <i>default</i> when the default level is
+     * used, and the {@link #CACHE_FILE_EXTENSION}.
+     *
+     * @param contentLocation   The location of the payload file
+     * @param level             The compression level (0-9), or -1 to use the default level
+     * @return                  The file for the compressed data, which may not exist
+     */
+    public static File getCacheFile(final String contentLocation, final int level) {
+        final File plFile = new File(contentLocation).getAbsoluteFile();
+        return new File(new File(plFile.getParentFile(), CACHE_DIRECTORY),
+                        plFile.getName() + "." + (level < 0 ? "default" : Integer.toString(level))
+                        + CACHE_FILE_EXTENSION);
+    }
+
+    /**
+     * Removes the files that hold the compressed data of the given payload file, for all compression levels.
+     *
+     * @param contentLocation   The location of the payload file
+     */
+    public static void deleteCacheFiles(final String contentLocation) {
+        final File plFile = new File(contentLocation).getAbsoluteFile();
+        final String prefix = plFile.getName() + ".";
+        final File[] cached = new File(plFile.getParentFile(), CACHE_DIRECTORY).listFiles(new FileFilter() {
+            @Override
+            public boolean accept(final File f) {
+                final String name = f.getName();
+                return name.startsWith(prefix) && name.endsWith(CACHE_FILE_EXTENSION)
+                       && name.indexOf('.', prefix.length()) == name.length() - CACHE_FILE_EXTENSION.length();
+            }
+        });
+        if (cached != null)
+            for (final File f : cached)
+                if (!f.delete() && f.exists())
+                    log.warn("Could not remove cached compressed payload " + f.getPath());
+    }
+
+    /**
+     * Starts the compression of the payloads of a submitted User Message when the given P-Mode specifies that the AS4
+     * Compression Feature should be used.
+     *
+     * @param um        The submitted User Message
+     * @param pmode     The P-Mode that governs the processing of the User Message
+     */
+    public void compressAhead(final IUserMessage um, final IPMode pmode) {
+        final IUserMessageFlow flow = pmode.getLegs().iterator().next().getUserMessageFlow();
+        final IPayloadProfile plProfile = (flow != null ? flow.getPayloadProfile() : null);
+        if (Utils.isNullOrEmpty(um.getPayloads()) || !(plProfile instanceof IAS4PayloadProfile)
+            || !CompressionFeature.COMPRESSED_CONTENT_TYPE.equalsIgnoreCase(
+                                                               ((IAS4PayloadProfile) plProfile).getCompressionType()))
+            return;
+
+        log.debug("Start compression of payloads of User Message [" + um.getMessageId() + "]");
+        for (final IPayload p : um.getPayloads())
+            if (p.getContainment() == IPayload.Containment.ATTACHMENT && !Utils.isNullOrEmpty(p.getContentLocation()))
+                compress(p.getContentLocation(), ((IAS4PayloadProfile) plProfile).getCompressionLevel());
+    }
+
+    /**
+     * Starts the compression of the given payload file if there is no up to date compressed file available and the
+     * compression is not already running.
+     *
+     * @param contentLocation   The location of the payload file
+     * @param level             The compression level (0-9), or -1 to use the default level
+     * @return                  A {@link Future} for the file with the compressed data
+     */
+    public Future<File> compress(final String contentLocation, final int level) {
+        final File source = new File(contentLocation);
+        final File cached = getCacheFile(contentLocation, level);
+        final String key = cached.getPath();
+        FutureTask<File> task;
+        synchronized (running) {
+            final Future<File> current = running.get(key);
+            if (current != null)
+                return current;
+            if (cached.exists() && cached.lastModified() >= source.lastModified()) {
+                task = new FutureTask<>(new Callable<File>() {
+                    @Override
+                    public File call() {
+                        return cached;
+                    }
+                });
+                task.run();
+                return task;
+            }
+            task = new FutureTask<File>(new Callable<File>() {
+                @Override
+                public File call() throws IOException {
+                    try {
+                        return compress(source, cached, level);
+                    } finally {
+                        synchronized (running) {
+                            running.remove(key);
+                        }
+                    }
+                }
+            });
+            running.put(key, task);
+        }
+        try {
+            compressors.execute(task);
+        } catch (final RejectedExecutionException stopped) {
+            // The compressor is stopped, compress in this thread
+            task.run();
+        }
+        return task;
+    }
+
+    /**
+     * Gets the file with the compressed data of the given payload file. If the payload is not compressed yet it is
+     * compressed now.
+     *
+     * @param contentLocation   The location of the payload file
+     * @param level             The compression level (0-9), or -1 to use the default level
+     * @return                  The file with the compressed data
+     * @throws IOException      When the payload could not be compressed
+     */
+    public File getCompressed(final String contentLocation, final int level) throws IOException {
+        return waitFor(compress(contentLocation, level));
+    }
+
+    /**
+     * Waits for the compression of a payload to complete.
+     *
+     * @param compression   The {@link Future} returned by {@link #compress(String, int)}
+     * @return              The file with the compressed data
+     * @throws IOException  When the payload could not be compressed
+     */
+    public static File waitFor(final Future<File> compression) throws IOException {
+        try {
+            return compression.get();
+        } catch (final InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for payload compression");
+        } catch (final CancellationException stopped) {
+            throw new IOException("Payload compression was cancelled because the compressor is stopped");
+        } catch (final ExecutionException failure) {
+            final Throwable cause = failure.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * Stops the compressor. Compressions that were not started yet are cancelled.
+     */
+    public void shutdown() {
+        log.debug("Stopping payload compressor");
+        for (final Runnable notStarted : compressors.shutdownNow())
+            ((Future<?>) notStarted).cancel(false);
+    }
+
+    /**
+     * Compresses the payload file into the cache file. The data is first written to a temporary file which is moved
+     * to the cache file when complete, so a partially written file is never used.
+     *
+     * @param source        The payload file
+     * @param cached        The file to write the compressed data to
+     * @param level         The compression level (0-9), or -1 to use the default level
+     * @return              The cache file
+     * @throws IOException  When an error occurs compressing the payload file
+     */
+    private File compress(final File source, final File cached, final int level) throws IOException {
+        log.debug("Compressing payload file " + source.getPath());
+        final Path cacheDir = Files.createDirectories(cached.getParentFile().toPath());
+        final Path tmp = Files.createTempFile(cacheDir, source.getName(), ".tmp");
+        try {
+            try (InputStream in = Files.newInputStream(source.toPath());
+                 OutputStream out = Files.newOutputStream(tmp);
+                 GZIPOutputStream gzOut = CompressionDataHandler.createGZIPOutputStream(out, level)) {
+                final byte[] buffer = new byte[CompressionDataHandler.BUFFER_SIZE];
+                int r;
+                while ((r = in.read(buffer)) > 0)
+                    gzOut.write(buffer, 0, r);
+            }
+            try {
+                Files.move(tmp, cached.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException notAtomic) {
+                Files.move(tmp, cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            log.debug("Compressed payload file " + source.getPath() + " into " + cached.getPath());
+            return cached;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -78,19 +78,7 @@ public class DetectDuplicateUserMessages extends AbstractUserMessageHandler {
         // Currently we only support one-way MEPs so the leg is always the first one
         final ILeg leg = pmode.getLeg(um.getLeg() != null ? um.getLeg() : ILeg.Label.REQUEST);
 
-        // Duplicate detection is part of the AS4 Reception Awareness feature which can only be configured on a leg
-        // of type ILegAS4, so check type
-        if (!(leg instanceof IAS4Leg))
-            // Not an AS4 leg, so no duplicate detection
-            detectDups = false;
-        else {
-            // Get configuration of Reception Awareness feature
-            final IReceptionAwareness raConfig = ((IAS4Leg) leg).getReceptionAwareness();
-            if (raConfig != null)
-                detectDups = raConfig.useDuplicateDetection();
-            else
-                detectDups = false;
-        }
+        detectDups = useDuplicateDetection(leg);
 
         if (!detectDups) {
             log.debug("Duplicate detection not enabled, skipping check.");
@@ -101,7 +89,7 @@ public class DetectDuplicateUserMessages extends AbstractUserMessageHandler {
                         + "] has already been delivered");
 
             boolean isDuplicate = false;
-            isDuplicate = HolodeckB2BCore.getQueryManager().isAlreadyDelivered(msgId);
+            isDuplicate = HolodeckB2BCore.isAlreadyDelivered(msgId);
             if (isDuplicate) {
                 log.debug("UserMessage [msgId=" + msgId + "] has already been delivered");
                 // Also log in special duplicate log
@@ -118,4 +106,24 @@ public class DetectDuplicateUserMessages extends AbstractUserMessageHandler {
             return InvocationResponse.CONTINUE;
         }
     }
+
+    /**
+     * Determines whether duplicate detection is enabled for the given leg. Is also used by the
+     * {@link org.holodeckb2b.ebms3.workers.DeliveryDispatcher} to check for duplicates when user messages are delivered
+     * asynchronously.
+     *
+     * @param leg   The leg to check, may be <code>null</code>
+     * @return      <code>true</code> when duplicate detection is enabled for the leg,<br><code>false</code> otherwise
+     * @since  3.1.0
+     */
+    public static boolean useDuplicateDetection(final ILeg leg) {
+        // Duplicate detection is part of the AS4 Reception Awareness feature which can only be configured on a leg
+        // of type ILegAS4, so check type
+        if (!(leg instanceof IAS4Leg))
+            // Not an AS4 leg, so no duplicate detection
+            return false;
+        // Get configuration of Reception Awareness feature
+        final IReceptionAwareness raConfig = ((IAS4Leg) leg).getReceptionAwareness();
+        return raConfig != null && raConfig.useDuplicateDetection();
+    }
 }
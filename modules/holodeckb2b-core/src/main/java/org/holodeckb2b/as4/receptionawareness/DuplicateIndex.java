@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.as4.receptionawareness;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.dao.IMessageUnitCallback;
+import org.holodeckb2b.interfaces.persistency.dao.IQueryManager;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+
+/**
+ * Is an in-memory index of the message ids of the received User Messages that have been delivered, used by the
+ * duplicate detection to prevent a database query for every received User Message.
+ * <p>The index is a Bloom filter which can tell for certain that a message id has not been delivered before. Only when
+ * the filter indicates that the message id may have been delivered the database is queried to confirm it. Therefore
+ * the result of {@link #isAlreadyDelivered(String)} is always the same as the result of {@link
+ * IQueryManager#isAlreadyDelivered(String)}. This also means the duplicate detection window is still determined by
+ * the time messages stay in the message log.
+ * <p>To guarantee that the filter never misses a delivered User Message the message id is added to it by the {@link
+ * org.holodeckb2b.persistency.dao.StorageManager} both before and after the processing state of the User Message is
+ * changed to {@link ProcessingState#DELIVERED} and the filter is filled with the message ids of the User Messages
+ * already delivered when the index is started. Until it is filled all checks are done in the database.
+ * <p>As message ids can not be removed from a Bloom filter the number of false positives rises when more message ids
+ * are added than the filter was sized for. When that happens the filter is rebuilt from the database, which drops the
+ * message ids of the User Messages that have been purged in the meantime.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public class DuplicateIndex {
+
+    private static final Log log = LogFactory.getLog(DuplicateIndex.class);
+
+    /**
+     * The number of User Messages to retrieve at once when filling the filter
+     */
+    private static final int CHUNK_SIZE = 500;
+
+    /**
+     * The query manager used to fill the filter and to confirm possible duplicates
+     */
+    private final IQueryManager queryManager;
+
+    /**
+     * The number of message ids the filter is sized for
+     */
+    private final int capacity;
+
+    /**
+     * The filter in use, <code>null</code> until it is filled
+     */
+    private volatile BloomFilter filter = null;
+
+    /**
+     * The filter that is being filled, <code>null</code> when no (re)build is running. Access is synchronized on this
+     * object.
+     */
+    private BloomFilter building = null;
+
+    /**
+     * Creates a new index sized for the given number of message ids. The index must be filled by calling {@link
+     * #build()} before it is used.
+     *
+     * @param queryManager  The query manager of the persistency provider
+     * @param capacity      The number of message ids the filter is sized for
+     */
+    public DuplicateIndex(final IQueryManager queryManager, final int capacity) {
+        this.queryManager = queryManager;
+        this.capacity = Math.max(capacity, 1000);
+    }
+
+    /**
+     * Indicates whether the index is filled and used to check for duplicates.
+     *
+     * @return  <code>true</code> when the filter is in use,<br><code>false</code> when all checks are done in the
+     *          database
+     */
+    public boolean isReady() {
+        return filter != null;
+    }
+
+    /**
+     * Fills the filter with the message ids of all received User Messages that have been delivered. This method takes
+     * time and should be called from a background thread.
+     */
+    public void build() {
+        final BloomFilter newFilter;
+        synchronized (this) {
+            if (building != null)
+                return;
+            newFilter = new BloomFilter(filter == null ? capacity : Math.max(capacity, filter.count.get()));
+            building = newFilter;
+        }
+        log.debug("Building the duplicate index");
+        try {
+            final int found = queryManager.processMessageUnitsInState(IUserMessage.class, IMessageUnit.Direction.IN,
+                                                        new ProcessingState[] { ProcessingState.DELIVERED },
+                                                        CHUNK_SIZE, new IMessageUnitCallback<IUserMessageEntity>() {
+                                                            @Override
+                                                            public boolean process(final IUserMessageEntity um) {
+                                                                newFilter.add(um.getMessageId());
+                                                                return true;
+                                                            }
+                                                        });
+            synchronized (this) {
+                filter = newFilter;
+                building = null;
+            }
+            log.info("Duplicate index built with " + found + " delivered user messages");
+        } catch (final PersistenceException dbError) {
+            log.error("Could not build the duplicate index, duplicates are checked in the database."
+                      + " Details: " + dbError.getMessage());
+            synchronized (this) {
+                building = null;
+            }
+        }
+    }
+
+    /**
+     * Adds the message id of a received User Message that is delivered to the index. Must be called both before the
+     * processing state is changed, so no check can miss the delivered User Message, and after the change is committed,
+     * so a (re)build of the filter that is running concurrently can not miss it either.
+     *
+     * @param messageId     The message id of the delivered User Message
+     */
+    public void delivered(final String messageId) {
+        final BloomFilter current;
+        final boolean isBuilding;
+        synchronized (this) {
+            isBuilding = building != null;
+            if (isBuilding)
+                building.add(messageId);
+            current = filter;
+        }
+        if (current != null && current.add(messageId) && !isBuilding && current.count.get() > 2 * current.capacity) {
+            // Too many false positives expected, rebuild the filter to drop the purged message ids
+            final Thread rebuild = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    build();
+                }
+            }, "hb2b-duplicate-index");
+            rebuild.setDaemon(true);
+            rebuild.start();
+        }
+    }
+
+    /**
+     * Checks whether a received User Message with the given message id has already been delivered. Gives the same
+     * result as {@link IQueryManager#isAlreadyDelivered(String)} but only queries the database when the message id
+     * may be in the index.
+     *
+     * @param messageId     The message id to check
+     * @return              <code>true</code> if there is a delivered User Message with the given message id,<br>
+     *                      <code>false</code> if not
+     * @throws PersistenceException When an error occurs while querying the database
+     */
+    public boolean isAlreadyDelivered(final String messageId) throws PersistenceException {
+        final BloomFilter current = filter;
+        if (current != null && !current.mightContain(messageId))
+            return false;
+        return queryManager.isAlreadyDelivered(messageId);
+    }
+
+    /**
+     * Is a thread safe Bloom filter sized for a false positive rate of about 1% at its capacity.
+     */
+    private static class BloomFilter {
+        private static final int HASHES = 7;
+
+        final int               capacity;
+        final AtomicInteger     count = new AtomicInteger();
+        final AtomicLongArray   bits;
+        final long              size;
+
+        BloomFilter(final int capacity) {
+            this.capacity = capacity;
+            // About 9.6 bits per entry are needed for 1% false positives
+            bits = new AtomicLongArray((int) ((capacity * 10L + 63) / 64));
+            size = bits.length() * 64L;
+        }
+
+        /**
+         * Adds the string to the filter.
+         *
+         * @return <code>true</code> if the string was not in the filter yet
+         */
+        boolean add(final String s) {
+            final long hash = hash(s);
+            final int h1 = (int) hash, h2 = (int) (hash >>> 32);
+            boolean added = false;
+            for (int i = 0; i < HASHES; i++) {
+                final long bit = ((h1 + i * h2) & 0x7fffffffL) % size;
+                final int word = (int) (bit >>> 6);
+                final long mask = 1L << bit;
+                long current;
+                do {
+                    current = bits.get(word);
+                    if ((current & mask) != 0)
+                        break;
+                } while (!bits.compareAndSet(word, current, current | mask));
+                added |= (current & mask) == 0;
+            }
+            if (added)
+                count.incrementAndGet();
+            return added;
+        }
+
+        boolean mightContain(final String s) {
+            final long hash = hash(s);
+            final int h1 = (int) hash, h2 = (int) (hash >>> 32);
+            for (int i = 0; i < HASHES; i++) {
+                final long bit = ((h1 + i * h2) & 0x7fffffffL) % size;
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * 64 bit FNV-1a hash of the characters of the string.
+         */
+        private static long hash(final String s) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            return h;
+        }
+    }
+}
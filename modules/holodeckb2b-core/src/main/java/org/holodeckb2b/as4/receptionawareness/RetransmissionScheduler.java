@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.as4.receptionawareness;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.holodeckb2b.common.messagemodel.ErrorMessage;
+import org.holodeckb2b.common.util.Utils;
+import org.holodeckb2b.interfaces.as4.pmode.IAS4Leg;
+import org.holodeckb2b.interfaces.as4.pmode.IReceptionAwareness;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.delivery.IDeliverySpecification;
+import org.holodeckb2b.interfaces.delivery.IMessageDeliverer;
+import org.holodeckb2b.interfaces.delivery.MessageDeliveryException;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.entities.IErrorMessageEntity;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.pmode.IErrorHandling;
+import org.holodeckb2b.interfaces.pmode.ILeg;
+import org.holodeckb2b.interfaces.pmode.IPMode;
+import org.holodeckb2b.interfaces.pmode.IReceiptConfiguration;
+import org.holodeckb2b.interfaces.pmode.IUserMessageFlow;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.module.HolodeckB2BCore;
+import org.holodeckb2b.persistency.dao.StorageManager;
+import org.holodeckb2b.pmode.PModeUtils;
+
+/**
+ * Is responsible for the retransmission of User Messages that did not receive an AS4 receipt as expected. Instead of
+ * periodically checking all User Messages waiting for a Receipt this scheduler keeps a timer for each of them which
+ * expires when the retry interval configured in the P-Mode has passed. Only when the timer expires the User Message is
+ * retrieved from the database and checked whether it should be retransmitted or a <i>MissingReceipt</i> error must
+ * be generated.
+ * <p>The User Messages are handed over by the {@link StorageManager} when their processing state is changed to
+ * {@link ProcessingState#AWAITING_RECEIPT}, {@link ProcessingState#TRANSPORT_FAILURE} or {@link
+ * ProcessingState#WARNING} and by the {@link RetransmissionWorker} which rebuilds the schedule from the database when
+ * Holodeck B2B is started. As the schedule is only kept in memory it is lost when Holodeck B2B is stopped.
+ * <p>As in the {@link org.holodeckb2b.ebms3.workers.SendDispatcher} only the message id is kept and the User Message is
+ * retrieved again from the database when the timer expires.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public class RetransmissionScheduler {
+
+    private static final Log log = LogFactory.getLog(RetransmissionScheduler.class);
+
+    /**
+     * MissingReceipts errors are always logged, independent of P-Mode configuration, to a special log. Using the log
+     * configuration users can decide if this logging should be enabled and where errors should be logged.
+     */
+    private static final Log missingReceiptsLog = LogFactory.getLog("org.holodeckb2b.msgproc.errors.missingreceipts");
+
+    /**
+     * The default time in milliseconds to wait before checking a User Message whose P-Mode does not specify a retry
+     * interval. This is the interval the <code>RetransmissionWorker</code> used to run with and gives a Receipt that is
+     * still being processed, for example because it is included in the response to the User Message, the time to
+     * arrive before the message is set to failed.
+     */
+    public static final long DEFAULT_MISSING_CONFIG_DELAY = 30000;
+
+    /**
+     * The timer that executes the checks when they are due
+     */
+    private final ScheduledThreadPoolExecutor timer;
+
+    /**
+     * The time the next check is due for each scheduled message id. Access is synchronized on the map itself.
+     */
+    private final Map<String, Long> scheduled = new HashMap<>();
+
+    /**
+     * The time in milliseconds to wait before checking a User Message without retry interval
+     */
+    private final long missingConfigDelay;
+
+    /**
+     * Creates and starts a new scheduler that waits {@link #DEFAULT_MISSING_CONFIG_DELAY} milliseconds before checking
+     * User Messages without retry interval.
+     */
+    public RetransmissionScheduler() {
+        this(DEFAULT_MISSING_CONFIG_DELAY);
+    }
+
+    /**
+     * Creates and starts a new scheduler.
+     *
+     * @param missingConfigDelay    The time in milliseconds to wait before checking a User Message whose P-Mode does
+     *                              not specify a retry interval
+     */
+    public RetransmissionScheduler(final long missingConfigDelay) {
+        this.missingConfigDelay = missingConfigDelay;
+        timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "hb2b-retransmission");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        log.debug("Started retransmission scheduler");
+    }
+
+    /**
+     * Indicates whether the given message unit is a User Message waiting for a Receipt that must be handed over to this
+     * scheduler.
+     *
+     * @param msgUnit   The message unit to check
+     * @return          <code>true</code> if the message unit is an outgoing User Message waiting for a Receipt,<br>
+     *                  <code>false</code> otherwise
+     */
+    public static boolean isWaitingForReceipt(final IMessageUnitEntity msgUnit) {
+        if (!(msgUnit instanceof IUserMessage) || msgUnit.getDirection() != IMessageUnit.Direction.OUT)
+            return false;
+        final ProcessingState state = msgUnit.getCurrentProcessingState().getState();
+        return state == ProcessingState.AWAITING_RECEIPT || state == ProcessingState.TRANSPORT_FAILURE
+               || state == ProcessingState.WARNING;
+    }
+
+    /**
+     * Schedules the check for retransmission of the given User Message for the moment its retry interval expires. When
+     * an earlier check is already scheduled for the message id no new check is scheduled.
+     *
+     * @param um    The User Message waiting for a Receipt
+     */
+    public void waitingForReceipt(final IMessageUnitEntity um) {
+        if (!isWaitingForReceipt(um))
+            return;
+        final String messageId = um.getMessageId();
+        final long due = getDueTime((IUserMessageEntity) um);
+        synchronized (scheduled) {
+            final Long current = scheduled.get(messageId);
+            if (current != null && current <= due)
+                return;
+            scheduled.put(messageId, due);
+        }
+        log.debug("Schedule retransmission check of message [" + messageId + "] in "
+                  + Math.max(0, due - System.currentTimeMillis()) + " ms");
+        try {
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    check(messageId, due);
+                }
+            }, Math.max(0, due - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException shutdown) {
+            synchronized (scheduled) {
+                scheduled.remove(messageId);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of User Messages for which a check is scheduled.
+     *
+     * @return  The number of scheduled checks
+     */
+    public int getScheduledCount() {
+        synchronized (scheduled) {
+            return scheduled.size();
+        }
+    }
+
+    /**
+     * Stops the scheduler. The scheduled checks are not executed, the schedule is rebuilt by the
+     * <code>RetransmissionWorker</code> when Holodeck B2B is started again.
+     */
+    public void shutdown() {
+        log.debug("Stopping retransmission scheduler");
+        timer.shutdown();
+        try {
+            if (!timer.awaitTermination(10, TimeUnit.SECONDS))
+                log.warn("Retransmission check still running when the retransmission scheduler was stopped");
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Executes the check for the User Messages with the given message id when the timer expires. If in the meantime
+     * an earlier check was scheduled, this timer is outdated and ignored.
+     *
+     * @param messageId The message id of the User Message to check
+     * @param due       The time the check was scheduled for
+     */
+    private void check(final String messageId, final long due) {
+        synchronized (scheduled) {
+            final Long current = scheduled.get(messageId);
+            if (current == null || current != due)
+                return;
+            scheduled.remove(messageId);
+        }
+        try {
+            final Collection<IMessageUnitEntity> msgUnits =
+                                                    HolodeckB2BCore.getQueryManager().getMessageUnitsWithId(messageId);
+            if (!Utils.isNullOrEmpty(msgUnits))
+                for (final IMessageUnitEntity msgUnit : msgUnits)
+                    if (isWaitingForReceipt(msgUnit)) {
+                        if (getDueTime((IUserMessageEntity) msgUnit) > System.currentTimeMillis())
+                            // The state changed after the check was scheduled, wait for the new interval
+                            waitingForReceipt(msgUnit);
+                        else
+                            checkForRetransmission((IUserMessageEntity) msgUnit);
+                    }
+        } catch (final PersistenceException dbe) {
+            log.error("An error occurred when checking retransmission of message unit [msgID=" + messageId
+                        + "]. Details: " + dbe.getMessage());
+        } catch (final Throwable t) {
+            log.error("Internal error while checking retransmission of message [" + messageId + "]", t);
+        }
+    }
+
+    /**
+     * Gets the moment the retry interval of the given User Message expires. When no retry configuration is available
+     * the check is due after the delay for missing configurations, so a Receipt that is already on its way can still
+     * be processed before the message is set to failed.
+     *
+     * @param um    The User Message waiting for a Receipt
+     * @return      The time, in milliseconds since the epoch, the retry interval expires
+     */
+    private long getDueTime(final IUserMessageEntity um) {
+        final long start = um.getCurrentProcessingState().getStartTime().getTime();
+        final IReceptionAwareness raConfig = getRAConfig(um);
+        if (raConfig == null || raConfig.getRetryInterval() == null)
+            return start + missingConfigDelay;
+        // Convert configured retry interval to milliseconds
+        return start + TimeUnit.MILLISECONDS.convert(raConfig.getRetryInterval().getLength(),
+                                                     raConfig.getRetryInterval().getUnit());
+    }
+
+    /**
+     * Gets the Reception Awareness configuration of the given User Message.
+     *
+     * @param um    The User Message
+     * @return      The Reception Awareness configuration from the P-Mode or <code>null</code> when not available
+     */
+    private IReceptionAwareness getRAConfig(final IUserMessageEntity um) {
+        final ILeg leg = getLeg(um);
+        return leg instanceof IAS4Leg ? ((IAS4Leg) leg).getReceptionAwareness() : null;
+    }
+
+    /**
+     * Gets the P-Mode leg of the given User Message.
+     *
+     * @param um    The User Message
+     * @return      The leg or <code>null</code> when the P-Mode is not available
+     */
+    private ILeg getLeg(final IUserMessageEntity um) {
+        final IPMode pmode = HolodeckB2BCore.getPModeSet().get(um.getPModeId());
+        return pmode != null ? pmode.getLeg(um.getLeg() != null ? um.getLeg() : ILeg.Label.REQUEST) : null;
+    }
+
+    /**
+     * Checks whether the given User Message should be retransmitted and if so changes its processing state so it will
+     * be pushed or pulled again. When the maximum number of retries has been reached a <i>MissingReceipt</i> error is
+     * generated. Must only be called when the retry interval has expired.
+     *
+     * @param um    The User Message that is waiting for a Receipt
+     * @throws PersistenceException When an error occurs while retrieving or updating the message unit's meta-data
+     */
+    protected void checkForRetransmission(final IUserMessageEntity um) throws PersistenceException {
+        final StorageManager updManager = HolodeckB2BCore.getStorageManager();
+        log.debug("Get retry configuration from P-Mode [" + um.getPModeId() + "]");
+        // Retry information is contained in Leg and because retries is part of AS4 reception awareness feature leg
+        // should be instance of ILegAS4, if it is not we can not retransmit
+        final ILeg leg = getLeg(um);
+        final IReceptionAwareness raConfig = getRAConfig(um);
+        if (raConfig == null) {
+            // Not an ILegAS4 instance or no RA config available, can't determine if and how to resend.
+            log.error("Message [" + um.getMessageId() + "] can not be resent due to missing Reception"
+                        + " Awareness configuration in P-Mode [" + um.getPModeId() + "]");
+            // Because we don't know how to process this message further the only thing we can do is set
+            // the processing to failed
+            updManager.setProcessingState(um, ProcessingState.FAILURE);
+            return;
+        }
+
+        // The retransmit interval expired, check if message can be resend or a MissingReceipt error
+        // has to be generated. Initial transmission does not count for max retries
+        final int numOfRetransmits = HolodeckB2BCore.getQueryManager().getNumberOfTransmissions(um) - 1;
+        if (numOfRetransmits >= raConfig.getMaxRetries()) {
+            // No retries left, generate MissingReceipt error
+            missingReceiptsLog.error("No Receipt received for UserMessage with messageId=" + um.getMessageId());
+            // Change processing state accordingly
+            updManager.setProcessingState(um, ProcessingState.FAILURE);
+            log.debug("Changed processing state of user message to reflect failure");
+            // Generate and report (if requested) MissingReceipt
+            generateMissingReceiptError(um, leg);
+        } else {
+            // Message can be resend, is the message to be pushed or pulled?
+            if (PModeUtils.doesHolodeckB2BTrigger(leg)) {
+                log.debug("Message must be pushed to receiver again");
+                updManager.setProcessingState(um, ProcessingState.READY_TO_PUSH);
+            } else {
+                log.debug("Message must be pulled by receiver again");
+                updManager.setProcessingState(um, ProcessingState.AWAITING_PULL);
+            }
+            log.debug("Message unit is ready for retransmission");
+        }
+    }
+
+    /**
+     * Generates the <i>MissingReceipt</i> error and notifies the business application on the error if configured in
+     * the P-Mode.
+     *
+     * @param um        The <code>UserMessage</code> for which the <i>Receipt</i> is missing
+     * @param leg       The P-Mode Leg configuration for this user message
+     */
+    private void generateMissingReceiptError(final IUserMessage um, final ILeg leg) {
+
+        log.debug("Create and store MissingReceipt error");
+        // Create the error and set reference to user message
+        final ErrorMessage missingReceiptError = new ErrorMessage(new MissingReceipt());
+        missingReceiptError.setRefToMessageId(um.getMessageId());
+
+        IErrorMessageEntity   errorMessage;
+        try {
+            errorMessage = HolodeckB2BCore.getStorageManager().storeIncomingMessageUnit(missingReceiptError);
+        } catch (final PersistenceException ex) {
+            log.error("An error occured while saving the MissingReceipt error in database!"
+                        + "Details: " + ex.getMessage());
+            return;
+        }
+
+        log.debug("Determine whether error must be reported");
+        final IReceiptConfiguration rcptConfig = leg.getReceiptConfiguration();
+        boolean deliverError = (rcptConfig != null ? rcptConfig.shouldNotifyReceiptToBusinessApplication() : false);
+        IDeliverySpecification deliverySpec = (rcptConfig != null ? rcptConfig.getReceiptDelivery() : null);
+        if (!deliverError) {
+            // Maybe the application does not want to receive notification on receipts but it does want to receive
+            // error notifications?
+            final IUserMessageFlow umFlow = leg.getUserMessageFlow();
+            final IErrorHandling errHandlingConfig = umFlow != null ? umFlow.getErrorHandlingConfiguration() : null;
+            if (errHandlingConfig != null) {
+                deliverError = errHandlingConfig.shouldNotifyErrorToBusinessApplication();
+                deliverySpec = errHandlingConfig.getErrorDelivery();
+            }
+        }
+        log.info("MissingReceipt error should " + (deliverError ? "" : "not") + " be reported" );
+
+        try {
+            if (deliverError) {
+                if (deliverySpec == null)
+                    // No specific delivery set for receipt or error, use the default one
+                    deliverySpec = leg.getDefaultDelivery();
+                if (deliverySpec == null) {
+                    // No possibility to deliver error as not delivery specs are available, log error
+                    log.error("No delivery specification available for notification of MissingReceipt!"
+                                + " P-Mode=" + um.getPModeId());
+                    // Indicate delivery failure
+                    HolodeckB2BCore.getStorageManager().setProcessingState(errorMessage, ProcessingState.FAILURE);
+                } else {
+                    try {
+                        // Deliver the MissingReceipt error using the given delivery spec
+                        final IMessageDeliverer deliverer = HolodeckB2BCoreInterface.getMessageDeliverer(deliverySpec);
+                        deliverer.deliver(errorMessage);
+                        // Indicate successful delivery
+                        HolodeckB2BCore.getStorageManager().setProcessingState(errorMessage, ProcessingState.DONE);
+                    } catch (final MessageDeliveryException ex) {
+                        log.error("An error occurred while delivering the MissingReceipt error to business application!"
+                                    + "Details: "  + ex.getMessage());
+                        // Indicate delivery failure
+                        HolodeckB2BCore.getStorageManager().setProcessingState(errorMessage, ProcessingState.FAILURE);
+                    }
+                }
+            } else
+                // Indicate MissingReceipt error processing is complete
+                HolodeckB2BCore.getStorageManager().setProcessingState(errorMessage, ProcessingState.DONE);
+        } catch (final PersistenceException dbe) {
+            log.error("An error occurred while updating the processing state of the MissingReceipt error!"
+                     + " Details: " + dbe.getMessage());
+        }
+    }
+}
@@ -132,6 +132,8 @@ public abstract class AbstractFileDeliverer implements IMessageDeliverer {
 
     /**
      * Helper method to copy a the payload content to <i>delivery directory</i>.
+     * <p>NOTE: The content is always copied and not linked because the business application may change the delivered
+     * file, which would then also change the payload stored by Holodeck B2B.
      *
      * @param p         The payload for which the content must be copied
      * @param msgId     The message-id of the message that contains the payload, used for name the file
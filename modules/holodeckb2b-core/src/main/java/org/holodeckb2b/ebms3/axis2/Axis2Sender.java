@@ -25,7 +25,6 @@ import org.apache.axis2.client.ServiceClient;
 import static org.apache.axis2.client.ServiceClient.ANON_OUT_IN_OP;
 import org.apache.axis2.context.MessageContext;
 import org.apache.axis2.transport.http.HTTPConstants;
-import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.logging.Log;
 import org.holodeckb2b.axis2.Axis2Utils;
 import org.holodeckb2b.common.config.InternalConfiguration;
@@ -37,9 +36,11 @@ import org.holodeckb2b.interfaces.messagemodel.IErrorMessage;
 import org.holodeckb2b.interfaces.messagemodel.IPullRequest;
 import org.holodeckb2b.interfaces.messagemodel.IReceipt;
 import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.metrics.IMetricsRegistry;
 import org.holodeckb2b.interfaces.persistency.entities.IErrorMessageEntity;
 import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
 import org.holodeckb2b.interfaces.persistency.entities.IReceiptEntity;
+import org.holodeckb2b.module.HolodeckB2BCore;
 import org.holodeckb2b.module.HolodeckB2BCoreImpl;
 
 /**
@@ -51,6 +52,9 @@ public class Axis2Sender {
 
     /**
      * Sends the given message unit to the other MSH.
+     * <p>When metrics are collected the time needed to send the message is recorded as <i>"send.time"</i> and the
+     * number of messages sent and failed to send are counted in <i>"messages.sent"</i> and
+     * <i>"messages.sendFailures"</i>.
      *
      * @param messageUnit   The message unit to send
      * @param log           The log to use for writing log information
@@ -90,7 +94,9 @@ public class Axis2Sender {
             options.setExceptionToBeThrownOnSOAPFault(false);
             oc.setOptions(options);
 
-            msgCtx.setProperty(HTTPConstants.CACHED_HTTP_CLIENT, new HttpClient());
+            // Use the shared HTTP client so connections to the other MSH are reused
+            msgCtx.setProperty(HTTPConstants.CACHED_HTTP_CLIENT,
+                               HolodeckB2BCore.getHTTPConnectionPool().getHttpClient());
             log.debug("Axis2 client configured for sending ebMS message");
         } catch (final AxisFault af) {
             // Setting up the Axis environment failed. As it prevents sending the message it is logged as a fatal error
@@ -98,10 +104,18 @@ public class Axis2Sender {
             return;
         }
 
+        final IMetricsRegistry metrics = HolodeckB2BCoreInterface.getMetricsRegistry();
+        final long start = metrics.isEnabled() ? System.nanoTime() : 0;
         try {
             log.debug("Start the message send process");
             oc.execute(true);
+            if (start != 0) {
+                metrics.recordTime("send.time", System.nanoTime() - start);
+                metrics.incrementCounter("messages.sent");
+            }
         } catch (final AxisFault af) {
+            if (start != 0)
+                metrics.incrementCounter("messages.sendFailures");
             /* An error occurred while sending the message, it should however be already processed by one of the
                handlers. In that case the message context will not contain the failure reason. To prevent redundant
                logging we check if there is a failure reason before we log the error here.
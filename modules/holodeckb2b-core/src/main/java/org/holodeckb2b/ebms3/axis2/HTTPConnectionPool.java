@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.axis2;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Manages the pool of HTTP connections that is used by {@link Axis2Sender} to send messages. By sharing one pool of
+ * connections between all sending workers the connection to the other MSH, including an established TLS session, can
+ * be reused for following messages to the same host.
+ * <p>The pool is limited both in the number of connections to one host and in the total number of connections. When
+ * the limit is reached the sender will wait until a connection becomes available. Connections that are not used for
+ * the configured idle time are closed by a background thread.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public class HTTPConnectionPool {
+
+    private static final Log log = LogFactory.getLog(HTTPConnectionPool.class);
+
+    /**
+     * The connection manager that maintains the pool of connections
+     */
+    private final MultiThreadedHttpConnectionManager connectionManager;
+
+    /**
+     * The HTTP client that uses the pooled connections
+     */
+    private final HttpClient httpClient;
+
+    /**
+     * The thread that closes the idle connections
+     */
+    private final IdleConnectionTimeoutThread idleConnectionEvictor;
+
+    /**
+     * Creates a new connection pool with the given limits.
+     *
+     * @param maxPerHost    The maximum number of connections to one host
+     * @param maxTotal      The maximum number of connections to all hosts
+     * @param idleTimeout   The time in milliseconds after which an idle connection is closed
+     */
+    public HTTPConnectionPool(final int maxPerHost, final int maxTotal, final long idleTimeout) {
+        connectionManager = new MultiThreadedHttpConnectionManager();
+        final HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(maxPerHost);
+        params.setMaxTotalConnections(maxTotal);
+        // Check whether a connection that was idle is still usable before sending the message on it
+        params.setStaleCheckingEnabled(true);
+
+        httpClient = new HttpClient(connectionManager);
+
+        idleConnectionEvictor = new IdleConnectionTimeoutThread();
+        idleConnectionEvictor.setName("hb2b-http-idle-connection-evictor");
+        idleConnectionEvictor.setConnectionTimeout(idleTimeout);
+        idleConnectionEvictor.setTimeoutInterval(Math.max(idleTimeout / 2, 100));
+        idleConnectionEvictor.addConnectionManager(connectionManager);
+        idleConnectionEvictor.start();
+
+        log.debug("Created HTTP connection pool [maxPerHost=" + maxPerHost + ",maxTotal=" + maxTotal
+                  + ",idleTimeout=" + idleTimeout + "]");
+    }
+
+    /**
+     * Gets the HTTP client that uses the pooled connections. The client can be used concurrently by multiple threads.
+     *
+     * @return  The shared <code>HttpClient</code>
+     */
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Gets the connection manager that manages the pooled connections.
+     *
+     * @return  The <code>MultiThreadedHttpConnectionManager</code> of this pool
+     */
+    MultiThreadedHttpConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    /**
+     * Shuts down the pool, closing all connections and stopping the thread that closes idle connections.
+     */
+    public void shutdown() {
+        log.debug("Shutting down HTTP connection pool");
+        idleConnectionEvictor.shutdown();
+        connectionManager.shutdown();
+    }
+}
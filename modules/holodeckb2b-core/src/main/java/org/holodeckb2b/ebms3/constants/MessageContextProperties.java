@@ -92,4 +92,11 @@ public class MessageContextProperties {
      * application, i.e. the {@link IMessageDeliverer} did throw an exception.
      */
     public static final String DELIVERED_USER_MSG = "org:holodeckb2b:usrmsg-delivered";
+
+    /**
+     * Holds the indicator whether a unit of work was started for the processing of the received message and has not
+     * been ended yet.
+     * @since 3.1.0
+     */
+    public static final String UNIT_OF_WORK_ACTIVE = "org:holodeckb2b:uow-active";
 }
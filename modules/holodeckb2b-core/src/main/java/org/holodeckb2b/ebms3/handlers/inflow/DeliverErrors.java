@@ -28,6 +28,7 @@ import org.holodeckb2b.interfaces.delivery.IDeliverySpecification;
 import org.holodeckb2b.interfaces.delivery.IMessageDeliverer;
 import org.holodeckb2b.interfaces.delivery.MessageDeliveryException;
 import org.holodeckb2b.interfaces.messagemodel.IPullRequest;
+import org.holodeckb2b.interfaces.metrics.IMetricsRegistry;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
 import org.holodeckb2b.interfaces.persistency.entities.IErrorMessageEntity;
 import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
@@ -80,6 +81,8 @@ public class DeliverErrors extends BaseHandler {
 
             if(updateManager.setProcessingState(errorSignal, ProcessingState.READY_FOR_DELIVERY,
                                                              ProcessingState.OUT_FOR_DELIVERY)) {
+                // Save the changed state before delivery as the delivery itself can not be undone
+                updateManager.commitUnitOfWork();
                 // Errors in this signal can be delivered to business application
                 log.debug("Start delivery of Error Signal [" + errorSignal.getMessageId() + "]");
                 // We deliver each error in the signal separately because they can reference different
@@ -158,10 +161,14 @@ public class DeliverErrors extends BaseHandler {
             log.debug("Delivering the error using deliverer");
             // Because the reference to the message in error may be derived, set it explicitly on signal meta-data
             // See issue #12
+            final IMetricsRegistry metrics = HolodeckB2BCoreInterface.getMetricsRegistry();
+            final long start = metrics.isEnabled() ? System.nanoTime() : 0;
             try {
                 ErrorMessage deliverySignal = new ErrorMessage(errorSignal);
                 deliverySignal.setRefToMessageId(refToMsgId);
                 deliverer.deliver(deliverySignal);
+                if (start != 0)
+                    metrics.recordTime("delivery.Error", System.nanoTime() - start);
                 log.debug("Error successfully delivered!");
             } catch (final MessageDeliveryException ex) {
                 // There was an "normal/expected" issue during delivery, continue as normal
@@ -20,9 +20,11 @@ import org.apache.axis2.context.MessageContext;
 import org.holodeckb2b.common.handler.BaseHandler;
 import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.ebms3.constants.MessageContextProperties;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
 import org.holodeckb2b.interfaces.delivery.IDeliverySpecification;
 import org.holodeckb2b.interfaces.delivery.IMessageDeliverer;
 import org.holodeckb2b.interfaces.delivery.MessageDeliveryException;
+import org.holodeckb2b.interfaces.metrics.IMetricsRegistry;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
 import org.holodeckb2b.interfaces.persistency.entities.IReceiptEntity;
 import org.holodeckb2b.interfaces.pmode.ILeg;
@@ -72,6 +74,8 @@ public class DeliverReceipts extends BaseHandler {
             log.debug("Prepare message [" + receipt.getMessageId() + "] for delivery");
             if(updateManager.setProcessingState(receipt, ProcessingState.READY_FOR_DELIVERY,
                                                          ProcessingState.OUT_FOR_DELIVERY)) {
+                // Save the changed state before delivery as the delivery itself can not be undone
+                updateManager.commitUnitOfWork();
                 // Receipt in this signal can be delivered to business application
                 try {
                     deliverReceipt(receipt);
@@ -111,8 +115,12 @@ public class DeliverReceipts extends BaseHandler {
             log.debug("Receipt should be delivered using delivery specification with id:" + deliverySpec.getId());
             final IMessageDeliverer deliverer = HolodeckB2BCore.getMessageDeliverer(deliverySpec);
             // Deliver the Receipt using deliverer
+            final IMetricsRegistry metrics = HolodeckB2BCoreInterface.getMetricsRegistry();
+            final long start = metrics.isEnabled() ? System.nanoTime() : 0;
             try {
                 deliverer.deliver(receipt);
+                if (start != 0)
+                    metrics.recordTime("delivery.Receipt", System.nanoTime() - start);
                 log.debug("Receipt successfully delivered!");
             } catch (final MessageDeliveryException ex) {
                 // There was an "normal/expected" issue during delivery, continue as normal
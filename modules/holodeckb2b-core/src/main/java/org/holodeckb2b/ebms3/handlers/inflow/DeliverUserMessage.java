@@ -17,11 +17,15 @@
 package org.holodeckb2b.ebms3.handlers.inflow;
 
 import org.apache.axis2.context.MessageContext;
+import org.apache.commons.logging.Log;
 import org.holodeckb2b.ebms3.constants.MessageContextProperties;
 import org.holodeckb2b.ebms3.util.AbstractUserMessageHandler;
+import org.holodeckb2b.ebms3.workers.DeliveryDispatcher;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
 import org.holodeckb2b.interfaces.delivery.IDeliverySpecification;
 import org.holodeckb2b.interfaces.delivery.IMessageDeliverer;
 import org.holodeckb2b.interfaces.delivery.MessageDeliveryException;
+import org.holodeckb2b.interfaces.metrics.IMetricsRegistry;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
 import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
 import org.holodeckb2b.interfaces.pmode.IPMode;
@@ -35,6 +39,9 @@ import org.holodeckb2b.persistency.dao.StorageManager;
  * <p>To prevent that the message unit is delivered twice in parallel delivery only takes place when the processing
  * state can be successfully changed from {@link ProcessingState#READY_FOR_DELIVERY} to
  * {@link ProcessingState#OUT_FOR_DELIVERY}.
+ * <p>When asynchronous delivery is enabled the user message is not delivered by this handler but handed over to the
+ * {@link DeliveryDispatcher}. As the user message is then accepted for delivery it is marked as delivered so the
+ * Receipt can be sent immediately. Failed deliveries are retried by the dispatcher.
  * <p>NOTE: The actual delivery to the business application is done through a <i>DeliveryMethod</i> which is specified
  * in the P-Mode for this message unit.
  *
@@ -51,31 +58,28 @@ public class DeliverUserMessage extends AbstractUserMessageHandler {
     protected InvocationResponse doProcessing(final MessageContext mc, final IUserMessageEntity um)
                                                                                         throws PersistenceException {
         StorageManager updateManager = HolodeckB2BCore.getStorageManager();
+        final DeliveryDispatcher dispatcher = HolodeckB2BCore.getDeliveryDispatcher();
+        if (dispatcher != null) {
+            // Asynchronous delivery, hand the message over to the dispatcher once it is saved
+            if (um.getCurrentProcessingState().getState() == ProcessingState.READY_FOR_DELIVERY) {
+                updateManager.commitUnitOfWork();
+                log.debug("Hand over user message [" + um.getMessageId() + "] for asynchronous delivery");
+                dispatcher.readyForDelivery(um);
+                // The message is accepted, so the receipt can be created
+                mc.setProperty(MessageContextProperties.DELIVERED_USER_MSG, true);
+            }
+            return InvocationResponse.CONTINUE;
+        }
         // Prepare message for delivery by checking it is still ready for delivery and then
         // change its processing state to "out for delivery"
         log.debug("Prepare message [" + um.getMessageId() + "] for delivery");
         if(updateManager.setProcessingState(um, ProcessingState.READY_FOR_DELIVERY, ProcessingState.OUT_FOR_DELIVERY)) {
+            // Save the changed state before delivery as the delivery itself can not be undone
+            updateManager.commitUnitOfWork();
             // Message can be delivered to business application
             log.debug("Start delivery of user message");
             try {
-                // Get the delivery specification from the P-Mode
-                final IPMode pmode = HolodeckB2BCore.getPModeSet().get(um.getPModeId());
-                // For now we just have one leg, so we get the delivery spec of the first leg
-                final IDeliverySpecification deliveryMethod = pmode.getLegs().iterator().next().getDefaultDelivery();
-                final IMessageDeliverer deliverer = HolodeckB2BCore.getMessageDeliverer(deliveryMethod);
-                try {
-                    log.debug("Delivering the message using delivery specification: " + deliveryMethod.getId());
-                    deliverer.deliver(um);
-                } catch (final MessageDeliveryException ex) {
-                    // There was an "normal/expected" issue during delivery, continue as normal
-                    throw ex;
-                } catch (final Throwable t) {
-                    // Catch of Throwable used for extra safety in case the DeliveryMethod implementation does not
-                    // handle all exceptions correctly
-                    log.warn(deliverer.getClass().getSimpleName() + " threw " + t.getClass().getSimpleName()
-                             + " instead of MessageDeliveryException!");
-                    throw new MessageDeliveryException("Unhandled exception during message delivery", t);
-                }
+                deliver(um, log);
                 // Indicate that message is delivered so receipt can be created
                 mc.setProperty(MessageContextProperties.DELIVERED_USER_MSG, true);
                 log.info("Successfully delivered user message [msgId=" + um.getMessageId() +"]");
@@ -96,4 +100,40 @@ public class DeliverUserMessage extends AbstractUserMessageHandler {
 
         return InvocationResponse.CONTINUE;
     }
+
+    /**
+     * Delivers the given user message to the business application using the delivery method specified in the P-Mode.
+     * Is also used by the {@link DeliveryDispatcher} when user messages are delivered asynchronously.
+     *
+     * @param um    The user message to deliver
+     * @param log   The log to use
+     * @throws MessageDeliveryException When the user message could not be delivered
+     * @since  3.1.0
+     */
+    public static void deliver(final IUserMessageEntity um, final Log log) throws MessageDeliveryException {
+        // Get the delivery specification from the P-Mode
+        final IPMode pmode = HolodeckB2BCore.getPModeSet().get(um.getPModeId());
+        if (pmode == null)
+            throw new MessageDeliveryException("P-Mode " + um.getPModeId() + " not found in current P-Mode set!");
+        // For now we just have one leg, so we get the delivery spec of the first leg
+        final IDeliverySpecification deliveryMethod = pmode.getLegs().iterator().next().getDefaultDelivery();
+        final IMessageDeliverer deliverer = HolodeckB2BCore.getMessageDeliverer(deliveryMethod);
+        final IMetricsRegistry metrics = HolodeckB2BCoreInterface.getMetricsRegistry();
+        final long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        try {
+            log.debug("Delivering the message using delivery specification: " + deliveryMethod.getId());
+            deliverer.deliver(um);
+            if (start != 0)
+                metrics.recordTime("delivery.UserMessage", System.nanoTime() - start);
+        } catch (final MessageDeliveryException ex) {
+            // There was an "normal/expected" issue during delivery, continue as normal
+            throw ex;
+        } catch (final Throwable t) {
+            // Catch of Throwable used for extra safety in case the DeliveryMethod implementation does not
+            // handle all exceptions correctly
+            log.warn(deliverer.getClass().getSimpleName() + " threw " + t.getClass().getSimpleName()
+                     + " instead of MessageDeliveryException!");
+            throw new MessageDeliveryException("Unhandled exception during message delivery", t);
+        }
+    }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.handlers.inflow;
+
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.wsdl.WSDLConstants;
+import org.holodeckb2b.common.handler.BaseHandler;
+import org.holodeckb2b.ebms3.constants.MessageContextProperties;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.module.HolodeckB2BCore;
+
+/**
+ * Is the in flow handler that ends the <i>unit of work</i> started by the {@link StartUnitOfWork} handler and thereby
+ * commits the changes made during the processing of the received message units. It must be the last handler in the in
+ * flow so all changes are saved before a response is sent.
+ * <p>When the changes can not be saved, or the unit of work was aborted because earlier changes were rolled back, a
+ * fault is raised so the sender is informed that the message could not be processed.
+ * <p>This handler is also the first handler of the out flows. When Holodeck B2B responds to the received message and
+ * the unit of work was not ended in the in flow it is ended there, so the changes are always saved before the response
+ * or fault is sent.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public class EndUnitOfWork extends BaseHandler {
+
+    @Override
+    protected byte inFlows() {
+        return IN_FLOW | IN_FAULT_FLOW | OUT_FLOW | OUT_FAULT_FLOW;
+    }
+
+    @Override
+    protected InvocationResponse doProcessing(final MessageContext mc) throws PersistenceException {
+        final boolean inFlow = isInFlow(IN_FLOW) || isInFlow(IN_FAULT_FLOW);
+        // In the out flow the unit of work can only be active when responding to the received message
+        final MessageContext inMsgContext = inFlow ? mc : getInMessageContext(mc);
+        if (inMsgContext != null && inMsgContext.getProperty(MessageContextProperties.UNIT_OF_WORK_ACTIVE) != null) {
+            inMsgContext.removeProperty(MessageContextProperties.UNIT_OF_WORK_ACTIVE);
+            if (inFlow)
+                log.debug("End the unit of work for processing the received message");
+            else
+                log.warn("Unit of work for processing the received message still active, end it before responding");
+            try {
+                HolodeckB2BCore.getStorageManager().endUnitOfWork();
+            } catch (final PersistenceException commitFailure) {
+                if (!isInFlow(OUT_FAULT_FLOW))
+                    throw commitFailure;
+                // A fault is already being sent, so only log the problem
+                log.error("Could not save the changes made in processing the received message! Error details: "
+                          + commitFailure.getMessage());
+            }
+        }
+
+        return InvocationResponse.CONTINUE;
+    }
+
+    /**
+     * Gets the message context of the received message the given message context of the response belongs to.
+     *
+     * @param mc    The message context of the response
+     * @return      The message context of the received message, or <code>null</code> if not available
+     */
+    private MessageContext getInMessageContext(final MessageContext mc) {
+        try {
+            return mc.getOperationContext().getMessageContext(WSDLConstants.MESSAGE_LABEL_IN_VALUE);
+        } catch (final Exception noInMsgContext) {
+            return null;
+        }
+    }
+}
@@ -25,6 +25,7 @@ import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.ebms3.axis2.MessageContextUtils;
 import org.holodeckb2b.ebms3.constants.MessageContextProperties;
 import org.holodeckb2b.ebms3.errors.EmptyMessagePartitionChannel;
+import org.holodeckb2b.ebms3.pulling.PullQueues;
 import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
 import org.holodeckb2b.interfaces.persistency.entities.IPullRequestEntity;
@@ -38,6 +39,8 @@ import org.holodeckb2b.module.HolodeckB2BCore;
  * returned in response to a pull request.
  * <p>The {@link FindPModesForPullRequest} handler has already determined from which P-Modes messages may be
  * selected. This handler will select the user message message unit that is waiting as longest to get pulled.
+ * <p>When the {@link PullQueues} are filled the user message is taken from these in-memory queues. Otherwise it is
+ * selected from the database.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  */
@@ -70,7 +73,10 @@ public class GetMessageUnitForPulling extends BaseHandler {
         }
 
         log.debug("Get the oldest message that can be pulled for the MPC in pull request");
-        final IUserMessageEntity pulledUserMsg = getForPulling(authPModes, pullRequest.getMPC());
+        final PullQueues pullQueues = HolodeckB2BCore.getPullQueues();
+        final IUserMessageEntity pulledUserMsg = pullQueues != null && pullQueues.isReady() ?
+                                                        pullQueues.claim(getPModeIds(authPModes), pullRequest.getMPC())
+                                                      : getForPulling(authPModes, pullRequest.getMPC());
 
         if (pulledUserMsg == null) {
             // No message available -> return Empty MPC error
@@ -111,11 +117,9 @@ public class GetMessageUnitForPulling extends BaseHandler {
                                                                                         throws PersistenceException {
         log.debug("Get list of messages waiting to be pulled");
         // Query is based on the P-Mode ids so convert given set of P-Modes to id only collection
-        Set<String> pmodeIds = new HashSet<>(authPModes.size());
-        for (IPMode p : authPModes) pmodeIds.add(p.getId());
         List<IUserMessageEntity> waitingUserMessages =  HolodeckB2BCore.getQueryManager()
                                                             .getMessageUnitsForPModesInState(IUserMessage.class,
-                                                                                        pmodeIds,
+                                                                                        getPModeIds(authPModes),
                                                                                         ProcessingState.AWAITING_PULL);
         // Are there messages waiting?
         if (Utils.isNullOrEmpty(waitingUserMessages))
@@ -155,4 +159,17 @@ public class GetMessageUnitForPulling extends BaseHandler {
             }
         }
     }
+
+    /**
+     * Helper method to convert the given list of P-Modes to a collection of P-Mode ids.
+     *
+     * @param pmodes    The list of P-Modes
+     * @return          The ids of the given P-Modes
+     * @since 3.1.0
+     */
+    private static Set<String> getPModeIds(final List<IPMode> pmodes) {
+        final Set<String> pmodeIds = new HashSet<>(pmodes.size());
+        for (final IPMode p : pmodes) pmodeIds.add(p.getId());
+        return pmodeIds;
+    }
  }
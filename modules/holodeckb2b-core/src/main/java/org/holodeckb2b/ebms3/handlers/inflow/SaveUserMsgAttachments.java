@@ -20,6 +20,7 @@ import org.apache.axiom.om.OMElement;
 import org.apache.axiom.soap.SOAPBody;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.context.MessageContext;
+import org.holodeckb2b.as4.compression.CompressionDataHandler;
 import org.holodeckb2b.as4.compression.DeCompressionFailure;
 import org.holodeckb2b.common.messagemodel.EbmsError;
 import org.holodeckb2b.common.messagemodel.Payload;
@@ -40,6 +41,8 @@ import org.holodeckb2b.module.HolodeckB2BCore;
 import org.holodeckb2b.persistency.dao.StorageManager;
 
 import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.activation.FileDataSource;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
@@ -52,6 +55,9 @@ import java.util.zip.ZipException;
 /**
  * Is the <i>IN_FLOW</i> handler responsible for reading the payload content from the SOAP message. The payloads are
  * stored temporarily on the file system.
+ * <p>When Axis2 is configured to cache attachments on the file system (see the <i>cacheAttachments</i> parameter in
+ * <code>axis2.xml</code>) and the attachment content does not need to be decompressed the cached file is linked
+ * instead of copied, so the content of large attachments is written to disk only once.
  * <p>Once the payloads are successfully read the UserMessage is ready for delivery to the business application. So this
  * handler changes the processing state to {@link ProcessingState#READY_FOR_DELIVERY}.
  * <p>As this handler is only useful when a {@link IUserMessageEntity} object is already available in the message context this
@@ -66,6 +72,11 @@ public class SaveUserMsgAttachments extends AbstractUserMessageHandler {
      */
     private static final String PAYLOAD_DIR = "plcin";
 
+    /**
+     * The size of the buffer used when writing the payload content to file
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     @Override
     protected byte inFlows() {
         return IN_FLOW;
@@ -103,8 +114,7 @@ public class SaveUserMsgAttachments extends AbstractUserMessageHandler {
             for(final IPayload ip : payloads) {
                 // Convert to Payload object so we can set properties
                 Payload p = new Payload(ip);
-                // Create a unique filename for temporarily storing the payload
-                final File plFile = File.createTempFile("pl-", null, tmpPayloadDir);
+                File plFile = null;
 
                 log.debug("Check containment of payload");
                 // The reference defines how the payload is contained in the message
@@ -129,6 +139,8 @@ public class SaveUserMsgAttachments extends AbstractUserMessageHandler {
                         } else {
                             // Found the referenced element, save it (and its children) fo file
                             log.debug("Found referenced element in SOAP body");
+                            // Create a unique filename for temporarily storing the payload
+                            plFile = File.createTempFile("pl-", null, tmpPayloadDir);
                             saveXMLPayload(plElement, plFile);
                             log.debug("Payload saved to temporary file, set content location in meta data");
                             p.setMimeType("application/xml");
@@ -147,9 +159,10 @@ public class SaveUserMsgAttachments extends AbstractUserMessageHandler {
                             createInconsistentError(mc, um, plRef);
                             return InvocationResponse.CONTINUE;
                         } else {
-                            try (final OutputStream aOS = new FileOutputStream(plFile))
-                            {
-                                dh.writeTo(aOS);
+                            // Create a unique filename for temporarily storing the payload
+                            plFile = File.createTempFile("pl-", null, tmpPayloadDir);
+                            try {
+                                saveAttachment(dh, plFile);
                             } catch (final IOException ioException) {
                                 // Get root cause as this problem can be caused by failure to decompress, decrypt or
                                 // writing to file system
@@ -234,6 +247,30 @@ public class SaveUserMsgAttachments extends AbstractUserMessageHandler {
         return tmpPayloadDir;
     }
 
+    /**
+     * Saves the content of an attachment to the given file. When the attachment was cached on the file system by Axis2
+     * and its content is not transformed when read, the cached file is linked to the given file. Otherwise the content
+     * is streamed to the file.
+     *
+     * @param dh        The {@link DataHandler} of the attachment
+     * @param plFile    {@link File} handle for the file where content should be saved
+     * @throws IOException  When the content can not be read or written to file
+     */
+    private void saveAttachment(final DataHandler dh, final File plFile) throws IOException {
+        final DataSource ds = dh.getDataSource();
+        if (!(dh instanceof CompressionDataHandler) && ds instanceof FileDataSource) {
+            log.debug("Attachment is cached in file, link it");
+            if (Utils.linkOrCopyFile(((FileDataSource) ds).getFile().toPath(), plFile.toPath()))
+                log.debug("Linked cached attachment file");
+            else
+                log.debug("Cached attachment file could not be linked and is copied");
+        } else {
+            try (final OutputStream aOS = new BufferedOutputStream(new FileOutputStream(plFile), BUFFER_SIZE)) {
+                dh.writeTo(aOS);
+            }
+        }
+    }
+
     /**
      * Searches for and returns the element in the SOAP body with the given id.
      * <p>This method only looks for the <code>xml:id</code> attribute of the elements.
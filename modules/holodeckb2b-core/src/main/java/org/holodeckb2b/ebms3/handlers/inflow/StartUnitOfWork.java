@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.handlers.inflow;
+
+import org.apache.axis2.context.MessageContext;
+import org.holodeckb2b.common.handler.BaseHandler;
+import org.holodeckb2b.ebms3.constants.MessageContextProperties;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.module.HolodeckB2BCore;
+
+/**
+ * Is the in flow handler that starts the <i>unit of work</i> in which the meta-data changes of the received message
+ * units are stored. By using a unit of work the database updates made during the processing of a received message are
+ * grouped into a few transactions instead of one transaction per update. The unit of work is committed before message
+ * units are delivered to the business application and ended by the {@link EndUnitOfWork} handler at the end of the in
+ * flow, i.e. before a response is sent. This ensures that the state of the message units is saved before any action
+ * that can not be undone is executed.
+ * <p>As the handlers in the flow can not make changes again that were lost, the unit of work is aborted when an update
+ * fails and the changes are rolled back. All further updates then fail and so do the commit before delivery and the
+ * end of the unit of work, which raises a fault so the sender is informed the message could not be processed. This
+ * prevents that processing continues, or the message is delivered, based on changes that were not saved.
+ * <p>When processing of the message does not reach the end of the flow, because a fault was raised or processing was
+ * stopped, the unit of work is ended when the flow is completed. As the flow completion of this handler is executed
+ * after that of the {@link org.holodeckb2b.ebms3.util.CatchAxisFault} handler, the changes made when handling a fault
+ * are part of the unit of work.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public class StartUnitOfWork extends BaseHandler {
+
+    @Override
+    protected byte inFlows() {
+        return IN_FLOW | IN_FAULT_FLOW;
+    }
+
+    @Override
+    protected InvocationResponse doProcessing(final MessageContext mc) throws PersistenceException {
+        log.debug("Start the unit of work for processing the received message");
+        HolodeckB2BCore.getStorageManager().startUnitOfWork(true);
+        mc.setProperty(MessageContextProperties.UNIT_OF_WORK_ACTIVE, Boolean.TRUE);
+
+        return InvocationResponse.CONTINUE;
+    }
+
+    @Override
+    protected void doFlowComplete(final MessageContext mc) {
+        // Only when the unit of work was not ended by the EndUnitOfWork handler it must be ended here
+        if (mc.getProperty(MessageContextProperties.UNIT_OF_WORK_ACTIVE) != null) {
+            mc.removeProperty(MessageContextProperties.UNIT_OF_WORK_ACTIVE);
+            log.debug("Processing of the received message did not complete, end the unit of work");
+            try {
+                HolodeckB2BCore.getStorageManager().endUnitOfWork();
+            } catch (final PersistenceException commitFailure) {
+                log.error("Could not save the changes made in processing the received message! Error details: "
+                          + commitFailure.getMessage());
+            }
+        }
+    }
+}
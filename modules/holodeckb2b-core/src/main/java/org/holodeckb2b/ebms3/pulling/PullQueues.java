@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.pulling;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.holodeckb2b.common.util.Utils;
+import org.holodeckb2b.interfaces.general.EbMSConstants;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.dao.IMessageUnitCallback;
+import org.holodeckb2b.interfaces.persistency.dao.IQueryManager;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.module.HolodeckB2BCore;
+
+/**
+ * Keeps the User Messages that are waiting to be pulled in memory so a received Pull Request can be answered without
+ * querying the database for all waiting messages.
+ * <p>The waiting User Messages are queued per MPC and P-Mode, ordered by their time stamp so the longest waiting
+ * message is pulled first. The User Messages are handed over by the {@link
+ * org.holodeckb2b.persistency.dao.StorageManager} when their processing state is changed to {@link
+ * ProcessingState#AWAITING_PULL} and the queues are filled from the database when Holodeck B2B is started. Until they
+ * are filled the Pull Requests are handled using the database.
+ * <p>Only the message id is queued. When a User Message is selected for pulling it is retrieved from the database and
+ * its processing state is changed to {@link ProcessingState#PROCESSING}. If that fails the User Message is no longer
+ * waiting to be pulled and the next one is selected. This way message units that left the <i>AWAITING_PULL</i> state
+ * in another way, for example because they were purged, are removed from the queues without extra administration.
+ * When the change of the processing state is rolled back the User Message is put back in its queue by the {@link
+ * org.holodeckb2b.persistency.dao.StorageManager}. As a safety net the queues are also periodically reconciled with
+ * the database so a User Message that went missing from the queues is still pulled.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public class PullQueues {
+
+    private static final Log log = LogFactory.getLog(PullQueues.class);
+
+    /**
+     * The number of User Messages to retrieve at once when filling the queues
+     */
+    private static final int CHUNK_SIZE = 500;
+
+    /**
+     * The interval in milliseconds at which the queues are reconciled with the database
+     */
+    private static final long RECONCILE_INTERVAL = 5 * 60 * 1000;
+
+    /**
+     * The query manager used to fill the queues and retrieve the selected message unit
+     */
+    private final IQueryManager queryManager;
+
+    /**
+     * The queues of waiting User Messages, first by MPC and then by P-Mode id. Access is synchronized on the map
+     * itself.
+     */
+    private final Map<String, Map<String, PriorityQueue<Entry>>> queues = new HashMap<>();
+
+    /**
+     * The message ids of the queued User Messages, used to prevent a User Message from being queued twice. Access is
+     * synchronized on {@link #queues}.
+     */
+    private final Set<String> queued = new HashSet<>();
+
+    /**
+     * The timer that executes the periodic reconciliation, <code>null</code> when it is not started
+     */
+    private ScheduledThreadPoolExecutor reconciler;
+
+    /**
+     * Indicates whether the queues are filled
+     */
+    private volatile boolean ready = false;
+
+    /**
+     * Sequence number to keep the order of User Messages with the same time stamp
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Is a User Message waiting in a queue.
+     */
+    private static class Entry implements Comparable<Entry> {
+        final String    mpc;
+        final String    pmodeId;
+        final String    messageId;
+        final long      timestamp;
+        final long      seq;
+
+        Entry(final String mpc, final String pmodeId, final String messageId, final long timestamp, final long seq) {
+            this.mpc = mpc;
+            this.pmodeId = pmodeId;
+            this.messageId = messageId;
+            this.timestamp = timestamp;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(final Entry o) {
+            return timestamp != o.timestamp ? Long.compare(timestamp, o.timestamp) : Long.compare(seq, o.seq);
+        }
+    }
+
+    /**
+     * Creates new and empty pull queues. The queues must be filled by calling {@link #build()} before they are used.
+     *
+     * @param queryManager  The query manager of the persistency provider
+     */
+    public PullQueues(final IQueryManager queryManager) {
+        this.queryManager = queryManager;
+    }
+
+    /**
+     * Indicates whether the queues are filled and can be used to select User Messages for pulling.
+     *
+     * @return  <code>true</code> when the queues are filled,<br><code>false</code> otherwise
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Fills the queues with the User Messages that are waiting to be pulled.
+     *
+     * @throws PersistenceException When the waiting User Messages could not be retrieved from the database
+     */
+    public void build() throws PersistenceException {
+        log.debug("Filling the pull queues");
+        final int found = queryManager.processMessageUnitsInState(IUserMessage.class, IMessageUnit.Direction.OUT,
+                                                    new ProcessingState[] { ProcessingState.AWAITING_PULL },
+                                                    CHUNK_SIZE, new IMessageUnitCallback<IUserMessageEntity>() {
+                                                        @Override
+                                                        public boolean process(final IUserMessageEntity um) {
+                                                            add(um);
+                                                            return true;
+                                                        }
+                                                    });
+        ready = true;
+        log.info("Pull queues filled with " + found + " user messages waiting to be pulled");
+    }
+
+    /**
+     * Adds the User Messages that are waiting to be pulled according to the database but are missing from the queues.
+     * Nothing is done when the queues are not filled yet.
+     *
+     * @return  The number of User Messages that were added to the queues
+     * @throws PersistenceException When the waiting User Messages could not be retrieved from the database
+     */
+    public int reconcile() throws PersistenceException {
+        if (!ready)
+            return 0;
+        log.debug("Reconciling the pull queues with the database");
+        final AtomicLong added = new AtomicLong();
+        queryManager.processMessageUnitsInState(IUserMessage.class, IMessageUnit.Direction.OUT,
+                                                new ProcessingState[] { ProcessingState.AWAITING_PULL },
+                                                CHUNK_SIZE, new IMessageUnitCallback<IUserMessageEntity>() {
+                                                    @Override
+                                                    public boolean process(final IUserMessageEntity um) {
+                                                        if (add(um))
+                                                            added.incrementAndGet();
+                                                        return true;
+                                                    }
+                                                });
+        if (added.get() > 0)
+            log.warn("Added " + added.get() + " user messages missing from the pull queues");
+        return (int) added.get();
+    }
+
+    /**
+     * Starts the periodic reconciliation of the queues with the database, see {@link #reconcile()}.
+     */
+    public synchronized void startReconciling() {
+        if (reconciler != null)
+            return;
+        reconciler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "hb2b-pull-queues-reconciler");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        reconciler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reconcile();
+                } catch (final PersistenceException dbError) {
+                    log.error("Could not reconcile the pull queues with the database. Details: "
+                              + dbError.getMessage());
+                }
+            }
+        }, RECONCILE_INTERVAL, RECONCILE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic reconciliation of the queues.
+     */
+    public synchronized void shutdown() {
+        if (reconciler != null) {
+            log.debug("Stopping the reconciliation of the pull queues");
+            reconciler.shutdownNow();
+            reconciler = null;
+        }
+    }
+
+    /**
+     * Adds the given User Message to the queue for its MPC and P-Mode if it is an outgoing User Message waiting to be
+     * pulled.
+     *
+     * @param msgUnit   The message unit that changed to <i>AWAITING_PULL</i>
+     */
+    public void awaitingPull(final IMessageUnitEntity msgUnit) {
+        if (msgUnit instanceof IUserMessageEntity && msgUnit.getDirection() == IMessageUnit.Direction.OUT
+            && msgUnit.getCurrentProcessingState().getState() == ProcessingState.AWAITING_PULL)
+            add((IUserMessageEntity) msgUnit);
+    }
+
+    /**
+     * Puts the given User Message back in the queue for its MPC and P-Mode because the change of its processing state
+     * from <i>AWAITING_PULL</i> was rolled back. As the entity object may still contain the new processing state it is
+     * not checked.
+     *
+     * @param msgUnit   The message unit whose claim for pulling was rolled back
+     */
+    public void released(final IMessageUnitEntity msgUnit) {
+        if (msgUnit instanceof IUserMessageEntity && msgUnit.getDirection() == IMessageUnit.Direction.OUT) {
+            log.debug("Put User Message [" + msgUnit.getMessageId() + "] back in its pull queue");
+            add((IUserMessageEntity) msgUnit);
+        }
+    }
+
+    /**
+     * Gets the number of User Messages in the queues, including the ones that are no longer waiting but have not been
+     * removed yet.
+     *
+     * @return  The number of queued User Messages
+     */
+    public int size() {
+        int size = 0;
+        synchronized (queues) {
+            for (final Map<String, PriorityQueue<Entry>> mpcQueues : queues.values())
+                for (final PriorityQueue<Entry> q : mpcQueues.values())
+                    size += q.size();
+        }
+        return size;
+    }
+
+    /**
+     * Selects the longest waiting User Message that can be pulled using the given MPC from one of the given P-Modes.
+     * As in {@link org.holodeckb2b.ebms3.handlers.inflow.GetMessageUnitForPulling} a User Message can be pulled when its
+     * MPC is the requested MPC or a parent of it. The processing state of the selected User Message is changed to
+     * {@link ProcessingState#PROCESSING}. When this fails because of a database error the User Message is put back in
+     * its queue.
+     *
+     * @param pmodeIds  The ids of the P-Modes from which a User Message may be selected
+     * @param reqMPC    The MPC contained in the pull request
+     * @return          The User Message to return as result for Pull Request or,<br>
+     *                  <code>null</code> if no User Message is available for pulling
+     * @throws PersistenceException When a database error occurs while retrieving or updating the selected message
+     */
+    public IUserMessageEntity claim(final Collection<String> pmodeIds, final String reqMPC)
+                                                                                        throws PersistenceException {
+        Entry next;
+        while ((next = poll(pmodeIds, reqMPC)) != null) {
+            log.debug("Check if User Message [" + next.messageId + "] can be pulled.");
+            try {
+                final Collection<IMessageUnitEntity> msgUnits = queryManager.getMessageUnitsWithId(next.messageId);
+                if (!Utils.isNullOrEmpty(msgUnits))
+                    for (final IMessageUnitEntity msgUnit : msgUnits)
+                        if (msgUnit instanceof IUserMessageEntity
+                            && msgUnit.getDirection() == IMessageUnit.Direction.OUT
+                            && HolodeckB2BCore.getStorageManager().setProcessingState(msgUnit,
+                                                                                      ProcessingState.AWAITING_PULL,
+                                                                                      ProcessingState.PROCESSING))
+                            return (IUserMessageEntity) msgUnit;
+            } catch (final PersistenceException dbError) {
+                log.warn("Could not claim User Message [" + next.messageId + "] for pulling, putting it back in queue");
+                add(next);
+                throw dbError;
+            }
+            log.debug("User Message [" + next.messageId + "] is no longer waiting to be pulled");
+        }
+        return null;
+    }
+
+    /**
+     * Adds the given User Message to its queue unless it is already queued.
+     *
+     * @param um    The User Message waiting to be pulled
+     * @return      <code>true</code> if the User Message was added,<br><code>false</code> if it was already queued
+     */
+    private boolean add(final IUserMessageEntity um) {
+        return add(new Entry(!Utils.isNullOrEmpty(um.getMPC()) ? um.getMPC() : EbMSConstants.DEFAULT_MPC,
+                             um.getPModeId(), um.getMessageId(),
+                             um.getTimestamp() != null ? um.getTimestamp().getTime() : System.currentTimeMillis(),
+                             sequence.getAndIncrement()));
+    }
+
+    /**
+     * Adds the given entry to the queue for its MPC and P-Mode unless the User Message is already queued.
+     *
+     * @param e     The queue entry of the User Message waiting to be pulled
+     * @return      <code>true</code> if the entry was added,<br><code>false</code> if the User Message was already
+     *              queued
+     */
+    private boolean add(final Entry e) {
+        synchronized (queues) {
+            if (!queued.add(e.messageId))
+                return false;
+            Map<String, PriorityQueue<Entry>> mpcQueues = queues.get(e.mpc);
+            if (mpcQueues == null) {
+                mpcQueues = new HashMap<>();
+                queues.put(e.mpc, mpcQueues);
+            }
+            PriorityQueue<Entry> q = mpcQueues.get(e.pmodeId);
+            if (q == null) {
+                q = new PriorityQueue<>();
+                mpcQueues.put(e.pmodeId, q);
+            }
+            q.add(e);
+            return true;
+        }
+    }
+
+    /**
+     * Removes the longest waiting User Message that may be pulled using the given MPC and P-Modes from its queue.
+     * Only the heads of the queues for the MPCs that match the requested MPC and the given P-Modes are compared, so the
+     * time needed does not depend on the number of waiting User Messages. Queues that become empty are removed.
+     *
+     * @param pmodeIds  The ids of the P-Modes from which a User Message may be selected
+     * @param reqMPC    The MPC contained in the pull request
+     * @return          The queue entry of the selected User Message, or <code>null</code> if there is none
+     */
+    private Entry poll(final Collection<String> pmodeIds, final String reqMPC) {
+        synchronized (queues) {
+            PriorityQueue<Entry> oldest = null;
+            for (final Map.Entry<String, Map<String, PriorityQueue<Entry>>> mpcQueues : queues.entrySet()) {
+                // The User Message should be assigned to the requested MPC or a parent MPC
+                if (!reqMPC.startsWith(mpcQueues.getKey()))
+                    continue;
+                for (final String pmodeId : pmodeIds) {
+                    final PriorityQueue<Entry> q = mpcQueues.getValue().get(pmodeId);
+                    if (q != null && !q.isEmpty() && (oldest == null || q.peek().compareTo(oldest.peek()) < 0))
+                        oldest = q;
+                }
+            }
+            if (oldest == null)
+                return null;
+            final Entry next = oldest.poll();
+            queued.remove(next.messageId);
+            if (oldest.isEmpty()) {
+                final Map<String, PriorityQueue<Entry>> mpcQueues = queues.get(next.mpc);
+                mpcQueues.remove(next.pmodeId);
+                if (mpcQueues.isEmpty())
+                    queues.remove(next.mpc);
+            }
+            return next;
+        }
+    }
+}
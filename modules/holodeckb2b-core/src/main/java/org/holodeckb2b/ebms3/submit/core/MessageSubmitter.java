@@ -17,6 +17,8 @@
 package org.holodeckb2b.ebms3.submit.core;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -24,8 +26,17 @@ import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.holodeckb2b.as4.compression.PayloadCompressor;
 import org.holodeckb2b.common.messagemodel.Payload;
 import org.holodeckb2b.common.messagemodel.PullRequest;
 import org.holodeckb2b.common.messagemodel.UserMessage;
@@ -39,8 +50,10 @@ import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
 import org.holodeckb2b.interfaces.pmode.IPMode;
 import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
 import org.holodeckb2b.interfaces.submit.IMessageSubmitter;
+import org.holodeckb2b.interfaces.submit.ISubmissionResult;
 import org.holodeckb2b.interfaces.submit.MessageSubmitException;
 import org.holodeckb2b.module.HolodeckB2BCore;
+import org.holodeckb2b.persistency.dao.StorageManager;
 
 /**
  * Is the default implementation of {@see IMessageSubmitter}.
@@ -51,6 +64,18 @@ public class MessageSubmitter implements IMessageSubmitter {
 
     private static final Log log = LogFactory.getLog(MessageSubmitter.class.getName());
 
+    /**
+     * The maximum number of threads used to move or copy the payloads when a collection of messages is submitted
+     * @since  3.1.0
+     */
+    private static final int PAYLOAD_THREADS = 4;
+
+    /**
+     * The maximum number of messages whose changes are committed together when a collection of messages is submitted
+     * @since  3.1.0
+     */
+    private static final int CHUNK_SIZE = 500;
+
     @Override
     @Deprecated
     public String submitMessage(final IUserMessage um) throws MessageSubmitException {
@@ -78,52 +103,99 @@ public class MessageSubmitter implements IMessageSubmitter {
     public String submitMessage(final IUserMessage um, final boolean movePayloads) throws MessageSubmitException {
         log.trace("Start submission of new User Message");
 
+        final SubmissionResult submission = new SubmissionResult(um);
         try {
-            log.debug("Get the P-Mode for the message");
-            final IPMode  pmode = HolodeckB2BCore.getPModeSet().get(um.getPModeId());
-
-            if (pmode == null) {
-                log.warn("No P-Mode found for submitted message, rejecting message!");
-                throw new MessageSubmitException("No P-Mode found for message");
-            }
-            log.debug("Found P-Mode:" + pmode.getId());
-
-            log.debug("Check for completeness: combined with P-Mode all info must be known");
-            // The complete operation will throw aMessageSubmitException if meta-data is not complete
-            final UserMessage completedMMD = MMDCompleter.complete(um, pmode);
-
-            log.debug("Checking availability of payloads");
-            checkPayloads(completedMMD, pmode); // Throws MessageSubmitException if there is a problem with a specified submissionPayloadInfo
+            // Throws MessageSubmitException if the message can not be accepted
+            prepare(submission);
 
             log.debug("Add message to database");
-            final IUserMessageEntity newUserMessage = (IUserMessageEntity)
-                                            HolodeckB2BCore.getStorageManager().storeOutGoingMessageUnit(completedMMD);
+            submission.storedMessage = HolodeckB2BCore.getStorageManager()
+                                                              .storeOutGoingMessageUnit(submission.completedMMD);
             try {
-                moveOrCopyPayloads(newUserMessage, movePayloads);
+                submission.internalPayloadInfo = moveOrCopyPayloads(submission.storedMessage, movePayloads,
+                                                                     getInternalPayloadDir(),
+                                                                     new LinkedHashMap<Path, Path>());
             } catch (final IOException ex) {
                 log.error("Could not move/copy payload(s) to the internal storage! Unable to process message!"
                             + "\n\tError details: " + ex.getMessage());
-                HolodeckB2BCore.getStorageManager().setProcessingState(newUserMessage, ProcessingState.FAILURE);
+                HolodeckB2BCore.getStorageManager().setProcessingState(submission.storedMessage,
+                                                                       ProcessingState.FAILURE);
                 throw new MessageSubmitException("Could not move/copy payload(s) to the internal storage!", ex);
             }
 
-            //Use P-Mode to find out if this message is to be pulled or pushed to receiver
-            if (EbMSConstants.ONE_WAY_PULL.equalsIgnoreCase(pmode.getMepBinding())) {
-                log.debug("Message is to be pulled by receiver, change ProcessingState to wait for pull");
-                HolodeckB2BCore.getStorageManager().setProcessingState(newUserMessage, ProcessingState.AWAITING_PULL);
-            } else {
-                log.debug("Message is to be pushed to receiver, change ProcessingState to trigger push");
-                HolodeckB2BCore.getStorageManager().setProcessingState(newUserMessage, ProcessingState.READY_TO_PUSH);
-            }
+            release(submission);
 
             log.info("User Message succesfully submitted");
-            return newUserMessage.getMessageId();
+            return submission.storedMessage.getMessageId();
         } catch (final PersistenceException dbe) {
             log.error("An error occured when saving user message to database. Details: " + dbe.getMessage());
             throw new MessageSubmitException("Message could not be saved to database", dbe);
         }
     }
 
+    /**
+     * Submits a collection of <b>User Messages</b> to Holodeck B2B for sending.
+     * <p>The submission of the messages is done in the same steps as the submission of a single message, but each step
+     * is executed for all messages together. First all messages are validated, then the valid messages are stored in
+     * the database, then the payloads of all messages are moved or copied to the internal storage in parallel and
+     * finally the payload information and processing state of all messages are updated. The changes in the database are
+     * committed in chunks of at most {@value #CHUNK_SIZE} messages. When the commit of a chunk fails the updates in it
+     * are retried for each message separately, so only the messages causing the failure are rejected. The payloads of
+     * a message that is rejected after they were moved or copied are moved back or removed.
+     * <p><b>NOTE:</b> As the changes are committed in chunks the messages can not be submitted together while a unit of
+     * work is active on the calling thread, for example when called during the processing of a received message, as
+     * this would also commit or roll back the changes made by the caller. All messages are rejected in that case and
+     * should be submitted separately using {@link #submitMessage(IUserMessage, boolean)}.
+     *
+     * @param messages          The meta data on the user messages to be sent to the other trading partners
+     * @param movePayloads      Indicator whether the files containing the payload data must be deleted or not
+     * @return                  The results of the submission in the same order as the given messages
+     * @since  3.1.0
+     */
+    @Override
+    public List<ISubmissionResult> submitMessages(final Collection<? extends IUserMessage> messages,
+                                                  final boolean movePayloads) {
+        log.trace("Start submission of " + messages.size() + " User Messages");
+
+        final List<ISubmissionResult> results = new ArrayList<>(messages.size());
+        if (HolodeckB2BCore.getStorageManager().isUnitOfWorkActive()) {
+            log.error("User Messages can not be submitted together while a unit of work is active, rejecting all!");
+            for (final IUserMessage um : messages) {
+                final SubmissionResult submission = new SubmissionResult(um);
+                submission.reject(new MessageSubmitException("Messages can not be submitted together within an active"
+                                                             + " unit of work"));
+                results.add(submission);
+            }
+            return results;
+        }
+
+        final List<SubmissionResult> valid = new ArrayList<>(messages.size());
+        for (final IUserMessage um : messages) {
+            final SubmissionResult submission = new SubmissionResult(um);
+            results.add(submission);
+            try {
+                prepare(submission);
+                valid.add(submission);
+            } catch (final MessageSubmitException invalid) {
+                submission.reject(invalid);
+            }
+        }
+        log.debug(valid.size() + " of " + messages.size() + " submitted User Messages are valid");
+        if (valid.isEmpty())
+            return results;
+
+        final List<SubmissionResult> stored = storeMessages(valid);
+        moveOrCopyPayloads(stored, movePayloads);
+        updateStoredMessages(stored, movePayloads);
+
+        int accepted = 0;
+        for (final ISubmissionResult r : results)
+            if (r.isAccepted())
+                accepted++;
+        log.info(accepted + " of " + messages.size() + " User Messages succesfully submitted");
+        return results;
+    }
+
     /**
      * Submits the specified <b>Pull Request</b> to Holodeck B2B for sending.
      * <p>With this submission the business application that expects to receive a User Message, i.e. the <i>Consumer</i>
@@ -162,6 +234,294 @@ public class MessageSubmitter implements IMessageSubmitter {
         return prMessageId;
     }
 
+    /**
+     * Helper method to prepare the submitted User Message for storage. Finds the P-Mode for the message, completes the
+     * meta-data using the P-Mode and checks that the payloads are available.
+     *
+     * @param submission    The submission of the User Message
+     * @throws MessageSubmitException When the submitted User Message can not be accepted
+     * @since  3.1.0
+     */
+    private void prepare(final SubmissionResult submission) throws MessageSubmitException {
+        final IUserMessage um = submission.getSubmittedMessage();
+        log.debug("Get the P-Mode for the message");
+        final IPMode  pmode = HolodeckB2BCore.getPModeSet().get(um.getPModeId());
+
+        if (pmode == null) {
+            log.warn("No P-Mode found for submitted message, rejecting message!");
+            throw new MessageSubmitException("No P-Mode found for message");
+        }
+        log.debug("Found P-Mode:" + pmode.getId());
+
+        log.debug("Check for completeness: combined with P-Mode all info must be known");
+        // The complete operation will throw aMessageSubmitException if meta-data is not complete
+        final UserMessage completedMMD = MMDCompleter.complete(um, pmode);
+
+        log.debug("Checking availability of payloads");
+        checkPayloads(completedMMD, pmode); // Throws MessageSubmitException if there is a problem with a specified submissionPayloadInfo
+
+        submission.pmode = pmode;
+        submission.completedMMD = completedMMD;
+    }
+
+    /**
+     * Helper method to release the stored User Message for sending. Saves the new locations of the payloads and then
+     * changes the processing state so the message will be pushed or can be pulled.
+     *
+     * @param submission    The submission of the User Message
+     * @throws PersistenceException When the meta-data of the message could not be updated
+     * @since  3.1.0
+     */
+    private void release(final SubmissionResult submission) throws PersistenceException {
+        final StorageManager storageManager = HolodeckB2BCore.getStorageManager();
+        if (!Utils.isNullOrEmpty(submission.internalPayloadInfo)) {
+            log.debug("Update the stored information with new locations");
+            storageManager.setPayloadInformation(submission.storedMessage, submission.internalPayloadInfo);
+        }
+
+        // When enabled start compressing the payloads so they are ready when the message is sent
+        final PayloadCompressor compressor = HolodeckB2BCore.getPayloadCompressor();
+        if (compressor != null)
+            compressor.compressAhead(submission.storedMessage, submission.pmode);
+
+        //Use P-Mode to find out if this message is to be pulled or pushed to receiver
+        if (EbMSConstants.ONE_WAY_PULL.equalsIgnoreCase(submission.pmode.getMepBinding())) {
+            log.debug("Message is to be pulled by receiver, change ProcessingState to wait for pull");
+            storageManager.setProcessingState(submission.storedMessage, ProcessingState.AWAITING_PULL);
+        } else {
+            log.debug("Message is to be pushed to receiver, change ProcessingState to trigger push");
+            storageManager.setProcessingState(submission.storedMessage, ProcessingState.READY_TO_PUSH);
+        }
+    }
+
+    /**
+     * Helper method to store the meta-data of the submitted User Messages in the database. The messages are stored in
+     * one unit of work that is committed per chunk, if a chunk fails its messages are stored one by one and the
+     * messages that can not be stored are rejected.
+     *
+     * @param valid     The submissions of the valid User Messages
+     * @return          The submissions of the User Messages that were stored
+     * @since  3.1.0
+     */
+    private List<SubmissionResult> storeMessages(final List<SubmissionResult> valid) {
+        final StorageManager storageManager = HolodeckB2BCore.getStorageManager();
+        final List<SubmissionResult> stored = new ArrayList<>(valid.size());
+        log.debug("Add " + valid.size() + " messages to database");
+        try {
+            storageManager.startUnitOfWork();
+        } catch (final PersistenceException dbe) {
+            log.error("Could not start the storage of the submitted messages! Details: " + dbe.getMessage());
+            for (final SubmissionResult submission : valid)
+                submission.reject(new MessageSubmitException("Message could not be saved to database", dbe));
+            return stored;
+        }
+        try {
+            for (int from = 0; from < valid.size(); from += CHUNK_SIZE)
+                storeChunk(storageManager, valid.subList(from, Math.min(from + CHUNK_SIZE, valid.size())), stored);
+        } finally {
+            endUnitOfWork(storageManager);
+        }
+        return stored;
+    }
+
+    /**
+     * Helper method to store a chunk of the submitted User Messages in the unit of work and commit them. If the commit
+     * fails the messages are stored one by one and the messages that can not be stored are rejected.
+     *
+     * @param storageManager    The storage manager in which the unit of work is active
+     * @param chunk             The submissions of the User Messages to store
+     * @param stored            The submissions of the stored User Messages, to which the stored ones are added
+     * @since  3.1.0
+     */
+    private void storeChunk(final StorageManager storageManager, final List<SubmissionResult> chunk,
+                            final List<SubmissionResult> stored) {
+        try {
+            for (final SubmissionResult submission : chunk)
+                submission.storedMessage = storageManager.storeOutGoingMessageUnit(submission.completedMMD);
+            storageManager.commitUnitOfWork();
+            stored.addAll(chunk);
+        } catch (final PersistenceException batchFailure) {
+            log.warn("Could not store the submitted messages together, storing them separately. Details: "
+                     + batchFailure.getMessage());
+            for (final SubmissionResult submission : chunk) {
+                try {
+                    submission.storedMessage = storageManager.storeOutGoingMessageUnit(submission.completedMMD);
+                    storageManager.commitUnitOfWork();
+                    stored.add(submission);
+                } catch (final PersistenceException dbe) {
+                    log.error("An error occured when saving user message to database. Details: "
+                              + dbe.getMessage());
+                    submission.storedMessage = null;
+                    submission.reject(new MessageSubmitException("Message could not be saved to database", dbe));
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method to move or copy the payloads of the stored User Messages to the internal storage. The payloads of
+     * the messages are moved or copied in parallel. The messages whose payloads could not be moved or copied are
+     * rejected, the payloads of such a message that were already moved or copied are moved back or removed.
+     *
+     * @param stored        The submissions of the stored User Messages
+     * @param move          Indicator whether the files containing the payload data must be moved or copied
+     * @since  3.1.0
+     */
+    private void moveOrCopyPayloads(final List<SubmissionResult> stored, final boolean move) {
+        final List<SubmissionResult> withPayloads = new ArrayList<>();
+        for (final SubmissionResult submission : stored)
+            if (!Utils.isNullOrEmpty(submission.storedMessage.getPayloads()))
+                withPayloads.add(submission);
+        if (withPayloads.isEmpty())
+            return;
+
+        final String internalPayloadDir;
+        try {
+            internalPayloadDir = getInternalPayloadDir();
+        } catch (final IOException ex) {
+            log.error("Could not create the internal payload directory! Unable to process messages!"
+                      + "\n\tError details: " + ex.getMessage());
+            for (final SubmissionResult submission : withPayloads)
+                submission.reject(new MessageSubmitException("Could not move/copy payload(s) to the internal storage!",
+                                                             ex));
+            return;
+        }
+
+        log.debug("Move/copy the payloads of " + withPayloads.size() + " messages to internal directory");
+        final ExecutorService payloadMovers = Executors.newFixedThreadPool(Math.min(PAYLOAD_THREADS,
+                                                                                     withPayloads.size()));
+        try {
+            final List<Future<Collection<IPayload>>> moves = new ArrayList<>(withPayloads.size());
+            for (final SubmissionResult submission : withPayloads)
+                moves.add(payloadMovers.submit(new Callable<Collection<IPayload>>() {
+                    @Override
+                    public Collection<IPayload> call() throws IOException {
+                        return moveOrCopyPayloads(submission.storedMessage, move, internalPayloadDir,
+                                                  submission.internalPayloadFiles);
+                    }
+                }));
+            for (int i = 0; i < withPayloads.size(); i++) {
+                final SubmissionResult submission = withPayloads.get(i);
+                try {
+                    submission.internalPayloadInfo = moves.get(i).get();
+                } catch (final ExecutionException failure) {
+                    final Throwable cause = failure.getCause();
+                    log.error("Could not move/copy payload(s) of message [" + submission.storedMessage.getMessageId()
+                              + "] to the internal storage! Unable to process message!\n\tError details: "
+                              + cause.getMessage());
+                    submission.reject(new MessageSubmitException(
+                                                "Could not move/copy payload(s) to the internal storage!",
+                                                cause instanceof Exception ? (Exception) cause : failure));
+                } catch (final InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    submission.reject(new MessageSubmitException(
+                                                "Interrupted while moving/copying payload(s) to the internal storage!",
+                                                interrupted));
+                }
+            }
+        } finally {
+            payloadMovers.shutdownNow();
+        }
+    }
+
+    /**
+     * Helper method to update the meta-data of the stored User Messages after their payloads are moved to the internal
+     * storage. The accepted messages are released for sending and the rejected ones are set to failed. The updates are
+     * made in one unit of work that is committed per chunk, if a chunk fails the updates are made for each of its
+     * messages separately and the messages that can not be updated are rejected.
+     *
+     * @param stored        The submissions of the stored User Messages
+     * @param move          Indicator whether the files containing the payload data were moved or copied
+     * @since  3.1.0
+     */
+    private void updateStoredMessages(final List<SubmissionResult> stored, final boolean move) {
+        final StorageManager storageManager = HolodeckB2BCore.getStorageManager();
+        try {
+            storageManager.startUnitOfWork();
+        } catch (final PersistenceException dbe) {
+            log.error("Could not start the update of the submitted messages! Details: " + dbe.getMessage());
+            for (final SubmissionResult submission : stored)
+                submission.reject(new MessageSubmitException("Message could not be saved to database", dbe));
+            return;
+        }
+        try {
+            for (int from = 0; from < stored.size(); from += CHUNK_SIZE)
+                updateChunk(storageManager, stored.subList(from, Math.min(from + CHUNK_SIZE, stored.size())), move);
+        } finally {
+            endUnitOfWork(storageManager);
+        }
+    }
+
+    /**
+     * Helper method to update a chunk of the stored User Messages in the unit of work and commit the changes. If the
+     * commit fails the messages are updated one by one. A message that can not be updated is rejected, set to failed
+     * if possible and its payloads are moved back or removed.
+     *
+     * @param storageManager    The storage manager in which the unit of work is active
+     * @param chunk             The submissions of the User Messages to update
+     * @param move              Indicator whether the files containing the payload data were moved or copied
+     * @since  3.1.0
+     */
+    private void updateChunk(final StorageManager storageManager, final List<SubmissionResult> chunk,
+                             final boolean move) {
+        try {
+            for (final SubmissionResult submission : chunk)
+                updateStoredMessage(submission);
+            storageManager.commitUnitOfWork();
+        } catch (final PersistenceException batchFailure) {
+            log.warn("Could not update the submitted messages together, updating them separately. Details: "
+                     + batchFailure.getMessage());
+            for (final SubmissionResult submission : chunk) {
+                try {
+                    updateStoredMessage(submission);
+                    storageManager.commitUnitOfWork();
+                } catch (final PersistenceException dbe) {
+                    log.error("An error occured when saving user message to database. Details: "
+                              + dbe.getMessage());
+                    submission.reject(new MessageSubmitException("Message could not be saved to database", dbe));
+                    try {
+                        storageManager.setProcessingState(submission.storedMessage, ProcessingState.FAILURE);
+                        storageManager.commitUnitOfWork();
+                    } catch (final PersistenceException stateFailure) {
+                        log.error("Could not set the rejected user message [" + submission.storedMessage.getMessageId()
+                                  + "] to failed! Details: " + stateFailure.getMessage());
+                    }
+                    restorePayloads(submission.internalPayloadFiles, move);
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method to update the meta-data of a stored User Message, releasing it for sending when it is accepted or
+     * setting it to failed if it is rejected.
+     *
+     * @param submission    The submission of the User Message
+     * @throws PersistenceException When the meta-data of the message could not be updated
+     * @since  3.1.0
+     */
+    private void updateStoredMessage(final SubmissionResult submission) throws PersistenceException {
+        if (submission.getRejectionReason() != null)
+            HolodeckB2BCore.getStorageManager().setProcessingState(submission.storedMessage, ProcessingState.FAILURE);
+        else
+            release(submission);
+    }
+
+    /**
+     * Helper method to end the unit of work used for the submission of a collection of messages. As all changes are
+     * already committed a failure to end the unit of work is only logged.
+     *
+     * @param storageManager    The storage manager in which the unit of work is active
+     * @since  3.1.0
+     */
+    private void endUnitOfWork(final StorageManager storageManager) {
+        try {
+            storageManager.endUnitOfWork();
+        } catch (final PersistenceException dbe) {
+            log.error("Could not end the unit of work of the submission! Details: " + dbe.getMessage());
+        }
+    }
+
     /**
      * Helper method to check availability of the submissionPayloadInfo.
      * @todo: Also check compliance with payload profile of PMode!
@@ -244,15 +604,14 @@ public class MessageSubmitter implements IMessageSubmitter {
     }
 
     /**
-     * Helper method to copy or move the submissionPayloadInfo to an internal directory so they will be kept available during the
- processing of the message (which may include resending).
+     * Helper method to get the internal directory where the payloads of submitted messages are stored during their
+     * processing (which may include resending). The directory is created when it does not exist yet.
      *
-     * @param um     The meta data on the submitted user message
-     * @param pmode  The P-Mode that governs the processing this user message
-     * @throws IOException  When the payload could not be moved/copied to the internal payload storage
-     * @throws PersistenceException When the new payload locations couldn't be saved to the database
+     * @return              The path of the internal payload directory
+     * @throws IOException  When the directory does not exist and could not be created
+     * @since  3.1.0
      */
-    private void moveOrCopyPayloads(final IUserMessageEntity um, final boolean move) throws IOException, PersistenceException {
+    private String getInternalPayloadDir() throws IOException {
         // Path to the "temp" dir where to store submissionPayloadInfo during processing
         final String internalPayloadDir = HolodeckB2BCore.getConfiguration().getTempDirectory() + "plcout";
         // Create the directory if needed
@@ -261,42 +620,125 @@ public class MessageSubmitter implements IMessageSubmitter {
             log.debug("Create the directory [" + internalPayloadDir + "] for storing payload files");
             Files.createDirectories(pathPlDir);
         }
+        return internalPayloadDir;
+    }
 
+    /**
+     * Helper method to copy or move the submissionPayloadInfo to an internal directory so they will be kept available during the
+ processing of the message (which may include resending).
+     *
+     * @param um                    The meta data on the submitted user message
+     * @param move                  Indicator whether the payload files must be moved or copied
+     * @param internalPayloadDir    The internal directory to move or copy the payload files to
+     * @param done                  The payload files moved or copied to the internal directory, mapped to their
+     *                              original location. When a payload can not be moved or copied the payloads already
+     *                              moved or copied are moved back or removed.
+     * @return              The payload meta-data with the new locations of the payloads, <code>null</code> if the
+     *                      message has no payloads
+     * @throws IOException  When the payload could not be moved/copied to the internal payload storage
+     */
+    private Collection<IPayload> moveOrCopyPayloads(final IUserMessageEntity um, final boolean move,
+                                                    final String internalPayloadDir, final Map<Path, Path> done)
+                                                                                                throws IOException {
         final Collection<? extends IPayload> submissionPayloadInfo = um.getPayloads();
+        if (Utils.isNullOrEmpty(submissionPayloadInfo))
+            return null;
+
         Collection<IPayload> internalPayloadInfo = new ArrayList<>();
-        if (!Utils.isNullOrEmpty(submissionPayloadInfo)) {
-            for (final IPayload p : submissionPayloadInfo) {
-                final Path srcPath = Paths.get(p.getContentLocation());
-                // Ensure that the filename in the temp directory is unique
-                final Path destPath = Utils.createFileWithUniqueName(internalPayloadDir + "/" + srcPath.getFileName());
+        for (final IPayload p : submissionPayloadInfo) {
+            final Path srcPath = Paths.get(p.getContentLocation());
+            // Ensure that the filename in the temp directory is unique
+            final Path destPath = Utils.createFileWithUniqueName(internalPayloadDir + "/" + srcPath.getFileName());
+            try {
+                if (move) {
+                    log.debug("Moving payload [" + p.getContentLocation() + "] to internal directory");
+                    moveToReservedFile(srcPath, destPath);
+                } else {
+                    log.debug("Copying payload [" + p.getContentLocation() + "] to internal directory");
+                    copyToReservedFile(srcPath, destPath);
+                }
+                log.debug("Payload moved/copied to internal directory");
+                done.put(destPath, srcPath);
+                // Complete payload info to store
+                Payload completeInfo = new Payload(p);
+                completeInfo.setContentLocation(destPath.toString());
+                internalPayloadInfo.add(completeInfo);
+            } catch (IOException io) {
+                log.error("Could not copy/move the payload [" + p.getContentLocation() + "] to internal directory"
+                         + " [" + internalPayloadDir + "].\n\tError details: " + io.getMessage());
+                // Remove the already created file for storing the payload
                 try {
-                    if (move) {
-                        log.debug("Moving payload [" + p.getContentLocation() + "] to internal directory");
-                        Files.move(srcPath, destPath, StandardCopyOption.REPLACE_EXISTING);
-                    } else {
-                        log.debug("Copying payload [" + p.getContentLocation() + "] to internal directory");
-                        Files.copy(srcPath, destPath, StandardCopyOption.REPLACE_EXISTING);
-                    }
-                    log.debug("Payload moved/copied to internal directory");
-                    // Complete payload info to store
-                    Payload completeInfo = new Payload(p);
-                    completeInfo.setContentLocation(destPath.toString());
-                    internalPayloadInfo.add(completeInfo);
-                } catch (IOException io) {
-                    log.error("Could not copy/move the payload [" + p.getContentLocation() + "] to internal directory"
-                             + " [" + internalPayloadDir + "].\n\tError details: " + io.getMessage());
-                    // Remove the already created file for storing the payload
-                    try {
-                        Files.deleteIfExists(destPath);
-                    } catch (IOException removeFailure) {
-                        log.error("Could not remove the temporary payload file [" + destPath.toString() + "]!" +
-                                  " Please remove manually.");
-                    }
-                    throw io;
+                    Files.deleteIfExists(destPath);
+                } catch (IOException removeFailure) {
+                    log.error("Could not remove the temporary payload file [" + destPath.toString() + "]!" +
+                              " Please remove manually.");
                 }
+                restorePayloads(done, move);
+                throw io;
             }
-            log.debug("Update the stored information with new locations");
-            HolodeckB2BCore.getStorageManager().setPayloadInformation(um, internalPayloadInfo);
+        }
+        return internalPayloadInfo;
+    }
+
+    /**
+     * Helper method to undo the move or copy of payload files to the internal directory when the message they belong to
+     * is rejected. Moved files are moved back to their original location and copies are removed. Files that can not be
+     * restored are logged so they can be handled manually.
+     *
+     * @param done      The payload files in the internal directory mapped to their original location
+     * @param move      Indicator whether the files were moved or copied
+     * @since  3.1.0
+     */
+    private static void restorePayloads(final Map<Path, Path> done, final boolean move) {
+        for (final Map.Entry<Path, Path> payload : done.entrySet()) {
+            try {
+                if (move) {
+                    log.debug("Moving payload [" + payload.getKey() + "] back to " + payload.getValue());
+                    Files.move(payload.getKey(), payload.getValue());
+                } else
+                    Files.deleteIfExists(payload.getKey());
+            } catch (final IOException restoreFailure) {
+                log.error("Could not " + (move ? "move back" : "remove") + " the payload file [" + payload.getKey()
+                          + "]! Please " + (move ? "move it to " + payload.getValue() : "remove it") + " manually."
+                          + "\n\tError details: " + restoreFailure.getMessage());
+            }
+        }
+        done.clear();
+    }
+
+    /**
+     * Helper method to move a payload file to the file reserved for it in the internal directory. The reserved file is
+     * replaced in one step, so its name is never released while moving and can not be reserved by another submission
+     * that runs concurrently. When the file can not be moved atomically its content is copied and the source is
+     * removed.
+     *
+     * @param srcPath       The path of the payload file
+     * @param destPath      The path of the reserved file
+     * @throws IOException  When the payload could not be moved
+     * @since  3.1.0
+     */
+    private static void moveToReservedFile(final Path srcPath, final Path destPath) throws IOException {
+        try {
+            Files.move(srcPath, destPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException notAtomic) {
+            copyToReservedFile(srcPath, destPath);
+            Files.delete(srcPath);
+        }
+    }
+
+    /**
+     * Helper method to copy a payload file to the file reserved for it in the internal directory. The content is
+     * written to the reserved file instead of replacing it, so its name can not be reserved by another submission that
+     * runs concurrently.
+     *
+     * @param srcPath       The path of the payload file
+     * @param destPath      The path of the reserved file
+     * @throws IOException  When the payload could not be copied
+     * @since  3.1.0
+     */
+    private static void copyToReservedFile(final Path srcPath, final Path destPath) throws IOException {
+        try (OutputStream out = Files.newOutputStream(destPath)) {
+            Files.copy(srcPath, out);
         }
     }
 
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.submit.core;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.interfaces.messagemodel.IPayload;
+import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.pmode.IPMode;
+import org.holodeckb2b.interfaces.submit.ISubmissionResult;
+import org.holodeckb2b.interfaces.submit.MessageSubmitException;
+
+/**
+ * Is the default implementation of {@link ISubmissionResult}. While the collection of User Messages is submitted by
+ * the {@link MessageSubmitter} it also holds the intermediate results of the submission of the User Message.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public class SubmissionResult implements ISubmissionResult {
+
+    /**
+     * The submitted User Message
+     */
+    private final IUserMessage  submitted;
+
+    /**
+     * The reason why the message was rejected, <code>null</code> as long as the message is not rejected
+     */
+    private MessageSubmitException rejectionReason = null;
+
+    /*
+     * The intermediate results of the submission
+     */
+    IPMode                  pmode;
+    UserMessage             completedMMD;
+    IUserMessageEntity      storedMessage;
+    Collection<IPayload>    internalPayloadInfo;
+    final Map<Path, Path>   internalPayloadFiles = new LinkedHashMap<>();
+
+    /**
+     * Creates a new result for the given submitted User Message.
+     *
+     * @param submitted The submitted User Message
+     */
+    SubmissionResult(final IUserMessage submitted) {
+        this.submitted = submitted;
+    }
+
+    /**
+     * Rejects the submitted User Message.
+     *
+     * @param reason    The reason why the message is rejected
+     */
+    void reject(final MessageSubmitException reason) {
+        this.rejectionReason = reason;
+    }
+
+    @Override
+    public IUserMessage getSubmittedMessage() {
+        return submitted;
+    }
+
+    @Override
+    public boolean isAccepted() {
+        return rejectionReason == null && storedMessage != null;
+    }
+
+    @Override
+    public String getMessageId() {
+        return isAccepted() ? storedMessage.getMessageId() : null;
+    }
+
+    @Override
+    public MessageSubmitException getRejectionReason() {
+        return rejectionReason;
+    }
+}
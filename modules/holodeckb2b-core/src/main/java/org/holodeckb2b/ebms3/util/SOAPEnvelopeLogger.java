@@ -16,21 +16,69 @@
  */
 package org.holodeckb2b.ebms3.util;
 
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.axis2.context.MessageContext;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.holodeckb2b.common.config.Config;
+import org.holodeckb2b.common.config.InternalConfiguration;
 import org.holodeckb2b.common.handler.BaseHandler;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.module.HolodeckB2BCore;
 
 
 /**
  * Is a utility handler that logs the <code>SOAP:Envelope</code> element from the current message to a specific log
  * depending whether the message is in or outbound: <i>org.holodeckb2b.msgproc.soapenvlog.</i>(<i>IN|OUT</i>). The
  * log level used is INFO, so the logging can be enabled or disabled by setting the log level.
+ * <p>The envelope is serialized without cloning it. To limit the overhead of logging under high load the Holodeck B2B
+ * configuration can specify that only a sample of the envelopes is logged, that the logged envelope is truncated to a
+ * maximum size and that the envelope is written to the log by a background thread. When the background thread can not
+ * keep up the envelopes that do not fit in its queue are not logged.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  */
 public class SOAPEnvelopeLogger extends BaseHandler {
 
+    /**
+     * The log for the envelopes of incoming messages
+     */
+    private static final Log IN_LOG = LogFactory.getLog("org.holodeckb2b.msgproc.soapenvlog.IN");
+
+    /**
+     * The log for the envelopes of outgoing messages
+     */
+    private static final Log OUT_LOG = LogFactory.getLog("org.holodeckb2b.msgproc.soapenvlog.OUT");
+
+    /**
+     * The maximum number of envelopes waiting to be written to the log when logging asynchronously
+     */
+    private static final int ASYNC_QUEUE_SIZE = 1000;
+
+    /**
+     * The executor that writes the envelopes to the log when logging asynchronously. Shared by all instances of the
+     * handler and created when first needed.
+     */
+    private static volatile ThreadPoolExecutor asyncWriter = null;
+
+    /**
+     * The number of envelopes seen by this handler, used for sampling
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * The settings of the envelope log, read from the configuration when the first envelope is logged
+     */
+    private volatile boolean configured = false;
+    private int     sampleRate = Config.DEFAULT_SOAP_ENVELOPE_LOG_SAMPLE_RATE;
+    private int     maxSize = Config.DEFAULT_SOAP_ENVELOPE_LOG_MAX_SIZE;
+    private boolean async = false;
+
     @Override
     protected byte inFlows() {
         return IN_FLOW | IN_FAULT_FLOW | OUT_FLOW | OUT_FAULT_FLOW;
@@ -39,15 +87,116 @@ public class SOAPEnvelopeLogger extends BaseHandler {
     @Override
     protected InvocationResponse doProcessing(final MessageContext mc) throws Exception {
         // We use a specific log for the SOAP headers so it can easily be enabled or disabled
-        final Log soapEnvLog = LogFactory.getLog("org.holodeckb2b.msgproc.soapenvlog."
-                                            + (isInFlow(IN_FLOW) || isInFlow(IN_FAULT_FLOW) ? "IN" : "OUT"));
+        final Log soapEnvLog = isInFlow(IN_FLOW) || isInFlow(IN_FAULT_FLOW) ? IN_LOG : OUT_LOG;
 
         // Only do something when logging is enabled
-        if (soapEnvLog.isInfoEnabled()) {
-            soapEnvLog.info(mc.getEnvelope().cloneOMElement().toStringWithConsume() + "\n");
-        }
+        if (!soapEnvLog.isInfoEnabled())
+            return InvocationResponse.CONTINUE;
+
+        if (!configured)
+            configure();
+        if (sampleRate > 1 && count.getAndIncrement() % sampleRate != 0)
+            return InvocationResponse.CONTINUE;
+
+        // Serialize with caching so the envelope remains available for further processing without cloning it
+        final CappedWriter envelope = new CappedWriter(maxSize);
+        mc.getEnvelope().serialize(envelope);
+        final String logMessage = envelope.toString();
+
+        if (async)
+            getAsyncWriter().execute(new Runnable() {
+                @Override
+                public void run() {
+                    soapEnvLog.info(logMessage);
+                }
+            });
+        else
+            soapEnvLog.info(logMessage);
 
         return InvocationResponse.CONTINUE;
     }
 
+    /**
+     * Reads the settings of the envelope log from the Holodeck B2B configuration. When the Core is not initialized the
+     * default settings are used.
+     */
+    private synchronized void configure() {
+        if (configured)
+            return;
+        if (HolodeckB2BCoreInterface.isInitialized()) {
+            final InternalConfiguration config = HolodeckB2BCore.getConfiguration();
+            sampleRate = config.getSOAPEnvelopeLogSampleRate();
+            maxSize = config.getSOAPEnvelopeLogMaxSize();
+            async = config.isSOAPEnvelopeLogAsync();
+        }
+        configured = true;
+    }
+
+    /**
+     * Gets the executor that writes the envelopes to the log asynchronously, creating it when needed. The executor
+     * uses one daemon thread and discards envelopes when its queue is full.
+     *
+     * @return  The executor for writing envelopes to the log
+     */
+    private static ThreadPoolExecutor getAsyncWriter() {
+        if (asyncWriter == null) {
+            synchronized (SOAPEnvelopeLogger.class) {
+                if (asyncWriter == null)
+                    asyncWriter = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                                                         new ArrayBlockingQueue<Runnable>(ASYNC_QUEUE_SIZE),
+                                                         new ThreadFactory() {
+                                                             @Override
+                                                             public Thread newThread(final Runnable r) {
+                                                                 final Thread t = new Thread(r, "hb2b-soapenvlog");
+                                                                 t.setDaemon(true);
+                                                                 return t;
+                                                             }
+                                                         },
+                                                         new ThreadPoolExecutor.DiscardPolicy());
+            }
+        }
+        return asyncWriter;
+    }
+
+    /**
+     * Is a {@link Writer} that collects the written characters up to a maximum. The characters written beyond the
+     * maximum are only counted, so the size of a truncated envelope can be reported.
+     */
+    static final class CappedWriter extends Writer {
+
+        private final StringBuilder buffer = new StringBuilder(1024);
+        private final int           max;
+        private long                total = 0;
+
+        /**
+         * @param max   The maximum number of characters to collect, 0 to collect all
+         */
+        CappedWriter(final int max) {
+            this.max = max > 0 ? max : Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+            total += len;
+            final int room = max - buffer.length();
+            if (room > 0)
+                buffer.append(cbuf, off, Math.min(room, len));
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            if (total > buffer.length())
+                return buffer + "... [truncated, envelope size " + total + " characters]\n";
+            else
+                return buffer + "\n";
+        }
+    }
 }
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.workers;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.holodeckb2b.as4.receptionawareness.DetectDuplicateUserMessages;
+import org.holodeckb2b.common.util.Utils;
+import org.holodeckb2b.ebms3.handlers.inflow.DeliverUserMessage;
+import org.holodeckb2b.interfaces.delivery.MessageDeliveryException;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.dao.IMessageUnitCallback;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.pmode.ILeg;
+import org.holodeckb2b.interfaces.pmode.IPMode;
+import org.holodeckb2b.interfaces.processingmodel.IMessageUnitProcessingState;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.module.HolodeckB2BCore;
+import org.holodeckb2b.persistency.dao.StorageManager;
+
+/**
+ * Is responsible for the asynchronous delivery of received user messages to the business application. When
+ * asynchronous delivery is enabled the {@link DeliverUserMessage} handler does not deliver the user message itself but
+ * hands it over to this dispatcher once it is accepted, so the response to the sender does not have to wait for the
+ * back-end. The delivery itself is executed by a pool of delivery threads.
+ * <p>When a delivery fails the user message is set to {@link ProcessingState#DELIVERY_FAILED} and a new attempt is
+ * scheduled. The interval between the attempts starts at the configured retry interval and doubles with each attempt.
+ * When the maximum number of attempts is reached the user message is set to {@link ProcessingState#FAILURE}.
+ * <p>As in the {@link SendDispatcher} only the message id is queued and the user message is retrieved again from the
+ * database before it is delivered. Delivery only starts when the processing state can be changed to
+ * {@link ProcessingState#OUT_FOR_DELIVERY}, so a user message is never delivered twice in parallel. As all user
+ * messages with the same message id are handled by the same task duplicates are detected reliably, also when they are
+ * received while the first message is still waiting for delivery. When the user messages can not be retrieved or
+ * updated because of a database error the task is retried, with the interval between the attempts doubling with each
+ * consecutive error. User messages that are not delivered when Holodeck B2B is stopped remain ready for delivery or
+ * failed and are picked up again when the dispatcher is started.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public class DeliveryDispatcher {
+
+    private static final Log log = LogFactory.getLog(DeliveryDispatcher.class);
+
+    /**
+     * The number of user messages to retrieve at once when looking for user messages to deliver at start up
+     */
+    private static final int CHUNK_SIZE = 100;
+
+    /**
+     * The processing states of user messages that are waiting for (another attempt of) delivery
+     */
+    private static final ProcessingState[] WAITING_STATES = new ProcessingState[] { ProcessingState.READY_FOR_DELIVERY,
+                                                                                    ProcessingState.DELIVERY_FAILED };
+
+    /**
+     * The pool of threads that execute the deliveries
+     */
+    private final ScheduledThreadPoolExecutor deliverers;
+
+    /**
+     * The maximum number of attempts to deliver a user message
+     */
+    private final int maxAttempts;
+
+    /**
+     * The interval before the first retry in milliseconds
+     */
+    private final long retryInterval;
+
+    /**
+     * The message ids for which a delivery task is queued or scheduled. The value indicates whether another user
+     * message with the same id was handed over while the task was already scheduled, in which case the task is
+     * executed again immediately. Access is synchronized on the map itself.
+     */
+    private final Map<String, Boolean> pending = new HashMap<>();
+
+    /**
+     * The number of consecutive database errors per message id, used to determine when the delivery task is retried.
+     * Access is synchronized on {@link #pending}.
+     */
+    private final Map<String, Integer> dbErrors = new HashMap<>();
+
+    /**
+     * Creates and starts a new dispatcher. When started it looks for user messages that are still waiting for delivery.
+     *
+     * @param threads       The number of threads used for delivery
+     * @param maxAttempts   The maximum number of attempts to deliver a user message
+     * @param retryInterval The interval before the first retry in milliseconds
+     */
+    public DeliveryDispatcher(final int threads, final int maxAttempts, final long retryInterval) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryInterval = retryInterval;
+        deliverers = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "hb2b-delivery-" + threadNumber.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // Deliveries scheduled for retry are not executed when the dispatcher is stopped
+        deliverers.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        deliverers.execute(new Runnable() {
+            @Override
+            public void run() {
+                recover();
+            }
+        });
+        log.debug("Started delivery dispatcher [threads=" + threads + ",maxAttempts=" + this.maxAttempts
+                  + ",retryInterval=" + retryInterval + "]");
+    }
+
+    /**
+     * Hands over the given user message for delivery. Only received user messages are accepted. The user message
+     * must be saved in the database before calling this method.
+     *
+     * @param userMessage   The user message that is ready for delivery
+     */
+    public void readyForDelivery(final IUserMessageEntity userMessage) {
+        if (userMessage.getDirection() != IMessageUnit.Direction.IN)
+            return;
+        final String messageId = userMessage.getMessageId();
+        synchronized (pending) {
+            if (pending.containsKey(messageId)) {
+                // Already scheduled, make sure this user message is also checked
+                pending.put(messageId, Boolean.TRUE);
+                return;
+            }
+            pending.put(messageId, Boolean.FALSE);
+        }
+        log.debug("Queue user message [" + messageId + "] for delivery");
+        schedule(messageId, 0);
+    }
+
+    /**
+     * Stops the dispatcher. Deliveries that are already running are given time to complete, user messages that are
+     * still waiting are delivered when Holodeck B2B is started again.
+     */
+    public void shutdown() {
+        log.debug("Stopping delivery dispatcher");
+        deliverers.shutdown();
+        try {
+            if (!deliverers.awaitTermination(10, TimeUnit.SECONDS))
+                log.warn("Not all running deliveries completed before the delivery dispatcher was stopped");
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (pending) {
+            if (!pending.isEmpty())
+                log.info(pending.size() + " user messages left for delivery on next start");
+        }
+    }
+
+    /**
+     * Looks for the received user messages that are still waiting for delivery and hands them over for delivery.
+     */
+    private void recover() {
+        try {
+            final int found = HolodeckB2BCore.getQueryManager().processMessageUnitsInState(IUserMessage.class,
+                                                                                        IMessageUnit.Direction.IN,
+                                                                                        WAITING_STATES, CHUNK_SIZE,
+                                                             new IMessageUnitCallback<IUserMessageEntity>() {
+                                                                @Override
+                                                                public boolean process(final IUserMessageEntity um) {
+                                                                    readyForDelivery(um);
+                                                                    return true;
+                                                                }
+                                                            });
+            if (found > 0)
+                log.info("Found " + found + " user messages waiting for delivery");
+        } catch (final PersistenceException dbError) {
+            log.error("Could not retrieve the user messages waiting for delivery. Details: " + dbError.getMessage());
+        } catch (final Throwable t) {
+            log.error("Internal error in delivery dispatcher", t);
+        }
+    }
+
+    /**
+     * Schedules the delivery task for the given message id.
+     *
+     * @param messageId The message id of the user messages to deliver
+     * @param delay     The time in milliseconds to wait before the task is executed
+     */
+    private void schedule(final String messageId, final long delay) {
+        try {
+            deliverers.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    process(messageId);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException shutdown) {
+            synchronized (pending) {
+                pending.remove(messageId);
+                dbErrors.remove(messageId);
+            }
+            log.debug("Delivery dispatcher stopped, user message [" + messageId + "] not delivered");
+        }
+    }
+
+    /**
+     * Delivers the received user messages with the given message id that are waiting for delivery and schedules the
+     * next attempt for the ones that could not be delivered.
+     *
+     * @param messageId The message id of the user messages to deliver
+     */
+    private void process(final String messageId) {
+        long nextAttempt = -1;
+        int failures = 0;
+        try {
+            final Collection<IMessageUnitEntity> msgUnits =
+                                                    HolodeckB2BCore.getQueryManager().getMessageUnitsWithId(messageId);
+            if (!Utils.isNullOrEmpty(msgUnits))
+                for (final IMessageUnitEntity msgUnit : msgUnits) {
+                    if (!(msgUnit instanceof IUserMessageEntity) || msgUnit.getDirection() != IMessageUnit.Direction.IN)
+                        continue;
+                    final long wait = attemptDelivery((IUserMessageEntity) msgUnit);
+                    if (wait >= 0 && (nextAttempt < 0 || wait < nextAttempt))
+                        nextAttempt = wait;
+                }
+        } catch (final PersistenceException dbError) {
+            synchronized (pending) {
+                final Integer previous = dbErrors.get(messageId);
+                failures = previous != null ? previous + 1 : 1;
+                dbErrors.put(messageId, failures);
+            }
+            nextAttempt = getRetryDelay(failures);
+            log.error("Could not deliver message [" + messageId + "] because a database error occurred."
+                      + " Delivery is retried in " + nextAttempt + " ms. Details: " + dbError.getMessage());
+        } catch (final Throwable t) {
+            log.error("Internal error while delivering message [" + messageId + "]", t);
+        }
+        synchronized (pending) {
+            if (failures == 0)
+                dbErrors.remove(messageId);
+            if (Boolean.TRUE.equals(pending.get(messageId))) {
+                // Another user message with this id was handed over in the meantime, check it now
+                pending.put(messageId, Boolean.FALSE);
+                nextAttempt = 0;
+            } else if (nextAttempt < 0) {
+                pending.remove(messageId);
+                dbErrors.remove(messageId);
+            }
+        }
+        if (nextAttempt >= 0)
+            schedule(messageId, nextAttempt);
+    }
+
+    /**
+     * Tries to deliver the given user message if it is waiting for delivery and its next attempt is due.
+     *
+     * @param um    The user message to deliver
+     * @return      The time in milliseconds until the next attempt should be made, or -1 if no further attempt is
+     *              needed
+     * @throws PersistenceException When a database error occurs while updating the processing state
+     */
+    private long attemptDelivery(final IUserMessageEntity um) throws PersistenceException {
+        final ProcessingState currentState = um.getCurrentProcessingState().getState();
+        if (currentState != ProcessingState.READY_FOR_DELIVERY && currentState != ProcessingState.DELIVERY_FAILED)
+            return -1;
+
+        int attempts = 0;
+        for (final IMessageUnitProcessingState s : um.getProcessingStates())
+            if (s.getState() == ProcessingState.OUT_FOR_DELIVERY)
+                attempts++;
+        final StorageManager storageManager = HolodeckB2BCore.getStorageManager();
+        if (attempts >= maxAttempts) {
+            log.error("Giving up delivery of user message [msgId=" + um.getMessageId() + "] after " + attempts
+                      + " attempts");
+            storageManager.setProcessingState(um, ProcessingState.FAILURE);
+            return -1;
+        }
+        if (currentState == ProcessingState.DELIVERY_FAILED) {
+            final long due = um.getCurrentProcessingState().getStartTime().getTime() + getRetryDelay(attempts);
+            final long wait = due - System.currentTimeMillis();
+            if (wait > 0)
+                return wait;
+        }
+        if (isDuplicate(um)) {
+            log.debug("UserMessage [msgId=" + um.getMessageId() + "] has already been delivered");
+            storageManager.setProcessingState(um, ProcessingState.DUPLICATE);
+            return -1;
+        }
+        if (!storageManager.setProcessingState(um, currentState, ProcessingState.OUT_FOR_DELIVERY)) {
+            log.debug("User message [" + um.getMessageId() + "] is already being delivered");
+            return -1;
+        }
+        attempts++;
+        try {
+            deliver(um);
+            log.info("Successfully delivered user message [msgId=" + um.getMessageId() +"]");
+            storageManager.setProcessingState(um, ProcessingState.DELIVERED);
+            return -1;
+        } catch (final MessageDeliveryException ex) {
+            if (attempts < maxAttempts) {
+                log.warn("Could not deliver the user message [msgId=" + um.getMessageId() + "] (attempt " + attempts
+                         + " of " + maxAttempts + "), will retry in " + getRetryDelay(attempts) + " ms."
+                         + "\n\tError details: " + ex.getMessage());
+                storageManager.setProcessingState(um, ProcessingState.DELIVERY_FAILED);
+                return getRetryDelay(attempts);
+            } else {
+                log.error("Could not deliver the user message [msgId=" + um.getMessageId() + "] in " + attempts
+                          + " attempts, giving up!" + "\n\tError details: " + ex.getMessage());
+                storageManager.setProcessingState(um, ProcessingState.DELIVERY_FAILED);
+                storageManager.setProcessingState(um, ProcessingState.FAILURE);
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Gets the time to wait before the next delivery attempt when the given number of attempts has failed. Also used to
+     * determine the time to wait after consecutive database errors.
+     *
+     * @param failedAttempts    The number of failed attempts
+     * @return                  The time to wait in milliseconds
+     */
+    private long getRetryDelay(final int failedAttempts) {
+        return retryInterval << Math.min(Math.max(failedAttempts - 1, 0), 20);
+    }
+
+    /**
+     * Checks whether the given user message is a duplicate of an already delivered user message when this is
+     * requested by the P-Mode.
+     *
+     * @param um    The user message to check
+     * @return      <code>true</code> when the user message should not be delivered because it is a duplicate,<br>
+     *              <code>false</code> otherwise
+     * @throws PersistenceException When a database error occurs while checking for an earlier delivery
+     */
+    private boolean isDuplicate(final IUserMessageEntity um) throws PersistenceException {
+        final IPMode pmode = HolodeckB2BCore.getPModeSet().get(um.getPModeId());
+        final ILeg leg = pmode != null ? pmode.getLeg(um.getLeg() != null ? um.getLeg() : ILeg.Label.REQUEST) : null;
+        return DetectDuplicateUserMessages.useDuplicateDetection(leg)
+               && HolodeckB2BCore.isAlreadyDelivered(um.getMessageId());
+    }
+
+    /**
+     * Delivers the given user message to the business application.
+     *
+     * @param um    The user message to deliver
+     * @throws MessageDeliveryException When the user message could not be delivered
+     */
+    protected void deliver(final IUserMessageEntity um) throws MessageDeliveryException {
+        DeliverUserMessage.deliver(um, log);
+    }
+}
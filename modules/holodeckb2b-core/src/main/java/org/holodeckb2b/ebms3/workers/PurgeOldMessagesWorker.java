@@ -18,31 +18,56 @@ package org.holodeckb2b.ebms3.workers;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.holodeckb2b.as4.compression.PayloadCompressor;
+import org.holodeckb2b.common.events.EventUtils;
 import org.holodeckb2b.common.messagemodel.Payload;
 import org.holodeckb2b.common.messagemodel.UserMessage;
 import org.holodeckb2b.common.messagemodel.util.MessageUnitUtils;
 import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.common.workerpool.AbstractWorkerTask;
 import org.holodeckb2b.events.MessageUnitPurgedEvent;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventConfiguration;
 import org.holodeckb2b.interfaces.events.types.IMessageUnitPurgedEvent;
 import org.holodeckb2b.interfaces.messagemodel.IPayload;
 import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
 import org.holodeckb2b.interfaces.persistency.dao.IQueryManager;
 import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.pmode.ILeg;
+import org.holodeckb2b.interfaces.pmode.IPMode;
 import org.holodeckb2b.module.HolodeckB2BCore;
+import org.holodeckb2b.persistency.dao.StorageManager;
 
 /**
  * Is the default <i>purge worker</i> responsible for cleaning up information on old and processed messages, i.e. remove
  * the meta-data information from the database and delete associated payloads from the file system.
- * <p>Currently only the number of days after which the message information should be removed can be configured. This is
- * done through the optional <i>purgeAfterDays</i> parameter. If not specified 30 days is used as the default setting.
+ * <p>The number of days after which the message information should be removed can be configured through the optional
+ * <i>purgeAfterDays</i> parameter. If not specified 30 days is used as the default setting.
+ * <p>Since version 3.1.0 the expired message units are purged in batches. The payload files of the User Messages in a
+ * batch are deleted in parallel and the meta-data of all message units in the batch is deleted from the database at
+ * once. To prevent the purge from starving the normal message processing it can be throttled using the following
+ * optional parameters:<ul>
+ * <li><i>batchSize</i> : the number of message units that is purged at once, default {@value #DEFAULT_BATCH_SIZE}</li>
+ * <li><i>delayBetweenBatches</i> : the time in milliseconds to wait before purging the next batch, default
+ * {@value #DEFAULT_BATCH_DELAY}</li>
+ * <li><i>maxBatchesPerRun</i> : the maximum number of batches that is purged in one run of the worker, the remaining
+ * message units are purged in the next run. The default value 0 indicates there is no limit.</li>
+ * <li><i>payloadDeleteThreads</i> : the number of threads used to delete payload files, default
+ * {@value #DEFAULT_DELETE_THREADS}</li></ul>
  * <p>This implementation will trigger {@link IMessageUnitPurgedEvent}s only for <i>User Message</i> message units and
  * it will only provide the meta-data to the event handler. The payload data associated with the User Message message
- * unit will already be deleted by the worker.
+ * unit will already be deleted by the worker. As the events are only handled when the P-Mode of the User Message
+ * configures a handler for them, they are only raised in that case.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  */
@@ -54,108 +79,310 @@ public class PurgeOldMessagesWorker extends AbstractWorkerTask {
      */
     public static final String P_PURGE_AFTER_DAYS = "purgeAfterDays";
 
+    /**
+     * Name of the configuration parameter that sets the number of message units purged at once
+     * @since 3.1.0
+     */
+    public static final String P_BATCH_SIZE = "batchSize";
+
+    /**
+     * Name of the configuration parameter that sets the time in milliseconds to wait between two batches
+     * @since 3.1.0
+     */
+    public static final String P_BATCH_DELAY = "delayBetweenBatches";
+
+    /**
+     * Name of the configuration parameter that sets the maximum number of batches purged in one run
+     * @since 3.1.0
+     */
+    public static final String P_MAX_BATCHES = "maxBatchesPerRun";
+
+    /**
+     * Name of the configuration parameter that sets the number of threads used to delete the payload files
+     * @since 3.1.0
+     */
+    public static final String P_DELETE_THREADS = "payloadDeleteThreads";
+
+    /**
+     * The default number of days after which message information is purged
+     */
+    private static final int DEFAULT_PURGE_AFTER_DAYS = 30;
+
+    /**
+     * The default number of message units purged at once
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * The default time in milliseconds to wait between two batches
+     */
+    public static final int DEFAULT_BATCH_DELAY = 100;
+
+    /**
+     * The default number of threads used to delete payload files
+     */
+    public static final int DEFAULT_DELETE_THREADS = 4;
+
     /**
      * The number of days after which message information will be purged
      */
-    private int purgeAfterDays;
+    private int purgeAfterDays = DEFAULT_PURGE_AFTER_DAYS;
+
+    /**
+     * The number of message units purged at once
+     */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * The time in milliseconds to wait between two batches
+     */
+    private int batchDelay = DEFAULT_BATCH_DELAY;
+
+    /**
+     * The maximum number of batches purged in one run, 0 if there is no limit
+     */
+    private int maxBatches = 0;
+
+    /**
+     * The number of threads used to delete payload files
+     */
+    private int deleteThreads = DEFAULT_DELETE_THREADS;
 
     @Override
     public void doProcessing() throws InterruptedException {
         final IQueryManager queryManager = HolodeckB2BCore.getQueryManager();
-        Collection<IMessageUnitEntity> experidMsgUnits = null;
 
         // Calculate the experition time
         final Calendar expirationDate = Calendar.getInstance();
         expirationDate.add(Calendar.DAY_OF_YEAR, -purgeAfterDays);
-        final String expDateString = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:SS.sss").format(expirationDate.getTime());
+        final Date expDate = expirationDate.getTime();
+        final String expDateString = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:SS.sss").format(expDate);
 
+        log.debug("Remove all message units that changed state before " + expDateString);
+        final ExecutorService payloadDeleter = Executors.newFixedThreadPool(deleteThreads);
         try {
-            log.debug("Get all message units that changed state before " + expDateString);
-             experidMsgUnits = queryManager.getMessageUnitsWithLastStateChangedBefore(expirationDate.getTime());
+            int batches = 0, purged = 0;
+            // The expired message units are retrieved in batches so they don't need to be all in memory at once
+            List<IMessageUnitEntity> batch = queryManager.getMessageUnitsWithLastStateChangedBefore(expDate, null,
+                                                                                                    batchSize);
+            while (!batch.isEmpty()) {
+                purged += purgeBatch(batch, payloadDeleter);
+                batches++;
+                if (batch.size() < batchSize)
+                    break; // this was the last batch
+                if (maxBatches > 0 && batches >= maxBatches) {
+                    log.info("Maximum number of batches purged, remaining message units are purged in next run");
+                    break;
+                }
+                // Give the normal message processing some room before purging the next batch
+                if (batchDelay > 0)
+                    Thread.sleep(batchDelay);
+                batch = queryManager.getMessageUnitsWithLastStateChangedBefore(expDate, batch.get(batch.size() - 1),
+                                                                               batchSize);
+            }
+            if (purged == 0)
+                log.debug("No expired message unist found, nothing to do");
+            else
+                log.info("Removed " + purged + " expired message units in " + batches + " batches.");
         } catch (final PersistenceException dbe) {
             log.error("Could not get the list of expired message units from database! Error details: "
                      + dbe.getMessage());
+        } finally {
+            payloadDeleter.shutdownNow();
         }
-        if (Utils.isNullOrEmpty(experidMsgUnits)) {
-            log.debug("No expired message unist found, nothing to do");
-            return;
-        }
+    }
+
+    /**
+     * Purges a batch of expired message units. First the meta-data of all User Messages in the batch is loaded at once
+     * and their payload files are deleted in parallel, then the meta-data of all message units is removed from the
+     * database at once and finally the purge events are raised. If the batch cannot be removed from the database at
+     * once the message units are removed one by one so a single problematic message unit does not prevent the others
+     * from being purged.
+     *
+     * @param batch             The message units to purge
+     * @param payloadDeleter    The executor to use for deleting the payload files
+     * @return                  The number of message units that were removed
+     * @throws InterruptedException When the worker is interrupted while waiting for the payload files to be deleted
+     */
+    private int purgeBatch(final List<IMessageUnitEntity> batch, final ExecutorService payloadDeleter)
+                                                                                        throws InterruptedException {
+        final IQueryManager queryManager = HolodeckB2BCore.getQueryManager();
+        final StorageManager storageManager = HolodeckB2BCore.getStorageManager();
 
-        log.debug("Removing " + experidMsgUnits.size() + " expired message units.");
-        for(final IMessageUnitEntity msgUnit : experidMsgUnits) {
-            log.debug("Removing " + MessageUnitUtils.getMessageUnitName(msgUnit)
-                      + " with msgId: " + msgUnit.getMessageId());
+        // Complete loading of the User Messages is needed as it is not done when querying. To prevent a query per
+        // message unit the meta-data of all User Messages in the batch is loaded at once
+        final List<IMessageUnitEntity> userMessages = new ArrayList<>(batch.size());
+        for (final IMessageUnitEntity msgUnit : batch)
+            if (msgUnit instanceof IUserMessage)
+                userMessages.add(msgUnit);
+        if (!userMessages.isEmpty()) {
             try {
+                queryManager.ensureCompletelyLoaded(userMessages);
+            } catch (final PersistenceException dbe) {
+                log.warn("Could not load the meta-data of the " + userMessages.size() + " User Messages in the batch"
+                         + " at once, loading them one by one. Error details: " + dbe.getMessage());
+            }
+        }
+
+        final List<IMessageUnitEntity> toDelete = new ArrayList<>(batch.size());
+        final Map<IMessageUnitEntity, MessageUnitPurgedEvent> events = new LinkedHashMap<>();
+        final List<Callable<Void>> payloadDeletes = new ArrayList<>();
+        for (final IMessageUnitEntity msgUnit : batch) {
+            if (msgUnit instanceof IUserMessage) {
                 // If the message unit to delete is a User Message we need to have a temp object so we can change the
                 // payload location info as we may need to trigger purge event.
-                UserMessage tmpUserMessage = null;
-                if (msgUnit instanceof IUserMessage) {
-                    log.debug("Delete the payload data of the User Message");
-                    // Complete loading is needed as it is not done when querying
-                    queryManager.ensureCompletelyLoaded(msgUnit);
+                final UserMessage tmpUserMessage;
+                try {
+                    // Only needed when loading the batch at once failed
+                    if (!msgUnit.isLoadedCompletely())
+                        queryManager.ensureCompletelyLoaded(msgUnit);
                     tmpUserMessage = new UserMessage((IUserMessage) msgUnit);
-                    final Collection<IPayload> payloads = tmpUserMessage.getPayloads();
-                    if (!Utils.isNullOrEmpty(payloads)) {
-                        for (final IPayload pl : payloads) {
-                            if (Utils.isNullOrEmpty(pl.getContentLocation()))
-                                log.debug("No payload location provided for payload [" + pl.getPayloadURI() + "]");
-                            else {
-                                final File plFile = new File(pl.getContentLocation());
-                                if (plFile.exists() && plFile.delete()) {
-                                    log.debug("Removed payload data file " + pl.getContentLocation());
-                                    // Clear the payload location
-                                    ((Payload) pl).setContentLocation(null);
-                                }  else if (plFile.exists())
-                                    log.error("Could not remove payload data file " + pl.getContentLocation()
-                                                + ". Remove manually");
-                            }
-                        }
-                    } else
-                        log.debug("User Message [" + msgUnit.getMessageId() + "] has no payloads");
+                } catch (final PersistenceException dbe) {
+                    log.error("Could not load the meta-data of User Message [msgId=" + msgUnit.getMessageId()
+                              + "], it will not be removed. Error details: " + dbe.getMessage());
+                    continue;
+                }
+                final Collection<IPayload> payloads = tmpUserMessage.getPayloads();
+                if (!Utils.isNullOrEmpty(payloads)) {
+                    for (final IPayload pl : payloads)
+                        if (Utils.isNullOrEmpty(pl.getContentLocation()))
+                            log.debug("No payload location provided for payload [" + pl.getPayloadURI() + "]");
+                        else
+                            payloadDeletes.add(new PayloadFileDeleter((Payload) pl));
+                } else
+                    log.debug("User Message [" + msgUnit.getMessageId() + "] has no payloads");
+
+                final MessageUnitPurgedEvent event = new MessageUnitPurgedEvent(tmpUserMessage);
+                if (isHandled(event))
+                    events.put(msgUnit, event);
+            }
+            toDelete.add(msgUnit);
+        }
+
+        if (!payloadDeletes.isEmpty()) {
+            log.debug("Delete the payload data of " + payloadDeletes.size() + " payloads");
+            payloadDeleter.invokeAll(payloadDeletes);
+        }
+
+        // Remove meta-data from database
+        List<IMessageUnitEntity> deleted;
+        try {
+            storageManager.deleteMessageUnits(toDelete);
+            deleted = toDelete;
+        } catch (final PersistenceException batchFailure) {
+            log.warn("Could not remove the batch of " + toDelete.size() + " message units at once, removing them one"
+                     + " by one. Error details: " + batchFailure.getMessage());
+            deleted = new ArrayList<>(toDelete.size());
+            for (final IMessageUnitEntity msgUnit : toDelete) {
+                try {
+                    storageManager.deleteMessageUnit(msgUnit);
+                    deleted.add(msgUnit);
+                } catch (final PersistenceException dbe) {
+                    log.error("Could not remove the meta-data of " + MessageUnitUtils.getMessageUnitName(msgUnit)
+                            + " [msgId=" + msgUnit.getMessageId() + "]. Error details: " + dbe.getMessage());
                 }
-                // Remove meta-data from database
-                HolodeckB2BCore.getStorageManager().deleteMessageUnit(msgUnit);
-                log.info(MessageUnitUtils.getMessageUnitName(msgUnit)
-                         + " [msgId=" + msgUnit.getMessageId() + "] is removed");
-
-                // Raise event so extension can process purge actions (for User Messages only)
-                if (msgUnit instanceof IUserMessage)
-                    HolodeckB2BCore.getEventProcessor().raiseEvent(new MessageUnitPurgedEvent(tmpUserMessage), null);
-            } catch (final PersistenceException dbe) {
-                log.error("Could not remove the meta-data of " + MessageUnitUtils.getMessageUnitName(msgUnit)
-                        + " [msgId=" + msgUnit.getMessageId() + "]. Error details: " + dbe.getMessage());
             }
         }
+
+        for (final IMessageUnitEntity msgUnit : deleted) {
+            log.debug(MessageUnitUtils.getMessageUnitName(msgUnit) + " [msgId=" + msgUnit.getMessageId()
+                      + "] is removed");
+            // Raise event so extension can process purge actions (for User Messages only)
+            final MessageUnitPurgedEvent event = events.get(msgUnit);
+            if (event != null)
+                HolodeckB2BCore.getEventProcessor().raiseEvent(event, null);
+        }
+        return deleted.size();
+    }
+
+    /**
+     * Checks whether the P-Mode of the purged User Message configures an event handler for the given purge event. Like
+     * the event processor the handlers configured on the <i>REQUEST</i> leg are used.
+     *
+     * @param event     The purge event
+     * @return          <code>true</code> if a handler is configured for the event, <code>false</code> otherwise
+     */
+    private boolean isHandled(final MessageUnitPurgedEvent event) {
+        final String pmodeId = event.getSubject().getPModeId();
+        final IPMode pmode = !Utils.isNullOrEmpty(pmodeId) ? HolodeckB2BCore.getPModeSet().get(pmodeId) : null;
+        final ILeg leg = pmode != null ? pmode.getLeg(ILeg.Label.REQUEST) : null;
+        final List<IMessageProcessingEventConfiguration> handlers = leg != null ?
+                                                                leg.getMessageProcessingEventConfiguration() : null;
+        if (!Utils.isNullOrEmpty(handlers))
+            for (final IMessageProcessingEventConfiguration c : handlers)
+                if (EventUtils.shouldHandleEvent(c, event))
+                    return true;
+        return false;
+    }
+
+    /**
+     * Deletes the file containing the content of a payload and clears its location when successful.
+     */
+    private class PayloadFileDeleter implements Callable<Void> {
+        private final Payload payload;
+
+        PayloadFileDeleter(final Payload payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public Void call() {
+            final File plFile = new File(payload.getContentLocation());
+            // Also remove the compressed data if it was cached
+            PayloadCompressor.deleteCacheFiles(payload.getContentLocation());
+            if (plFile.exists() && plFile.delete()) {
+                log.debug("Removed payload data file " + payload.getContentLocation());
+                // Clear the payload location
+                payload.setContentLocation(null);
+            }  else if (plFile.exists())
+                log.error("Could not remove payload data file " + payload.getContentLocation() + ". Remove manually");
+            return null;
+        }
     }
 
     /**
      * Configures the worker by setting the number of days after which messages should be purged using the
-     * <i>purgeAfterDays</i> parameter. If not specified 30 days is used as the default setting.
+     * <i>purgeAfterDays</i> parameter and the optional throttling parameters. For parameters that are not specified
+     * the default setting is used.
      *
      * @param parameters    A <code>Map</code> containing the configuration of the worker
      */
     @Override
     public void setParameters(final Map<String, ?> parameters) {
-        if (Utils.isNullOrEmpty(parameters))
-            // No parameters given, use default
-            purgeAfterDays = 30;
-        else {
-            final Object pPurgeDays = parameters.get(P_PURGE_AFTER_DAYS);
-            if (pPurgeDays == null)
-                // No "purgeAfterDays" parameter given, use default
-                purgeAfterDays = 30;
-            else {
-                try {
-                    purgeAfterDays = Integer.parseInt(pPurgeDays.toString());
-                } catch (final NumberFormatException NaN) {
-                    // Could not convert the given value for "purgeAfterDays" parameter to a int, used default
-                    log.warn("Illegal value [" + pPurgeDays.toString() + "] used for \""
-                                + P_PURGE_AFTER_DAYS + "\" parameter! Using default.");
-                    purgeAfterDays = 30;
-                }
-            }
-        }
+        purgeAfterDays = getIntParameter(parameters, P_PURGE_AFTER_DAYS, DEFAULT_PURGE_AFTER_DAYS, 0);
+        batchSize = getIntParameter(parameters, P_BATCH_SIZE, DEFAULT_BATCH_SIZE, 1);
+        batchDelay = getIntParameter(parameters, P_BATCH_DELAY, DEFAULT_BATCH_DELAY, 0);
+        maxBatches = getIntParameter(parameters, P_MAX_BATCHES, 0, 0);
+        deleteThreads = getIntParameter(parameters, P_DELETE_THREADS, DEFAULT_DELETE_THREADS, 1);
+
         log.info("Message information will be deleted after " + purgeAfterDays + " days.");
+        log.debug("Purge settings: batchSize=" + batchSize + ", delayBetweenBatches=" + batchDelay
+                  + ", maxBatchesPerRun=" + maxBatches + ", payloadDeleteThreads=" + deleteThreads);
     }
 
+    /**
+     * Gets the integer value of a configuration parameter.
+     *
+     * @param parameters    The configuration of the worker, may be <code>null</code>
+     * @param name          The name of the parameter
+     * @param defaultValue  The value to use when the parameter is not specified or has an illegal value
+     * @param minValue      The minimum allowed value
+     * @return              The value of the parameter
+     */
+    private int getIntParameter(final Map<String, ?> parameters, final String name, final int defaultValue,
+                                final int minValue) {
+        final Object value = !Utils.isNullOrEmpty(parameters) ? parameters.get(name) : null;
+        if (value == null)
+            // Parameter not given, use default
+            return defaultValue;
+        try {
+            final int intValue = Integer.parseInt(value.toString());
+            if (intValue >= minValue)
+                return intValue;
+        } catch (final NumberFormatException NaN) {
+            // Could not convert the given value to a int, use default
+        }
+        log.warn("Illegal value [" + value.toString() + "] used for \"" + name + "\" parameter! Using default.");
+        return defaultValue;
+    }
 }
@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.workers;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.holodeckb2b.common.util.Utils;
+import org.holodeckb2b.interfaces.messagemodel.IErrorMessage;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+import org.holodeckb2b.interfaces.messagemodel.IReceipt;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.pmode.ILeg;
+import org.holodeckb2b.interfaces.pmode.IPMode;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.module.HolodeckB2BCore;
+
+/**
+ * Is responsible for starting the send process of message units as soon as they are ready to be pushed. The message
+ * units are handed over by the {@link org.holodeckb2b.persistency.dao.StorageManager} when their processing state is
+ * changed to {@link ProcessingState#READY_TO_PUSH} and by the {@link SenderWorker} for message units that were not
+ * dispatched earlier. They are put in a queue from which a separate thread takes the message units and hands them to
+ * a pool of sender threads that execute the send process in parallel.
+ * <p>The number of message units sent in parallel is limited both in total and per destination. The destination is
+ * the URL the message unit is sent to as configured in the P-Mode. When the limit for a destination is reached the
+ * message units for that destination wait until one of the running sends to the destination completes. This way a
+ * slow destination can not use all sender threads and delay the message units for other destinations.
+ * <p>To prevent sharing the entity objects between threads only the message id is queued and the message unit is
+ * retrieved again from the database before it is sent. Because the send process is only started when the processing
+ * state can be changed from <i>READY_TO_PUSH</i> to <i>PROCESSING</i> a message unit is never sent twice, even when it
+ * is queued more than once. Message units that are not sent when Holodeck B2B is stopped remain ready to push and
+ * will be found by the <code>SenderWorker</code> when it is started again.
+ * <p>The number of message units that are queued or waiting for their destination is limited to the capacity of the
+ * dispatcher. When it is reached new message units are not accepted and remain ready to push until the <code>
+ * SenderWorker</code> hands them over again. The message units waiting for a destination are also kept by their
+ * message id only and retrieved from the database when their send process starts.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public class SendDispatcher {
+
+    private static final Log log = LogFactory.getLog(SendDispatcher.class);
+
+    /**
+     * The default maximum number of message units that can be queued or waiting for their destination
+     */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /**
+     * The queue with the message ids of the message units that are ready to push
+     */
+    private final BlockingQueue<String> queue;
+
+    /**
+     * The maximum number of message units that can be queued or waiting for their destination
+     */
+    private final int capacity;
+
+    /**
+     * The message ids of the message units that are queued or waiting to be sent, used to prevent that a message unit
+     * is dispatched twice when it is also found by the <code>SenderWorker</code>
+     */
+    private final Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * The thread that dispatches the queued message units to the sender threads
+     */
+    private final Thread dispatcherThread;
+
+    /**
+     * The pool of threads that execute the send process
+     */
+    private final ExecutorService senders;
+
+    /**
+     * The maximum number of message units that can be sent in parallel to one destination
+     */
+    private final int maxPerDestination;
+
+    /**
+     * The destinations to which message units are currently sent. Access is synchronized on the map itself.
+     */
+    private final Map<String, Destination> destinations = new HashMap<>();
+
+    /**
+     * Indicates whether the dispatcher is running
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Keeps track of the number of running sends to a destination and the message units waiting to be sent to it.
+     */
+    private static class Destination {
+        int active = 0;
+        final Queue<String> waiting = new ArrayDeque<>();
+    }
+
+    /**
+     * Creates and starts a new dispatcher with the {@link #DEFAULT_CAPACITY default capacity}.
+     *
+     * @param maxParallel       The maximum number of message units that can be sent in parallel
+     * @param maxPerDestination The maximum number of message units that can be sent in parallel to one destination
+     */
+    public SendDispatcher(final int maxParallel, final int maxPerDestination) {
+        this(maxParallel, maxPerDestination, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates and starts a new dispatcher.
+     *
+     * @param maxParallel       The maximum number of message units that can be sent in parallel
+     * @param maxPerDestination The maximum number of message units that can be sent in parallel to one destination
+     * @param capacity          The maximum number of message units that can be queued or waiting for their destination
+     */
+    public SendDispatcher(final int maxParallel, final int maxPerDestination, final int capacity) {
+        this.maxPerDestination = maxPerDestination;
+        this.capacity = capacity;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        senders = Executors.newFixedThreadPool(maxParallel, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "hb2b-sender-" + threadNumber.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        dispatcherThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "hb2b-send-dispatcher");
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
+        log.debug("Started send dispatcher [maxParallel=" + maxParallel + ",maxPerDestination=" + maxPerDestination
+                  + ",capacity=" + capacity + "]");
+    }
+
+    /**
+     * Adds the given message unit to the queue of message units to send. Only outgoing message units are accepted.
+     * When the dispatcher is full the message unit is not queued and stays ready to push until it is handed over
+     * again by the <code>SenderWorker</code>.
+     *
+     * @param msgUnit   The message unit that is ready to push
+     * @return          <code>true</code> if the message unit is queued for sending,<br>
+     *                  <code>false</code> if it is not accepted because the dispatcher is stopped or full or the
+     *                  message unit is not outgoing
+     */
+    public boolean readyToPush(final IMessageUnitEntity msgUnit) {
+        if (!running || msgUnit.getDirection() != IMessageUnit.Direction.OUT)
+            return false;
+        final String messageId = msgUnit.getMessageId();
+        if (pending.contains(messageId))
+            return true;
+        if (pending.size() >= capacity) {
+            log.debug("Send dispatcher is full, message unit [" + messageId + "] is sent later");
+            return false;
+        }
+        if (pending.add(messageId)) {
+            if (!queue.offer(messageId)) {
+                pending.remove(messageId);
+                log.debug("Send dispatcher is full, message unit [" + messageId + "] is sent later");
+                return false;
+            }
+            log.debug("Queue message unit [" + messageId + "] for sending");
+        }
+        return true;
+    }
+
+    /**
+     * Indicates whether the maximum number of message units that can be queued or waiting for their destination is
+     * reached.
+     *
+     * @return  <code>true</code> if no more message units are accepted,<br><code>false</code> otherwise
+     */
+    public boolean isFull() {
+        return pending.size() >= capacity;
+    }
+
+    /**
+     * Stops the dispatcher. Sends that are already running are given time to complete, message units that are still
+     * waiting are not sent now but will be sent by the <code>SenderWorker</code> when Holodeck B2B is started again.
+     */
+    public void shutdown() {
+        log.debug("Stopping send dispatcher");
+        running = false;
+        dispatcherThread.interrupt();
+        senders.shutdown();
+        try {
+            dispatcherThread.join(10000);
+            if (!senders.awaitTermination(10, TimeUnit.SECONDS))
+                log.warn("Not all running sends completed before the send dispatcher was stopped");
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty())
+            log.info(queue.size() + " message units left for sending by SenderWorker");
+    }
+
+    /**
+     * Takes the message ids from the queue and schedules the outgoing message units with that id that are still ready
+     * to push for sending.
+     */
+    private void dispatch() {
+        while (running) {
+            final String messageId;
+            try {
+                messageId = queue.take();
+            } catch (final InterruptedException interrupted) {
+                continue;
+            }
+            boolean scheduled = false;
+            try {
+                final Collection<IMessageUnitEntity> msgUnits =
+                                                    HolodeckB2BCore.getQueryManager().getMessageUnitsWithId(messageId);
+                if (!Utils.isNullOrEmpty(msgUnits))
+                    for (final IMessageUnitEntity msgUnit : msgUnits)
+                        if (msgUnit.getDirection() == IMessageUnit.Direction.OUT
+                            && msgUnit.getCurrentProcessingState().getState() == ProcessingState.READY_TO_PUSH) {
+                            schedule(msgUnit);
+                            scheduled = true;
+                        }
+            } catch (final PersistenceException dbError) {
+                log.error("Could not dispatch message [" + messageId + "] because a database error occurred."
+                          + " Message will be sent by SenderWorker. Details: " + dbError.getMessage());
+            } catch (final Throwable t) {
+                log.error("Internal error in send dispatcher", t);
+            }
+            if (!scheduled)
+                pending.remove(messageId);
+        }
+    }
+
+    /**
+     * Schedules the given message unit for sending. When the maximum number of parallel sends to the destination of the
+     * message unit is already reached its message id is added to the list of message units waiting for that
+     * destination.
+     *
+     * @param msgUnit   The message unit to send
+     */
+    private void schedule(final IMessageUnitEntity msgUnit) {
+        final String destination = getDestination(msgUnit);
+        final String messageId = msgUnit.getMessageId();
+        synchronized (destinations) {
+            Destination d = destinations.get(destination);
+            if (d == null) {
+                d = new Destination();
+                destinations.put(destination, d);
+            }
+            if (d.active >= maxPerDestination) {
+                log.debug("Maximum parallel sends to " + destination + " reached, message unit [" + messageId
+                          + "] waits");
+                d.waiting.add(messageId);
+                return;
+            }
+            d.active++;
+        }
+        execute(destination, messageId);
+    }
+
+    /**
+     * Hands the message unit with the given message id to a sender thread which retrieves it from the database and
+     * starts the send process if it is still ready to push. When the send process completes the next message unit
+     * waiting for the same destination, if any, is handed to a sender thread.
+     *
+     * @param destination   The destination of the message unit
+     * @param messageId     The message id of the message unit to send
+     */
+    private void execute(final String destination, final String messageId) {
+        try {
+            senders.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // From now on the message unit can be dispatched again when it becomes ready to push
+                    pending.remove(messageId);
+                    try {
+                        final Collection<IMessageUnitEntity> msgUnits =
+                                                HolodeckB2BCore.getQueryManager().getMessageUnitsWithId(messageId);
+                        if (!Utils.isNullOrEmpty(msgUnits))
+                            for (final IMessageUnitEntity msgUnit : msgUnits)
+                                if (msgUnit.getDirection() == IMessageUnit.Direction.OUT
+                                    && msgUnit.getCurrentProcessingState().getState()
+                                                                                == ProcessingState.READY_TO_PUSH)
+                                    send(msgUnit);
+                    } catch (final PersistenceException dbError) {
+                        log.error("Could not send message [" + messageId + "] because a database error"
+                                  + " occurred. Details: " + dbError.getMessage());
+                    } catch (final Throwable t) {
+                        log.error("Internal error while sending message [" + messageId + "]", t);
+                    } finally {
+                        completed(destination);
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException shutdown) {
+            pending.remove(messageId);
+            log.debug("Send dispatcher stopped, message unit [" + messageId + "] not sent");
+        }
+    }
+
+    /**
+     * Is called when a send to the given destination is completed and starts sending the next message unit waiting
+     * for the destination.
+     *
+     * @param destination   The destination to which a message unit was sent
+     */
+    private void completed(final String destination) {
+        final String next;
+        synchronized (destinations) {
+            final Destination d = destinations.get(destination);
+            next = d.waiting.poll();
+            if (next == null && --d.active == 0)
+                destinations.remove(destination);
+        }
+        if (next != null)
+            execute(destination, next);
+    }
+
+    /**
+     * Gets the destination of the given message unit, which is the URL where the message unit will be sent to as
+     * configured in the P-Mode. When the URL can not be determined the P-Mode id is used as destination.
+     *
+     * @param msgUnit   The message unit to get the destination for
+     * @return          The destination of the message unit
+     */
+    protected String getDestination(final IMessageUnitEntity msgUnit) {
+        String destURL = null;
+        final IPMode pmode = HolodeckB2BCore.getPModeSet().get(msgUnit.getPModeId());
+        final ILeg leg = pmode != null ? pmode.getLeg(msgUnit.getLeg()) : null;
+        if (leg != null) {
+            // Receipts and Errors can have a specific URL, otherwise they are sent to the URL of the leg
+            if (msgUnit instanceof IReceipt && leg.getReceiptConfiguration() != null)
+                destURL = leg.getReceiptConfiguration().getTo();
+            else if (msgUnit instanceof IErrorMessage && leg.getUserMessageFlow() != null
+                     && leg.getUserMessageFlow().getErrorHandlingConfiguration() != null)
+                destURL = leg.getUserMessageFlow().getErrorHandlingConfiguration().getReceiverErrorsTo();
+            if (Utils.isNullOrEmpty(destURL) && leg.getProtocol() != null)
+                destURL = leg.getProtocol().getAddress();
+        }
+        return !Utils.isNullOrEmpty(destURL) ? destURL : msgUnit.getPModeId();
+    }
+
+    /**
+     * Starts the send process for the given message unit.
+     *
+     * @param msgUnit   The message unit to send
+     * @throws PersistenceException When a database error occurs while starting the send process
+     */
+    protected void send(final IMessageUnitEntity msgUnit) throws PersistenceException {
+        SenderWorker.startSending(msgUnit, log);
+    }
+}
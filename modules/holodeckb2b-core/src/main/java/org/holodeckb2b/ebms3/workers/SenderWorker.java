@@ -16,10 +16,8 @@
  */
 package org.holodeckb2b.ebms3.workers;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.holodeckb2b.common.messagemodel.util.MessageUnitUtils;
@@ -31,6 +29,7 @@ import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
 import org.holodeckb2b.interfaces.messagemodel.IReceipt;
 import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.dao.IMessageUnitCallback;
 import org.holodeckb2b.interfaces.persistency.dao.IQueryManager;
 import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
 import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
@@ -41,6 +40,11 @@ import org.holodeckb2b.module.HolodeckB2BCore;
  * Is responsible for starting the send process of message units. It looks for all messages waiting in the database to
  * get send and starts an Axis2 client for each of them. The ebMS specific handlers in the Axis2 handler chain will then
  * take over and do the actual message processing. This worker is only to kick-off the process.
+ * <p>Since version 3.1.0 message units are normally handed over to the {@link SendDispatcher} directly when they
+ * become ready to push, so this worker acts as a recovery sweep for message units that were not dispatched, for
+ * example because Holodeck B2B was restarted. The message units found by this worker are also handed over to the
+ * dispatcher so they are sent in parallel. When the dispatcher is full the remaining message units are skipped and
+ * handed over in a next run.
  * <p>This worker does not need configuration to run. As this worker is needed for Holodeck B2B to work properly it is
  * included in the default worker pool.
  *
@@ -50,60 +54,57 @@ public class SenderWorker extends AbstractWorkerTask {
 
     private static final Log log = LogFactory.getLog(SenderWorker.class.getName());
 
+    /**
+     * The number of message units that is retrieved from the database at once
+     */
+    private static final int CHUNK_SIZE = 100;
+
     /**
      * Looks for message units that are for sending and kicks off the send process
      * for each of them. To prevent a message from being send twice the send process
      * is only started if the processing state can be successfully changed.
+     * <p>Since version 3.1.0 the message units are retrieved from the database in chunks so the memory use does not
+     * depend on the number of message units waiting to be sent. Once the send dispatcher is full the remaining message
+     * units are not retrieved anymore as they can not be handed over before the dispatcher has room again.
      */
     @Override
     public void doProcessing() {
         try {
             log.debug("Getting list of message units to send");
-            final List<IMessageUnitEntity> newMsgs = new ArrayList<>();
             final IQueryManager queryManager = HolodeckB2BCore.getQueryManager();
-            // Add all User Messages waiting to be sent
-            Collection<? extends IMessageUnitEntity> msgUnits = queryManager.getMessageUnitsInState(IUserMessage.class,
-                                                                IMessageUnit.Direction.OUT,
-                                                                new ProcessingState[] {ProcessingState.READY_TO_PUSH});
-            if (!Utils.isNullOrEmpty(msgUnits))
-                newMsgs.addAll(msgUnits);
-            // Add all Receipts waiting to be sent
-            msgUnits = queryManager.getMessageUnitsInState(IReceipt.class, IMessageUnit.Direction.OUT,
-                                                                new ProcessingState[] {ProcessingState.READY_TO_PUSH});
-            if (!Utils.isNullOrEmpty(msgUnits))
-                newMsgs.addAll(msgUnits);
-            // Add all Errors waiting to be sent
-            msgUnits = queryManager.getMessageUnitsInState(IErrorMessage.class, IMessageUnit.Direction.OUT,
-                                                                new ProcessingState[] {ProcessingState.READY_TO_PUSH});
-            if (!Utils.isNullOrEmpty(msgUnits))
-                newMsgs.addAll(msgUnits);
-
-            if (!Utils.isNullOrEmpty(newMsgs)) {
-                log.info("Found " + newMsgs.size() + " message units to send");
-                for (final IMessageUnitEntity msgUnit : newMsgs) {
-                    // Only message units associated with a P-Mode can be send
-                    if (Utils.isNullOrEmpty(msgUnit.getPModeId())) {
-                        log.error("Can not sent message [" + msgUnit.getMessageId()
-                                    + "] because it has no associated P-Mode");
-                        HolodeckB2BCore.getStorageManager().setProcessingState(msgUnit, ProcessingState.FAILURE);
-                        continue;
+            final SendDispatcher dispatcher = HolodeckB2BCore.getSendDispatcher();
+            final AtomicBoolean dispatcherFull = new AtomicBoolean();
+            final IMessageUnitCallback<IMessageUnitEntity> sender = new IMessageUnitCallback<IMessageUnitEntity>() {
+                @Override
+                public boolean process(final IMessageUnitEntity msgUnit) throws PersistenceException {
+                    // Use the dispatcher so the message units are sent in parallel
+                    if (dispatcher == null)
+                        startSending(msgUnit, log);
+                    else if (!dispatcher.readyToPush(msgUnit)) {
+                        // No need to get more message units as they can not be handed over either
+                        dispatcherFull.set(true);
+                        return false;
                     }
-
-                    // Indicate that processing will start
-                    if (HolodeckB2BCore.getStorageManager().setProcessingState(msgUnit, ProcessingState.READY_TO_PUSH,
-                                                                              ProcessingState.PROCESSING)) {
-                        // only when we could succesfully set processing state really start processing
-                        log.debug("Start processing " + MessageUnitUtils.getMessageUnitName(msgUnit)
-                                    + "[" + msgUnit.getMessageId() + "]");
-                        // Ensure all data is available for processing
-                        HolodeckB2BCore.getQueryManager().ensureCompletelyLoaded(msgUnit);
-                        Axis2Sender.sendMessage(msgUnit, log);
-                    } else
-                        // Message probably already in process
-                        log.debug("Could not start processing message [" + msgUnit.getMessageId()
-                                    + "] because switching to processing state was unsuccesful");
+                    return true;
                 }
-            } else
+            };
+
+            int found = 0;
+            // Send all User Messages, Receipts and Errors waiting to be sent
+            for (final Class<? extends IMessageUnit> type : new Class[] { IUserMessage.class, IReceipt.class,
+                                                                           IErrorMessage.class }) {
+                if (dispatcherFull.get())
+                    break;
+                found += queryManager.processMessageUnitsInState(type, IMessageUnit.Direction.OUT,
+                                                                 new ProcessingState[] {ProcessingState.READY_TO_PUSH},
+                                                                 CHUNK_SIZE, sender);
+            }
+            if (dispatcherFull.get())
+                log.info("Send dispatcher is full, handed over " + (found - 1) + " message units and skipped the"
+                         + " remaining ones");
+            else if (found > 0)
+                log.info("Found " + found + " message units to send");
+            else
                 log.info("No messages found that are ready for sending");
         } catch (final PersistenceException dbError) {
             log.error("Could not process message because a database error occurred. Details:"
@@ -115,6 +116,39 @@ public class SenderWorker extends AbstractWorkerTask {
         }
     }
 
+    /**
+     * Starts the send process of the given message unit. To prevent a message from being send twice the send process
+     * is only started if the processing state can be successfully changed from {@link ProcessingState#READY_TO_PUSH}
+     * to {@link ProcessingState#PROCESSING}.
+     *
+     * @param msgUnit   The message unit to send
+     * @param log       The log to use for writing log information
+     * @throws PersistenceException When a database error occurs while starting the send process
+     * @since 3.1.0
+     */
+    static void startSending(final IMessageUnitEntity msgUnit, final Log log) throws PersistenceException {
+        // Only message units associated with a P-Mode can be send
+        if (Utils.isNullOrEmpty(msgUnit.getPModeId())) {
+            log.error("Can not sent message [" + msgUnit.getMessageId() + "] because it has no associated P-Mode");
+            HolodeckB2BCore.getStorageManager().setProcessingState(msgUnit, ProcessingState.FAILURE);
+            return;
+        }
+
+        // Indicate that processing will start
+        if (HolodeckB2BCore.getStorageManager().setProcessingState(msgUnit, ProcessingState.READY_TO_PUSH,
+                                                                  ProcessingState.PROCESSING)) {
+            // only when we could succesfully set processing state really start processing
+            log.debug("Start processing " + MessageUnitUtils.getMessageUnitName(msgUnit)
+                        + "[" + msgUnit.getMessageId() + "]");
+            // Ensure all data is available for processing
+            HolodeckB2BCore.getQueryManager().ensureCompletelyLoaded(msgUnit);
+            Axis2Sender.sendMessage(msgUnit, log);
+        } else
+            // Message probably already in process
+            log.debug("Could not start processing message [" + msgUnit.getMessageId()
+                        + "] because switching to processing state was unsuccesful");
+    }
+
     /**
      * This worker does not take any configuration. Therefor the implementation of this method is empty.
      */
@@ -23,7 +23,16 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.holodeckb2b.common.mmd.xml.MessageMetaData;
 import org.holodeckb2b.common.mmd.xml.PartInfo;
 import org.holodeckb2b.common.util.Utils;
@@ -40,11 +49,37 @@ import org.holodeckb2b.interfaces.workerpool.TaskConfigurationException;
  * been submitted, the extension will be changed to <b>accepted</b>. When an error occurs on submit the extension will
  * be changed to <b>rejected</b> and information on the error will be written to a file with the same name but
  * with extension <b>err</b>.
+ * <p>Before a file is processed it is claimed by changing its extension to <b>processing</b>. As renaming the file is
+ * atomic and fails when the file is already claimed, a file is never processed twice, also not when multiple instances
+ * of the worker watch the same directory.
+ * <p>Besides the parameters of the {@link DirWatcher} this worker has one optional parameter <i>parallelSubmissions
+ * </i> that sets the maximum number of files that are read and submitted in parallel. When not specified the files are
+ * processed one by one. When files are processed in parallel the number of claimed files waiting to be processed is
+ * limited to the same number, so when Holodeck B2B is stopped unexpectedly only the files that were being processed
+ * or waiting keep the <b>processing</b> extension.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  */
 public class SubmitFromFile extends DirWatcher {
 
+    /**
+     * The maximum number of files that are processed in parallel
+     * @since 3.1.0
+     */
+    private int parallelSubmissions = 1;
+
+    /**
+     * The executor that processes the claimed files when files are processed in parallel, created when first needed
+     * @since 3.1.0
+     */
+    private ThreadPoolExecutor submitters = null;
+
+    /**
+     * The results of the processing of the files claimed since the last call of {@link #doPreProcessing()}
+     * @since 3.1.0
+     */
+    private final List<Future<?>> pending = new ArrayList<>();
+
     /**
      * Initializes the worker. Overrides parent method to ensure that the watched
      * extension is set fixed to "mmd".
@@ -62,6 +97,60 @@ public class SubmitFromFile extends DirWatcher {
 
         // Override externsion parameter to set it to fixed "mmd" value
         setExtension("mmd");
+
+        final String parallel = (String) parameters.get("parallelSubmissions");
+        int newParallelSubmissions = 1;
+        if (!Utils.isNullOrEmpty(parallel)) {
+            try {
+                newParallelSubmissions = Integer.parseInt(parallel.trim());
+            } catch (final NumberFormatException invalidNumber) {
+                newParallelSubmissions = 0;
+            }
+            if (newParallelSubmissions < 1) {
+                log.error("Unable to configure task: Invalid value for parameter \"parallelSubmissions\": "
+                          + parallel);
+                throw new TaskConfigurationException("Invalid value for parameter \"parallelSubmissions\": "
+                                                     + parallel);
+            }
+        }
+        synchronized (this) {
+            if (newParallelSubmissions != parallelSubmissions && submitters != null) {
+                // Let the current executor finish the claimed files, a new one is created when needed
+                submitters.shutdown();
+                submitters = null;
+            }
+            parallelSubmissions = newParallelSubmissions;
+        }
+    }
+
+    /**
+     * Prepares for processing of a new set of changed files by clearing the results of the previous set.
+     */
+    @Override
+    protected void doPreProcessing() {
+        pending.clear();
+    }
+
+    /**
+     * Waits until all files claimed in the current set of changes are processed, so no claimed files are left
+     * unprocessed when the worker stops.
+     */
+    @Override
+    protected void doPostProcessing() {
+        if (pending.isEmpty())
+            return;
+        log.debug("Waiting for the processing of " + pending.size() + " files to complete");
+        try {
+            for (final Future<?> p : pending)
+                p.get();
+        } catch (final InterruptedException interrupted) {
+            log.warn("Interrupted while waiting for the processing of claimed files to complete");
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException unexpected) {
+            // As the processing of a file handles all exceptions itself this should not happen
+            log.error("Unhandled exception while processing file. Details: " + unexpected.getCause());
+        }
+        pending.clear();
     }
 
     @Override
@@ -78,26 +167,54 @@ public class SubmitFromFile extends DirWatcher {
         bFileName = cFileName.substring(0, i);
         final String tFileName = bFileName + ".processing";
 
+        // Directly rename file to prevent processing by another worker. The rename fails when the target exists so a
+        // file that is still being processed is not replaced
         try {
-            // Directly rename file to prevent processing by another worker
-            if( !f.renameTo(new File(tFileName)))
-                // Renaming failed, so file already processed by another worker or externally
-                // changed
-                log.info(f.getName() + " is not processed because it could not be renamed");
-            else {
-                // The file can be processed
-                log.debug("Read message meta data from " + f.getName());
-                final MessageMetaData mmd = MessageMetaData.createFromFile(new File(tFileName));
-                log.debug("Succesfully read message meta data from " + f.getName());
-                // Convert relative paths in payload references to absolute ones to prevent file not found errors
-                convertPayloadPaths(mmd, f);
-                final IMessageSubmitter   submitter = HolodeckB2BCoreInterface.getMessageSubmitter();
-                submitter.submitMessage(mmd, mmd.shouldDeleteFilesAfterSubmit());
-                log.info("User message from " + f.getName() + " succesfully submitted to Holodeck B2B");
-                // Change extension to reflect success
-                Files.move(Paths.get(tFileName), Utils.createFileWithUniqueName(bFileName + ".accepted")
-                           , StandardCopyOption.REPLACE_EXISTING);
-            }
+            Files.move(f.toPath(), Paths.get(tFileName));
+        } catch (final IOException | UnsupportedOperationException renameFailure) {
+            // Renaming failed, so file already processed by another worker or externally changed
+            log.info(f.getName() + " is not processed because it could not be renamed");
+            return;
+        }
+
+        final ThreadPoolExecutor executor = getSubmitters();
+        if (executor == null)
+            submitFile(f, bFileName);
+        else {
+            final String baseFileName = bFileName;
+            pending.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    submitFile(f, baseFileName);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Reads the message meta data from the claimed file and submits the user message to Holodeck B2B. When the message
+     * is submitted the extension of the file is changed to <b>accepted</b>, when an error occurs it is changed to
+     * <b>rejected</b> and the error information is written to file.
+     *
+     * @param f         The original mmd file, used for logging and to resolve relative payload paths
+     * @param bFileName The path of the file without extension
+     * @since 3.1.0
+     */
+    protected void submitFile(final File f, final String bFileName) {
+        final String tFileName = bFileName + ".processing";
+        try {
+            // The file can be processed
+            log.debug("Read message meta data from " + f.getName());
+            final MessageMetaData mmd = MessageMetaData.createFromFile(new File(tFileName));
+            log.debug("Succesfully read message meta data from " + f.getName());
+            // Convert relative paths in payload references to absolute ones to prevent file not found errors
+            convertPayloadPaths(mmd, f);
+            final IMessageSubmitter   submitter = HolodeckB2BCoreInterface.getMessageSubmitter();
+            submitter.submitMessage(mmd, mmd.shouldDeleteFilesAfterSubmit());
+            log.info("User message from " + f.getName() + " succesfully submitted to Holodeck B2B");
+            // Change extension to reflect success
+            Files.move(Paths.get(tFileName), Utils.createFileWithUniqueName(bFileName + ".accepted")
+                       , StandardCopyOption.REPLACE_EXISTING);
         } catch (final Exception e) {
             // Something went wrong on reading the message meta data
             log.error("An error occured when reading message meta data from " + f.getName()
@@ -114,6 +231,37 @@ public class SubmitFromFile extends DirWatcher {
         }
     }
 
+    /**
+     * Gets the executor that processes the claimed files in parallel, creating it when needed. The threads of the
+     * executor stop when they have been idle for a minute. When the queue of claimed files is full, the file is
+     * processed by the thread that claimed it, which slows down the claiming of new files.
+     *
+     * @return  The executor for processing the claimed files, <code>null</code> if files are processed one by one
+     * @since 3.1.0
+     */
+    private synchronized ThreadPoolExecutor getSubmitters() {
+        if (parallelSubmissions <= 1)
+            return null;
+        if (submitters == null) {
+            final String threadName = "hb2b-" + getName() + "-";
+            final AtomicInteger threadCount = new AtomicInteger();
+            submitters = new ThreadPoolExecutor(parallelSubmissions, parallelSubmissions, 60L, TimeUnit.SECONDS,
+                                                new ArrayBlockingQueue<Runnable>(parallelSubmissions),
+                                                new ThreadFactory() {
+                                                    @Override
+                                                    public Thread newThread(final Runnable r) {
+                                                        final Thread t = new Thread(r, threadName
+                                                                                + threadCount.incrementAndGet());
+                                                        t.setDaemon(true);
+                                                        return t;
+                                                    }
+                                                },
+                                                new ThreadPoolExecutor.CallerRunsPolicy());
+            submitters.allowCoreThreadTimeOut(true);
+        }
+        return submitters;
+    }
+
     /**
      * Is a helper method to convert relative payload paths to absolute ones.
      *
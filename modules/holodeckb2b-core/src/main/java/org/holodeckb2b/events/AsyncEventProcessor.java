@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.events;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.axis2.context.MessageContext;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEvent;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventConfiguration;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventHandlerFactory;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventProcessor;
+
+/**
+ * Is an implementation of {@link IMessageProcessingEventProcessor} that processes the <i>message processing events</i>
+ * asynchronously, i.e. the event handlers are not executed on the thread that processes the message unit but by a
+ * separate pool of threads. This way a slow event handler does not add to the processing time of the message.
+ * <p>The events are handled in the same way as by the {@link SyncEventProcessor}, but the handler factories are
+ * created and initialized only once for each event handler configuration and then reused for all events. Note that
+ * therefore the factories must be thread safe.
+ * <p>Raised events are put in a queue of limited size. When the queue is full the {@link OverflowPolicy} determines
+ * what happens with a newly raised event. When the processor is shut down the events that are still in the queue are
+ * processed before the processor stops, events raised after shutdown are processed directly.
+ * <p>Because the event is handled after it was raised, the message unit referenced by the event may already have
+ * been processed further. Event handlers should therefore not depend on the current state of the message unit.
+ * <p>To use this processor set the <i>MessageProcessingEventProcessor</i> parameter in the Holodeck B2B configuration
+ * to the class name of this processor. The size of the queue, the number of threads and the overflow policy are
+ * configured using the <i>EventQueueSize</i>, <i>EventProcessingThreads</i> and <i>EventQueueOverflowPolicy</i>
+ * parameters.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since 3.1.0
+ */
+public class AsyncEventProcessor extends SyncEventProcessor {
+
+    private static final Log log = LogFactory.getLog(AsyncEventProcessor.class);
+
+    /**
+     * Enumerates what should happen with a raised event when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The thread raising the event waits until there is space in the queue
+         */
+        BLOCK,
+        /**
+         * The event is not processed
+         */
+        DROP,
+        /**
+         * The event is processed directly by the thread raising the event
+         */
+        INLINE
+    }
+
+    /**
+     * The default size of the event queue
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    /**
+     * The default number of threads processing events
+     */
+    public static final int DEFAULT_THREADS = 2;
+
+    /**
+     * The default overflow policy
+     */
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.INLINE;
+
+    /**
+     * The maximum time in seconds to wait for the queued events to be processed when the processor is shut down
+     */
+    private static final long SHUTDOWN_TIMEOUT = 10;
+
+    /**
+     * The thread pool that processes the events
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The handler factories already created, indexed by the factory class name and handler settings
+     */
+    private final ConcurrentHashMap<List<Object>, IMessageProcessingEventHandlerFactory> factories =
+                                                                                            new ConcurrentHashMap<>();
+
+    /**
+     * The number of events that were dropped because the queue was full
+     */
+    private final AtomicLong droppedEvents = new AtomicLong();
+
+    /**
+     * Creates a new processor using the default queue size, number of threads and overflow policy.
+     */
+    public AsyncEventProcessor() {
+        this(DEFAULT_QUEUE_SIZE, DEFAULT_THREADS, DEFAULT_OVERFLOW_POLICY);
+    }
+
+    /**
+     * Creates a new processor.
+     *
+     * @param queueSize     The maximum number of events waiting to be processed
+     * @param threads       The number of threads processing the events
+     * @param policy        The policy to apply when the queue is full
+     */
+    public AsyncEventProcessor(final int queueSize, final int threads, final OverflowPolicy policy) {
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                                          new ArrayBlockingQueue<Runnable>(queueSize),
+                                          new ThreadFactory() {
+                                                private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                                                @Override
+                                                public Thread newThread(final Runnable r) {
+                                                    final Thread t = new Thread(r, "hb2b-event-processor-"
+                                                                                   + threadNumber.getAndIncrement());
+                                                    t.setDaemon(true);
+                                                    return t;
+                                                }
+                                          },
+                                          new OverflowHandler(policy));
+        log.debug("Created asynchronous event processor [queueSize=" + queueSize + ",threads=" + threads
+                  + ",overflowPolicy=" + policy + "]");
+    }
+
+    /**
+     * Raises an event for processing. The event is added to the queue and will be processed by one of the event
+     * processing threads. When the processor has been shut down the event is processed directly.
+     *
+     * @param event  The event that occurred while processing the message unit and that should be processed
+     * @param mc     The Axis2 {@link MessageContext} of the message unit the event applies to, if available. Currently
+     *               not used.
+     */
+    @Override
+    public void raiseEvent(final IMessageProcessingEvent event, final MessageContext mc) {
+        if (executor.isShutdown()) {
+            process(event);
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    process(event);
+                }
+            });
+        } catch (final RejectedExecutionException shutdown) {
+            // The processor was shut down while the event was raised
+            process(event);
+        }
+    }
+
+    /**
+     * Processes the event by passing it to the configured handlers.
+     *
+     * @param event  The event to process
+     */
+    private void process(final IMessageProcessingEvent event) {
+        // The message context is not passed as it may already be reused for another message
+        super.raiseEvent(event, null);
+    }
+
+    /**
+     * Gets the factory that creates the handlers for the given event handler configuration. The factory is created and
+     * initialized when it is requested for the first time and reused for all following events.
+     *
+     * @param c     The event handler configuration
+     * @return      The initialized handler factory, or <code>null</code> if the factory could not be created
+     */
+    @Override
+    protected IMessageProcessingEventHandlerFactory getHandlerFactory(final IMessageProcessingEventConfiguration c) {
+        final List<Object> key = Arrays.<Object>asList(c.getFactoryClass(), c.getHandlerSettings());
+        IMessageProcessingEventHandlerFactory factory = factories.get(key);
+        if (factory == null) {
+            // Create the factory only once, even when multiple threads need it at the same time
+            synchronized (factories) {
+                factory = factories.get(key);
+                if (factory == null) {
+                    factory = super.getHandlerFactory(c);
+                    if (factory != null)
+                        factories.put(key, factory);
+                }
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * Gets the number of events that were not processed because the queue was full and the overflow policy is
+     * {@link OverflowPolicy#DROP}.
+     *
+     * @return  The number of dropped events
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * Shuts down the processor. The events that are already in the queue are processed before the processor stops.
+     */
+    public void shutdown() {
+        log.debug("Shutting down asynchronous event processor, " + executor.getQueue().size() + " events in queue");
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                final int remaining = executor.shutdownNow().size();
+                log.warn("Event processor stopped before all events were processed, " + remaining
+                         + " events were not processed");
+            }
+        } catch (final InterruptedException interrupted) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        if (droppedEvents.get() > 0)
+            log.warn(droppedEvents.get() + " events were dropped because the event queue was full");
+    }
+
+    /**
+     * Applies the configured {@link OverflowPolicy} when an event can not be added to the queue.
+     */
+    private class OverflowHandler implements RejectedExecutionHandler {
+
+        private final OverflowPolicy policy;
+
+        OverflowHandler(final OverflowPolicy policy) {
+            this.policy = policy;
+        }
+
+        @Override
+        public void rejectedExecution(final Runnable r, final ThreadPoolExecutor e) {
+            if (e.isShutdown())
+                throw new RejectedExecutionException("Event processor is shut down");
+
+            switch (policy) {
+                case BLOCK :
+                    try {
+                        e.getQueue().put(r);
+                        // When the processor was shut down while waiting the event may not be processed anymore
+                        if (e.isShutdown() && e.getQueue().remove(r))
+                            throw new RejectedExecutionException("Event processor is shut down");
+                    } catch (final InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        droppedEvents.incrementAndGet();
+                        log.warn("Interrupted while waiting for space in the event queue, event is dropped");
+                    }
+                    break;
+                case DROP :
+                    droppedEvents.incrementAndGet();
+                    log.warn("Event queue is full, event is dropped");
+                    break;
+                case INLINE :
+                    log.debug("Event queue is full, event is processed directly");
+                    r.run();
+            }
+        }
+    }
+}
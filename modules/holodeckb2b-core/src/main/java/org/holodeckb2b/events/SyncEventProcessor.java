@@ -27,6 +27,7 @@ import org.holodeckb2b.interfaces.events.IMessageProcessingEvent;
 import org.holodeckb2b.interfaces.events.IMessageProcessingEventConfiguration;
 import org.holodeckb2b.interfaces.events.IMessageProcessingEventHandlerFactory;
 import org.holodeckb2b.interfaces.events.IMessageProcessingEventProcessor;
+import org.holodeckb2b.interfaces.events.MessageProccesingEventHandlingException;
 import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
 import org.holodeckb2b.interfaces.pmode.ILeg;
 import org.holodeckb2b.interfaces.pmode.IPMode;
@@ -110,18 +111,9 @@ public class SyncEventProcessor implements IMessageProcessingEventProcessor {
                 log.debug(handlerClassname + (shouldHandle ? " should" : " does not") + " handle " + eventType + " for "
                           + msgUnitType + " with msgId=[" + messageId + "]");
                 if (shouldHandle) {
-                    // Create the factory class
-                    IMessageProcessingEventHandlerFactory factory = null;
-                    try {
-                        factory = (IMessageProcessingEventHandlerFactory)
-                                                                    Class.forName(c.getFactoryClass()).newInstance();
-                    }   catch (ClassNotFoundException | InstantiationException | IllegalAccessException ex) {
-                        log.error("Could not create factory instance (specified class name=" + c.getFactoryClass()
-                                  + ") due to a " + ex.getClass().getSimpleName());
+                    final IMessageProcessingEventHandlerFactory factory = getHandlerFactory(c);
+                    if (factory == null)
                         return;
-                    }
-                    log.debug("Initialize the handler factory");
-                    factory.init(c.getHandlerSettings());
                     // Catch exceptions while the event is processed by the handler to prevent that error in one handler
                     // will stop processing in others as well
                     try {
@@ -142,4 +134,32 @@ public class SyncEventProcessor implements IMessageProcessingEventProcessor {
                         + eventType + " event was raised for " + msgUnitType + " with msgId=" + messageId);
         }
     }
+
+    /**
+     * Gets the factory that creates the handlers for the given event handler configuration. This implementation creates
+     * and initializes a new factory instance every time it is called.
+     *
+     * @param c     The event handler configuration
+     * @return      The initialized handler factory, or <code>null</code> if the factory could not be created
+     * @since 3.1.0
+     */
+    protected IMessageProcessingEventHandlerFactory getHandlerFactory(final IMessageProcessingEventConfiguration c) {
+        IMessageProcessingEventHandlerFactory factory = null;
+        try {
+            factory = (IMessageProcessingEventHandlerFactory) Class.forName(c.getFactoryClass()).newInstance();
+        }   catch (ClassNotFoundException | InstantiationException | IllegalAccessException ex) {
+            log.error("Could not create factory instance (specified class name=" + c.getFactoryClass()
+                      + ") due to a " + ex.getClass().getSimpleName());
+            return null;
+        }
+        log.debug("Initialize the handler factory");
+        try {
+            factory.init(c.getHandlerSettings());
+        } catch (final MessageProccesingEventHandlingException initFailure) {
+            log.error("Could not initialize factory (class name=" + c.getFactoryClass() + ")! Error details: "
+                      + initFailure.getMessage());
+            return null;
+        }
+        return factory;
+    }
 }
@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.holodeckb2b.interfaces.metrics.IGauge;
+import org.holodeckb2b.interfaces.metrics.IMetricsRegistry;
+
+/**
+ * Is the default {@link IMetricsRegistry} implementation which keeps the metrics in memory and makes them available
+ * through JMX. Each metric is registered as a MXBean in the <i>"org.holodeckb2b"</i> domain with type <i>Metrics</i>
+ * and the metric's name, for example <code>org.holodeckb2b:type=Metrics,name=handler.ReadUserMessage</code>, so they
+ * can be read by any JMX client like JConsole or a monitoring agent.
+ * <p>Timers keep track of the number of recorded events, their mean and maximum duration and a histogram of the
+ * durations from which the percentiles are estimated. The histogram uses buckets of which the size grows exponentially
+ * (four buckets for each power of two) so the estimated percentile is at most 25% larger than the actual value while
+ * recording a duration is just a few atomic increments.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public class DefaultMetricsRegistry implements IMetricsRegistry {
+
+    private static final Log log = LogFactory.getLog(DefaultMetricsRegistry.class);
+
+    /**
+     * The JMX domain in which the metrics are registered
+     */
+    public static final String JMX_DOMAIN = "org.holodeckb2b";
+
+    /**
+     * The metrics registered in this registry, indexed by name. The map is also used to check whether a metric already
+     * exists, so a counter, timer and gauge can not have the same name.
+     */
+    private final ConcurrentHashMap<String, Object>   metrics = new ConcurrentHashMap<>();
+
+    /**
+     * The MBean server in which the metrics are registered, <code>null</code> if they should not be exposed via JMX
+     */
+    private final MBeanServer   mbeanServer;
+
+    /**
+     * Creates a new registry that exposes the metrics through the platform MBean server.
+     */
+    public DefaultMetricsRegistry() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * Creates a new registry that exposes the metrics through the given MBean server.
+     *
+     * @param mbeanServer   The MBean server to register the metrics in, <code>null</code> when the metrics should not
+     *                      be exposed via JMX
+     */
+    public DefaultMetricsRegistry(final MBeanServer mbeanServer) {
+        this.mbeanServer = mbeanServer;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void incrementCounter(final String name) {
+        Object counter = metrics.get(name);
+        if (counter == null)
+            counter = register(name, new Counter(), CounterMXBean.class);
+        if (counter instanceof Counter)
+            ((Counter) counter).count.incrementAndGet();
+    }
+
+    @Override
+    public void recordTime(final String name, final long nanos) {
+        Object timer = metrics.get(name);
+        if (timer == null)
+            timer = register(name, new Timer(), TimerMXBean.class);
+        if (timer instanceof Timer)
+            ((Timer) timer).record(nanos);
+    }
+
+    @Override
+    public void registerGauge(final String name, final IGauge gauge) {
+        final Object current = metrics.remove(name);
+        if (current != null)
+            unregister(name);
+        register(name, new Gauge(gauge), GaugeMXBean.class);
+    }
+
+    /**
+     * Gets the metric with the given name.
+     *
+     * @param name  The name of the metric
+     * @return      The {@link CounterMXBean}, {@link TimerMXBean} or {@link GaugeMXBean} of the metric, or
+     *              <code>null</code> if there is no metric with the given name
+     */
+    public Object getMetric(final String name) {
+        return metrics.get(name);
+    }
+
+    /**
+     * Removes all metrics from the registry and the MBean server.
+     */
+    @Override
+    public void shutdown() {
+        for (final String name : metrics.keySet())
+            unregister(name);
+        metrics.clear();
+    }
+
+    /**
+     * Adds the given metric to the registry and registers it in the MBean server. When another thread registered a
+     * metric with the same name in the meantime that metric is returned.
+     *
+     * @param name      The name of the metric
+     * @param metric    The new metric
+     * @param mxbean    The MXBean interface of the metric
+     * @return          The metric registered with the given name
+     */
+    private <T> Object register(final String name, final T metric, final Class<T> mxbean) {
+        final Object existing = metrics.putIfAbsent(name, metric);
+        if (existing != null)
+            return existing;
+        if (mbeanServer != null) {
+            try {
+                final ObjectName objectName = getObjectName(name);
+                if (mbeanServer.isRegistered(objectName))
+                    mbeanServer.unregisterMBean(objectName);
+                mbeanServer.registerMBean(new StandardMBean(metric, mxbean, true), objectName);
+            } catch (JMException | RuntimeException registrationFailure) {
+                log.warn("Could not register metric [" + name + "] in JMX! Error details: "
+                         + registrationFailure.getMessage());
+            }
+        }
+        return metric;
+    }
+
+    /**
+     * Removes the metric with the given name from the MBean server.
+     *
+     * @param name  The name of the metric
+     */
+    private void unregister(final String name) {
+        if (mbeanServer == null)
+            return;
+        try {
+            final ObjectName objectName = getObjectName(name);
+            if (mbeanServer.isRegistered(objectName))
+                mbeanServer.unregisterMBean(objectName);
+        } catch (JMException | RuntimeException unregistrationFailure) {
+            log.warn("Could not unregister metric [" + name + "] from JMX! Error details: "
+                     + unregistrationFailure.getMessage());
+        }
+    }
+
+    /**
+     * Gets the JMX object name for the metric with the given name. The name is quoted when it contains characters that
+     * are not allowed in an unquoted value.
+     *
+     * @param name  The name of the metric
+     * @return      The object name to register the metric under
+     * @throws JMException When the object name can not be created
+     */
+    static ObjectName getObjectName(final String name) throws JMException {
+        final boolean needsQuoting = name.matches(".*[,=:\"*?\\n].*");
+        return new ObjectName(JMX_DOMAIN + ":type=Metrics,name=" + (needsQuoting ? ObjectName.quote(name) : name));
+    }
+
+    /**
+     * The management interface of a counter.
+     */
+    public interface CounterMXBean {
+
+        /**
+         * @return  The current value of the counter
+         */
+        long getCount();
+    }
+
+    /**
+     * The management interface of a timer. The durations are reported in milliseconds.
+     */
+    public interface TimerMXBean {
+
+        /**
+         * @return  The number of recorded events
+         */
+        long getCount();
+
+        /**
+         * @return  The mean duration of the recorded events
+         */
+        double getMean();
+
+        /**
+         * @return  The maximum duration of the recorded events
+         */
+        double getMax();
+
+        /**
+         * @return  The estimated median of the durations
+         */
+        double get50thPercentile();
+
+        /**
+         * @return  The estimated 95th percentile of the durations
+         */
+        double get95thPercentile();
+
+        /**
+         * @return  The estimated 99th percentile of the durations
+         */
+        double get99thPercentile();
+    }
+
+    /**
+     * The management interface of a gauge.
+     */
+    public interface GaugeMXBean {
+
+        /**
+         * @return  The current value of the gauge
+         */
+        long getValue();
+    }
+
+    /**
+     * Is a counter
+     */
+    static final class Counter implements CounterMXBean {
+        final AtomicLong count = new AtomicLong();
+
+        @Override
+        public long getCount() {
+            return count.get();
+        }
+    }
+
+    /**
+     * Is a gauge that provides the value of the registered {@link IGauge}
+     */
+    static final class Gauge implements GaugeMXBean {
+        final IGauge gauge;
+
+        Gauge(final IGauge gauge) {
+            this.gauge = gauge;
+        }
+
+        @Override
+        public long getValue() {
+            return gauge.getValue();
+        }
+    }
+
+    /**
+     * Is a timer that keeps a histogram of the recorded durations.
+     */
+    static final class Timer implements TimerMXBean {
+        /**
+         * Number of buckets: four for each power of two of a non negative <code>long</code> value
+         */
+        static final int BUCKETS = 63 * 4;
+
+        private static final double NANOS_PER_MILLI = 1000000d;
+
+        final AtomicLongArray   histogram = new AtomicLongArray(BUCKETS);
+        final AtomicLong        count = new AtomicLong();
+        final AtomicLong        total = new AtomicLong();
+        final AtomicLong        max = new AtomicLong();
+
+        void record(final long nanos) {
+            final long duration = Math.max(0, nanos);
+            histogram.incrementAndGet(bucketOf(duration));
+            count.incrementAndGet();
+            total.addAndGet(duration);
+            long currentMax = max.get();
+            while (duration > currentMax && !max.compareAndSet(currentMax, duration))
+                currentMax = max.get();
+        }
+
+        /**
+         * Gets the bucket for the given duration. Durations smaller than four have their own bucket, the other
+         * buckets are determined by the position of the highest bit set and the two bits following it.
+         */
+        static int bucketOf(final long nanos) {
+            if (nanos < 4)
+                return (int) nanos;
+            final int exp = 63 - Long.numberOfLeadingZeros(nanos);
+            return exp * 4 + (int) ((nanos >>> (exp - 2)) & 3);
+        }
+
+        /**
+         * Gets the largest duration that falls into the given bucket.
+         */
+        static long upperBoundOf(final int bucket) {
+            if (bucket < 4)
+                return bucket;
+            final int exp = bucket / 4;
+            final long upper = ((long) (5 + bucket % 4) << (exp - 2)) - 1;
+            // The upper bound of the last bucket overflows
+            return upper < 0 ? Long.MAX_VALUE : upper;
+        }
+
+        /**
+         * Estimates the given percentile of the recorded durations.
+         *
+         * @param p     The percentile to get, between 0 and 1
+         * @return      The estimated percentile in nanoseconds
+         */
+        long percentile(final double p) {
+            final long n = count.get();
+            if (n == 0)
+                return 0;
+            final long rank = (long) Math.ceil(p * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += histogram.get(i);
+                if (seen >= rank)
+                    return Math.min(upperBoundOf(i), max.get());
+            }
+            return max.get();
+        }
+
+        @Override
+        public long getCount() {
+            return count.get();
+        }
+
+        @Override
+        public double getMean() {
+            final long n = count.get();
+            return n == 0 ? 0 : total.get() / NANOS_PER_MILLI / n;
+        }
+
+        @Override
+        public double getMax() {
+            return max.get() / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public double get50thPercentile() {
+            return percentile(0.5) / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public double get95thPercentile() {
+            return percentile(0.95) / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public double get99thPercentile() {
+            return percentile(0.99) / NANOS_PER_MILLI;
+        }
+    }
+}
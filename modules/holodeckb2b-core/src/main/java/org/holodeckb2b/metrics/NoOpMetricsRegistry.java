@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.metrics;
+
+import org.holodeckb2b.interfaces.metrics.IGauge;
+import org.holodeckb2b.interfaces.metrics.IMetricsRegistry;
+
+/**
+ * Is the {@link IMetricsRegistry} implementation used when collecting metrics is disabled. It ignores all recorded
+ * metrics and indicates that it is not enabled so components can skip measuring.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public final class NoOpMetricsRegistry implements IMetricsRegistry {
+
+    /**
+     * The singleton instance, as the registry has no state it can be shared
+     */
+    public static final NoOpMetricsRegistry INSTANCE = new NoOpMetricsRegistry();
+
+    private NoOpMetricsRegistry() {}
+
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+
+    @Override
+    public void incrementCounter(final String name) {
+    }
+
+    @Override
+    public void recordTime(final String name, final long nanos) {
+    }
+
+    @Override
+    public void registerGauge(final String name, final IGauge gauge) {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+}
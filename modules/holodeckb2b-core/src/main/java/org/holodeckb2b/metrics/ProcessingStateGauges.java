@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.holodeckb2b.interfaces.metrics.IGauge;
+import org.holodeckb2b.interfaces.metrics.IMetricsRegistry;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.dao.IQueryManager;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+
+/**
+ * Provides the gauges that report the number of message units in each processing state, i.e. the depth of the "queues"
+ * of message units waiting to be sent, delivered or being processed. The gauges are registered as <i>"state.</i>
+ * &lt;<i>processing state</i>&gt;<i>"</i>, e.g. <i>"state.READY_TO_PUSH"</i>.
+ * <p>The numbers of message units are retrieved with one query for all states. As a monitoring tool will normally read
+ * all gauges at once the result of the query is cached for a short period so the database is queried only once.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public class ProcessingStateGauges {
+
+    private static final Log log = LogFactory.getLog(ProcessingStateGauges.class);
+
+    /**
+     * The prefix of the gauge names
+     */
+    public static final String PREFIX = "state.";
+
+    /**
+     * Time in milliseconds the result of the query is used before querying the database again
+     */
+    private static final long CACHE_TIME = 1000;
+
+    private final IQueryManager queryManager;
+
+    private Map<ProcessingState, Long>  counts = Collections.emptyMap();
+    private long                        retrieved = 0;
+
+    /**
+     * Creates the gauges and registers them in the given registry.
+     *
+     * @param registry      The registry to add the gauges to
+     * @param queryManager  The query manager to use for getting the number of message units
+     */
+    public static void register(final IMetricsRegistry registry, final IQueryManager queryManager) {
+        final ProcessingStateGauges gauges = new ProcessingStateGauges(queryManager);
+        for (final ProcessingState state : ProcessingState.values())
+            registry.registerGauge(PREFIX + state.name(), gauges.new StateGauge(state));
+    }
+
+    private ProcessingStateGauges(final IQueryManager queryManager) {
+        this.queryManager = queryManager;
+    }
+
+    /**
+     * Gets the number of message units in the given processing state, querying the database if the cached result is
+     * expired.
+     *
+     * @param state     The processing state
+     * @return          The number of message units in the given state, or -1 if the number could not be retrieved
+     */
+    private synchronized long getCount(final ProcessingState state) {
+        final long now = System.currentTimeMillis();
+        if (now - retrieved > CACHE_TIME) {
+            try {
+                counts = queryManager.getNumberOfMessageUnitsPerState();
+                retrieved = now;
+            } catch (final PersistenceException queryFailure) {
+                log.warn("Could not retrieve the number of message units per processing state! Error details: "
+                         + queryFailure.getMessage());
+                return -1;
+            }
+        }
+        final Long count = counts.get(state);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Is the gauge for one processing state
+     */
+    private class StateGauge implements IGauge {
+        private final ProcessingState state;
+
+        StateGauge(final ProcessingState state) {
+            this.state = state;
+        }
+
+        @Override
+        public long getValue() {
+            return getCount(state);
+        }
+    }
+}
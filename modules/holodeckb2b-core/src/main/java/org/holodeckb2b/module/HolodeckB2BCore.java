@@ -16,9 +16,17 @@
  */
 package org.holodeckb2b.module;
 
+import org.holodeckb2b.as4.compression.PayloadCompressor;
+import org.holodeckb2b.as4.receptionawareness.DuplicateIndex;
+import org.holodeckb2b.as4.receptionawareness.RetransmissionScheduler;
 import org.holodeckb2b.common.config.InternalConfiguration;
+import org.holodeckb2b.ebms3.axis2.HTTPConnectionPool;
+import org.holodeckb2b.ebms3.pulling.PullQueues;
+import org.holodeckb2b.ebms3.workers.DeliveryDispatcher;
+import org.holodeckb2b.ebms3.workers.SendDispatcher;
 import org.holodeckb2b.interfaces.config.IConfiguration;
 import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
 import org.holodeckb2b.persistency.dao.StorageManager;
 
 /**
@@ -52,4 +60,82 @@ public class HolodeckB2BCore extends HolodeckB2BCoreInterface {
     public static StorageManager getStorageManager() {
         return ((HolodeckB2BCoreImpl) coreImplementation).getStorageManager();
     }
+
+    /**
+     * Gets the pool of HTTP connections that should be used for sending messages.
+     *
+     * @return  The {@link HTTPConnectionPool} shared by all senders
+     * @since  3.1.0
+     */
+    public static HTTPConnectionPool getHTTPConnectionPool() {
+        return ((HolodeckB2BCoreImpl) coreImplementation).getHTTPConnectionPool();
+    }
+
+    /**
+     * Gets the dispatcher that starts the send process of message units that are ready to push.
+     *
+     * @return  The {@link SendDispatcher} of this instance
+     * @since  3.1.0
+     */
+    public static SendDispatcher getSendDispatcher() {
+        return ((HolodeckB2BCoreImpl) coreImplementation).getSendDispatcher();
+    }
+
+    /**
+     * Gets the dispatcher that delivers received user messages asynchronously.
+     *
+     * @return  The {@link DeliveryDispatcher} of this instance, or <code>null</code> when user messages are delivered
+     *          synchronously
+     * @since  3.1.0
+     */
+    public static DeliveryDispatcher getDeliveryDispatcher() {
+        return ((HolodeckB2BCoreImpl) coreImplementation).getDeliveryDispatcher();
+    }
+
+    /**
+     * Gets the scheduler that checks for retransmission of user messages waiting for a receipt.
+     *
+     * @return  The {@link RetransmissionScheduler} of this instance
+     * @since  3.1.0
+     */
+    public static RetransmissionScheduler getRetransmissionScheduler() {
+        return ((HolodeckB2BCoreImpl) coreImplementation).getRetransmissionScheduler();
+    }
+
+    /**
+     * Gets the in-memory queues of user messages waiting to be pulled.
+     *
+     * @return  The {@link PullQueues} of this instance
+     * @since  3.1.0
+     */
+    public static PullQueues getPullQueues() {
+        return ((HolodeckB2BCoreImpl) coreImplementation).getPullQueues();
+    }
+
+    /**
+     * Gets the compressor that compresses the payloads of outgoing user messages ahead of their transmission.
+     *
+     * @return  The {@link PayloadCompressor} of this instance, or <code>null</code> when payloads are compressed while
+     *          the message is sent
+     * @since  3.1.0
+     */
+    public static PayloadCompressor getPayloadCompressor() {
+        return ((HolodeckB2BCoreImpl) coreImplementation).getPayloadCompressor();
+    }
+
+    /**
+     * Checks whether a received user message with the given message id has already been delivered. Uses the in-memory
+     * duplicate index when available, so the database is only queried for likely duplicates.
+     *
+     * @param messageId     The message id to check
+     * @return              <code>true</code> if there is a delivered user message with the given message id,<br>
+     *                      <code>false</code> if not
+     * @throws PersistenceException When an error occurs while querying the database
+     * @since  3.1.0
+     */
+    public static boolean isAlreadyDelivered(final String messageId) throws PersistenceException {
+        final DuplicateIndex index = ((HolodeckB2BCoreImpl) coreImplementation).getDuplicateIndex();
+        return index != null ? index.isAlreadyDelivered(messageId)
+                             : coreImplementation.getQueryManager().isAlreadyDelivered(messageId);
+    }
 }
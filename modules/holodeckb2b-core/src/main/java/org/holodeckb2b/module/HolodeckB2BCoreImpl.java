@@ -16,26 +16,38 @@
  */
 package org.holodeckb2b.module;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 import org.apache.axis2.AxisFault;
+import org.apache.axis2.Constants;
 import org.apache.axis2.context.ConfigurationContext;
 import org.apache.axis2.description.AxisDescription;
 import org.apache.axis2.description.AxisModule;
+import org.apache.axis2.description.Parameter;
+import org.apache.axis2.engine.AxisConfiguration;
 import org.apache.axis2.modules.Module;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.neethi.Assertion;
 import org.apache.neethi.Policy;
+import org.holodeckb2b.as4.compression.PayloadCompressor;
+import org.holodeckb2b.as4.receptionawareness.DuplicateIndex;
+import org.holodeckb2b.as4.receptionawareness.RetransmissionScheduler;
 import org.holodeckb2b.common.config.Config;
 import org.holodeckb2b.common.config.InternalConfiguration;
 import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.common.workerpool.WorkerPool;
 import org.holodeckb2b.common.workerpool.xml.XMLWorkerPoolConfig;
+import org.holodeckb2b.ebms3.axis2.HTTPConnectionPool;
 import org.holodeckb2b.ebms3.pulling.PullConfiguration;
 import org.holodeckb2b.ebms3.pulling.PullConfigurationWatcher;
+import org.holodeckb2b.ebms3.pulling.PullQueues;
 import org.holodeckb2b.ebms3.pulling.PullWorker;
 import org.holodeckb2b.ebms3.submit.core.MessageSubmitter;
+import org.holodeckb2b.ebms3.workers.DeliveryDispatcher;
+import org.holodeckb2b.ebms3.workers.SendDispatcher;
+import org.holodeckb2b.events.AsyncEventProcessor;
 import org.holodeckb2b.events.SyncEventProcessor;
 import org.holodeckb2b.interfaces.config.IConfiguration;
 import org.holodeckb2b.interfaces.core.IHolodeckB2BCore;
@@ -44,6 +56,7 @@ import org.holodeckb2b.interfaces.delivery.IMessageDeliverer;
 import org.holodeckb2b.interfaces.delivery.IMessageDelivererFactory;
 import org.holodeckb2b.interfaces.delivery.MessageDeliveryException;
 import org.holodeckb2b.interfaces.events.IMessageProcessingEventProcessor;
+import org.holodeckb2b.interfaces.metrics.IMetricsRegistry;
 import org.holodeckb2b.interfaces.persistency.IPersistencyProvider;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
 import org.holodeckb2b.interfaces.persistency.dao.IDAOFactory;
@@ -53,6 +66,9 @@ import org.holodeckb2b.interfaces.pmode.IPModeSet;
 import org.holodeckb2b.interfaces.submit.IMessageSubmitter;
 import org.holodeckb2b.interfaces.workerpool.IWorkerPoolConfiguration;
 import org.holodeckb2b.interfaces.workerpool.TaskConfigurationException;
+import org.holodeckb2b.metrics.DefaultMetricsRegistry;
+import org.holodeckb2b.metrics.NoOpMetricsRegistry;
+import org.holodeckb2b.metrics.ProcessingStateGauges;
 import org.holodeckb2b.persistency.dao.StorageManager;
 import org.holodeckb2b.pmode.PModeManager;
 
@@ -123,6 +139,61 @@ public class HolodeckB2BCoreImpl implements Module, IHolodeckB2BCore {
      */
     private IDAOFactory    daoFactory = null;
 
+    /**
+     * The pool of HTTP connections used for sending messages
+     * @since  3.1.0
+     */
+    private HTTPConnectionPool httpConnectionPool = null;
+
+    /**
+     * The dispatcher that starts the send process of message units as soon as they are ready to push
+     * @since  3.1.0
+     */
+    private SendDispatcher sendDispatcher = null;
+
+    /**
+     * The dispatcher that delivers received user messages when asynchronous delivery is enabled
+     * @since  3.1.0
+     */
+    private DeliveryDispatcher deliveryDispatcher = null;
+
+    /**
+     * The scheduler that checks for retransmission of user messages waiting for a receipt
+     * @since  3.1.0
+     */
+    private RetransmissionScheduler retransmissionScheduler = null;
+
+    /**
+     * The in-memory index of delivered user messages used for duplicate detection, <code>null</code> if not used
+     * @since  3.1.0
+     */
+    private DuplicateIndex duplicateIndex = null;
+
+    /**
+     * The in-memory queues of user messages waiting to be pulled
+     * @since  3.1.0
+     */
+    private PullQueues pullQueues = null;
+
+    /**
+     * The components to which the storage managers hand over message units when their processing state changes
+     * @since  3.1.0
+     */
+    private final StorageManager.HandOvers handOvers = new StorageManager.HandOvers();
+
+    /**
+     * The compressor of payloads of outgoing user messages, <code>null</code> if payloads are compressed while the
+     * message is sent
+     * @since  3.1.0
+     */
+    private PayloadCompressor payloadCompressor = null;
+
+    /**
+     * The registry in which the metrics on the message processing are collected
+     * @since  3.1.0
+     */
+    private IMetricsRegistry metricsRegistry = null;
+
     /**
      * Initializes the Holodeck B2B Core module.
      *
@@ -153,13 +224,17 @@ public class HolodeckB2BCoreImpl implements Module, IHolodeckB2BCore {
             throw new AxisFault("Could not initialize Holodeck B2B module!", ex);
         }
 
+        configureAttachmentCache(cc.getAxisConfiguration());
+
         log.debug("Initialize the P-Mode manager");
         pmodeManager = new PModeManager(instanceConfiguration.getPModeValidatorImplClass(),
                                         instanceConfiguration.getPModeStorageImplClass());
 
         log.debug("Create the processor for message processing events");
         final String eventProcessorClassname = instanceConfiguration.getMessageProcessingEventProcessor();
-        if (!Utils.isNullOrEmpty(eventProcessorClassname)) {
+        if (AsyncEventProcessor.class.getName().equals(eventProcessorClassname))
+            eventProcessor = createAsyncEventProcessor();
+        else if (!Utils.isNullOrEmpty(eventProcessorClassname)) {
             try {
                eventProcessor = (IMessageProcessingEventProcessor) Class.forName(eventProcessorClassname).newInstance();
             } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException ex) {
@@ -167,7 +242,8 @@ public class HolodeckB2BCoreImpl implements Module, IHolodeckB2BCore {
                log.error("Could not load the specified event processor: " + eventProcessorClassname
                         + ". Using default implementation instead.");
             }
-        } else
+        }
+        if (eventProcessor == null)
             eventProcessor = new SyncEventProcessor();
         log.debug("Created " + eventProcessor.getClass().getSimpleName() + " event processor");
 
@@ -196,10 +272,70 @@ public class HolodeckB2BCoreImpl implements Module, IHolodeckB2BCore {
         }
         log.debug("Succesfully loaded " + persistencyProvider.getName() + " as persistency provider");
 
+        log.debug("Create the registry for collecting metrics");
+        metricsRegistry = createMetricsRegistry();
+        if (metricsRegistry.isEnabled())
+            ProcessingStateGauges.register(metricsRegistry, daoFactory.getQueryManager());
+        log.debug("Using " + metricsRegistry.getClass().getSimpleName() + " for collecting metrics");
+
+        log.debug("Create the HTTP connection pool for sending messages");
+        httpConnectionPool = new HTTPConnectionPool(instanceConfiguration.getMaxConnectionsPerHost(),
+                                                    instanceConfiguration.getMaxConnections(),
+                                                    instanceConfiguration.getIdleConnectionTimeout());
+        log.debug("Start the send dispatcher");
+        sendDispatcher = new SendDispatcher(instanceConfiguration.getMaxParallelSends(),
+                                            instanceConfiguration.getMaxParallelSendsPerDestination());
+        log.debug("Start the retransmission scheduler");
+        retransmissionScheduler = new RetransmissionScheduler();
+        if (instanceConfiguration.getDuplicateIndexCapacity() > 0) {
+            log.debug("Build the duplicate index");
+            duplicateIndex = new DuplicateIndex(daoFactory.getQueryManager(),
+                                                instanceConfiguration.getDuplicateIndexCapacity());
+            final Thread indexBuilder = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    duplicateIndex.build();
+                }
+            }, "hb2b-duplicate-index");
+            indexBuilder.setDaemon(true);
+            indexBuilder.start();
+        }
+        log.debug("Fill the pull queues");
+        pullQueues = new PullQueues(daoFactory.getQueryManager());
+        final Thread queuesBuilder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pullQueues.build();
+                } catch (final PersistenceException dbError) {
+                    log.error("Could not fill the pull queues, pull requests are handled using the database."
+                              + " Details: " + dbError.getMessage());
+                }
+            }
+        }, "hb2b-pull-queues");
+        queuesBuilder.setDaemon(true);
+        queuesBuilder.start();
+        pullQueues.startReconciling();
+        handOvers.setSendDispatcher(sendDispatcher);
+        handOvers.setRetransmissionScheduler(retransmissionScheduler);
+        handOvers.setDuplicateIndex(duplicateIndex);
+        handOvers.setPullQueues(pullQueues);
+        if (instanceConfiguration.getPayloadCompressionThreads() > 0) {
+            log.debug("Start the payload compressor");
+            payloadCompressor = new PayloadCompressor(instanceConfiguration.getPayloadCompressionThreads());
+        }
+
         // From this point on other components can be started which need access to the Core
         log.debug("Make Core available to outside world");
         HolodeckB2BCore.setImplementation(this);
 
+        if (instanceConfiguration.useAsyncDelivery()) {
+            log.debug("Start the delivery dispatcher");
+            deliveryDispatcher = new DeliveryDispatcher(instanceConfiguration.getDeliveryThreads(),
+                                                        instanceConfiguration.getMaxDeliveryAttempts(),
+                                                        instanceConfiguration.getDeliveryRetryInterval());
+        }
+
 //                // Special ClassLoader required for correct Hibernate init!
 //        {
 //          final ClassLoader aOldCL = Thread.currentThread ().getContextClassLoader ();
@@ -267,11 +403,104 @@ public class HolodeckB2BCoreImpl implements Module, IHolodeckB2BCore {
         log.debug("Stopping pull worker pool");
         pullWorkers.stop(10);
         log.debug("Pull worker pool stopped");
-
+        log.debug("Stopping send dispatcher");
+        sendDispatcher.shutdown();
+        if (deliveryDispatcher != null)
+            deliveryDispatcher.shutdown();
+        retransmissionScheduler.shutdown();
+        pullQueues.shutdown();
+        if (payloadCompressor != null)
+            payloadCompressor.shutdown();
+        if (eventProcessor instanceof AsyncEventProcessor) {
+            log.debug("Processing remaining events");
+            ((AsyncEventProcessor) eventProcessor).shutdown();
+        }
+        log.debug("Closing HTTP connections");
+        httpConnectionPool.shutdown();
+        log.debug("Stopping the collection of metrics");
+        metricsRegistry.shutdown();
 
         log.info("Holodeck B2B Core module STOPPED.");
     }
 
+    /**
+     * Creates the {@link AsyncEventProcessor} using the queue size, number of threads and overflow policy from the
+     * configuration. For settings that are not configured the default of the processor is used.
+     *
+     * @return  The new asynchronous event processor
+     * @since  3.1.0
+     */
+    private AsyncEventProcessor createAsyncEventProcessor() {
+        final int queueSize = instanceConfiguration.getEventQueueSize();
+        final int threads = instanceConfiguration.getEventProcessingThreads();
+        final String policyName = instanceConfiguration.getEventQueueOverflowPolicy();
+        AsyncEventProcessor.OverflowPolicy policy = AsyncEventProcessor.DEFAULT_OVERFLOW_POLICY;
+        if (!Utils.isNullOrEmpty(policyName)) {
+            try {
+                policy = AsyncEventProcessor.OverflowPolicy.valueOf(policyName.trim().toUpperCase());
+            } catch (final IllegalArgumentException unknownPolicy) {
+                log.warn("Unknown event queue overflow policy specified [" + policyName + "], using default policy "
+                         + policy);
+            }
+        }
+        return new AsyncEventProcessor(queueSize > 0 ? queueSize : AsyncEventProcessor.DEFAULT_QUEUE_SIZE,
+                                       threads > 0 ? threads : AsyncEventProcessor.DEFAULT_THREADS,
+                                       policy);
+    }
+
+    /**
+     * Sets the directory where Axis2 caches large attachments of received messages to the <i>"attachments"</i>
+     * directory in the Holodeck B2B temp directory when caching is enabled but no directory is configured. Because the
+     * cached attachments are then on the same file system as the payload files they can be linked instead of copied
+     * when the payloads are saved.
+     *
+     * @param axisConfig    The Axis2 configuration
+     * @throws AxisFault    When the directory can not be set in the Axis2 configuration
+     * @since  3.1.0
+     */
+    private void configureAttachmentCache(final AxisConfiguration axisConfig) throws AxisFault {
+        final Parameter cacheAttachments = axisConfig.getParameter(Constants.Configuration.CACHE_ATTACHMENTS);
+        if (cacheAttachments == null || !"true".equalsIgnoreCase(String.valueOf(cacheAttachments.getValue())))
+            return;
+        final Parameter attachmentDir = axisConfig.getParameter(Constants.Configuration.ATTACHMENT_TEMP_DIR);
+        if (attachmentDir != null && attachmentDir.getValue() != null
+            && !Utils.isNullOrEmpty(attachmentDir.getValue().toString().trim()))
+            return;
+
+        final File cacheDir = new File(instanceConfiguration.getTempDirectory() + "attachments");
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            log.warn("Could not create directory for caching attachments [" + cacheDir.getAbsolutePath() + "]");
+            return;
+        }
+        axisConfig.addParameter(Constants.Configuration.ATTACHMENT_TEMP_DIR, cacheDir.getAbsolutePath());
+        log.debug("Attachments are cached in " + cacheDir.getAbsolutePath());
+    }
+
+    /**
+     * Creates the registry for collecting metrics. When collecting metrics is enabled the registry configured in the
+     * <i>MetricsRegistry</i> parameter is used or if none is configured the {@link DefaultMetricsRegistry} which makes
+     * the metrics available through JMX. When disabled a registry is used that ignores all metrics.
+     *
+     * @return  The new metrics registry
+     * @since  3.1.0
+     */
+    private IMetricsRegistry createMetricsRegistry() {
+        if (!instanceConfiguration.isMetricsEnabled())
+            return NoOpMetricsRegistry.INSTANCE;
+
+        final String registryClassname = instanceConfiguration.getMetricsRegistryClass();
+        if (!Utils.isNullOrEmpty(registryClassname)) {
+            try {
+                return (IMetricsRegistry) Class.forName(registryClassname).newInstance();
+            } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException ex) {
+                // Could not create the specified registry, fall back to default implementation
+                log.error("Could not load the specified metrics registry: " + registryClassname
+                         + ". Using default implementation instead.");
+            }
+        }
+        return new DefaultMetricsRegistry();
+    }
+
     /**
      * Returns the current configuration of this Holodeck B2B instance. The configuration parameters can be used
      * by extension to integrate their functionality with the core.
@@ -424,7 +653,79 @@ public class HolodeckB2BCoreImpl implements Module, IHolodeckB2BCore {
      * @since  3.0.0
      */
     public StorageManager getStorageManager() {
-        return new StorageManager(daoFactory.getUpdateManager());
+        return new StorageManager(daoFactory.getUpdateManager(), handOvers);
+    }
+
+    /**
+     * Gets the pool of HTTP connections that should be used for sending messages.
+     *
+     * @return  The {@link HTTPConnectionPool} shared by all senders
+     * @since  3.1.0
+     */
+    public HTTPConnectionPool getHTTPConnectionPool() {
+        return httpConnectionPool;
+    }
+
+    /**
+     * Gets the dispatcher that starts the send process of message units that are ready to push.
+     *
+     * @return  The {@link SendDispatcher} of this instance
+     * @since  3.1.0
+     */
+    public SendDispatcher getSendDispatcher() {
+        return sendDispatcher;
+    }
+
+    /**
+     * Gets the dispatcher that delivers received user messages asynchronously.
+     *
+     * @return  The {@link DeliveryDispatcher} of this instance, or <code>null</code> when user messages are delivered
+     *          synchronously
+     * @since  3.1.0
+     */
+    public DeliveryDispatcher getDeliveryDispatcher() {
+        return deliveryDispatcher;
+    }
+
+    /**
+     * Gets the scheduler that checks for retransmission of user messages waiting for a receipt.
+     *
+     * @return  The {@link RetransmissionScheduler} of this instance
+     * @since  3.1.0
+     */
+    public RetransmissionScheduler getRetransmissionScheduler() {
+        return retransmissionScheduler;
+    }
+
+    /**
+     * Gets the in-memory index of delivered user messages used for duplicate detection.
+     *
+     * @return  The {@link DuplicateIndex} of this instance, or <code>null</code> when the index is not used
+     * @since  3.1.0
+     */
+    public DuplicateIndex getDuplicateIndex() {
+        return duplicateIndex;
+    }
+
+    /**
+     * Gets the in-memory queues of user messages waiting to be pulled.
+     *
+     * @return  The {@link PullQueues} of this instance
+     * @since  3.1.0
+     */
+    public PullQueues getPullQueues() {
+        return pullQueues;
+    }
+
+    /**
+     * Gets the compressor that compresses the payloads of outgoing user messages ahead of their transmission.
+     *
+     * @return  The {@link PayloadCompressor} of this instance, or <code>null</code> when payloads are compressed while
+     *          the message is sent
+     * @since  3.1.0
+     */
+    public PayloadCompressor getPayloadCompressor() {
+        return payloadCompressor;
     }
 
     /**
@@ -439,4 +740,17 @@ public class HolodeckB2BCoreImpl implements Module, IHolodeckB2BCore {
         return daoFactory.getQueryManager();
     }
 
+    /**
+     * Gets the registry that should be used to record metrics on the processing of messages.
+     * <p>Whether metrics are collected and which registry is used can be configured using the <i>"MetricsEnabled"</i>
+     * and <i>"MetricsRegistry"</i> parameters in the Holodeck B2B configuration file.
+     *
+     * @return  The {@link IMetricsRegistry} of this instance
+     * @since  3.1.0
+     */
+    @Override
+    public IMetricsRegistry getMetricsRegistry() {
+        return metricsRegistry != null ? metricsRegistry : NoOpMetricsRegistry.INSTANCE;
+    }
+
 }
@@ -16,8 +16,12 @@
  */
 package org.holodeckb2b.persistency.dao;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import org.holodeckb2b.as4.receptionawareness.DuplicateIndex;
+import org.holodeckb2b.as4.receptionawareness.RetransmissionScheduler;
 import org.holodeckb2b.common.messagemodel.ErrorMessage;
 import org.holodeckb2b.common.messagemodel.MessageUnit;
 import org.holodeckb2b.common.messagemodel.PullRequest;
@@ -25,12 +29,16 @@ import org.holodeckb2b.common.messagemodel.Receipt;
 import org.holodeckb2b.common.messagemodel.UserMessage;
 import org.holodeckb2b.common.util.MessageIdGenerator;
 import org.holodeckb2b.common.util.Utils;
+import org.holodeckb2b.ebms3.pulling.PullQueues;
+import org.holodeckb2b.ebms3.workers.SendDispatcher;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
 import org.holodeckb2b.interfaces.messagemodel.IErrorMessage;
 import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
 import org.holodeckb2b.interfaces.messagemodel.IPayload;
 import org.holodeckb2b.interfaces.messagemodel.IPullRequest;
 import org.holodeckb2b.interfaces.messagemodel.IReceipt;
 import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.metrics.IMetricsRegistry;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
 import org.holodeckb2b.interfaces.persistency.dao.IUpdateManager;
 import org.holodeckb2b.interfaces.persistency.entities.IErrorMessageEntity;
@@ -51,6 +59,20 @@ public class StorageManager {
      */
     private IUpdateManager  parent;
 
+    /**
+     * The components to which message units are handed over when their processing state changes
+     * @since 3.1.0
+     */
+    private final HandOvers handOvers;
+
+    /**
+     * The units of work active on each thread. As the message units that become ready to push within a unit of work
+     * are not visible to other threads until it is committed they are only handed over to the send dispatcher after
+     * the commit.
+     * @since 3.1.0
+     */
+    private static final ThreadLocal<UnitOfWorkState> unitOfWork = new ThreadLocal<>();
+
     /**
      * Creates a new facade to the given update manager of the persistency provider so other Core classes can update the
      * meta-data of a message unit.
@@ -58,7 +80,69 @@ public class StorageManager {
      * @param parent    The update manager from the persistency provider
      */
     public StorageManager(final IUpdateManager parent) {
+        this(parent, new HandOvers());
+    }
+
+    /**
+     * Creates a new facade to the given update manager of the persistency provider so other Core classes can update the
+     * meta-data of a message unit. Message units whose processing state changes are handed over to the components
+     * set in the given {@link HandOvers}.
+     *
+     * @param parent        The update manager from the persistency provider
+     * @param handOvers     The components to which message units are handed over
+     * @since 3.1.0
+     */
+    public StorageManager(final IUpdateManager parent, final HandOvers handOvers) {
         this.parent = parent;
+        this.handOvers = handOvers;
+    }
+
+    /**
+     * Holds the components to which the storage manager hands over message units when their processing state changes.
+     * All components are optional, a message unit is only handed over to the components that are set.
+     * @since 3.1.0
+     */
+    public static class HandOvers {
+        private SendDispatcher          sendDispatcher;
+        private RetransmissionScheduler retransmissionScheduler;
+        private DuplicateIndex          duplicateIndex;
+        private PullQueues              pullQueues;
+
+        /**
+         * Sets the dispatcher to which message units are handed over when they are ready to push.
+         *
+         * @param sendDispatcher    The send dispatcher
+         */
+        public void setSendDispatcher(final SendDispatcher sendDispatcher) {
+            this.sendDispatcher = sendDispatcher;
+        }
+
+        /**
+         * Sets the scheduler to which user messages are handed over when they start waiting for a receipt.
+         *
+         * @param retransmissionScheduler   The retransmission scheduler
+         */
+        public void setRetransmissionScheduler(final RetransmissionScheduler retransmissionScheduler) {
+            this.retransmissionScheduler = retransmissionScheduler;
+        }
+
+        /**
+         * Sets the index of delivered user messages used for duplicate detection.
+         *
+         * @param duplicateIndex    The duplicate index
+         */
+        public void setDuplicateIndex(final DuplicateIndex duplicateIndex) {
+            this.duplicateIndex = duplicateIndex;
+        }
+
+        /**
+         * Sets the queues to which user messages are added when they start waiting to be pulled.
+         *
+         * @param pullQueues    The pull queues
+         */
+        public void setPullQueues(final PullQueues pullQueues) {
+            this.pullQueues = pullQueues;
+        }
     }
 
     /**
@@ -73,11 +157,20 @@ public class StorageManager {
      */
     public <T extends IMessageUnit, V extends IMessageUnitEntity> V storeIncomingMessageUnit(T messageUnit)
                                                                                            throws PersistenceException {
+        checkNotRolledBack();
         MessageUnit tempObject = createTempObject(messageUnit);
         // Set correct direction
         tempObject.setDirection(IMessageUnit.Direction.IN);
         tempObject.setProcessingState(ProcessingState.RECEIVED);
-        return parent.storeMessageUnit(tempObject);
+        final V storedObject;
+        try {
+            storedObject = parent.storeMessageUnit(tempObject);
+        } catch (final PersistenceException failure) {
+            rolledBack();
+            throw failure;
+        }
+        countMessage("messages.received");
+        return storedObject;
     }
 
     /**
@@ -92,6 +185,7 @@ public class StorageManager {
      */
     public <T extends IMessageUnit, V extends IMessageUnitEntity> V storeOutGoingMessageUnit(T messageUnit)
                                                                                         throws PersistenceException {
+        checkNotRolledBack();
         MessageUnit tempObject = createTempObject(messageUnit);
         // Set correct direction
         tempObject.setDirection(IMessageUnit.Direction.OUT);
@@ -105,8 +199,14 @@ public class StorageManager {
         if (tempObject.getTimestamp() == null)
             tempObject.setTimestamp(new Date());
 
-        V storedObject = parent.storeMessageUnit(tempObject);
-        parent.setLeg(storedObject, ILeg.Label.REQUEST);
+        V storedObject;
+        try {
+            storedObject = parent.storeMessageUnit(tempObject);
+            parent.setLeg(storedObject, ILeg.Label.REQUEST);
+        } catch (final PersistenceException failure) {
+            rolledBack();
+            throw failure;
+        }
 
         return storedObject;
     }
@@ -119,7 +219,13 @@ public class StorageManager {
      * @throws PersistenceException If an error occurs when saving the P-Mode ID to the database
      */
     public void setPModeId(final IMessageUnitEntity msgUnit, final String pmodeId) throws PersistenceException {
-        parent.setPModeId(msgUnit, pmodeId);
+        checkNotRolledBack();
+        try {
+            parent.setPModeId(msgUnit, pmodeId);
+        } catch (final PersistenceException failure) {
+            rolledBack();
+            throw failure;
+        }
     }
 
     /**
@@ -141,6 +247,14 @@ public class StorageManager {
      * check and change need to be executed in one transaction to ensure that no other thread can make changes to the
      * message unit's processing state.<br>
      * The new processing state's  start time will be set to the current time.
+     * <p>When an outgoing message unit is changed to {@link ProcessingState#READY_TO_PUSH} it is handed over to the
+     * send dispatcher, if available. Likewise an outgoing user message that starts waiting for a receipt is handed
+     * over to the retransmission scheduler and one that starts waiting to be pulled is added to the pull queues. Within
+     * a unit of work this is done when the unit of work is committed.
+     * <p>The message id of a received user message that is changed to {@link ProcessingState#DELIVERED} is added to
+     * the duplicate index both before the change and after it is committed, see {@link DuplicateIndex}.
+     * <p>When metrics are collected the number of message units that are delivered or failed are counted in
+     * <i>"messages.delivered"</i> and <i>"messages.failed"</i>.
      *
      * @param msgUnit           The entity object representing the message unit
      * @param currentProcState  The required current processing state of the message unit
@@ -153,7 +267,75 @@ public class StorageManager {
                                                                       , final ProcessingState newProcState)
                                                                                         throws PersistenceException {
         //@todo Check if the processing state is allowed and ensure events are triggered using the ProcessingStateManager
-        return parent.setProcessingState(msgUnit, currentProcState, newProcState);
+        checkNotRolledBack();
+        final boolean isDelivery = handOvers.duplicateIndex != null && newProcState == ProcessingState.DELIVERED
+                                   && msgUnit instanceof IUserMessage
+                                   && msgUnit.getDirection() == IMessageUnit.Direction.IN;
+        if (isDelivery)
+            handOvers.duplicateIndex.delivered(msgUnit.getMessageId());
+        final boolean changed;
+        try {
+            changed = parent.setProcessingState(msgUnit, currentProcState, newProcState);
+        } catch (final PersistenceException failure) {
+            rolledBack();
+            throw failure;
+        }
+        if (changed && isDelivery) {
+            final UnitOfWorkState uow = unitOfWork.get();
+            if (uow != null)
+                uow.delivered.add(msgUnit);
+            else
+                handOvers.duplicateIndex.delivered(msgUnit.getMessageId());
+        }
+        if (changed && newProcState == ProcessingState.READY_TO_PUSH && handOvers.sendDispatcher != null) {
+            final UnitOfWorkState uow = unitOfWork.get();
+            if (uow != null)
+                uow.readyToPush.add(msgUnit);
+            else
+                handOvers.sendDispatcher.readyToPush(msgUnit);
+        }
+        if (changed && handOvers.retransmissionScheduler != null
+            && RetransmissionScheduler.isWaitingForReceipt(msgUnit)) {
+            final UnitOfWorkState uow = unitOfWork.get();
+            if (uow != null)
+                uow.waitingForReceipt.add(msgUnit);
+            else
+                handOvers.retransmissionScheduler.waitingForReceipt(msgUnit);
+        }
+        if (changed && newProcState == ProcessingState.AWAITING_PULL && handOvers.pullQueues != null) {
+            final UnitOfWorkState uow = unitOfWork.get();
+            if (uow != null)
+                uow.awaitingPull.add(msgUnit);
+            else
+                handOvers.pullQueues.awaitingPull(msgUnit);
+        }
+        if (changed && currentProcState == ProcessingState.AWAITING_PULL
+            && newProcState != ProcessingState.AWAITING_PULL && handOvers.pullQueues != null) {
+            // The pull queues must get the user message back when the unit of work does not commit
+            final UnitOfWorkState uow = unitOfWork.get();
+            if (uow != null)
+                uow.claimedForPull.add(msgUnit);
+        }
+        if (changed && newProcState == ProcessingState.DELIVERED)
+            countMessage("messages.delivered");
+        else if (changed && (newProcState == ProcessingState.FAILURE
+                             || newProcState == ProcessingState.DELIVERY_FAILED))
+            countMessage("messages.failed");
+        return changed;
+    }
+
+    /**
+     * Increments the given message counter if metrics are collected.
+     *
+     * @param counter   The name of the counter
+     * @since  3.1.0
+     */
+    private void countMessage(final String counter) {
+        if (HolodeckB2BCoreInterface.isInitialized()) {
+            final IMetricsRegistry metrics = HolodeckB2BCoreInterface.getMetricsRegistry();
+            if (metrics.isEnabled())
+                metrics.incrementCounter(counter);
+        }
     }
 
     /**
@@ -164,7 +346,13 @@ public class StorageManager {
      * @throws PersistenceException When a database error occurs while updating the entity object
      */
     public void setMultiHop(final IMessageUnitEntity msgUnit, final boolean isMultihop) throws PersistenceException {
-        parent.setMultiHop(msgUnit, isMultihop);
+        checkNotRolledBack();
+        try {
+            parent.setMultiHop(msgUnit, isMultihop);
+        } catch (final PersistenceException failure) {
+            rolledBack();
+            throw failure;
+        }
     }
 
     /**
@@ -175,7 +363,13 @@ public class StorageManager {
      * @throws PersistenceException When a database error occurs while updating the entity object
      */
     public void setLeg(final IMessageUnit msgUnit, final ILeg.Label legLabel) throws PersistenceException {
-        parent.setLeg(msgUnit, legLabel);
+        checkNotRolledBack();
+        try {
+            parent.setLeg(msgUnit, legLabel);
+        } catch (final PersistenceException failure) {
+            rolledBack();
+            throw failure;
+        }
     }
 
     /**
@@ -188,7 +382,13 @@ public class StorageManager {
      */
     public void setPayloadInformation(final IUserMessageEntity userMessage,
                                       final Collection<IPayload> payloadInfo) throws PersistenceException {
-        parent.setPayloadInformation(userMessage, payloadInfo);
+        checkNotRolledBack();
+        try {
+            parent.setPayloadInformation(userMessage, payloadInfo);
+        } catch (final PersistenceException failure) {
+            rolledBack();
+            throw failure;
+        }
     }
 
     /**
@@ -203,7 +403,13 @@ public class StorageManager {
      */
     void setAddSOAPFault(final IErrorMessageEntity errorMessage, final boolean addSOAPFault)
                                                                                         throws PersistenceException {
-        parent.setAddSOAPFault(errorMessage, addSOAPFault);
+        checkNotRolledBack();
+        try {
+            parent.setAddSOAPFault(errorMessage, addSOAPFault);
+        } catch (final PersistenceException failure) {
+            rolledBack();
+            throw failure;
+        }
     }
 
     /**
@@ -213,7 +419,242 @@ public class StorageManager {
      * @throws PersistenceException     When a problem occurs while removing the message unit from the database.
      */
     public void deleteMessageUnit(IMessageUnitEntity messageUnit) throws PersistenceException {
-        parent.deleteMessageUnit(messageUnit);
+        checkNotRolledBack();
+        try {
+            parent.deleteMessageUnit(messageUnit);
+        } catch (final PersistenceException failure) {
+            rolledBack();
+            throw failure;
+        }
+    }
+
+    /**
+     * Deletes the meta-data of all given message units from the database together. See {@link
+     * IUpdateManager#deleteMessageUnits(Collection)} for details.
+     *
+     * @param messageUnits      The {@link IMessageUnitEntity} objects to be deleted
+     * @throws PersistenceException     When a problem occurs while removing the message units from the database. None
+     *                                  of the message units is removed in that case.
+     * @since 3.1.0
+     */
+    public void deleteMessageUnits(Collection<? extends IMessageUnitEntity> messageUnits) throws PersistenceException {
+        checkNotRolledBack();
+        try {
+            parent.deleteMessageUnits(messageUnits);
+        } catch (final PersistenceException failure) {
+            rolledBack();
+            throw failure;
+        }
+    }
+
+    /**
+     * Indicates whether a unit of work is active on the current thread.
+     *
+     * @return <code>true</code> if a unit of work is active on the current thread,<br><code>false</code> otherwise
+     * @since 3.1.0
+     */
+    public boolean isUnitOfWorkActive() {
+        return unitOfWork.get() != null;
+    }
+
+    /**
+     * Starts a unit of work on the current thread so the updates made by it are grouped into as few transactions as
+     * possible. See {@link IUpdateManager#startUnitOfWork()} for details.
+     * <p>When an update fails within the unit of work the changes made since it was started or last committed are
+     * rolled back and the hand overs of the message units changed in these updates are discarded. The caller is
+     * responsible for making the lost changes again, see {@link #startUnitOfWork(boolean)} for a unit of work that is
+     * aborted instead.
+     *
+     * @throws PersistenceException When the unit of work could not be started
+     * @since 3.1.0
+     */
+    public void startUnitOfWork() throws PersistenceException {
+        startUnitOfWork(false);
+    }
+
+    /**
+     * Starts a unit of work on the current thread so the updates made by it are grouped into as few transactions as
+     * possible. See {@link IUpdateManager#startUnitOfWork()} for details.
+     * <p>When an update fails within the unit of work the changes made since it was started or last committed are
+     * rolled back and the hand overs of the message units changed in these updates are discarded. If <code>
+     * abortOnRollback</code> is set the unit of work is aborted when this happens, i.e. all further updates, commits
+     * and the end of the unit of work fail. This must be used when the caller can not make the lost changes again and
+     * processing must not continue based on changes that were not saved. When nested the setting of the outermost unit
+     * of work applies.
+     *
+     * @param abortOnRollback   Indicates whether the unit of work must be aborted when its changes are rolled back
+     * @throws PersistenceException When the unit of work could not be started
+     * @since 3.1.0
+     */
+    public void startUnitOfWork(final boolean abortOnRollback) throws PersistenceException {
+        parent.startUnitOfWork();
+        final UnitOfWorkState uow = unitOfWork.get();
+        if (uow == null)
+            unitOfWork.set(new UnitOfWorkState(abortOnRollback));
+        else
+            uow.nesting++;
+    }
+
+    /**
+     * Commits the changes made in the unit of work active on the current thread while keeping the unit of work active.
+     * This must be used before executing an action that can not be undone, like delivering a message unit to the
+     * business application, so the state of the message unit is saved before the action is executed.<br>
+     * Message units that became ready to push in the unit of work are handed over to the send dispatcher after the
+     * commit.
+     *
+     * @throws PersistenceException When the changes could not be committed or when the unit of work is aborted because
+     *                              changes made earlier were rolled back
+     * @since 3.1.0
+     */
+    public void commitUnitOfWork() throws PersistenceException {
+        checkNotRolledBack();
+        final UnitOfWorkState uow = unitOfWork.get();
+        try {
+            parent.commitUnitOfWork();
+        } catch (final PersistenceException commitFailure) {
+            rolledBack();
+            throw commitFailure;
+        }
+        if (uow != null)
+            dispatch(uow);
+    }
+
+    /**
+     * Ends the unit of work active on the current thread. When this is the outermost unit of work the changes made are
+     * committed and the message units that became ready to push are handed over to the send dispatcher. When the commit
+     * fails the changes are rolled back and the hand overs are discarded.
+     * <p>When the unit of work was aborted because changes were rolled back, see {@link #startUnitOfWork(boolean)}, it
+     * is ended without committing any changes.
+     *
+     * @throws PersistenceException When the changes could not be committed or when the unit of work was aborted
+     * @since 3.1.0
+     */
+    public void endUnitOfWork() throws PersistenceException {
+        final UnitOfWorkState uow = unitOfWork.get();
+        if (uow != null && uow.nesting > 0) {
+            uow.nesting--;
+            parent.endUnitOfWork();
+            return;
+        }
+        unitOfWork.remove();
+        if (uow != null && uow.isAborted()) {
+            // No changes were made after the roll back, so ending the unit of work does not commit anything
+            try {
+                parent.endUnitOfWork();
+            } catch (final PersistenceException ignored) {
+                // The unit of work already failed
+            }
+            discard(uow);
+            throw new PersistenceException("The unit of work was aborted because its changes were rolled back!");
+        }
+        try {
+            parent.endUnitOfWork();
+        } catch (final PersistenceException commitFailure) {
+            if (uow != null)
+                discard(uow);
+            throw commitFailure;
+        }
+        if (uow != null)
+            dispatch(uow);
+    }
+
+    /**
+     * Hands over the message units that became ready to push in the unit of work to the send dispatcher and the user
+     * messages that started waiting for a receipt to the retransmission scheduler. The user messages delivered in the
+     * unit of work are added to the duplicate index again now the change is committed and the ones that started waiting
+     * to be pulled are added to the pull queues.
+     *
+     * @param uow   The state of the unit of work
+     * @since 3.1.0
+     */
+    private void dispatch(final UnitOfWorkState uow) {
+        if (handOvers.sendDispatcher != null)
+            for (final IMessageUnitEntity msgUnit : uow.readyToPush)
+                handOvers.sendDispatcher.readyToPush(msgUnit);
+        uow.readyToPush.clear();
+        if (handOvers.retransmissionScheduler != null)
+            for (final IMessageUnitEntity msgUnit : uow.waitingForReceipt)
+                handOvers.retransmissionScheduler.waitingForReceipt(msgUnit);
+        uow.waitingForReceipt.clear();
+        if (handOvers.duplicateIndex != null)
+            for (final IMessageUnitEntity msgUnit : uow.delivered)
+                handOvers.duplicateIndex.delivered(msgUnit.getMessageId());
+        uow.delivered.clear();
+        if (handOvers.pullQueues != null)
+            for (final IMessageUnitEntity msgUnit : uow.awaitingPull)
+                handOvers.pullQueues.awaitingPull(msgUnit);
+        uow.awaitingPull.clear();
+        uow.claimedForPull.clear();
+    }
+
+    /**
+     * Discards the hand overs collected in the unit of work active on the current thread. Must be called when an update
+     * fails as the persistency provider then rolls back all changes made in the unit of work since it was started or
+     * last committed.
+     * @since 3.1.0
+     */
+    private void rolledBack() {
+        final UnitOfWorkState uow = unitOfWork.get();
+        if (uow != null) {
+            uow.rolledBack = true;
+            discard(uow);
+        }
+    }
+
+    /**
+     * Checks that the unit of work active on the current thread is not aborted because changes made in it were rolled
+     * back, see {@link #startUnitOfWork(boolean)}. This prevents that changes are made or committed based on earlier
+     * changes that were lost.
+     *
+     * @throws PersistenceException When the unit of work is aborted
+     * @since 3.1.0
+     */
+    private void checkNotRolledBack() throws PersistenceException {
+        final UnitOfWorkState uow = unitOfWork.get();
+        if (uow != null && uow.isAborted())
+            throw new PersistenceException("The unit of work was aborted because its changes were rolled back!");
+    }
+
+    /**
+     * Discards the hand overs collected in the given unit of work because its changes were rolled back. The user
+     * messages that were taken from the pull queues in the unit of work are put back as they are waiting to be pulled
+     * again.
+     *
+     * @param uow   The state of the unit of work
+     * @since 3.1.0
+     */
+    private void discard(final UnitOfWorkState uow) {
+        uow.readyToPush.clear();
+        uow.waitingForReceipt.clear();
+        uow.delivered.clear();
+        uow.awaitingPull.clear();
+        if (handOvers.pullQueues != null)
+            for (final IMessageUnitEntity msgUnit : uow.claimedForPull)
+                handOvers.pullQueues.released(msgUnit);
+        uow.claimedForPull.clear();
+    }
+
+    /**
+     * Is the state of a unit of work kept by the storage manager.
+     * @since 3.1.0
+     */
+    private static class UnitOfWorkState {
+        final boolean                   abortOnRollback;
+        boolean                         rolledBack = false;
+        int                             nesting = 0;
+        final List<IMessageUnitEntity>  readyToPush = new ArrayList<>();
+        final List<IMessageUnitEntity>  waitingForReceipt = new ArrayList<>();
+        final List<IMessageUnitEntity>  delivered = new ArrayList<>();
+        final List<IMessageUnitEntity>  awaitingPull = new ArrayList<>();
+        final List<IMessageUnitEntity>  claimedForPull = new ArrayList<>();
+
+        UnitOfWorkState(final boolean abortOnRollback) {
+            this.abortOnRollback = abortOnRollback;
+        }
+
+        boolean isAborted() {
+            return abortOnRollback && rolledBack;
+        }
     }
 
     /**
@@ -18,8 +18,10 @@ package org.holodeckb2b.pmode;
 
 import java.text.SimpleDateFormat;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Map;
 
 import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.interfaces.pmode.IPMode;
@@ -28,35 +30,37 @@ import org.holodeckb2b.interfaces.pmode.PModeSetException;
 
 /**
  * Is the default implementation of {@link IPModeSet} that maintains the set of P-Modes in memory.
+ * <p>The set is implemented as a <i>copy-on-write</i> structure: the P-Modes are held in an immutable snapshot that is
+ * replaced as a whole when the set is modified. Therefore readers never block and always see a consistent set of
+ * P-Modes, also when the set is changed concurrently. Modifications are serialized and each is published as one new
+ * snapshot. To change multiple P-Modes at once, for example when a changed P-Mode is reloaded, {@link
+ * #update(Collection, Collection)} should be used so all changes become visible at the same time.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  */
 public class InMemoryPModeSet implements IPModeSet {
 
     /**
-     * The actual storage of the P-Mode set, for easy access on PMode.id we use a HashMap
+     * The current snapshot of the P-Mode set, for easy access on PMode.id we use a Map. The map itself is never
+     * modified, changes are made to a copy which then replaces the current snapshot.
      */
-    private HashMap<String, IPMode>     pmodeSet = new HashMap<>();
+    private volatile Map<String, IPMode>    pmodeSet = Collections.emptyMap();
+
+    /**
+     * Lock used to serialize the modifications of the set
+     */
+    private final Object    writeLock = new Object();
 
     @Override
     @Deprecated
     public String[] listPModeIds() {
-        final String[]    pmodeIds = new String[pmodeSet.size()];
-
-        // Copy all ids to an array
-        int i = 0;
-        for (final String id : pmodeSet.keySet())
-            pmodeIds[i++] = id;
-
-        return pmodeIds;
+        final Map<String, IPMode> current = pmodeSet;
+        return current.keySet().toArray(new String[current.size()]);
     }
 
     @Override
     public IPMode get(final String id) {
-        if (this.containsId(id))
-            return pmodeSet.get(id);
-        else
-            return null;
+        return id != null ? pmodeSet.get(id) : null;
     }
 
     @Override
@@ -66,26 +70,15 @@ public class InMemoryPModeSet implements IPModeSet {
 
     @Override
     public boolean containsId(final String id) {
-        return (pmodeSet.keySet() != null ? pmodeSet.keySet().contains(id) : false);
+        return id != null && pmodeSet.containsKey(id);
     }
 
     @Override
     public String add(final IPMode pmode) throws PModeSetException {
-        // Check whether the provided P-Mode has been assigned an id
-        String pmodeId = pmode.getId();
-
-        if (Utils.isNullOrEmpty(pmodeId)) {
-            // No id provided, generate one now
-            pmodeId = generatePModeId(pmode);
-        }
-
-        synchronized (this.pmodeSet) {
-            // Ensure that the P-Mode id is unique and does not already exist
-            if (pmodeSet.containsKey(pmodeId))
-                throw new PModeSetException("A P-Mode with id " + pmodeId + " already exists!");
-
-            pmodeSet.put(pmodeId, pmode);
-
+        synchronized (writeLock) {
+            final Map<String, IPMode> newSet = new HashMap<>(pmodeSet);
+            final String pmodeId = addTo(newSet, pmode);
+            publish(newSet);
             return pmodeId;
         }
     }
@@ -97,42 +90,117 @@ public class InMemoryPModeSet implements IPModeSet {
         if (Utils.isNullOrEmpty(pmodeId))
             throw new PModeSetException("The P-Mode MUST have an id!");
 
-        synchronized (this.pmodeSet) {
+        synchronized (writeLock) {
             if (!containsId(pmodeId))
                 throw new PModeSetException("There is no P-Mode with the given id!");
 
-            this.pmodeSet.put(pmodeId, pmode);
+            final Map<String, IPMode> newSet = new HashMap<>(pmodeSet);
+            newSet.put(pmodeId, pmode);
+            publish(newSet);
         }
     }
 
     @Override
     public void remove(final String id) throws PModeSetException {
-        if (containsId(id)) {
-            synchronized (this.pmodeSet) {
-                this.pmodeSet.remove(id);
+        synchronized (writeLock) {
+            if (containsId(id)) {
+                final Map<String, IPMode> newSet = new HashMap<>(pmodeSet);
+                newSet.remove(id);
+                publish(newSet);
             }
         }
     }
 
     @Override
     public void removeAll() throws PModeSetException {
-        this.pmodeSet = new HashMap<>();
+        synchronized (writeLock) {
+            publish(new HashMap<String, IPMode>());
+        }
+    }
+
+    /**
+     * Removes and adds a number of P-Modes as one atomic change of the set, i.e. readers of the set will see either
+     * the set before or after all changes are applied. First the P-Modes with the given ids are removed and then the
+     * given P-Modes are added. Therefore a P-Mode can be replaced by a new version by including its id in the
+     * P-Modes to remove and the new version in the P-Modes to add.
+     * <p>If any of the changes can not be applied, none of them is applied.
+     *
+     * @param removeIds     The ids of the P-Modes to remove. Unknown ids are ignored. May be <code>null</code>
+     * @param addPModes     The P-Modes to add. May be <code>null</code>
+     * @return              The ids of the added P-Modes, in the same order as the given P-Modes to add
+     * @throws PModeSetException When any of the P-Modes can not be added to the set because its id is already used.
+     *                           The set is not changed in that case.
+     * @since 3.1.0
+     */
+    public String[] update(final Collection<String> removeIds, final Collection<IPMode> addPModes)
+                                                                                        throws PModeSetException {
+        synchronized (writeLock) {
+            final Map<String, IPMode> newSet = new HashMap<>(pmodeSet);
+            if (!Utils.isNullOrEmpty(removeIds))
+                for (final String id : removeIds)
+                    if (id != null)
+                        newSet.remove(id);
+            final String[] addedIds = new String[addPModes != null ? addPModes.size() : 0];
+            if (addedIds.length > 0) {
+                int i = 0;
+                for (final IPMode p : addPModes)
+                    addedIds[i++] = addTo(newSet, p);
+            }
+            publish(newSet);
+            return addedIds;
+        }
+    }
+
+    /**
+     * Helper method to add a P-Mode to the given new version of the set. When the P-Mode has no id a new one is
+     * generated.
+     *
+     * @param newSet    The new version of the set being created
+     * @param pmode     The P-Mode to add
+     * @return          The id of the P-Mode
+     * @throws PModeSetException When the set already contains a P-Mode with the same id
+     */
+    private String addTo(final Map<String, IPMode> newSet, final IPMode pmode) throws PModeSetException {
+        // Check whether the provided P-Mode has been assigned an id
+        String pmodeId = pmode.getId();
+
+        if (Utils.isNullOrEmpty(pmodeId)) {
+            // No id provided, generate one now
+            pmodeId = generatePModeId(newSet);
+        }
+
+        // Ensure that the P-Mode id is unique and does not already exist
+        if (newSet.containsKey(pmodeId))
+            throw new PModeSetException("A P-Mode with id " + pmodeId + " already exists!");
+
+        newSet.put(pmodeId, pmode);
+
+        return pmodeId;
+    }
+
+    /**
+     * Helper method to make the given new version of the set the current one.
+     *
+     * @param newSet    The new version of the set
+     */
+    private void publish(final Map<String, IPMode> newSet) {
+        pmodeSet = Collections.unmodifiableMap(newSet);
     }
 
     /**
      * Helper method to create a unique P-Mode id when no id is specified when adding a P-Mode
      *
-     * @param pmode The P-Mode to generate the id for
-     * @return The new id which is guaranteed to be unique in the current set
+     * @param newSet The version of the set the id must be unique in
+     * @return The new id which is guaranteed to be unique in the given set
      */
-    private String generatePModeId(final IPMode pmode) {
+    private String generatePModeId(final Map<String, IPMode> newSet) {
         final StringBuffer pmodeId = new StringBuffer("pm-");
 
         // For now we just use an id based on the current time and a sequence number
         pmodeId.append(new SimpleDateFormat("yyyyMMddHHmmssSSS").format(new Date()));
         pmodeId.append('-');
         int i = 0;
-        while (this.containsId(pmodeId.toString() + i))
+        while (newSet.containsKey(pmodeId.toString() + i))
             i += 1;
         pmodeId.append(i);
 
@@ -108,6 +108,9 @@ public class PModeFinder {
      * <tr><td>MPC</td><td>1</td></tr>
      * </table>
      * <p>If there is a mismatch for one of the elements the P-Mode is considered as a mismatch.
+     * <p>When the P-Mode set is managed by the {@link PModeManager} its {@link PModeMatchingIndex} is used to select
+     * the P-Modes that can match based on the trading partners, service, action and agreement. Only these candidates
+     * are evaluated which gives the same result as evaluating all P-Modes.
      *
      * @param mu        The user message message unit to find the P-Mode for
      * @return          The P-Mode for the message unit if the message unit can be matched to a P-Mode,
@@ -115,167 +118,201 @@ public class PModeFinder {
      */
     public static IPMode forReceivedUserMessage(final IUserMessage mu) {
         final IPModeSet pmodes = HolodeckB2BCoreInterface.getPModeSet();
-        IPMode    hPMode = null;
-        int       hValue = 0;
 
         if (pmodes == null)
             return null;
 
-        for (final IPMode p : pmodes.getAll()) {
-            // Ignore this P-Mode if it is configured for sending
-            if (p.getMepBinding().equals(EbMSConstants.ONE_WAY_PUSH)
-                && p.getLeg(ILeg.Label.REQUEST).getProtocol() != null
-                && !Utils.isNullOrEmpty(p.getLeg(ILeg.Label.REQUEST).getProtocol().getAddress())) {
-                continue;
-            }
+        // When the P-Mode set is managed by the P-Mode manager we can use its index to limit the number of P-Modes
+        // that need to be evaluated
+        final Collection<IPMode> candidates = pmodes instanceof PModeManager ?
+                                    ((PModeManager) pmodes).getMatchingIndex().getCandidates(mu) : pmodes.getAll();
+        return findBestMatch(candidates, mu);
+    }
 
-            int cValue = 0;
-            // P-Mode id and agreement info are contained in optional element
-            final IAgreementReference agreementRef = mu.getCollaborationInfo().getAgreement();
+    /**
+     * Finds the P-Mode from the given collection that best matches to the given user message message unit. When
+     * multiple P-Modes have the same highest match value the first one of them in the collection is selected.
+     *
+     * @param pmodes    The P-Modes to evaluate
+     * @param mu        The user message message unit to find the P-Mode for
+     * @return          The best matching P-Mode, or<br>
+     *                  <code>null</code> if none of the given P-Modes matches to the message unit
+     * @since 3.1.0
+     */
+    static IPMode findBestMatch(final Collection<IPMode> pmodes, final IUserMessage mu) {
+        IPMode    hPMode = null;
+        int       hValue = 0;
 
-            if (p.includeId() != null && p.includeId()) {
-                // The P-Mode id can be used for matching, so check if one is given in message
-                if (agreementRef != null) {
-                    final String pid = agreementRef.getPModeId();
-                    if (!Utils.isNullOrEmpty(pid) && pid.equals(p.getId()))
-                        cValue = MATCH_WEIGHTS.get(PARAMETERS.ID);
-                }
+        for (final IPMode p : pmodes) {
+            final int cValue = getMatchValue(p, mu);
+            // Does this P-Mode better match to the message meta data than the current highest match?
+            if (cValue > hValue) {
+                // Yes, it does, set it as new best match
+                hValue = cValue;
+                hPMode = p;
             }
+        }
 
-            // Check agreement info
-            final IAgreement agreementPMode = p.getAgreement();
-            if (agreementPMode != null) {
-                final int i = Utils.compareStrings(agreementRef != null ? agreementRef.getName() : null
-                                                  , agreementPMode.getName());
-                switch (i) {
-                    case -2 :
-                    case 2 :
-                        // mismatch on agreement name, either because different or one defined in P-Mode but not in msg
-                        continue;
-                    case 0 :
-                        // names equal, but for match also types must be equal
-                        final int j = Utils.compareStrings(agreementRef.getType(), agreementPMode.getType());
-                        if (j == -1 || j == 0)
-                            cValue += MATCH_WEIGHTS.get(PARAMETERS.AGREEMENT);
-                        else
-                            continue; // mis-match on agreement type
-                    case -1 :
-                        // both P-Mode and message agreement ref are empty, ignore
-                    case 1 :
-                        // the message contains agreement ref, but P-Mode does not, ignore
-                }
-            }
+        return hPMode;
+    }
 
-            // Check trading partner info
-            final ITradingPartner from = mu.getSender(), to = mu.getReceiver();
-            ITradingPartner fromPMode = null, toPMode = null;
-            if (p.getMepBinding().equals(EbMSConstants.ONE_WAY_PUSH)) {
-                fromPMode = p.getInitiator(); toPMode = p.getResponder();
-            } else {
-                fromPMode = p.getResponder(); toPMode = p.getInitiator();
-            }
+    /**
+     * Calculates the match value of the given P-Mode for the user message message unit as described in {@link
+     * #forReceivedUserMessage(IUserMessage)}.
+     *
+     * @param p     The P-Mode to evaluate
+     * @param mu    The user message message unit to find the P-Mode for
+     * @return      The sum of the weights of the matching elements, or<br>
+     *              -1 when the P-Mode does not match to the message unit
+     * @since 3.1.0
+     */
+    private static int getMatchValue(final IPMode p, final IUserMessage mu) {
+        // Ignore this P-Mode if it is configured for sending
+        if (p.getMepBinding().equals(EbMSConstants.ONE_WAY_PUSH)
+            && p.getLeg(ILeg.Label.REQUEST).getProtocol() != null
+            && !Utils.isNullOrEmpty(p.getLeg(ILeg.Label.REQUEST).getProtocol().getAddress())) {
+            return -1;
+        }
 
-            // Check To info
-            if (toPMode != null) {
-                final int c = Utils.compareStrings(to.getRole(), toPMode.getRole());
-                if ( c == -1 || c == 0)
-                    cValue += MATCH_WEIGHTS.get(PARAMETERS.TO_ROLE);
-                else if (c != 1)
-                    continue; // mis-match on To party role
-                Collection<IPartyId> pmodeToIds = toPMode.getPartyIds();
-                if (!Utils.isNullOrEmpty(pmodeToIds))
-                    if (CompareUtils.areEqual(to.getPartyIds(), pmodeToIds))
-                        cValue += MATCH_WEIGHTS.get(PARAMETERS.TO);
-                    else
-                        continue; // mis-match on To party id('s)
+        int cValue = 0;
+        // P-Mode id and agreement info are contained in optional element
+        final IAgreementReference agreementRef = mu.getCollaborationInfo().getAgreement();
+
+        if (p.includeId() != null && p.includeId()) {
+            // The P-Mode id can be used for matching, so check if one is given in message
+            if (agreementRef != null) {
+                final String pid = agreementRef.getPModeId();
+                if (!Utils.isNullOrEmpty(pid) && pid.equals(p.getId()))
+                    cValue = MATCH_WEIGHTS.get(PARAMETERS.ID);
             }
+        }
 
-            // Check From info
-            if (fromPMode != null) {
-                final int c = Utils.compareStrings(from.getRole(), fromPMode.getRole());
-                if ( c == -1 || c == 0)
-                    cValue += MATCH_WEIGHTS.get(PARAMETERS.FROM_ROLE);
-                else if (c != 1)
-                    continue; // mis-match on From party role
-                Collection<IPartyId> pmodeFromIds = fromPMode.getPartyIds();
-                if (!Utils.isNullOrEmpty(pmodeFromIds))
-                    if (CompareUtils.areEqual(from.getPartyIds(), pmodeFromIds))
-                        cValue += MATCH_WEIGHTS.get(PARAMETERS.FROM);
+        // Check agreement info
+        final IAgreement agreementPMode = p.getAgreement();
+        if (agreementPMode != null) {
+            final int i = Utils.compareStrings(agreementRef != null ? agreementRef.getName() : null
+                                              , agreementPMode.getName());
+            switch (i) {
+                case -2 :
+                case 2 :
+                    // mismatch on agreement name, either because different or one defined in P-Mode but not in msg
+                    return -1;
+                case 0 :
+                    // names equal, but for match also types must be equal
+                    final int j = Utils.compareStrings(agreementRef.getType(), agreementPMode.getType());
+                    if (j == -1 || j == 0)
+                        cValue += MATCH_WEIGHTS.get(PARAMETERS.AGREEMENT);
                     else
-                        continue;  // mis-match on From party id('s)
+                        return -1; // mis-match on agreement type
+                case -1 :
+                    // both P-Mode and message agreement ref are empty, ignore
+                case 1 :
+                    // the message contains agreement ref, but P-Mode does not, ignore
             }
+        }
 
-            // Next info items are defined per Leg basis, for now we only have one-way MEP, so only one leg to check
-            // Within the leg all relevant information is contained in the user message flow.
-            final IUserMessageFlow  flow = p.getLeg(ILeg.Label.REQUEST).getUserMessageFlow();
-            final IBusinessInfo     pmBI = flow != null ? flow.getBusinessInfo() : null;
-            if (pmBI != null) {
-                // Check Service
-                final IService svcPMode = pmBI.getService();
-                if (svcPMode != null) {
-                    final IService svc = mu.getCollaborationInfo().getService();
-                    if (svc.getName().equals(svcPMode.getName())) {
-                        final int i = Utils.compareStrings(svc.getType(), svcPMode.getType());
-                        if (i == -1 || i == 0)
-                            cValue += MATCH_WEIGHTS.get(PARAMETERS.SERVICE);
-                        else
-                            continue; // mis-match on service type
-                    } else
-                        continue; // mis-match on service name
-                }
-                // Check Action
-                final int i = Utils.compareStrings(mu.getCollaborationInfo().getAction(), pmBI.getAction());
-                if (i == 0)
-                    cValue += MATCH_WEIGHTS.get(PARAMETERS.ACTION);
-                else if (i == -2)
-                    continue; // mis-match on action
-            }
+        // Check trading partner info
+        final ITradingPartner from = mu.getSender(), to = mu.getReceiver();
+        ITradingPartner fromPMode = null, toPMode = null;
+        if (p.getMepBinding().equals(EbMSConstants.ONE_WAY_PUSH)) {
+            fromPMode = p.getInitiator(); toPMode = p.getResponder();
+        } else {
+            fromPMode = p.getResponder(); toPMode = p.getInitiator();
+        }
 
-            // Check MPC, first check the MPC defined in the User Message flow, and if there is none there, check
-            // if there is maybe on in Pull Request flow
-            String mpc = mu.getMPC();
-            if (Utils.isNullOrEmpty(mpc))
-                mpc = EbMSConstants.DEFAULT_MPC;
-            String mpcPMode = pmBI != null ? pmBI.getMpc() : null;
-            // If no MPC is provided in User Message flow, check if this P-Mode is for pulling messages and if it is
-            // use the MPC defined in PR flow
-            if (Utils.isNullOrEmpty(mpcPMode) && p.getMepBinding().equals(EbMSConstants.ONE_WAY_PULL)
-                && p.getLeg(ILeg.Label.REQUEST).getProtocol() != null
-                && !Utils.isNullOrEmpty(p.getLeg(ILeg.Label.REQUEST).getProtocol().getAddress()))
-            {
-                try {
-                    mpcPMode = p.getLeg(ILeg.Label.REQUEST).getPullRequestFlows().iterator().next().getMPC();
-                } catch (NullPointerException npe) {
-                    mpcPMode = null;
-                }
-                if (Utils.isNullOrEmpty(mpcPMode))
-                    mpcPMode = EbMSConstants.DEFAULT_MPC;
-                // Now compare MPC, but take into account that MPC from P-Mode can be a sub MPC, so a message that
-                // contains parent MPC does match
-                if (mpcPMode.startsWith(mpc))
-                    cValue += MATCH_WEIGHTS.get(PARAMETERS.MPC);
+        // Check To info
+        if (toPMode != null) {
+            final int c = Utils.compareStrings(to.getRole(), toPMode.getRole());
+            if ( c == -1 || c == 0)
+                cValue += MATCH_WEIGHTS.get(PARAMETERS.TO_ROLE);
+            else if (c != 1)
+                return -1; // mis-match on To party role
+            Collection<IPartyId> pmodeToIds = toPMode.getPartyIds();
+            if (!Utils.isNullOrEmpty(pmodeToIds))
+                if (CompareUtils.areEqual(to.getPartyIds(), pmodeToIds))
+                    cValue += MATCH_WEIGHTS.get(PARAMETERS.TO);
                 else
-                    continue; // mis-match on MPC
-            } else {
-                // If no MPC is given in P-Mode, it uses the default
-                if (Utils.isNullOrEmpty(mpcPMode))
-                    mpcPMode = EbMSConstants.DEFAULT_MPC;
-                // Now compare the MPC values
-                if (mpc.equalsIgnoreCase(mpcPMode))
-                    cValue += MATCH_WEIGHTS.get(PARAMETERS.MPC);
+                    return -1; // mis-match on To party id('s)
+        }
+
+        // Check From info
+        if (fromPMode != null) {
+            final int c = Utils.compareStrings(from.getRole(), fromPMode.getRole());
+            if ( c == -1 || c == 0)
+                cValue += MATCH_WEIGHTS.get(PARAMETERS.FROM_ROLE);
+            else if (c != 1)
+                return -1; // mis-match on From party role
+            Collection<IPartyId> pmodeFromIds = fromPMode.getPartyIds();
+            if (!Utils.isNullOrEmpty(pmodeFromIds))
+                if (CompareUtils.areEqual(from.getPartyIds(), pmodeFromIds))
+                    cValue += MATCH_WEIGHTS.get(PARAMETERS.FROM);
                 else
-                    continue; // mis-match on MPC
+                    return -1;  // mis-match on From party id('s)
+        }
+
+        // Next info items are defined per Leg basis, for now we only have one-way MEP, so only one leg to check
+        // Within the leg all relevant information is contained in the user message flow.
+        final IUserMessageFlow  flow = p.getLeg(ILeg.Label.REQUEST).getUserMessageFlow();
+        final IBusinessInfo     pmBI = flow != null ? flow.getBusinessInfo() : null;
+        if (pmBI != null) {
+            // Check Service
+            final IService svcPMode = pmBI.getService();
+            if (svcPMode != null) {
+                final IService svc = mu.getCollaborationInfo().getService();
+                if (svc.getName().equals(svcPMode.getName())) {
+                    final int i = Utils.compareStrings(svc.getType(), svcPMode.getType());
+                    if (i == -1 || i == 0)
+                        cValue += MATCH_WEIGHTS.get(PARAMETERS.SERVICE);
+                    else
+                        return -1; // mis-match on service type
+                } else
+                    return -1; // mis-match on service name
             }
+            // Check Action
+            final int i = Utils.compareStrings(mu.getCollaborationInfo().getAction(), pmBI.getAction());
+            if (i == 0)
+                cValue += MATCH_WEIGHTS.get(PARAMETERS.ACTION);
+            else if (i == -2)
+                return -1; // mis-match on action
+        }
 
-            // Does this P-Mode better match to the message meta data than the current highest match?
-            if (cValue > hValue) {
-                // Yes, it does, set it as new best match
-                hValue = cValue;
-                hPMode = p;
+        // Check MPC, first check the MPC defined in the User Message flow, and if there is none there, check
+        // if there is maybe on in Pull Request flow
+        String mpc = mu.getMPC();
+        if (Utils.isNullOrEmpty(mpc))
+            mpc = EbMSConstants.DEFAULT_MPC;
+        String mpcPMode = pmBI != null ? pmBI.getMpc() : null;
+        // If no MPC is provided in User Message flow, check if this P-Mode is for pulling messages and if it is
+        // use the MPC defined in PR flow
+        if (Utils.isNullOrEmpty(mpcPMode) && p.getMepBinding().equals(EbMSConstants.ONE_WAY_PULL)
+            && p.getLeg(ILeg.Label.REQUEST).getProtocol() != null
+            && !Utils.isNullOrEmpty(p.getLeg(ILeg.Label.REQUEST).getProtocol().getAddress()))
+        {
+            try {
+                mpcPMode = p.getLeg(ILeg.Label.REQUEST).getPullRequestFlows().iterator().next().getMPC();
+            } catch (NullPointerException npe) {
+                mpcPMode = null;
             }
+            if (Utils.isNullOrEmpty(mpcPMode))
+                mpcPMode = EbMSConstants.DEFAULT_MPC;
+            // Now compare MPC, but take into account that MPC from P-Mode can be a sub MPC, so a message that
+            // contains parent MPC does match
+            if (mpcPMode.startsWith(mpc))
+                cValue += MATCH_WEIGHTS.get(PARAMETERS.MPC);
+            else
+                return -1; // mis-match on MPC
+        } else {
+            // If no MPC is given in P-Mode, it uses the default
+            if (Utils.isNullOrEmpty(mpcPMode))
+                mpcPMode = EbMSConstants.DEFAULT_MPC;
+            // Now compare the MPC values
+            if (mpc.equalsIgnoreCase(mpcPMode))
+                cValue += MATCH_WEIGHTS.get(PARAMETERS.MPC);
+            else
+                return -1; // mis-match on MPC
         }
 
-        return hPMode;
+        return cValue;
     }
 
     /**
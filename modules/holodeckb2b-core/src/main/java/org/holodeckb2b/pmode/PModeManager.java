@@ -16,7 +16,13 @@
  */
 package org.holodeckb2b.pmode;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.holodeckb2b.common.config.InternalConfiguration;
@@ -58,6 +64,17 @@ public class PModeManager implements IPModeSet {
      */
     private IPModeValidator validator;
 
+    /**
+     * Counter that is incremented on every change of the set of deployed P-Modes and used to determine whether the
+     * matching index is still up to date
+     */
+    private final AtomicLong    version = new AtomicLong();
+
+    /**
+     * The index used for finding the P-Mode of received User Messages, lazily (re)created after the set changed
+     */
+    private volatile PModeMatchingIndex matchingIndex;
+
     /**
      * Creates a new <code>PModeManager</code> which will use the given {@link IPModeSet} and {@link IPModeValidator}
      * implementations for storing the deployed respectively checking the P-Modes. If either is not specified the
@@ -141,6 +158,7 @@ public class PModeManager implements IPModeSet {
             log.debug("No errors found in new P-Mode, adding to deployed set of P-Modes");
             try {
                 String pmodeId = deployedPModes.add(pmode);
+                version.incrementAndGet();
                 log.info("Successfully deployed P-Mode [{}]", pmodeId);
                 return pmodeId;
             } catch (PModeSetException deploymentException) {
@@ -164,6 +182,7 @@ public class PModeManager implements IPModeSet {
             log.debug("No errors found in new version of P-Mode, replacing it in the deployed set of P-Modes");
             try {
                 deployedPModes.replace(pmode);
+                version.incrementAndGet();
                 log.info("Successfully deployed change version of P-Mode [{}]", pmode.getId());
             } catch (PModeSetException deploymentException) {
                 log.error("Could not replace P-Mode due to exception in storage implementation! Error message: {}",
@@ -178,11 +197,110 @@ public class PModeManager implements IPModeSet {
 
     @Override
     public void remove(String id) throws PModeSetException {
-        deployedPModes.remove(id);
+        try {
+            deployedPModes.remove(id);
+        } finally {
+            version.incrementAndGet();
+        }
     }
 
     @Override
     public void removeAll() throws PModeSetException {
-        deployedPModes.removeAll();
+        try {
+            deployedPModes.removeAll();
+        } finally {
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes and adds a number of P-Modes as one change of the set of deployed P-Modes. First the P-Modes with the
+     * given ids are removed and then the given P-Modes are added, so a P-Mode can be replaced by a new version by
+     * including its id in both the P-Modes to remove and the new version in the P-Modes to add.
+     * <p>All P-Modes to add are validated before the set is changed. P-Modes that are not valid or that have an id that
+     * is already in use are not deployed, but this does not prevent the other changes from being applied. When the
+     * default {@link InMemoryPModeSet} storage is used all changes are published at once, so the message processing
+     * never sees a partially applied update. For other storage implementations the changes are applied one by one.
+     *
+     * @param removeIds     The ids of the P-Modes to remove. May be <code>null</code>
+     * @param addPModes     The P-Modes to add. May be <code>null</code>
+     * @return              The P-Modes that could not be deployed mapped to the exception that describes the reason,
+     *                      empty if all P-Modes were deployed
+     * @throws PModeSetException When the storage implementation could not apply the changes. If this exception occurs
+     *                           it is not guaranteed that the changes are applied.
+     * @since 3.1.0
+     */
+    public Map<IPMode, PModeSetException> update(final Collection<String> removeIds,
+                                                 final Collection<IPMode> addPModes) throws PModeSetException {
+        log.trace("Request to update the P-Mode set");
+        final Map<IPMode, PModeSetException> rejected = new IdentityHashMap<>();
+        final Collection<IPMode> accepted = new ArrayList<>();
+        final Set<String> removed = removeIds != null ? new HashSet<>(removeIds) : new HashSet<String>();
+        final Set<String> newIds = new HashSet<>();
+
+        if (!Utils.isNullOrEmpty(addPModes)) {
+            for (final IPMode pmode : addPModes) {
+                final String pmodeId = pmode.getId();
+                final Collection<PModeValidationError> validationErrors = validator.isPModeValid(pmode);
+                if (!Utils.isNullOrEmpty(validationErrors)) {
+                    log.warn("The new P-Mode [{}] is not valid, validator found {} errors!", pmodeId,
+                              validationErrors.size());
+                    rejected.put(pmode, new InvalidPModeException(validationErrors));
+                } else if (!Utils.isNullOrEmpty(pmodeId) && (!newIds.add(pmodeId)
+                           || (deployedPModes.containsId(pmodeId) && !removed.contains(pmodeId)))) {
+                    log.warn("The new P-Mode [{}] can not be deployed because its id is already in use!", pmodeId);
+                    rejected.put(pmode, new PModeSetException("A P-Mode with id " + pmodeId + " already exists!"));
+                } else
+                    accepted.add(pmode);
+            }
+        }
+
+        try {
+            if (deployedPModes instanceof InMemoryPModeSet) {
+                log.debug("Applying {} removals and {} additions at once", removed.size(), accepted.size());
+                final String[] addedIds = ((InMemoryPModeSet) deployedPModes).update(removed, accepted);
+                for (final String pmodeId : addedIds)
+                    log.info("Successfully deployed P-Mode [{}]", pmodeId);
+            } else {
+                log.debug("Storage implementation does not support atomic updates, applying changes one by one");
+                for (final String pmodeId : removed)
+                    deployedPModes.remove(pmodeId);
+                for (final IPMode pmode : accepted) {
+                    try {
+                        log.info("Successfully deployed P-Mode [{}]", deployedPModes.add(pmode));
+                    } catch (PModeSetException deploymentException) {
+                        log.error("Could not deploy new P-Mode due to exception in storage implementation! Error "
+                                  + "message: {}", deploymentException.getMessage());
+                        rejected.put(pmode, deploymentException);
+                    }
+                }
+            }
+        } catch (PModeSetException updateException) {
+            log.error("Could not update the P-Mode set due to exception in storage implementation! Error message: {}",
+                       updateException.getMessage());
+            throw updateException;
+        } finally {
+            version.incrementAndGet();
+        }
+
+        return rejected;
+    }
+
+    /**
+     * Gets the index on the currently deployed P-Modes that is used to find the P-Mode for received User Messages.
+     * The index is created when first requested after the set of deployed P-Modes has changed.
+     *
+     * @return  The {@link PModeMatchingIndex} for the current set of deployed P-Modes
+     * @since 3.1.0
+     */
+    public PModeMatchingIndex getMatchingIndex() {
+        PModeMatchingIndex index = matchingIndex;
+        final long current = version.get();
+        if (index == null || index.getVersion() != current) {
+            log.debug("Set of P-Modes changed, (re)creating matching index");
+            index = new PModeMatchingIndex(current, deployedPModes.getAll());
+            matchingIndex = index;
+        }
+        return index;
     }
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.pmode;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import org.holodeckb2b.common.util.Utils;
+import org.holodeckb2b.interfaces.general.EbMSConstants;
+import org.holodeckb2b.interfaces.general.IAgreement;
+import org.holodeckb2b.interfaces.general.IPartyId;
+import org.holodeckb2b.interfaces.general.IService;
+import org.holodeckb2b.interfaces.general.ITradingPartner;
+import org.holodeckb2b.interfaces.messagemodel.IAgreementReference;
+import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.pmode.IBusinessInfo;
+import org.holodeckb2b.interfaces.pmode.ILeg;
+import org.holodeckb2b.interfaces.pmode.IPMode;
+import org.holodeckb2b.interfaces.pmode.IUserMessageFlow;
+
+/**
+ * Is an immutable index on a set of P-Modes that is used by {@link PModeFinder#forReceivedUserMessage(IUserMessage)}
+ * to quickly reduce the set of P-Modes that must be evaluated for a received User Message to the ones that can
+ * possibly match.
+ * <p>The index contains a separate dimension for the From and To party, the Service, the Action and the Agreement. For
+ * each dimension the P-Modes are grouped by the value they specify for that parameter, P-Modes that do not specify a
+ * value are considered to be <i>wildcards</i> that can match any value in the message. The candidate P-Modes for a
+ * message are the P-Modes that are included in the groups for the message's values in all dimensions. As the index only
+ * excludes P-Modes that would be rejected by the full match anyway, evaluating only the candidates results in the same
+ * best match as evaluating all P-Modes. To also ensure the same result when multiple P-Modes have the same match value
+ * the candidates are returned in the same order as they were provided when the index was created.
+ * <p>Note that the index only contains the P-Modes that can be used for received User Messages, i.e. P-Modes that are
+ * configured for pushing messages by Holodeck B2B are not included.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ * @see PModeManager#getMatchingIndex()
+ */
+public class PModeMatchingIndex {
+
+    /**
+     * The version of the P-Mode set this index was created for
+     */
+    private final long      version;
+
+    /**
+     * The indexed P-Modes, ordered as provided when the index was created. The position of a P-Mode in this array is
+     * used as its number in the bit sets of the dimensions.
+     */
+    private final IPMode[]  pmodes;
+
+    /**
+     * The dimensions of the index
+     */
+    private final Dimension fromIdx = new Dimension();
+    private final Dimension toIdx = new Dimension();
+    private final Dimension serviceIdx = new Dimension();
+    private final Dimension actionIdx = new Dimension();
+    private final Dimension agreementIdx = new Dimension();
+
+    /**
+     * Creates a new index for the given collection of P-Modes.
+     *
+     * @param version   The version of the P-Mode set the index is created for
+     * @param allPModes The P-Modes to include in the index
+     */
+    public PModeMatchingIndex(final long version, final Collection<IPMode> allPModes) {
+        this.version = version;
+
+        final List<IPMode> indexed = new ArrayList<>(allPModes.size());
+        for (final IPMode p : allPModes) {
+            // Ignore this P-Mode if it is configured for sending
+            final ILeg leg = p.getLeg(ILeg.Label.REQUEST);
+            if (p.getMepBinding().equals(EbMSConstants.ONE_WAY_PUSH)
+                && leg.getProtocol() != null && !Utils.isNullOrEmpty(leg.getProtocol().getAddress()))
+                continue;
+
+            final int n = indexed.size();
+            indexed.add(p);
+
+            // Agreement, only indexed when the P-Mode specifies a name as otherwise it will not be used for matching
+            final IAgreement agreement = p.getAgreement();
+            agreementIdx.add(agreement != null && !Utils.isNullOrEmpty(agreement.getName()) ?
+                                                                                agreement.getName() : null, n);
+            // Trading partners, depending on the MEP binding the sender is the P-Mode's Initiator or Responder
+            final ITradingPartner fromPMode, toPMode;
+            if (p.getMepBinding().equals(EbMSConstants.ONE_WAY_PUSH)) {
+                fromPMode = p.getInitiator(); toPMode = p.getResponder();
+            } else {
+                fromPMode = p.getResponder(); toPMode = p.getInitiator();
+            }
+            fromIdx.add(fromPMode != null && !Utils.isNullOrEmpty(fromPMode.getPartyIds()) ?
+                                                                getPartyKey(fromPMode.getPartyIds()) : null, n);
+            toIdx.add(toPMode != null && !Utils.isNullOrEmpty(toPMode.getPartyIds()) ?
+                                                                getPartyKey(toPMode.getPartyIds()) : null, n);
+            // Service and Action are defined in the user message flow of the leg
+            final IUserMessageFlow flow = leg.getUserMessageFlow();
+            final IBusinessInfo    pmBI = flow != null ? flow.getBusinessInfo() : null;
+            final IService svcPMode = pmBI != null ? pmBI.getService() : null;
+            if (svcPMode == null)
+                serviceIdx.add(null, n);
+            else if (svcPMode.getName() != null)
+                serviceIdx.add(svcPMode.getName(), n);
+            // else: a Service without name will never match, so P-Mode is not included in this dimension
+            actionIdx.add(pmBI != null && !Utils.isNullOrEmpty(pmBI.getAction()) ? pmBI.getAction() : null, n);
+        }
+
+        this.pmodes = indexed.toArray(new IPMode[indexed.size()]);
+        fromIdx.complete();
+        toIdx.complete();
+        serviceIdx.complete();
+        actionIdx.complete();
+        agreementIdx.complete();
+    }
+
+    /**
+     * Gets the version of the P-Mode set for which this index was created.
+     *
+     * @return  The P-Mode set version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the P-Modes that may match to the given User Message, i.e. the P-Modes that are not excluded based on the
+     * From and To party, Service, Action or Agreement of the message. The P-Modes are returned in the same order as they
+     * were provided to the index.
+     *
+     * @param mu    The User Message to get the candidate P-Modes for
+     * @return      The list of candidate P-Modes, may be empty if no P-Mode can match the message
+     */
+    public List<IPMode> getCandidates(final IUserMessage mu) {
+        final BitSet candidates = new BitSet(pmodes.length);
+        candidates.set(0, pmodes.length);
+
+        final ITradingPartner from = mu.getSender(), to = mu.getReceiver();
+        candidates.and(fromIdx.lookup(getPartyKey(from != null ? from.getPartyIds() : null)));
+        candidates.and(toIdx.lookup(getPartyKey(to != null ? to.getPartyIds() : null)));
+
+        final IAgreementReference agreementRef = mu.getCollaborationInfo().getAgreement();
+        final String agreementName = agreementRef != null ? agreementRef.getName() : null;
+        candidates.and(agreementIdx.lookup(!Utils.isNullOrEmpty(agreementName) ? agreementName : null));
+
+        final IService svc = mu.getCollaborationInfo().getService();
+        candidates.and(serviceIdx.lookup(svc != null ? svc.getName() : null));
+
+        // When the message does not contain an Action the Action specified in the P-Mode is not used for matching
+        final String action = mu.getCollaborationInfo().getAction();
+        if (!Utils.isNullOrEmpty(action))
+            candidates.and(actionIdx.lookup(action));
+
+        final List<IPMode> result = new ArrayList<>(candidates.cardinality());
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1))
+            result.add(pmodes[i]);
+
+        return result;
+    }
+
+    /**
+     * Helper method to create the key for a collection of party ids. As the P-Mode only matches when the message
+     * contains the same set of party ids the key is based on the sorted set of distinct party ids.
+     *
+     * @param partyIds  The collection of party ids
+     * @return          The key to use in the index
+     */
+    private static String getPartyKey(final Collection<? extends IPartyId> partyIds) {
+        if (Utils.isNullOrEmpty(partyIds))
+            return "";
+
+        final TreeSet<String> ids = new TreeSet<>();
+        for (final IPartyId pid : partyIds)
+            ids.add((pid.getType() != null ? "T" + pid.getType() : "-") + '\u0000'
+                   + (pid.getId() != null ? "I" + pid.getId() : "-"));
+        final StringBuilder key = new StringBuilder();
+        for (final String id : ids)
+            key.append(id).append('\u0001');
+
+        return key.toString();
+    }
+
+    /**
+     * Represents one dimension of the index. It maps each value specified in the P-Modes to the set of P-Modes that
+     * can match when the message contains that value, i.e. the P-Modes that specify the value and the wildcard P-Modes
+     * that do not specify any value.
+     */
+    private static class Dimension {
+        private final Map<String, BitSet> values = new HashMap<>();
+        private final BitSet              wildcards = new BitSet();
+
+        /**
+         * Adds a P-Mode to the dimension.
+         *
+         * @param key   The value specified in the P-Mode, <code>null</code> if the P-Mode accepts any value
+         * @param n     The number of the P-Mode in the index
+         */
+        void add(final String key, final int n) {
+            if (key == null)
+                wildcards.set(n);
+            else {
+                BitSet set = values.get(key);
+                if (set == null) {
+                    set = new BitSet();
+                    values.put(key, set);
+                }
+                set.set(n);
+            }
+        }
+
+        /**
+         * Completes the dimension after all P-Modes are added by including the wildcards in every value set.
+         */
+        void complete() {
+            for (final BitSet set : values.values())
+                set.or(wildcards);
+        }
+
+        /**
+         * Gets the set of P-Modes that can match the given value. The returned set must not be modified.
+         *
+         * @param key   The value from the message, <code>null</code> if the message does not contain a value
+         * @return      The set of P-Modes that can match the given value
+         */
+        BitSet lookup(final String key) {
+            final BitSet set = key != null ? values.get(key) : null;
+            return set != null ? set : wildcards;
+        }
+    }
+}
@@ -17,7 +17,9 @@
 package org.holodeckb2b.pmode.xml;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -25,10 +27,13 @@ import java.util.Map;
 import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.common.workers.DirWatcher;
 import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.pmode.IPMode;
 import org.holodeckb2b.interfaces.pmode.IPModeSet;
 import org.holodeckb2b.interfaces.pmode.PModeSetException;
+import org.holodeckb2b.interfaces.pmode.validation.InvalidPModeException;
 import org.holodeckb2b.interfaces.workerpool.IWorkerTask;
 import org.holodeckb2b.interfaces.workerpool.TaskConfigurationException;
+import org.holodeckb2b.pmode.PModeManager;
 
 /**
  * Is the {@link IWorkerTask} responsible for updating the Holodeck B2B P-Mode set based on a list of P-Mode XML
@@ -36,6 +41,8 @@ import org.holodeckb2b.interfaces.workerpool.TaskConfigurationException;
  * <p>This worker is configured in the <code>workers.xml</code> configuration file. It has just one parameter that
  * indicates the directory where the P-Mode documents are stored. The extension of the P-Mode files is set fixed to
  * "xml".
+ * <p>When the P-Mode set is managed by the {@link PModeManager} all changes detected in one run are applied to the set
+ * as one update, so a changed P-Mode is replaced without a moment in which it is not available.
  *
  * @see PMode
  * @author Bram Bakx <bram at holodeck-b2b.org>
@@ -111,10 +118,126 @@ public class PModeWatcher extends DirWatcher {
     }
 
     /**
-     * Processes all the changes, first the removed files, then the new files and last the changed ones.
+     * Processes all the changes, first the removed files, then the new files and last the changed ones. When the P-Mode
+     * set is managed by the {@link PModeManager} the changes are applied as one update of the set.
      */
     @Override
     protected void doPostProcessing() {
+        final IPModeSet pmodeSet = HolodeckB2BCoreInterface.getPModeSet();
+        if (pmodeSet instanceof PModeManager)
+            applyChangesAtOnce((PModeManager) pmodeSet);
+        else
+            applyChangesOneByOne();
+    }
+
+    /**
+     * Applies all changes as one update of the P-Mode set. The P-Modes contained in removed and changed files are
+     * removed and the P-Modes contained in the new and changed files are added in the same update.
+     * <p>When the P-Mode set can not be updated at once the changes are applied one by one so a problem with one file
+     * does not prevent that the changes in the other files are applied.
+     *
+     * @param manager   The P-Mode manager to apply the changes to
+     */
+    protected void applyChangesAtOnce(final PModeManager manager) {
+        if (delPModes.isEmpty() && newPModes.isEmpty() && chgPModes.isEmpty())
+            return;
+
+        // Collect the P-Modes to remove, i.e. the ones contained in the removed and changed files
+        final Map<File, String> oldPModeIds = new LinkedHashMap<>();
+        for (final File f : delPModes)
+            oldPModeIds.put(f, fileToPModeMap.get(f.getAbsolutePath()));
+        for (final File f : chgPModes)
+            oldPModeIds.put(f, fileToPModeMap.get(f.getAbsolutePath()));
+        final List<String> removeIds = new ArrayList<>();
+        for (final String pmodeId : oldPModeIds.values())
+            if (!Utils.isNullOrEmpty(pmodeId))
+                removeIds.add(pmodeId);
+
+        // Read the P-Modes contained in the new and changed files
+        final Map<File, IPMode> newPModeObjs = new LinkedHashMap<>();
+        for (final File f : newPModes) {
+            final PMode pmode = readPMode(f);
+            if (pmode != null)
+                newPModeObjs.put(f, pmode);
+        }
+        for (final File f : chgPModes) {
+            final PMode pmode = readPMode(f);
+            if (pmode != null)
+                newPModeObjs.put(f, pmode);
+        }
+
+        final Map<IPMode, PModeSetException> rejected;
+        try {
+            rejected = manager.update(removeIds, newPModeObjs.values());
+        } catch (final PModeSetException pmse) {
+            // As the changed files will not be reported again they must be applied now, so try them one by one
+            log.warn("There was a problem updating the P-Mode set with the changes in the P-Mode files, applying them"
+                     + " one by one.\n\tError message: " + pmse.getMessage());
+            applyChangesOneByOne();
+            return;
+        }
+
+        // Update the internal mapping and report results
+        for (final File f : delPModes) {
+            final String pmodeId = oldPModeIds.get(f);
+            fileToPModeMap.remove(f.getAbsolutePath());
+            log.info("Removed P-Mode " + (pmodeId != null ? "[" + pmodeId + "] " : "")
+                        + " contained in '" + f.getName()+ "'");
+        }
+        for (final File f : newPModes) {
+            final String pmodeId = registerPMode(f, newPModeObjs.get(f), rejected);
+            if (pmodeId != null)
+                log.info("Added P-Mode [" + pmodeId + "] from file '" + f.getName()+ "'");
+        }
+        for (final File f : chgPModes) {
+            final String oldPModeId = oldPModeIds.get(f);
+            fileToPModeMap.remove(f.getAbsolutePath());
+            final String newPModeId = registerPMode(f, newPModeObjs.get(f), rejected);
+            if (newPModeId == null) {
+                log.error("The P-Mode originally contained in '" + f.getName() + "' with ID [" + oldPModeId
+                            + "] is removed, but the new P-Mode could not be loaded!");
+            } else if (newPModeId.equals(oldPModeId))
+                log.info("Loaded changed P-Mode [" + newPModeId + "] from file '" + f.getName()+ "'");
+            else
+                log.info("P-Mode [" + oldPModeId + "] originally contained in '" + f.getName() + "' is replaced by"
+                            + " new P-Mode with ID [" + newPModeId + "]");
+        }
+    }
+
+    /**
+     * Helper method to register the P-Mode read from the given file in the internal mapping if it was successfully
+     * deployed.
+     *
+     * @param f         The file the P-Mode was read from
+     * @param pmode     The P-Mode read from the file, <code>null</code> if the file could not be read
+     * @param rejected  The P-Modes that could not be deployed
+     * @return          The id of the P-Mode if it was deployed,<br><code>null</code> otherwise
+     */
+    private String registerPMode(final File f, final IPMode pmode, final Map<IPMode, PModeSetException> rejected) {
+        if (pmode == null)
+            return null;
+
+        final PModeSetException rejection = rejected.get(pmode);
+        if (rejection != null) {
+            final String otherFile = Utils.getKeyByValue(fileToPModeMap, pmode.getId());
+            if (!(rejection instanceof InvalidPModeException) && otherFile != null)
+                log.error("DUPLICATE P-Mode.ID detected! The P-Mode.ID ["+ pmode.getId() + "] of P-Mode in '"
+                            + f.getAbsolutePath() + "' is also registered in '" + otherFile + "'!");
+            else
+                log.error("There was a problem adding P-Mode from file " + f.getAbsolutePath() + " to the P-Mode set!"
+                     + "\n\tError message: " + rejection.getMessage());
+            return null;
+        } else {
+            fileToPModeMap.put(f.getAbsolutePath(), pmode.getId());
+            return pmode.getId();
+        }
+    }
+
+    /**
+     * Applies the changes one by one to the P-Mode set, used when the P-Mode set does not support updates of multiple
+     * P-Modes at once.
+     */
+    protected void applyChangesOneByOne() {
         // Process removed P-Mode files
         for (final File f : delPModes) {
             final String pmodeId = removePMode(f);
@@ -156,16 +279,9 @@ public class PModeWatcher extends DirWatcher {
      */
     protected String addPMode(final File f) {
         // Get the PMode from the file, based on file f
-        PMode pmode = new PMode();
-        try {
-            pmode = PMode.createFromFile(f);
-        } catch (final Exception ex) {
-            // The XML contained an error and could not be tranformed into a PMode object
-            //
-            log.error("PMode from '" + f.getAbsolutePath() + " could not be read."
-                        + " Error details: " + ex.getMessage());
+        final PMode pmode = readPMode(f);
+        if (pmode == null)
             return null;
-        }
 
         // Get the current set of P-Modes.
         final IPModeSet pmodeSet = HolodeckB2BCoreInterface.getPModeSet();
@@ -192,6 +308,25 @@ public class PModeWatcher extends DirWatcher {
         }
     }
 
+    /**
+     * Reads the P-Mode from the given file.
+     *
+     * @param f The file containing the PMode definition in XML.
+     * @return The P-Mode contained in the file, or<br>
+     *         <code>null</code> if the file could not be read
+     */
+    protected PMode readPMode(final File f) {
+        try {
+            return PMode.createFromFile(f);
+        } catch (final Exception ex) {
+            // The XML contained an error and could not be tranformed into a PMode object
+            //
+            log.error("PMode from '" + f.getAbsolutePath() + " could not be read."
+                        + " Error details: " + ex.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Handles a removed PMode file.
      *
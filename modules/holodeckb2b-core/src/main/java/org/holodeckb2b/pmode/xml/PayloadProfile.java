@@ -32,6 +32,9 @@ public class PayloadProfile implements IAS4PayloadProfile {
     @Element (name = "UseAS4Compression", required = false)
     private Boolean useAS4Compression = Boolean.FALSE;
 
+    @Element (name = "CompressionLevel", required = false)
+    private Integer compressionLevel = null;
+
     /**
      * Returns if compression is turned on for the payload.
      * @return <i>"application/gzip"</i> when payloads should be compressed,<br>
@@ -43,6 +46,16 @@ public class PayloadProfile implements IAS4PayloadProfile {
         return useAS4Compression ? CompressionFeature.COMPRESSED_CONTENT_TYPE : null;
     }
 
+    /**
+     * Returns the compression level to use when compression is turned on.
+     * @return The compression level (0-9), or -1 when the default level should be used
+     * @since  3.1.0
+     */
+    @Override
+    public int getCompressionLevel() {
+        return compressionLevel != null ? compressionLevel : -1;
+    }
+
 
 }
 
@@ -17,7 +17,6 @@
 package org.holodeckb2b.security.handlers;
 
 import java.util.List;
-import java.util.Properties;
 import javax.security.auth.callback.CallbackHandler;
 import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.axis2.AxisFault;
@@ -235,9 +234,7 @@ public class CreateWSSHeaders extends BaseHandler {
      */
     private void setupSignature(final MessageContext mc, final ISigningConfiguration sigCfg, final PasswordCallbackHandler pwdCBHandler) {
         // Set up crypto engine
-        final Properties sigProperties = SecurityUtils.createCryptoConfig(SecurityUtils.CertType.priv);
-        mc.setProperty(ConfigurationConstants.SIG_PROP_REF_ID, "" + sigProperties.hashCode());
-        mc.setProperty("" + sigProperties.hashCode(), sigProperties);
+        SecurityUtils.setupCrypto(mc, ConfigurationConstants.SIG_PROP_REF_ID, SecurityUtils.CertType.priv);
 
         // Set up signing config
         // AS4 requires that the ebMS message header (eb:Messaging element) and SOAP Body are signed
@@ -286,9 +283,7 @@ public class CreateWSSHeaders extends BaseHandler {
     private void setupEncryption(final MessageContext mc, final IEncryptionConfiguration encCfg,
                                  final PasswordCallbackHandler pwdCBHandler) {
         // Set up crypto engine
-        final Properties encProperties = SecurityUtils.createCryptoConfig(SecurityUtils.CertType.pub);
-        mc.setProperty(ConfigurationConstants.ENC_PROP_REF_ID, "" + encProperties.hashCode());
-        mc.setProperty("" + encProperties.hashCode(), encProperties);
+        SecurityUtils.setupCrypto(mc, ConfigurationConstants.ENC_PROP_REF_ID, SecurityUtils.CertType.pub);
 
         // Set up encryption config
         // AS4 requires that only the payloads are encrypted, so we encrypt the Body only when it contains a payload
@@ -16,7 +16,6 @@
  */
 package org.holodeckb2b.security.handlers;
 
-import java.util.Properties;
 import org.apache.axis2.context.MessageContext;
 import org.apache.wss4j.common.ConfigurationConstants;
 import org.holodeckb2b.common.handler.BaseHandler;
@@ -63,14 +62,10 @@ public class SetupWSSProcessing extends BaseHandler {
     protected InvocationResponse doProcessing(final MessageContext mc) throws Exception {
 
         log.debug("Set up Crypto engine configuration");
-        final Properties sigVerificationProperties = SecurityUtils.createCryptoConfig(SecurityUtils.CertType.pub);
         // For signature verification, also add the trusted CA's
-        sigVerificationProperties.putAll(SecurityUtils.createCryptoConfig(SecurityUtils.CertType.trust));
-        mc.setProperty(ConfigurationConstants.SIG_VER_PROP_REF_ID, "" + sigVerificationProperties.hashCode());
-        mc.setProperty("" + sigVerificationProperties.hashCode(), sigVerificationProperties);
-        final Properties decProperties = SecurityUtils.createCryptoConfig(SecurityUtils.CertType.priv);
-        mc.setProperty(ConfigurationConstants.DEC_PROP_REF_ID, "" + decProperties.hashCode());
-        mc.setProperty("" + decProperties.hashCode(), decProperties);
+        SecurityUtils.setupCrypto(mc, ConfigurationConstants.SIG_VER_PROP_REF_ID,
+                                  SecurityUtils.CertType.pub, SecurityUtils.CertType.trust);
+        SecurityUtils.setupCrypto(mc, ConfigurationConstants.DEC_PROP_REF_ID, SecurityUtils.CertType.priv);
 
         // Set global settings as default and overwrite if necessary with P-Mode parameters from primary MU
         //
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.security.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.Merlin;
+import org.holodeckb2b.security.util.SecurityUtils.CertType;
+
+/**
+ * Keeps the WSS4J {@link Crypto} instances that give access to the keystores configured for the Holodeck B2B instance
+ * so the keystores do not need to be loaded from disk for every message. The keystores to load are taken from the
+ * configuration created by {@link SecurityUtils#createCryptoConfig(CertType)} and the Crypto instances can be shared
+ * by all threads.
+ * <p>The configuration of the keystores is created only once, when the Crypto instance for a set of keystores is first
+ * requested. When a Crypto instance is requested the cache checks whether the keystore files changed since it was
+ * created, but not more often than once every {@link #DEFAULT_CHECK_INTERVAL} milliseconds so the files are not
+ * accessed for every message. If they changed, a new instance is created and replaces the old one only after the
+ * keystores were loaded successfully. When the changed keystores can not be loaded, for example because the file is still being written, the
+ * old instance remains in use and loading is tried again on the next request. There is therefore no moment at which
+ * keys are not available.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public final class CryptoCache {
+
+    private static final Log log = LogFactory.getLog(CryptoCache.class);
+
+    /**
+     * The cached Crypto instances, indexed by the set of keystores they give access to
+     */
+    private static final Map<EnumSet<CertType>, CachedCrypto> cache = new ConcurrentHashMap<>();
+
+    /**
+     * The default minimum time in milliseconds between two checks whether the keystore files changed
+     */
+    public static final long DEFAULT_CHECK_INTERVAL = 5000;
+
+    /**
+     * The minimum time in milliseconds between two checks whether the keystore files changed
+     */
+    static volatile long checkInterval = DEFAULT_CHECK_INTERVAL;
+
+    /**
+     * Gets the Crypto instance that gives access to the given keystores. When the public and trust keystores are both
+     * requested the public keys keystore is available as the Crypto's keystore and the trusted certificates keystore as
+     * its truststore.
+     *
+     * @param certTypes     The types of certificate (keystores) the Crypto should provide access to
+     * @return              The Crypto instance for the given keystores, or <code>null</code> if the keystores could not
+     *                      be loaded
+     */
+    public static Crypto getCrypto(final CertType... certTypes) {
+        final EnumSet<CertType> key = EnumSet.copyOf(Arrays.asList(certTypes));
+        CachedCrypto cached = cache.get(key);
+        if (cached == null || cached.isChanged()) {
+            synchronized (CryptoCache.class) {
+                // Check again as another thread may have (re)loaded the Crypto in the meantime
+                final CachedCrypto current = cache.get(key);
+                if (current != cached)
+                    cached = current;
+                else {
+                    final CachedCrypto loaded = load(key, cached != null ? cached.config : createConfig(key));
+                    if (loaded != null) {
+                        cache.put(key, loaded);
+                        cached = loaded;
+                    } else if (cached != null)
+                        log.warn("Could not reload keystores for " + key + ", using previously loaded keystores");
+                }
+            }
+        }
+        return cached != null ? cached.crypto : null;
+    }
+
+    /**
+     * Gets the keystore holding the certificates of the given type.
+     *
+     * @param certType  The type of certificate the keystore holds
+     * @return          The keystore, or <code>null</code> if the keystore could not be loaded
+     */
+    public static KeyStore getKeyStore(final CertType certType) {
+        final Crypto crypto = getCrypto(certType);
+        if (!(crypto instanceof Merlin))
+            return null;
+        return certType == CertType.trust ? ((Merlin) crypto).getTrustStore() : ((Merlin) crypto).getKeyStore();
+    }
+
+    /**
+     * Removes all cached Crypto instances so the keystores will be loaded again on the next request.
+     */
+    public static void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Creates the Crypto configuration for the given set of keystores.
+     *
+     * @param certTypes     The types of certificate to include in the configuration
+     * @return              The combined Crypto configuration
+     */
+    private static Properties createConfig(final EnumSet<CertType> certTypes) {
+        final Properties config = new Properties();
+        for (final CertType t : certTypes)
+            config.putAll(SecurityUtils.createCryptoConfig(t));
+        return config;
+    }
+
+    /**
+     * Creates a new Crypto instance for the given set of keystores. The keystores are loaded here and then set on the
+     * Crypto instance instead of letting WSS4J load them, so a problem with loading a keystore does not have to be
+     * reported through a WSS4J exception.
+     *
+     * @param certTypes The types of certificate the Crypto should provide access to
+     * @param config    The Crypto configuration of the keystores
+     * @return          The new cache entry, or <code>null</code> if a keystore could not be loaded
+     */
+    private static CachedCrypto load(final EnumSet<CertType> certTypes, final Properties config) {
+        // Get the file information before loading so a change during loading is detected on the next request
+        final CachedCrypto entry = new CachedCrypto(config);
+        final Merlin merlin = new Merlin();
+        for (final CertType t : certTypes) {
+            final String prefix = "org.apache.wss4j.crypto.merlin." + (t == CertType.trust ? "truststore" : "keystore");
+            final String path = config.getProperty(prefix + ".file");
+            try (FileInputStream fis = new FileInputStream(path)) {
+                final KeyStore keyStore = KeyStore.getInstance(config.getProperty(prefix + ".type"));
+                keyStore.load(fis, config.getProperty(prefix + ".password").toCharArray());
+                if (t == CertType.trust)
+                    merlin.setTrustStore(keyStore);
+                else
+                    merlin.setKeyStore(keyStore);
+            } catch (IOException | GeneralSecurityException loadFailure) {
+                log.error("Could not load keystore " + path + "! Error details: " + loadFailure.getMessage());
+                return null;
+            }
+        }
+        log.debug("Loaded keystores " + entry.files.keySet());
+        entry.crypto = merlin;
+        return entry;
+    }
+
+    /**
+     * Is a Crypto instance together with the configuration and the keystore file information it was created with.
+     */
+    private static class CachedCrypto {
+        final Properties            config;
+        final Map<String, long[]>   files = new ConcurrentHashMap<>();
+        Crypto                      crypto;
+        volatile long               nextCheck;
+
+        CachedCrypto(final Properties config) {
+            this.config = config;
+            for (final String name : config.stringPropertyNames())
+                if (name.endsWith(".file"))
+                    files.put(config.getProperty(name), stamp(config.getProperty(name)));
+            nextCheck = System.currentTimeMillis() + checkInterval;
+        }
+
+        /**
+         * Checks whether the keystore files changed since the Crypto was created. The files are only checked when the
+         * check interval has passed since the last check, otherwise they are assumed to be unchanged.
+         */
+        boolean isChanged() {
+            final long now = System.currentTimeMillis();
+            if (now < nextCheck)
+                return false;
+            nextCheck = now + checkInterval;
+            for (final Map.Entry<String, long[]> f : files.entrySet())
+                if (!Arrays.equals(f.getValue(), stamp(f.getKey())))
+                    return true;
+            return false;
+        }
+
+        /**
+         * Gets the last modification time and size of the given file.
+         */
+        static long[] stamp(final String path) {
+            final File f = new File(path);
+            return new long[] { f.lastModified(), f.length() };
+        }
+    }
+}
@@ -16,13 +16,10 @@
  */
 package org.holodeckb2b.security.util;
 
-import java.io.FileInputStream;
-import java.io.IOException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -190,30 +187,14 @@ public class SecurityUtils {
      *              <code>null</code> otherwise (not found or error during search)
      */
     public static String getKeystoreAlias(final X509Certificate cert) {
-        final IConfiguration config = HolodeckB2BCoreInterface.getConfiguration();
-        String alias = null;
-        FileInputStream fis = null;
-        char[]  keystorePwd;
-
         try {
-            // Get the password for accessing the keystore
-            keystorePwd = config.getPublicKeyStorePassword().toCharArray();
-            // Create and load the keystore
-            final KeyStore keyStore = KeyStore.getInstance("JKS");
-            fis = new java.io.FileInputStream(config.getPublicKeyStorePath());
-            keyStore.load(fis, keystorePwd);
-
+            final KeyStore keyStore = CryptoCache.getKeyStore(CertType.pub);
             // Get alias of certificate
-            alias = keyStore.getCertificateAlias(cert);
+            return keyStore != null ? keyStore.getCertificateAlias(cert) : null;
         } catch (final Exception ex) {
             // Somehow the search for the certificate alias failed, so no reference available
-            alias = null;
-        } finally {
-            if (fis != null)
-                try { fis.close(); } catch (final IOException ex) {}
+            return null;
         }
-
-        return alias;
     }
 
     /**
@@ -273,22 +254,14 @@ public class SecurityUtils {
      * @since  3.0.0
      */
     public static boolean isPrivateKeyAvailable(final String alias, final String keyPassword) {
-        final   IConfiguration config = HolodeckB2BCoreInterface.getConfiguration();
-
-        try (FileInputStream fis = new java.io.FileInputStream(config.getPrivateKeyStorePath())) {
-            // Get the password for accessing the keystore
-            char[] keystorePwd = config.getPrivateKeyStorePassword().toCharArray();
-            // Create and load the keystore
-            final KeyStore keyStore = KeyStore.getInstance("JKS");
-            keyStore.load(fis, keystorePwd);
-
+        try {
+            final KeyStore keyStore = CryptoCache.getKeyStore(CertType.priv);
             // Check that the alias exists
-            if (keyStore.containsAlias(alias)) {
+            if (keyStore != null && keyStore.containsAlias(alias)) {
                 return keyStore.getKey(alias, keyPassword.toCharArray()) != null;
             } else
                 return false;
-        } catch (IOException | NoSuchAlgorithmException | CertificateException | KeyStoreException |
-                 UnrecoverableKeyException ex) {
+        } catch (NoSuchAlgorithmException | KeyStoreException | UnrecoverableKeyException ex) {
             return false;
         }
     }
@@ -305,38 +278,54 @@ public class SecurityUtils {
      * @since  3.0.0
      */
     public static boolean isCertificateAvailable(final String alias, final boolean checkTrust) {
-        final   IConfiguration config = HolodeckB2BCoreInterface.getConfiguration();
         boolean found = false;
 
-        try (FileInputStream fis = new java.io.FileInputStream(config.getPublicKeyStorePath())) {
-            // Get the password for accessing the keystore
-            char[] keystorePwd = config.getPublicKeyStorePassword().toCharArray();
-            // Create and load the keystore
-            final KeyStore keyStore = KeyStore.getInstance("JKS");
-            keyStore.load(fis, keystorePwd);
-
+        try {
+            final KeyStore keyStore = CryptoCache.getKeyStore(CertType.pub);
             // Check that the alias exists
-            found = keyStore.containsAlias(alias);
-        } catch (IOException | NoSuchAlgorithmException | CertificateException | KeyStoreException ex) {
+            found = keyStore != null && keyStore.containsAlias(alias);
+        } catch (final KeyStoreException ex) {
             found = false;
         }
 
         // Check the trust store if not found in the public keys keystore
         if (!found && checkTrust) {
-            try (FileInputStream fis = new java.io.FileInputStream(config.getTrustKeyStorePath())) {
-                // Get the password for accessing the keystore
-                char[] keystorePwd = config.getTrustKeyStorePassword().toCharArray();
-                // Create and load the keystore
-                final KeyStore keyStore = KeyStore.getInstance("JKS");
-                keyStore.load(fis, keystorePwd);
-
+            try {
+                final KeyStore keyStore = CryptoCache.getKeyStore(CertType.trust);
                 // Check that the alias exists
-                found = keyStore.containsAlias(alias);
-            } catch (IOException | NoSuchAlgorithmException | CertificateException | KeyStoreException ex) {
+                found = keyStore != null && keyStore.containsAlias(alias);
+            } catch (final KeyStoreException ex) {
                 found = false;
             }
         }
 
         return found;
     }
+
+    /**
+     * Sets up the message context so the WSS4J library will use the Crypto provider for the given certificate types.
+     * The shared Crypto instance from the {@link CryptoCache} is used so the keystores do not need to be loaded for
+     * each message. When the keystores can not be loaded the Crypto configuration is set instead so WSS4J will report
+     * the problem when processing the message.
+     *
+     * @param mc            The {@link MessageContext} to set up
+     * @param refIdProperty The name of the WSS4J property that refers to the Crypto to use
+     * @param certTypes     The types of certificate the Crypto provider must give access to
+     * @since  3.1.0
+     */
+    public static void setupCrypto(final MessageContext mc, final String refIdProperty,
+                                   final CertType... certTypes) {
+        final Object crypto = CryptoCache.getCrypto(certTypes);
+        Object cryptoRef = crypto;
+        if (crypto == null) {
+            final Properties cryptoConfig = new Properties();
+            for (final CertType t : certTypes)
+                cryptoConfig.putAll(createCryptoConfig(t));
+            cryptoRef = cryptoConfig;
+        }
+        // The reference must change when the Crypto is reloaded
+        final String refId = "" + System.identityHashCode(cryptoRef);
+        mc.setProperty(refIdProperty, refId);
+        mc.setProperty(refId, cryptoRef);
+    }
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.as4.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the compression of payloads ahead of transmission by the {@link PayloadCompressor}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class PayloadCompressorTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private PayloadCompressor compressor;
+
+    @Before
+    public void setUp() {
+        compressor = new PayloadCompressor(2);
+    }
+
+    @After
+    public void tearDown() {
+        compressor.shutdown();
+    }
+
+    @Test
+    public void testCompress() throws Exception {
+        final File payload = createPayload("payload.xml", 100000);
+
+        final File compressed = compressor.getCompressed(payload.getPath(), -1);
+
+        assertEquals(PayloadCompressor.getCacheFile(payload.getPath(), -1), compressed);
+        assertEquals(new File(payload.getParentFile(), PayloadCompressor.CACHE_DIRECTORY),
+                     compressed.getParentFile());
+        assertTrue(compressed.length() < payload.length());
+        assertArrayEquals(Files.readAllBytes(payload.toPath()), decompress(compressed));
+    }
+
+    @Test
+    public void testCachedFileReused() throws Exception {
+        final File payload = createPayload("payload.xml", 10000);
+        final File compressed = compressor.getCompressed(payload.getPath(), -1);
+        // Make the cached file recognizable
+        final long lastModified = compressed.lastModified();
+        Files.write(compressed.toPath(), new byte[] { 1 });
+        compressed.setLastModified(lastModified);
+
+        compressor.getCompressed(payload.getPath(), -1);
+        assertEquals(1, compressed.length());
+
+        // When the payload is changed it must be compressed again
+        payload.setLastModified(lastModified + 2000);
+        compressor.getCompressed(payload.getPath(), -1);
+        assertArrayEquals(Files.readAllBytes(payload.toPath()), decompress(compressed));
+    }
+
+    @Test
+    public void testRunningCompressionShared() throws Exception {
+        final File payload = createPayload("payload.xml", 2000000);
+
+        final Future<File> first = compressor.compress(payload.getPath(), 9);
+        final Future<File> second = compressor.compress(payload.getPath(), 9);
+        if (!first.isDone())
+            assertSame(first, second);
+        assertEquals(PayloadCompressor.waitFor(first), PayloadCompressor.waitFor(second));
+    }
+
+    @Test
+    public void testCompressionLevel() throws Exception {
+        final File payload = createPayload("payload.xml", 100000);
+        final File stored = compressor.getCompressed(payload.getPath(), 0);
+        // The payload must be compressed again when the level is changed
+        final File best = compressor.getCompressed(payload.getPath(), 9);
+
+        assertNotEquals(stored, best);
+        assertTrue(stored.length() > payload.length());
+        assertTrue(best.length() < payload.length());
+        assertArrayEquals(Files.readAllBytes(payload.toPath()), decompress(best));
+    }
+
+    @Test
+    public void testDeleteCacheFiles() throws Exception {
+        final File payload = createPayload("payload.xml", 10000);
+        final File other = createPayload("payload.xml.bak", 10000);
+        final File cachedDefault = compressor.getCompressed(payload.getPath(), -1);
+        final File cachedBest = compressor.getCompressed(payload.getPath(), 9);
+        final File cachedOther = compressor.getCompressed(other.getPath(), 9);
+
+        PayloadCompressor.deleteCacheFiles(payload.getPath());
+
+        assertFalse(cachedDefault.exists());
+        assertFalse(cachedBest.exists());
+        assertTrue(cachedOther.exists());
+    }
+
+    private File createPayload(final String name, final int size) throws IOException {
+        final Random random = new Random(size);
+        final StringBuilder data = new StringBuilder(size + 16);
+        while (data.length() < size)
+            data.append("<e v=\"").append(random.nextInt(1000)).append("\"/>");
+        final File payload = tempFolder.newFile(name);
+        Files.write(payload.toPath(), data.toString().getBytes());
+        return payload;
+    }
+
+    private byte[] decompress(final File compressed) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(compressed.toPath()))) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int r;
+            while ((r = in.read(buffer)) > 0)
+                out.write(buffer, 0, r);
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.as4.receptionawareness;
+
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.common.util.MessageIdGenerator;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.persistency.dao.IDAOFactory;
+import org.holodeckb2b.interfaces.persistency.dao.IQueryManager;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.persistency.DefaultProvider;
+import org.holodeckb2b.persistency.dao.StorageManager;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests that the {@link DuplicateIndex} gives the same result as the database query and only queries the database
+ * for message ids that may have been delivered.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class DuplicateIndexTest {
+
+    private static IDAOFactory daoFactory;
+
+    private IQueryManager   queryManager;
+    private DuplicateIndex  index;
+    private StorageManager  storageManager;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        final String baseDir = DuplicateIndexTest.class.getClassLoader().getResource("handlers").getPath();
+        HolodeckB2BCoreInterface.setImplementation(new HolodeckB2BTestCore(baseDir));
+        daoFactory = new DefaultProvider().getDAOFactory();
+    }
+
+    @Before
+    public void setUp() {
+        queryManager = spy(daoFactory.getQueryManager());
+        index = new DuplicateIndex(queryManager, 1000);
+        final StorageManager.HandOvers handOvers = new StorageManager.HandOvers();
+        handOvers.setDuplicateIndex(index);
+        storageManager = new StorageManager(daoFactory.getUpdateManager(), handOvers);
+    }
+
+    @Test
+    public void testNewMessageNotQueried() throws Exception {
+        index.build();
+        assertTrue(index.isReady());
+
+        final String newId = MessageIdGenerator.createMessageId();
+        assertFalse(index.isAlreadyDelivered(newId));
+        verify(queryManager, never()).isAlreadyDelivered(newId);
+    }
+
+    @Test
+    public void testDeliveredMessageDetected() throws Exception {
+        index.build();
+        final IUserMessageEntity um = storeReceivedMessage();
+        assertFalse(index.isAlreadyDelivered(um.getMessageId()));
+
+        storageManager.setProcessingState(um, ProcessingState.DELIVERED);
+
+        assertTrue(index.isAlreadyDelivered(um.getMessageId()));
+        verify(queryManager, times(1)).isAlreadyDelivered(um.getMessageId());
+    }
+
+    @Test
+    public void testBuiltFromDatabase() throws Exception {
+        // Deliver without the index, as happened before the index was started
+        final StorageManager noIndex = new StorageManager(daoFactory.getUpdateManager());
+        final IUserMessageEntity um = storeReceivedMessage();
+        noIndex.setProcessingState(um, ProcessingState.DELIVERED);
+
+        index.build();
+
+        assertTrue(index.isAlreadyDelivered(um.getMessageId()));
+    }
+
+    @Test
+    public void testDatabaseUsedUntilBuilt() throws Exception {
+        assertFalse(index.isReady());
+        final IUserMessageEntity um = storeReceivedMessage();
+        new StorageManager(daoFactory.getUpdateManager()).setProcessingState(um, ProcessingState.DELIVERED);
+
+        assertTrue(index.isAlreadyDelivered(um.getMessageId()));
+        final String newId = MessageIdGenerator.createMessageId();
+        assertFalse(index.isAlreadyDelivered(newId));
+        verify(queryManager).isAlreadyDelivered(newId);
+    }
+
+    @Test
+    public void testSameResultWhenNoLongerDelivered() throws Exception {
+        index.build();
+        final IUserMessageEntity um = storeReceivedMessage();
+        storageManager.setProcessingState(um, ProcessingState.DELIVERED);
+        assertTrue(index.isAlreadyDelivered(um.getMessageId()));
+
+        // When the message is purged, the index may still contain the id but the database decides
+        storageManager.deleteMessageUnit(um);
+        assertFalse(index.isAlreadyDelivered(um.getMessageId()));
+    }
+
+    private IUserMessageEntity storeReceivedMessage() throws Exception {
+        final UserMessage um = new UserMessage();
+        um.setMessageId(MessageIdGenerator.createMessageId());
+        um.setPModeId("pm-duplicate-index-test");
+        final IUserMessageEntity stored = storageManager.storeIncomingMessageUnit(um);
+        storageManager.setProcessingState(stored, ProcessingState.READY_FOR_DELIVERY);
+        return stored;
+    }
+}
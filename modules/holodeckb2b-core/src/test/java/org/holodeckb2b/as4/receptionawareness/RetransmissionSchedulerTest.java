@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.as4.receptionawareness;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.general.Interval;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.pmode.ILeg;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.module.HolodeckB2BCore;
+import org.holodeckb2b.persistency.DefaultProvider;
+import org.holodeckb2b.persistency.dao.StorageManager;
+import org.holodeckb2b.pmode.helpers.Leg;
+import org.holodeckb2b.pmode.helpers.PMode;
+import org.holodeckb2b.pmode.helpers.ReceiptConfiguration;
+import org.holodeckb2b.pmode.helpers.ReceptionAwarenessConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the {@link RetransmissionScheduler} checks a user message waiting for a receipt when its retry interval
+ * expires and not before.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class RetransmissionSchedulerTest {
+
+    private static final String PMODE_ID = "pm-retransmission-test";
+
+    private static final String PMODE_NO_RA_ID = "pm-retransmission-test-no-ra";
+
+    private static final long RETRY_INTERVAL = 300;
+
+    private static final long MISSING_CONFIG_DELAY = 500;
+
+    private final BlockingQueue<IUserMessageEntity> checked = new LinkedBlockingQueue<>();
+
+    private RetransmissionScheduler scheduler;
+    private StorageManager          storageManager;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        final String baseDir = RetransmissionSchedulerTest.class.getClassLoader().getResource("handlers").getPath();
+        final HolodeckB2BTestCore core = new HolodeckB2BTestCore(baseDir);
+        HolodeckB2BCoreInterface.setImplementation(core);
+
+        final ReceptionAwarenessConfig raConfig = new ReceptionAwarenessConfig();
+        raConfig.setMaxRetries(2);
+        raConfig.setRetryInterval(new Interval(RETRY_INTERVAL, TimeUnit.MILLISECONDS));
+        final Leg leg = new Leg();
+        leg.setLabel(ILeg.Label.REQUEST);
+        leg.setReceptionAwareness(raConfig);
+        final PMode pmode = new PMode();
+        pmode.setId(PMODE_ID);
+        pmode.addLeg(leg);
+        core.getPModeSet().add(pmode);
+
+        // A leg that expects a Receipt but has no Reception Awareness configuration
+        final Leg noRALeg = new Leg();
+        noRALeg.setLabel(ILeg.Label.REQUEST);
+        noRALeg.setReceiptConfiguration(new ReceiptConfiguration());
+        final PMode noRAPMode = new PMode();
+        noRAPMode.setId(PMODE_NO_RA_ID);
+        noRAPMode.addLeg(noRALeg);
+        core.getPModeSet().add(noRAPMode);
+    }
+
+    @Before
+    public void setUp() {
+        scheduler = new RetransmissionScheduler(MISSING_CONFIG_DELAY) {
+            @Override
+            protected void checkForRetransmission(final IUserMessageEntity um) {
+                checked.add(um);
+            }
+        };
+        final StorageManager.HandOvers handOvers = new StorageManager.HandOvers();
+        handOvers.setRetransmissionScheduler(scheduler);
+        storageManager = new StorageManager(new DefaultProvider().getDAOFactory().getUpdateManager(), handOvers);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testCheckedWhenIntervalExpires() throws Exception {
+        final IUserMessageEntity um = storeSentMessage();
+
+        final long start = System.currentTimeMillis();
+        storageManager.setProcessingState(um, ProcessingState.AWAITING_RECEIPT);
+        assertEquals(1, scheduler.getScheduledCount());
+
+        final IUserMessageEntity check = checked.poll(2000, TimeUnit.MILLISECONDS);
+        final long waited = System.currentTimeMillis() - start;
+        assertNotNull(check);
+        assertEquals(um.getMessageId(), check.getMessageId());
+        // Allow for the precision of the time stamps stored in the database
+        assertTrue("Checked too early: " + waited + "ms", waited >= RETRY_INTERVAL - 20);
+        assertEquals(0, scheduler.getScheduledCount());
+        assertNull(checked.poll(RETRY_INTERVAL * 2, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testNotCheckedWhenReceiptReceived() throws Exception {
+        final IUserMessageEntity um = storeSentMessage();
+
+        storageManager.setProcessingState(um, ProcessingState.AWAITING_RECEIPT);
+        storageManager.setProcessingState(um, ProcessingState.DELIVERED);
+
+        assertNull(checked.poll(RETRY_INTERVAL * 2, TimeUnit.MILLISECONDS));
+        assertEquals(0, scheduler.getScheduledCount());
+    }
+
+    @Test
+    public void testScheduledOnce() throws Exception {
+        final IUserMessageEntity um = storeSentMessage();
+
+        storageManager.setProcessingState(um, ProcessingState.AWAITING_RECEIPT);
+        // Rebuilding the schedule, as done by the RetransmissionWorker, must not add a second check
+        scheduler.waitingForReceipt(um);
+        scheduler.waitingForReceipt(um);
+        assertEquals(1, scheduler.getScheduledCount());
+
+        assertNotNull(checked.poll(2000, TimeUnit.MILLISECONDS));
+        assertNull(checked.poll(RETRY_INTERVAL * 2, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testIncomingNotScheduled() throws Exception {
+        final UserMessage um = new UserMessage();
+        um.setMessageId("incoming-retransmission-test@holodeck-b2b.org");
+        um.setPModeId(PMODE_ID);
+        final IUserMessageEntity stored = storageManager.storeIncomingMessageUnit(um);
+        storageManager.setProcessingState(stored, ProcessingState.AWAITING_RECEIPT);
+
+        assertEquals(0, scheduler.getScheduledCount());
+    }
+
+    @Test
+    public void testNoRAConfigCheckedAfterDelay() throws Exception {
+        final IUserMessageEntity um = storeSentMessage(PMODE_NO_RA_ID);
+
+        storageManager.setProcessingState(um, ProcessingState.AWAITING_RECEIPT);
+        assertEquals(1, scheduler.getScheduledCount());
+
+        // The check must not be done immediately, but only when the delay for missing configurations has passed
+        assertNull(checked.poll(MISSING_CONFIG_DELAY / 2, TimeUnit.MILLISECONDS));
+        final IUserMessageEntity check = checked.poll(2000, TimeUnit.MILLISECONDS);
+        assertNotNull(check);
+        assertEquals(um.getMessageId(), check.getMessageId());
+    }
+
+    @Test
+    public void testNoRAConfigReceiptInResponse() throws Exception {
+        // Use the actual check so it can be verified the message is not set to failed
+        final RetransmissionScheduler realScheduler = new RetransmissionScheduler(MISSING_CONFIG_DELAY);
+        try {
+            final StorageManager.HandOvers handOvers = new StorageManager.HandOvers();
+            handOvers.setRetransmissionScheduler(realScheduler);
+            final StorageManager sm = new StorageManager(new DefaultProvider().getDAOFactory().getUpdateManager(),
+                                                         handOvers);
+            final IUserMessageEntity um = storeSentMessage(PMODE_NO_RA_ID);
+
+            sm.setProcessingState(um, ProcessingState.AWAITING_RECEIPT);
+            // Simulate the processing of the Receipt included in the response shortly after
+            Thread.sleep(50);
+            sm.setProcessingState(um, ProcessingState.DELIVERED);
+
+            Thread.sleep(MISSING_CONFIG_DELAY * 2);
+            assertEquals(0, realScheduler.getScheduledCount());
+            final IMessageUnitEntity stored = HolodeckB2BCore.getQueryManager()
+                                                             .getMessageUnitsWithId(um.getMessageId()).iterator().next();
+            assertEquals(ProcessingState.DELIVERED, stored.getCurrentProcessingState().getState());
+        } finally {
+            realScheduler.shutdown();
+        }
+    }
+
+    private IUserMessageEntity storeSentMessage() throws Exception {
+        return storeSentMessage(PMODE_ID);
+    }
+
+    private IUserMessageEntity storeSentMessage(final String pmodeId) throws Exception {
+        final UserMessage um = new UserMessage();
+        um.setPModeId(pmodeId);
+        final IUserMessageEntity stored = storageManager.storeOutGoingMessageUnit(um);
+        storageManager.setProcessingState(stored, ProcessingState.SENDING);
+        return stored;
+    }
+}
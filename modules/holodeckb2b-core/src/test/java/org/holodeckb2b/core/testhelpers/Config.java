@@ -143,4 +143,99 @@ public class Config implements InternalConfiguration {
     public String getPersistencyProviderClass() {
         return "org.holodeckb2b.persistency.DefaultProvider";
     }
+
+    @Override
+    public int getMaxConnectionsPerHost() {
+        return org.holodeckb2b.common.config.Config.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    }
+
+    @Override
+    public int getMaxConnections() {
+        return org.holodeckb2b.common.config.Config.DEFAULT_MAX_CONNECTIONS;
+    }
+
+    @Override
+    public long getIdleConnectionTimeout() {
+        return org.holodeckb2b.common.config.Config.DEFAULT_IDLE_CONNECTION_TIMEOUT;
+    }
+
+    @Override
+    public int getMaxParallelSends() {
+        return org.holodeckb2b.common.config.Config.DEFAULT_MAX_PARALLEL_SENDS;
+    }
+
+    @Override
+    public int getMaxParallelSendsPerDestination() {
+        return org.holodeckb2b.common.config.Config.DEFAULT_MAX_PARALLEL_SENDS_PER_DESTINATION;
+    }
+
+    @Override
+    public boolean useAsyncDelivery() {
+        return false;
+    }
+
+    @Override
+    public int getDeliveryThreads() {
+        return org.holodeckb2b.common.config.Config.DEFAULT_DELIVERY_THREADS;
+    }
+
+    @Override
+    public int getMaxDeliveryAttempts() {
+        return org.holodeckb2b.common.config.Config.DEFAULT_MAX_DELIVERY_ATTEMPTS;
+    }
+
+    @Override
+    public long getDeliveryRetryInterval() {
+        return org.holodeckb2b.common.config.Config.DEFAULT_DELIVERY_RETRY_INTERVAL;
+    }
+
+    @Override
+    public int getDuplicateIndexCapacity() {
+        return org.holodeckb2b.common.config.Config.DEFAULT_DUPLICATE_INDEX_CAPACITY;
+    }
+
+    @Override
+    public int getPayloadCompressionThreads() {
+        return org.holodeckb2b.common.config.Config.DEFAULT_PAYLOAD_COMPRESSION_THREADS;
+    }
+
+    @Override
+    public int getSOAPEnvelopeLogSampleRate() {
+        return org.holodeckb2b.common.config.Config.DEFAULT_SOAP_ENVELOPE_LOG_SAMPLE_RATE;
+    }
+
+    @Override
+    public int getSOAPEnvelopeLogMaxSize() {
+        return org.holodeckb2b.common.config.Config.DEFAULT_SOAP_ENVELOPE_LOG_MAX_SIZE;
+    }
+
+    @Override
+    public boolean isSOAPEnvelopeLogAsync() {
+        return false;
+    }
+
+    @Override
+    public int getEventQueueSize() {
+        return -1;
+    }
+
+    @Override
+    public int getEventProcessingThreads() {
+        return -1;
+    }
+
+    @Override
+    public String getEventQueueOverflowPolicy() {
+        return null;
+    }
+
+    @Override
+    public boolean isMetricsEnabled() {
+        return false;
+    }
+
+    @Override
+    public String getMetricsRegistryClass() {
+        return null;
+    }
 }
@@ -58,6 +58,8 @@ public class HolodeckB2BTestCore extends HolodeckB2BCoreImpl {
 
     private IMessageProcessingEventProcessor eventProcessor;
 
+    private StorageManager storageManager;
+
     public HolodeckB2BTestCore(final String homeDir) {
         this(homeDir, null, null);
     }
@@ -100,7 +102,16 @@ public class HolodeckB2BTestCore extends HolodeckB2BCoreImpl {
 
     @Override
     public StorageManager getStorageManager() {
-        return new StorageManager(daoFactory.getUpdateManager());
+        return storageManager != null ? storageManager : new StorageManager(daoFactory.getUpdateManager());
+    }
+
+    /**
+     * Sets the storage manager to use instead of the default one without hand overs.
+     *
+     * @param storageManager    The storage manager to use, or <code>null</code> to use the default one again
+     */
+    public void setStorageManager(final StorageManager storageManager) {
+        this.storageManager = storageManager;
     }
 
     @Override
@@ -130,6 +141,10 @@ public class HolodeckB2BTestCore extends HolodeckB2BCoreImpl {
         return pmodeSet;
     }
 
+    public void setPModeSet(final IPModeSet pmodeSet) {
+        this.pmodeSet = pmodeSet;
+    }
+
     public void setEventProcessor(final IMessageProcessingEventProcessor processor) {
         eventProcessor = processor;
     }
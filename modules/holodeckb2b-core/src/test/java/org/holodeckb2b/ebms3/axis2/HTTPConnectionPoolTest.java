@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.axis2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the {@link HTTPConnectionPool} against an embedded HTTP server that registers the client ports of the
+ * connections it receives requests on.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class HTTPConnectionPoolTest {
+
+    private HttpServer  server;
+    private String      url;
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/msh", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                try (InputStream is = exchange.getRequestBody()) {
+                    while (is.read() >= 0);
+                }
+                final byte[] response = "<ok/>".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(response);
+                }
+            }
+        });
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort() + "/msh";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionReused() throws Exception {
+        final HTTPConnectionPool pool = new HTTPConnectionPool(2, 10, 60000);
+        try {
+            for (int i = 0; i < 10; i++)
+                assertEquals(200, post(pool));
+            assertEquals(1, clientPorts.size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testIdleConnectionClosed() throws Exception {
+        final HTTPConnectionPool pool = new HTTPConnectionPool(2, 10, 200);
+        try {
+            assertEquals(200, post(pool));
+            assertEquals(1, pool.getConnectionManager().getConnectionsInPool());
+            Thread.sleep(1000);
+            assertEquals(0, pool.getConnectionManager().getConnectionsInPool());
+            assertEquals(200, post(pool));
+            assertEquals(2, clientPorts.size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testLimits() {
+        final HTTPConnectionPool pool = new HTTPConnectionPool(3, 7, 60000);
+        try {
+            assertEquals(3, pool.getConnectionManager().getParams()
+                                                .getMaxConnectionsPerHost(new HostConfiguration()));
+            assertEquals(7, pool.getConnectionManager().getParams().getMaxTotalConnections());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private int post(final HTTPConnectionPool pool) throws IOException {
+        final PostMethod post = new PostMethod(url);
+        try {
+            post.setRequestEntity(new StringRequestEntity("<test/>", "text/xml", "UTF-8"));
+            final int status = pool.getHttpClient().executeMethod(post);
+            post.getResponseBodyAsString();
+            return status;
+        } finally {
+            post.releaseConnection();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.handlers.inflow;
+
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.context.OperationContext;
+import org.apache.axis2.engine.Handler;
+import org.apache.axis2.wsdl.WSDLConstants;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.common.util.MessageIdGenerator;
+import org.holodeckb2b.common.util.Utils;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.ebms3.constants.MessageContextProperties;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.persistency.dao.StorageManager;
+import org.holodeckb2b.persistency.util.UnitOfWork;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Is the test class for the {@link EndUnitOfWork} handler.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class EndUnitOfWorkTest {
+
+    private static HolodeckB2BTestCore core;
+
+    private StartUnitOfWork startHandler;
+
+    private EndUnitOfWork handler;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        final String baseDir = EndUnitOfWorkTest.class.getClassLoader().getResource("handlers").getPath();
+        core = new HolodeckB2BTestCore(baseDir);
+        HolodeckB2BCoreInterface.setImplementation(core);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        startHandler = new StartUnitOfWork();
+        handler = new EndUnitOfWork();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        while (UnitOfWork.isActive())
+            core.getStorageManager().endUnitOfWork();
+    }
+
+    @Test
+    public void testDoProcessing() throws Exception {
+        MessageContext mc = new MessageContext();
+        mc.setFLOW(MessageContext.IN_FLOW);
+
+        assertEquals(Handler.InvocationResponse.CONTINUE, startHandler.invoke(mc));
+
+        final UserMessage userMessage = new UserMessage();
+        userMessage.setMessageId(MessageIdGenerator.createMessageId());
+        core.getStorageManager().storeIncomingMessageUnit(userMessage);
+
+        assertEquals(Handler.InvocationResponse.CONTINUE, handler.invoke(mc));
+
+        assertNull(mc.getProperty(MessageContextProperties.UNIT_OF_WORK_ACTIVE));
+        assertFalse(UnitOfWork.isActive());
+        assertEquals(1, core.getQueryManager().getMessageUnitsWithId(userMessage.getMessageId()).size());
+
+        // The completion of the flow should not end the unit of work again
+        startHandler.flowComplete(mc);
+        assertFalse(UnitOfWork.isActive());
+    }
+
+    @Test
+    public void testNoUnitOfWork() throws Exception {
+        MessageContext mc = new MessageContext();
+        mc.setFLOW(MessageContext.IN_FLOW);
+
+        assertEquals(Handler.InvocationResponse.CONTINUE, handler.invoke(mc));
+
+        assertFalse(UnitOfWork.isActive());
+    }
+
+    @Test
+    public void testAbortedUnitOfWork() throws Exception {
+        MessageContext mc = new MessageContext();
+        mc.setFLOW(MessageContext.IN_FLOW);
+
+        assertEquals(Handler.InvocationResponse.CONTINUE, startHandler.invoke(mc));
+
+        final StorageManager storageManager = core.getStorageManager();
+        final UserMessage userMessage = new UserMessage();
+        userMessage.setMessageId(MessageIdGenerator.createMessageId());
+        final IUserMessageEntity stored = storageManager.storeIncomingMessageUnit(userMessage);
+
+        // Let an update fail by changing a message unit that does not exist anymore
+        final UserMessage otherMessage = new UserMessage();
+        otherMessage.setMessageId(MessageIdGenerator.createMessageId());
+        final IUserMessageEntity removed = storageManager.storeIncomingMessageUnit(otherMessage);
+        storageManager.deleteMessageUnit(removed);
+        try {
+            storageManager.setPModeId(removed, "aborted");
+            fail("Update of removed message unit should fail");
+        } catch (final PersistenceException expected) {}
+
+        // As the store of the first message unit was rolled back, no further changes should be accepted
+        try {
+            storageManager.setPModeId(stored, "aborted");
+            fail("Update in aborted unit of work should fail");
+        } catch (final PersistenceException expected) {}
+        try {
+            storageManager.commitUnitOfWork();
+            fail("Commit of aborted unit of work should fail");
+        } catch (final PersistenceException expected) {}
+
+        // The end of the unit of work should raise a fault
+        try {
+            handler.invoke(mc);
+            fail("End of aborted unit of work should raise a fault");
+        } catch (final AxisFault expected) {}
+
+        assertNull(mc.getProperty(MessageContextProperties.UNIT_OF_WORK_ACTIVE));
+        assertFalse(UnitOfWork.isActive());
+        assertTrue(Utils.isNullOrEmpty(core.getQueryManager().getMessageUnitsWithId(userMessage.getMessageId())));
+    }
+
+    @Test
+    public void testEndInOutFlow() throws Exception {
+        MessageContext inMsgContext = new MessageContext();
+        inMsgContext.setFLOW(MessageContext.IN_FLOW);
+
+        assertEquals(Handler.InvocationResponse.CONTINUE, startHandler.invoke(inMsgContext));
+
+        final UserMessage userMessage = new UserMessage();
+        userMessage.setMessageId(MessageIdGenerator.createMessageId());
+        core.getStorageManager().storeIncomingMessageUnit(userMessage);
+
+        // The response is created while the unit of work is still active
+        final OperationContext opContext = mock(OperationContext.class);
+        when(opContext.getMessageContext(WSDLConstants.MESSAGE_LABEL_IN_VALUE)).thenReturn(inMsgContext);
+        MessageContext mc = new MessageContext();
+        mc.setFLOW(MessageContext.OUT_FLOW);
+        mc.setOperationContext(opContext);
+
+        assertEquals(Handler.InvocationResponse.CONTINUE, handler.invoke(mc));
+
+        assertNull(inMsgContext.getProperty(MessageContextProperties.UNIT_OF_WORK_ACTIVE));
+        assertFalse(UnitOfWork.isActive());
+        assertEquals(1, core.getQueryManager().getMessageUnitsWithId(userMessage.getMessageId()).size());
+    }
+}
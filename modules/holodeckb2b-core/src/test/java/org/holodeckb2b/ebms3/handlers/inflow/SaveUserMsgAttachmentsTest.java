@@ -45,8 +45,14 @@ import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+import java.io.File;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
@@ -162,4 +168,46 @@ public class SaveUserMsgAttachmentsTest {
         assertEquals(ProcessingState.READY_FOR_DELIVERY,
                 userMessageEntity.getCurrentProcessingState().getState());
     }
+
+    /**
+     * Test that an attachment cached on the file system, as done by Axis2 for large attachments, is saved correctly
+     * and independently of the cached file.
+     */
+    @Test
+    public void testCachedAttachment() throws Exception {
+        MessageMetaData mmd = TestUtils.getMMD("handlers/full_mmd_att.xml", this);
+        SOAPEnvelope env = SOAPEnv.createEnvelope(SOAPEnv.SOAPVersion.SOAP_12);
+        SOAPHeaderBlock headerBlock = Messaging.createElement(env);
+        OMElement umElement = UserMessageElement.createElement(headerBlock, mmd);
+
+        MessageContext mc = new MessageContext();
+        mc.setFLOW(MessageContext.IN_FLOW);
+
+        UserMessage userMessage = UserMessageElement.readElement(umElement);
+        userMessage.setPModeId(userMessage.getCollaborationInfo().getAgreement().getPModeId());
+
+        // Copy the attachment content to a file that acts as the cached attachment
+        final byte[] content = Files.readAllBytes(Paths.get(baseDir, "dandelion.jpg"));
+        final File cached = File.createTempFile("cached-", ".att", new File(baseDir));
+        Files.write(cached.toPath(), content);
+        Attachments attachments = new Attachments();
+        attachments.addDataHandler("some_URI_01", new DataHandler(new FileDataSource(cached)));
+        mc.setAttachmentMap(attachments);
+
+        IUserMessageEntity userMessageEntity = core.getStorageManager().storeIncomingMessageUnit(userMessage);
+        mc.setProperty(MessageContextProperties.IN_USER_MESSAGE, userMessageEntity);
+
+        assertEquals(Handler.InvocationResponse.CONTINUE, handler.invoke(mc));
+        assertEquals(ProcessingState.READY_FOR_DELIVERY,
+                userMessageEntity.getCurrentProcessingState().getState());
+
+        // Removing the cached file must not affect the saved payload
+        cached.delete();
+        Path savedPath = null;
+        for (final IPayload p : userMessageEntity.getPayloads())
+            if (p.getContainment() == IPayload.Containment.ATTACHMENT)
+                savedPath = Paths.get(p.getContentLocation());
+        assertArrayEquals(content, Files.readAllBytes(savedPath));
+        Files.delete(savedPath);
+    }
 }
\ No newline at end of file
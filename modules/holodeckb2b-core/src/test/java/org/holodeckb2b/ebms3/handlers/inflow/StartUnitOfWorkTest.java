@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.handlers.inflow;
+
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.engine.Handler;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.common.util.MessageIdGenerator;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.ebms3.constants.MessageContextProperties;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.persistency.util.UnitOfWork;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Is the test class for the {@link StartUnitOfWork} handler.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class StartUnitOfWorkTest {
+
+    private static HolodeckB2BTestCore core;
+
+    private StartUnitOfWork handler;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        final String baseDir = StartUnitOfWorkTest.class.getClassLoader().getResource("handlers").getPath();
+        core = new HolodeckB2BTestCore(baseDir);
+        HolodeckB2BCoreInterface.setImplementation(core);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        handler = new StartUnitOfWork();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        while (UnitOfWork.isActive())
+            core.getStorageManager().endUnitOfWork();
+    }
+
+    @Test
+    public void testDoProcessing() throws Exception {
+        MessageContext mc = new MessageContext();
+        mc.setFLOW(MessageContext.IN_FLOW);
+
+        assertEquals(Handler.InvocationResponse.CONTINUE, handler.invoke(mc));
+
+        assertNotNull(mc.getProperty(MessageContextProperties.UNIT_OF_WORK_ACTIVE));
+        assertTrue(UnitOfWork.isActive());
+    }
+
+    @Test
+    public void testEndOnFlowComplete() throws Exception {
+        MessageContext mc = new MessageContext();
+        mc.setFLOW(MessageContext.IN_FLOW);
+
+        assertEquals(Handler.InvocationResponse.CONTINUE, handler.invoke(mc));
+
+        final UserMessage userMessage = new UserMessage();
+        userMessage.setMessageId(MessageIdGenerator.createMessageId());
+        core.getStorageManager().storeIncomingMessageUnit(userMessage);
+
+        // Simulate a fault so the unit of work is not ended by the EndUnitOfWork handler
+        mc.setFailureReason(new AxisFault("Some error"));
+        handler.flowComplete(mc);
+
+        assertNull(mc.getProperty(MessageContextProperties.UNIT_OF_WORK_ACTIVE));
+        assertFalse(UnitOfWork.isActive());
+        // The changes made in the unit of work should be saved
+        assertEquals(1, core.getQueryManager().getMessageUnitsWithId(userMessage.getMessageId()).size());
+    }
+}
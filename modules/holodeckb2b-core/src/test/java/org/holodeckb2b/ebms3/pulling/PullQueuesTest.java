@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.pulling;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.common.util.MessageIdGenerator;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.dao.IDAOFactory;
+import org.holodeckb2b.interfaces.persistency.dao.IUpdateManager;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.persistency.DefaultProvider;
+import org.holodeckb2b.persistency.dao.StorageManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that the {@link PullQueues} select the same user message for pulling as the database query would.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class PullQueuesTest {
+
+    private static final String MPC = "http://holodeck-b2b.org/pull-queues-test";
+
+    private static HolodeckB2BTestCore core;
+
+    private static IDAOFactory daoFactory;
+
+    private PullQueues      queues;
+    private StorageManager  storageManager;
+    private String          pmodeId;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        final String baseDir = PullQueuesTest.class.getClassLoader().getResource("handlers").getPath();
+        core = new HolodeckB2BTestCore(baseDir);
+        HolodeckB2BCoreInterface.setImplementation(core);
+        daoFactory = new DefaultProvider().getDAOFactory();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        queues = new PullQueues(daoFactory.getQueryManager());
+        queues.build();
+        final StorageManager.HandOvers handOvers = new StorageManager.HandOvers();
+        handOvers.setPullQueues(queues);
+        storageManager = new StorageManager(daoFactory.getUpdateManager(), handOvers);
+        // Use a new P-Mode for each test so messages left by other tests are not selected
+        pmodeId = "pm-pull-queues-" + MessageIdGenerator.createMessageId();
+    }
+
+    @After
+    public void tearDown() {
+        core.setStorageManager(null);
+    }
+
+    @Test
+    public void testOldestFirst() throws Exception {
+        final long now = System.currentTimeMillis();
+        final IUserMessageEntity newer = storeWaitingMessage(pmodeId, MPC, now);
+        final IUserMessageEntity older = storeWaitingMessage(pmodeId, MPC, now - 60000);
+
+        final IUserMessageEntity first = queues.claim(Collections.singleton(pmodeId), MPC);
+        assertEquals(older.getMessageId(), first.getMessageId());
+        assertEquals(ProcessingState.PROCESSING, first.getCurrentProcessingState().getState());
+        assertEquals(newer.getMessageId(), queues.claim(Collections.singleton(pmodeId), MPC).getMessageId());
+        assertNull(queues.claim(Collections.singleton(pmodeId), MPC));
+    }
+
+    @Test
+    public void testMPCMatching() throws Exception {
+        final long now = System.currentTimeMillis();
+        final IUserMessageEntity onSubChannel = storeWaitingMessage(pmodeId, MPC + "/sub", now - 60000);
+        final IUserMessageEntity onParent = storeWaitingMessage(pmodeId, MPC, now);
+
+        // The message on the sub channel can not be pulled using the parent MPC
+        assertEquals(onParent.getMessageId(), queues.claim(Collections.singleton(pmodeId), MPC).getMessageId());
+        assertNull(queues.claim(Collections.singleton(pmodeId), MPC));
+        assertEquals(onSubChannel.getMessageId(),
+                     queues.claim(Collections.singleton(pmodeId), MPC + "/sub").getMessageId());
+    }
+
+    @Test
+    public void testOnlyAuthorizedPModes() throws Exception {
+        final String otherPModeId = pmodeId + "-other";
+        final long now = System.currentTimeMillis();
+        storeWaitingMessage(otherPModeId, MPC, now - 60000);
+        final IUserMessageEntity um = storeWaitingMessage(pmodeId, MPC, now);
+
+        assertEquals(um.getMessageId(), queues.claim(Collections.singleton(pmodeId), MPC).getMessageId());
+        assertNull(queues.claim(Collections.singleton(pmodeId), MPC));
+        assertEquals(1, countClaimable(Arrays.asList(pmodeId, otherPModeId)));
+    }
+
+    @Test
+    public void testNoLongerWaitingSkipped() throws Exception {
+        final long now = System.currentTimeMillis();
+        final IUserMessageEntity stale = storeWaitingMessage(pmodeId, MPC, now - 60000);
+        final IUserMessageEntity um = storeWaitingMessage(pmodeId, MPC, now);
+        storageManager.setProcessingState(stale, ProcessingState.FAILURE);
+
+        assertEquals(um.getMessageId(), queues.claim(Collections.singleton(pmodeId), MPC).getMessageId());
+        assertNull(queues.claim(Collections.singleton(pmodeId), MPC));
+    }
+
+    @Test
+    public void testFilledFromDatabase() throws Exception {
+        // Store messages without the queues, as done before the queues were filled
+        final StorageManager noQueues = new StorageManager(daoFactory.getUpdateManager());
+        final IUserMessageEntity um = noQueues.storeOutGoingMessageUnit(createUserMessage(MPC,
+                                                                                System.currentTimeMillis()));
+        noQueues.setProcessingState(um, ProcessingState.AWAITING_PULL);
+
+        final PullQueues filled = new PullQueues(daoFactory.getQueryManager());
+        filled.build();
+        assertTrue(filled.isReady());
+        assertEquals(um.getMessageId(), filled.claim(Collections.singleton(pmodeId), MPC).getMessageId());
+    }
+
+    @Test
+    public void testPutBackWhenClaimFails() throws Exception {
+        final IUserMessageEntity um = storeWaitingMessage(pmodeId, MPC, System.currentTimeMillis());
+        final IUpdateManager failing = mock(IUpdateManager.class);
+        when(failing.setProcessingState(any(IMessageUnitEntity.class), any(ProcessingState.class),
+                                        any(ProcessingState.class))).thenThrow(new PersistenceException("test"));
+        core.setStorageManager(new StorageManager(failing, handOversTo(queues)));
+
+        try {
+            queues.claim(Collections.singleton(pmodeId), MPC);
+            fail("Database error not reported");
+        } catch (final PersistenceException expected) {
+        }
+        core.setStorageManager(null);
+        assertEquals(um.getMessageId(), queues.claim(Collections.singleton(pmodeId), MPC).getMessageId());
+    }
+
+    @Test
+    public void testPutBackWhenNotCommitted() throws Exception {
+        final IUserMessageEntity um = storeWaitingMessage(pmodeId, MPC, System.currentTimeMillis());
+        final IUpdateManager notCommitting = mock(IUpdateManager.class);
+        when(notCommitting.setProcessingState(any(IMessageUnitEntity.class), any(ProcessingState.class),
+                                              any(ProcessingState.class))).thenReturn(true);
+        doThrow(new PersistenceException("test")).when(notCommitting).endUnitOfWork();
+        final StorageManager sm = new StorageManager(notCommitting, handOversTo(queues));
+        core.setStorageManager(sm);
+
+        sm.startUnitOfWork();
+        assertEquals(um.getMessageId(), queues.claim(Collections.singleton(pmodeId), MPC).getMessageId());
+        assertNull(queues.claim(Collections.singleton(pmodeId), MPC));
+        try {
+            sm.endUnitOfWork();
+            fail("Commit failure not reported");
+        } catch (final PersistenceException expected) {
+        }
+
+        core.setStorageManager(null);
+        assertEquals(um.getMessageId(), queues.claim(Collections.singleton(pmodeId), MPC).getMessageId());
+    }
+
+    @Test
+    public void testReconcile() throws Exception {
+        // Store a message without the queues so it is missing from them
+        final StorageManager noQueues = new StorageManager(daoFactory.getUpdateManager());
+        final UserMessage missing = createUserMessage(MPC, System.currentTimeMillis() - 60000);
+        final IUserMessageEntity um = noQueues.storeOutGoingMessageUnit(missing);
+        noQueues.setProcessingState(um, ProcessingState.AWAITING_PULL);
+        final IUserMessageEntity queued = storeWaitingMessage(pmodeId, MPC, System.currentTimeMillis());
+
+        assertTrue(queues.reconcile() >= 1);
+        // Messages already in the queues are not added again
+        assertEquals(0, queues.reconcile());
+        assertEquals(um.getMessageId(), queues.claim(Collections.singleton(pmodeId), MPC).getMessageId());
+        assertEquals(queued.getMessageId(), queues.claim(Collections.singleton(pmodeId), MPC).getMessageId());
+        assertNull(queues.claim(Collections.singleton(pmodeId), MPC));
+    }
+
+    private static StorageManager.HandOvers handOversTo(final PullQueues pullQueues) {
+        final StorageManager.HandOvers handOvers = new StorageManager.HandOvers();
+        handOvers.setPullQueues(pullQueues);
+        return handOvers;
+    }
+
+    private int countClaimable(final Collection<String> pmodeIds) throws Exception {
+        int n = 0;
+        while (queues.claim(pmodeIds, MPC) != null)
+            n++;
+        return n;
+    }
+
+    private IUserMessageEntity storeWaitingMessage(final String pmode, final String mpc, final long timestamp)
+                                                                                                    throws Exception {
+        final UserMessage um = createUserMessage(mpc, timestamp);
+        um.setPModeId(pmode);
+        final IUserMessageEntity stored = storageManager.storeOutGoingMessageUnit(um);
+        storageManager.setProcessingState(stored, ProcessingState.AWAITING_PULL);
+        return stored;
+    }
+
+    private UserMessage createUserMessage(final String mpc, final long timestamp) {
+        final UserMessage um = new UserMessage();
+        um.setPModeId(pmodeId);
+        um.setMPC(mpc);
+        um.setTimestamp(new Date(timestamp));
+        return um;
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.submit.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.holodeckb2b.common.messagemodel.Payload;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.common.mmd.xml.MessageMetaData;
+import org.holodeckb2b.common.util.MessageIdGenerator;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.core.testhelpers.TestUtils;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+import org.holodeckb2b.interfaces.messagemodel.IPayload;
+import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.dao.IUpdateManager;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.interfaces.submit.ISubmissionResult;
+import org.holodeckb2b.module.HolodeckB2BCore;
+import org.holodeckb2b.persistency.DefaultProvider;
+import org.holodeckb2b.persistency.dao.StorageManager;
+import org.holodeckb2b.pmode.helpers.Leg;
+import org.holodeckb2b.pmode.helpers.PMode;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
+/**
+ * Tests the submission of a collection of User Messages by the {@link MessageSubmitter}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class MessageSubmitterTest {
+
+    /**
+     * The reference used to mark the messages for which the database updates fail
+     */
+    private static final String FAIL_MARKER = "fail-in-test";
+
+    private static HolodeckB2BTestCore core;
+
+    private static MessageMetaData mmd;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        final String baseDir = MessageSubmitterTest.class.getClassLoader().getResource("handlers").getPath();
+        core = new HolodeckB2BTestCore(baseDir);
+        HolodeckB2BCoreInterface.setImplementation(core);
+
+        mmd = TestUtils.getMMD("handlers/full_mmd.xml", new MessageSubmitterTest());
+
+        final PMode pmode = new PMode();
+        pmode.setId(mmd.getPModeId());
+        pmode.setMepBinding("http://docs.oasis-open.org/ebxml-msg/ebms/v3.0/ns/core/200704/push");
+        pmode.addLeg(new Leg());
+        core.getPModeSet().add(pmode);
+    }
+
+    @After
+    public void tearDown() {
+        core.setStorageManager(null);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        TestUtils.cleanOldMessageUnitEntities();
+        core.getPModeSet().removeAll();
+    }
+
+    @Test
+    public void testSubmitMessages() throws Exception {
+        final List<UserMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            messages.add(createMessage(mmd.getPModeId()));
+        // The message in the middle refers to an unknown P-Mode and must be rejected
+        messages.get(1).setPModeId("unknown-pmode");
+
+        final List<ISubmissionResult> results = new MessageSubmitter().submitMessages(messages, false);
+
+        assertEquals(messages.size(), results.size());
+        for (int i = 0; i < messages.size(); i++)
+            assertSame(messages.get(i), results.get(i).getSubmittedMessage());
+
+        assertFalse(results.get(1).isAccepted());
+        assertNull(results.get(1).getMessageId());
+        assertNotNull(results.get(1).getRejectionReason());
+
+        for (final ISubmissionResult r : new ISubmissionResult[] { results.get(0), results.get(2) }) {
+            assertTrue(r.isAccepted());
+            assertNull(r.getRejectionReason());
+            assertNotNull(r.getMessageId());
+
+            final Collection<IMessageUnitEntity> stored = HolodeckB2BCore.getQueryManager()
+                                                                         .getMessageUnitsWithId(r.getMessageId());
+            assertEquals(1, stored.size());
+            final IMessageUnitEntity storedMessage = stored.iterator().next();
+            assertEquals(ProcessingState.READY_TO_PUSH, storedMessage.getCurrentProcessingState().getState());
+        }
+        // Each accepted message must have its own copy of the payload
+        assertFalse(getPayloadLocation(results.get(0)).equals(getPayloadLocation(results.get(2))));
+    }
+
+    @Test
+    public void testSubmitInUnitOfWork() throws Exception {
+        final StorageManager storageManager = HolodeckB2BCore.getStorageManager();
+        final UserMessage received = createMessage(mmd.getPModeId());
+        received.setMessageId(MessageIdGenerator.createMessageId());
+        final List<UserMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 2; i++)
+            messages.add(createMessage(mmd.getPModeId()));
+
+        final List<ISubmissionResult> results;
+        storageManager.startUnitOfWork();
+        try {
+            storageManager.storeIncomingMessageUnit(received);
+            results = new MessageSubmitter().submitMessages(messages, false);
+
+            // The unit of work of the caller must not be ended by the submission
+            assertTrue(storageManager.isUnitOfWorkActive());
+        } finally {
+            storageManager.endUnitOfWork();
+        }
+
+        assertEquals(messages.size(), results.size());
+        for (final ISubmissionResult r : results) {
+            assertFalse(r.isAccepted());
+            assertNull(r.getMessageId());
+            assertNotNull(r.getRejectionReason());
+        }
+        assertEquals(1, HolodeckB2BCore.getQueryManager().getMessageUnitsWithId(received.getMessageId()).size());
+    }
+
+    @Test
+    public void testSubmitNoValidMessages() throws Exception {
+        final List<UserMessage> messages = new ArrayList<>();
+        messages.add(createMessage("unknown-pmode"));
+
+        final List<ISubmissionResult> results = new MessageSubmitter().submitMessages(messages, false);
+
+        assertEquals(1, results.size());
+        assertFalse(results.get(0).isAccepted());
+        assertNotNull(results.get(0).getRejectionReason());
+    }
+
+    @Test
+    public void testStoreFailureOnlyRejectsFailingMessage() throws Exception {
+        final IUpdateManager failing = spy(new DefaultProvider().getDAOFactory().getUpdateManager());
+        doThrow(new PersistenceException("test")).when(failing).storeMessageUnit(
+                                                                    argThat(new ArgumentMatcher<IMessageUnit>() {
+            @Override
+            public boolean matches(final IMessageUnit m) {
+                return m != null && FAIL_MARKER.equals(m.getRefToMessageId());
+            }
+        }));
+        core.setStorageManager(new StorageManager(failing));
+
+        final List<UserMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            messages.add(createMessage(mmd.getPModeId()));
+        messages.get(1).setRefToMessageId(FAIL_MARKER);
+
+        final List<ISubmissionResult> results = new MessageSubmitter().submitMessages(messages, false);
+
+        // The batch fails, but the messages are then stored separately so only the failing one is rejected
+        assertFalse(results.get(1).isAccepted());
+        assertNotNull(results.get(1).getRejectionReason());
+        for (final ISubmissionResult r : new ISubmissionResult[] { results.get(0), results.get(2) }) {
+            assertTrue(r.isAccepted());
+            assertEquals(ProcessingState.READY_TO_PUSH, getStoredState(r.getMessageId()));
+        }
+    }
+
+    @Test
+    public void testUpdateFailureSetsFailedAndMovesPayloadsBack() throws Exception {
+        final IUpdateManager failing = spy(new DefaultProvider().getDAOFactory().getUpdateManager());
+        doThrow(new PersistenceException("test")).when(failing).setPayloadInformation(
+                                                                argThat(new ArgumentMatcher<IUserMessageEntity>() {
+            @Override
+            public boolean matches(final IUserMessageEntity m) {
+                return m != null && FAIL_MARKER.equals(m.getRefToMessageId());
+            }
+        }), any(Collection.class));
+        core.setStorageManager(new StorageManager(failing));
+
+        final List<UserMessage> messages = new ArrayList<>();
+        final List<File> sources = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final File source = createPayloadFile();
+            sources.add(source);
+            messages.add(createMessage(mmd.getPModeId(), source));
+        }
+        messages.get(1).setRefToMessageId(FAIL_MARKER);
+
+        final List<ISubmissionResult> results = new MessageSubmitter().submitMessages(messages, true);
+
+        assertFalse(results.get(1).isAccepted());
+        assertNotNull(results.get(1).getRejectionReason());
+        assertEquals(ProcessingState.FAILURE, getStoredState(messages.get(1).getMessageId()));
+        // The payload of the rejected message must be moved back
+        assertTrue(sources.get(1).exists());
+        for (final int i : new int[] { 0, 2 }) {
+            assertTrue(results.get(i).isAccepted());
+            assertEquals(ProcessingState.READY_TO_PUSH, getStoredState(results.get(i).getMessageId()));
+            assertFalse(sources.get(i).exists());
+            assertNotNull(getPayloadLocation(results.get(i)));
+        }
+    }
+
+    @Test
+    public void testPayloadMoveFailureRestoresMovedPayloads() throws Exception {
+        // Both messages include the same file, so it can only be moved for one of them
+        final File shared = createPayloadFile();
+        final List<UserMessage> messages = new ArrayList<>();
+        final List<File> own = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            final File source = createPayloadFile();
+            own.add(source);
+            messages.add(createMessage(mmd.getPModeId(), source, shared));
+        }
+
+        final List<ISubmissionResult> results = new MessageSubmitter().submitMessages(messages, true);
+
+        assertTrue(results.get(0).isAccepted() ^ results.get(1).isAccepted());
+        final int accepted = results.get(0).isAccepted() ? 0 : 1;
+        final int rejected = 1 - accepted;
+        assertNotNull(results.get(rejected).getRejectionReason());
+        assertEquals(ProcessingState.FAILURE, getStoredState(messages.get(rejected).getMessageId()));
+        // The payload of the rejected message that may already be moved must be moved back
+        assertTrue(own.get(rejected).exists());
+        assertFalse(own.get(accepted).exists());
+        assertFalse(shared.exists());
+        assertEquals(ProcessingState.READY_TO_PUSH, getStoredState(results.get(accepted).getMessageId()));
+    }
+
+    private static UserMessage createMessage(final String pmodeId, final File... payloadFiles) {
+        final UserMessage um = new UserMessage(mmd);
+        um.setMessageId(MessageIdGenerator.createMessageId());
+        um.setPModeId(pmodeId);
+        final Collection<IPayload> payloads = new ArrayList<>();
+        for (final File f : payloadFiles) {
+            final Payload p = new Payload();
+            p.setContainment(IPayload.Containment.ATTACHMENT);
+            p.setMimeType("text/plain");
+            p.setContentLocation(f.getAbsolutePath());
+            payloads.add(p);
+        }
+        um.setPayloads(payloads);
+        return um;
+    }
+
+    private static File createPayloadFile() throws IOException {
+        final File f = File.createTempFile("submit-test-", ".txt");
+        Files.write(f.toPath(), "Payload content for test".getBytes());
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static ProcessingState getStoredState(final String messageId) throws Exception {
+        final Collection<IMessageUnitEntity> stored = HolodeckB2BCore.getQueryManager()
+                                                                     .getMessageUnitsWithId(messageId);
+        assertEquals(1, stored.size());
+        return stored.iterator().next().getCurrentProcessingState().getState();
+    }
+
+    private static UserMessage createMessage(final String pmodeId) {
+        final UserMessage um = new UserMessage(mmd);
+        um.setMessageId(null);
+        um.setPModeId(pmodeId);
+        // Only keep the payload contained in the message, as only those are copied to the internal storage
+        final Collection<IPayload> payloads = new ArrayList<>();
+        for (final IPayload p : um.getPayloads())
+            if (p.getContentLocation() != null)
+                payloads.add(p);
+        um.setPayloads(payloads);
+        return um;
+    }
+
+    private static String getPayloadLocation(final ISubmissionResult r) throws Exception {
+        final IMessageUnitEntity stored = HolodeckB2BCore.getQueryManager().getMessageUnitsWithId(r.getMessageId())
+                                                                          .iterator().next();
+        HolodeckB2BCore.getQueryManager().ensureCompletelyLoaded(stored);
+        for (final IPayload p : ((IUserMessage) stored).getPayloads())
+            if (p.getContentLocation() != null) {
+                assertTrue(new File(p.getContentLocation()).exists());
+                return p.getContentLocation();
+            }
+        return null;
+    }
+}
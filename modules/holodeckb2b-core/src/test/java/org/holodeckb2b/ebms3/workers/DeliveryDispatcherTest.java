@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.workers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.common.util.MessageIdGenerator;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.delivery.MessageDeliveryException;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.dao.IUpdateManager;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.module.HolodeckB2BCore;
+import org.holodeckb2b.persistency.DefaultProvider;
+import org.holodeckb2b.persistency.dao.StorageManager;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
+/**
+ * Tests that the {@link DeliveryDispatcher} delivers received user messages, retries failed deliveries with an
+ * increasing interval and delivers the user messages that were waiting when it is started.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class DeliveryDispatcherTest {
+
+    private static final long RETRY_INTERVAL = 100;
+
+    /**
+     * The times of the delivery attempts per message id
+     */
+    private final Map<String, List<Long>> attempts = new ConcurrentHashMap<>();
+
+    /**
+     * The number of attempts that should fail per message id
+     */
+    private final Map<String, Integer> failures = new ConcurrentHashMap<>();
+
+    private static HolodeckB2BTestCore core;
+
+    private DeliveryDispatcher  dispatcher;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        final String baseDir = DeliveryDispatcherTest.class.getClassLoader().getResource("handlers").getPath();
+        core = new HolodeckB2BTestCore(baseDir);
+        HolodeckB2BCoreInterface.setImplementation(core);
+    }
+
+    @After
+    public void tearDown() {
+        if (dispatcher != null)
+            dispatcher.shutdown();
+        core.setStorageManager(null);
+    }
+
+    @Test
+    public void testDelivered() throws Exception {
+        startDispatcher(3);
+        final IUserMessageEntity um = storeReceivedMessage();
+
+        dispatcher.readyForDelivery(um);
+
+        assertEquals(ProcessingState.DELIVERED, waitForFinalState(um.getMessageId(), 2000));
+        assertEquals(1, attempts.get(um.getMessageId()).size());
+    }
+
+    @Test
+    public void testRetrySucceeds() throws Exception {
+        startDispatcher(3);
+        final IUserMessageEntity um = storeReceivedMessage();
+        failures.put(um.getMessageId(), 1);
+
+        dispatcher.readyForDelivery(um);
+
+        assertEquals(ProcessingState.DELIVERED, waitForFinalState(um.getMessageId(), 2000));
+        final List<Long> times = attempts.get(um.getMessageId());
+        assertEquals(2, times.size());
+        assertTrue(times.get(1) - times.get(0) >= RETRY_INTERVAL);
+    }
+
+    @Test
+    public void testBackOffAndGiveUp() throws Exception {
+        startDispatcher(3);
+        final IUserMessageEntity um = storeReceivedMessage();
+        failures.put(um.getMessageId(), Integer.MAX_VALUE);
+
+        dispatcher.readyForDelivery(um);
+
+        assertEquals(ProcessingState.FAILURE, waitForFinalState(um.getMessageId(), 3000));
+        final List<Long> times = attempts.get(um.getMessageId());
+        assertEquals(3, times.size());
+        // The interval must double with each attempt
+        assertTrue(times.get(1) - times.get(0) >= RETRY_INTERVAL);
+        assertTrue(times.get(2) - times.get(1) >= 2 * RETRY_INTERVAL);
+    }
+
+    @Test
+    public void testRetriedAfterDatabaseError() throws Exception {
+        final IUserMessageEntity um = storeReceivedMessage();
+        // The first two attempts to start the delivery fail because of a database error
+        final IUpdateManager failing = spy(new DefaultProvider().getDAOFactory().getUpdateManager());
+        doThrow(new PersistenceException("test")).doThrow(new PersistenceException("test")).doCallRealMethod()
+                .when(failing).setProcessingState(argThat(new ArgumentMatcher<IMessageUnitEntity>() {
+                                                      @Override
+                                                      public boolean matches(final IMessageUnitEntity m) {
+                                                          return m != null
+                                                                 && um.getMessageId().equals(m.getMessageId());
+                                                      }
+                                                  }), any(ProcessingState.class), any(ProcessingState.class));
+        core.setStorageManager(new StorageManager(failing));
+        final long start = System.currentTimeMillis();
+
+        startDispatcher(3);
+
+        assertEquals(ProcessingState.DELIVERED, waitForFinalState(um.getMessageId(), 3000));
+        assertEquals(1, attempts.get(um.getMessageId()).size());
+        // The interval must double with each database error
+        assertTrue(attempts.get(um.getMessageId()).get(0) - start >= 3 * RETRY_INTERVAL);
+    }
+
+    @Test
+    public void testWaitingMessagesDeliveredAtStart() throws Exception {
+        final IUserMessageEntity um = storeReceivedMessage();
+
+        startDispatcher(3);
+
+        assertEquals(ProcessingState.DELIVERED, waitForFinalState(um.getMessageId(), 2000));
+        assertEquals(1, attempts.get(um.getMessageId()).size());
+    }
+
+    @Test
+    public void testOutgoingNotDelivered() throws Exception {
+        startDispatcher(3);
+        final UserMessage um = new UserMessage();
+        um.setPModeId("pm-delivery-test");
+        final IUserMessageEntity stored = HolodeckB2BCore.getStorageManager().storeOutGoingMessageUnit(um);
+
+        dispatcher.readyForDelivery(stored);
+
+        Thread.sleep(500);
+        assertTrue(!attempts.containsKey(stored.getMessageId()));
+    }
+
+    private void startDispatcher(final int maxAttempts) {
+        dispatcher = new DeliveryDispatcher(2, maxAttempts, RETRY_INTERVAL) {
+            @Override
+            protected void deliver(final IUserMessageEntity um) throws MessageDeliveryException {
+                List<Long> times = attempts.get(um.getMessageId());
+                if (times == null) {
+                    times = Collections.synchronizedList(new ArrayList<Long>());
+                    attempts.put(um.getMessageId(), times);
+                }
+                times.add(System.currentTimeMillis());
+                final Integer toFail = failures.get(um.getMessageId());
+                if (toFail != null && times.size() <= toFail)
+                    throw new MessageDeliveryException("Delivery failed for test");
+            }
+        };
+    }
+
+    private IUserMessageEntity storeReceivedMessage() throws Exception {
+        final UserMessage um = new UserMessage();
+        um.setMessageId(MessageIdGenerator.createMessageId());
+        um.setPModeId("pm-delivery-test");
+        final StorageManager storageManager = HolodeckB2BCore.getStorageManager();
+        final IUserMessageEntity stored = (IUserMessageEntity) storageManager.storeIncomingMessageUnit(um);
+        storageManager.setProcessingState(stored, ProcessingState.READY_FOR_DELIVERY);
+        return stored;
+    }
+
+    private ProcessingState waitForFinalState(final String messageId, final long timeout) throws Exception {
+        final long end = System.currentTimeMillis() + timeout;
+        ProcessingState state;
+        do {
+            Thread.sleep(50);
+            final IMessageUnitEntity um = HolodeckB2BCore.getQueryManager().getMessageUnitsWithId(messageId)
+                                                                          .iterator().next();
+            state = um.getCurrentProcessingState().getState();
+        } while ((state != ProcessingState.DELIVERED && state != ProcessingState.FAILURE)
+                 && System.currentTimeMillis() < end);
+        return state;
+    }
+}
@@ -16,298 +16,235 @@
  */
 package org.holodeckb2b.ebms3.workers;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import org.holodeckb2b.common.messagemodel.Payload;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.common.util.MessageIdGenerator;
+import org.holodeckb2b.common.util.Utils;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.core.testhelpers.TestEventProcessor;
+import org.holodeckb2b.core.testhelpers.TestUtils;
+import org.holodeckb2b.events.SyncEventProcessor;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEvent;
+import org.holodeckb2b.interfaces.events.types.IMessageUnitPurgedEvent;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.dao.IUpdateManager;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.module.HolodeckB2BCore;
+import org.holodeckb2b.persistency.DefaultProvider;
+import org.holodeckb2b.persistency.dao.StorageManager;
+import org.holodeckb2b.pmode.helpers.EventHandlerConfig;
+import org.holodeckb2b.pmode.helpers.Leg;
+import org.holodeckb2b.pmode.helpers.PMode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+import org.junit.After;
+import org.junit.BeforeClass;
 import org.junit.FixMethodOrder;
+import org.junit.Test;
 import org.junit.runners.MethodSorters;
+import org.mockito.ArgumentMatcher;
+import org.mockito.ArgumentMatchers;
 
 /**
+ * Tests the {@link PurgeOldMessagesWorker}. As the message units are stored just before the worker runs they are only
+ * expired when the worker is configured to purge after 0 days.
  *
- * @author Sander Fieten <sander at chasquis-services.com>
+ * @author Sander Fieten (sander at holodeck-b2b.org)
  */
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class PurgeOldMessagesWorkerTest {
 
-    //todo: Refactor based on new persistency interfaces!
-    
-//    private static final String PAYLOAD_1_FILE = "payload1.xml";
-//    private static final String PAYLOAD_1_MIMETYPE = "text/xml";
-//
-//    private static final String PAYLOAD_2_FILE = "payload2.jpg";
-//    private static final String PAYLOAD_2_MIMETYPE = "image/jpeg";
-//
-//    private static final String MSGID_1 = "um1-msg-id@test";
-//    private static final String MSGID_2 = "um2-msg-id@test";
-//    private static final String MSGID_3 = "um3-msg-id@test";
-//    private static final String MSGID_4 = "r1-msg-id@test";
-//    private static final String MSGID_5 = "e1-msg-id@test";
-//    private static final String MSGID_6 = "um6-msg-id@test";
-//
-//    private static String basePath = PurgeOldMessagesWorkerTest.class.getClassLoader().getResource("purgetest/").getPath();
-//
-//    public PurgeOldMessagesWorkerTest() {
-//    }
-//
-//
-//    @BeforeClass
-//    public static void setUpClass() {
-//        try {
-//            final EntityManager em = JPAUtil.getEntityManager();
-//
-//            em.getTransaction().begin();
-//
-//            UserMessage um;
-//            Path targetPath;
-//            ProcessingState state;
-//            Calendar stateTime = Calendar.getInstance();
-//
-//            // Ensure tmp directory is available
-//            new File(basePath + "tmp").mkdir();
-//
-//            um = new UserMessage();
-//            um.setMessageId(MSGID_1);
-//            targetPath = Paths.get(basePath, "tmp", "1-" + PAYLOAD_1_FILE);
-//            Files.copy(Paths.get(basePath, PAYLOAD_1_FILE), targetPath, StandardCopyOption.REPLACE_EXISTING);
-//            um.addPayload(new Payload(targetPath.toString(), PAYLOAD_1_MIMETYPE));
-//            targetPath = Paths.get(basePath, "tmp", "1-" + PAYLOAD_2_FILE);
-//            Files.copy(Paths.get(basePath, PAYLOAD_2_FILE), targetPath, StandardCopyOption.REPLACE_EXISTING);
-//            um.addPayload(new Payload(targetPath.toString(), PAYLOAD_2_MIMETYPE));
-//            state = new ProcessingState("TEST");
-//            stateTime.add(Calendar.DAY_OF_YEAR, -20);
-//            state.setStartTime(stateTime.getTime());
-//            um.setProcessingState(state);
-//            em.persist(um);
-//
-//            um = new UserMessage();
-//            um.setMessageId(MSGID_2);
-//            targetPath = Paths.get(basePath, "tmp", "2-" + PAYLOAD_1_FILE);
-//            um.addPayload(new Payload(targetPath.toString(), PAYLOAD_1_MIMETYPE));
-//            state = new ProcessingState("TEST");
-//            stateTime = Calendar.getInstance();
-//            stateTime.add(Calendar.DAY_OF_YEAR, -13);
-//            state.setStartTime(stateTime.getTime());
-//            um.setProcessingState(state);
-//            em.persist(um);
-//
-//            um = new UserMessage();
-//            um.setMessageId(MSGID_3);
-//            targetPath = Paths.get(basePath, "tmp", "3-" + PAYLOAD_1_FILE);
-//            Files.copy(Paths.get(basePath, PAYLOAD_1_FILE), targetPath, StandardCopyOption.REPLACE_EXISTING);
-//            um.addPayload(new Payload(targetPath.toString(), PAYLOAD_1_MIMETYPE));
-//            state = new ProcessingState("TEST");
-//            stateTime = Calendar.getInstance();
-//            stateTime.add(Calendar.DAY_OF_YEAR, -8);
-//            state.setStartTime(stateTime.getTime());
-//            um.setProcessingState(state);
-//            em.persist(um);
-//
-//            final Receipt rcpt = new Receipt();
-//            rcpt.setMessageId(MSGID_4);
-//            state = new ProcessingState("TEST");
-//            stateTime = Calendar.getInstance();
-//            stateTime.add(Calendar.DAY_OF_YEAR, -8);
-//            state.setStartTime(stateTime.getTime());
-//            rcpt.setProcessingState(state);
-//            final OMFactory factory = OMAbstractFactory.getOMFactory();
-//            final OMElement root = factory.createOMElement("root", null);
-//            final OMElement elt11 = factory.createOMElement("fakeContent",null);
-//            elt11.setText("No real Receipt");
-//            rcpt.setContent(root.getChildElements());
-//            em.persist(rcpt);
-//
-//            final ErrorMessage error = new ErrorMessage();
-//            error.setMessageId(MSGID_5);
-//            state = new ProcessingState("TEST");
-//            stateTime = Calendar.getInstance();
-//            stateTime.add(Calendar.DAY_OF_YEAR, -4);
-//            state.setStartTime(stateTime.getTime());
-//            error.setProcessingState(state);
-//            em.persist(error);
-//
-//            um = new UserMessage();
-//            um.setMessageId(MSGID_6);
-//            targetPath = Paths.get(basePath, "tmp", "6-" + PAYLOAD_1_FILE);
-//            Files.copy(Paths.get(basePath, PAYLOAD_1_FILE), targetPath, StandardCopyOption.REPLACE_EXISTING);
-//            um.addPayload(new Payload(targetPath.toString(), PAYLOAD_1_MIMETYPE));
-//            state = new ProcessingState("TEST");
-//            stateTime = Calendar.getInstance();
-//            stateTime.add(Calendar.DAY_OF_YEAR, -4);
-//            state.setStartTime(stateTime.getTime());
-//            um.setProcessingState(state);
-//            em.persist(um);
-//
-//            em.getTransaction().commit();
-//
-//            final List<MessageUnit> muInDB = em.createQuery("from MessageUnit", MessageUnit.class).getResultList();
-//            assertEquals(6, muInDB.size());
-//
-//            em.close();
-//        } catch (final Exception ex) {
-//            Logger.getLogger(PurgeOldMessagesWorkerTest.class.getName()).log(Level.SEVERE, "Could not setup test", ex);
-//            fail("Test could not be prepared!");
-//        }
-//    }
-//
-//    @Test
-//    public void test0_NaNPurgeDelay() {
-//        final PurgeOldMessagesWorker worker = new PurgeOldMessagesWorker();
-//
-//        final HashMap<String, Object> parameters = new HashMap<>();
-//        parameters.put(PurgeOldMessagesWorker.P_PURGE_AFTER_DAYS, "NaN");
-//        try {
-//            worker.setParameters(parameters);
-//        } catch (final Exception e) {
-//            fail("Worker did not accept wrong delay value");
-//        }
-//    }
-//
-//    @Test
-//    public void test0_NothingToPurge() throws PersistenceException {
-//        final PurgeOldMessagesWorker worker = new PurgeOldMessagesWorker();
-//
-//        worker.setParameters(null);
-//        try {
-//            worker.doProcessing();
-//        } catch (final InterruptedException ex) {
-//            Logger.getLogger(PurgeOldMessagesWorkerTest.class.getName()).log(Level.SEVERE, null, ex);
-//            fail("Exception during processing");
-//        }
-//
-//        final EntityManager em = JPAUtil.getEntityManager();
-//        final List<MessageUnit> muInDB = em.createQuery("from MessageUnit", MessageUnit.class).getResultList();
-//
-//        assertEquals(6, muInDB.size());
-//    }
-//
-//    @Test
-//    public void test1_OneToPurge() throws PersistenceException {
-//        final PurgeOldMessagesWorker worker = new PurgeOldMessagesWorker();
-//
-//        final HashMap<String, Object> parameters = new HashMap<>();
-//        parameters.put(PurgeOldMessagesWorker.P_PURGE_AFTER_DAYS, 15);
-//        worker.setParameters(parameters);
-//
-//        try {
-//            // Enable event processing
-//            final HolodeckB2BTestCore hb2bTestCore = new HolodeckB2BTestCore("");
-//            final TestEventProcessor eventProcessor = new TestEventProcessor();
-//            hb2bTestCore.setEventProcessor(eventProcessor);
-//            HolodeckB2BCoreInterface.setImplementation(hb2bTestCore);
-//
-//            worker.doProcessing();
-//
-//            assertTrue(eventProcessor.allPurgeEvents);
-//            assertEquals(1, eventProcessor.msgIdsPurged.size());
-//            assertEquals(MSGID_1, eventProcessor.msgIdsPurged.get(0));
-//        } catch (final Exception ex) {
-//            Logger.getLogger(PurgeOldMessagesWorkerTest.class.getName()).log(Level.SEVERE, null, ex);
-//            fail("Exception during processing");
-//        }
-//
-//        final EntityManager em = JPAUtil.getEntityManager();
-//        final List<MessageUnit> muInDB = em.createQuery("from MessageUnit", MessageUnit.class).getResultList();
-//
-//        assertEquals(5, muInDB.size());
-//
-//        boolean m1Deleted = true;
-//        for (final MessageUnit mu : muInDB)
-//            m1Deleted &= !MSGID_1.equals(mu.getMessageId());
-//        assertTrue(m1Deleted);
-//
-//        assertFalse(Paths.get(basePath, "tmp", "1-" + PAYLOAD_1_FILE).toFile().exists());
-//        assertFalse(Paths.get(basePath, "tmp", "2-" + PAYLOAD_2_FILE).toFile().exists());
-//    }
-//
-//    @Test
-//    public void test2_PayloadAlreadyRemoved() throws PersistenceException {
-//        final PurgeOldMessagesWorker worker = new PurgeOldMessagesWorker();
-//
-//        final HashMap<String, Object> parameters = new HashMap<>();
-//        parameters.put(PurgeOldMessagesWorker.P_PURGE_AFTER_DAYS, 10);
-//        worker.setParameters(parameters);
-//
-//        try {
-//            // Enable event processing
-//            final HolodeckB2BTestCore hb2bTestCore = new HolodeckB2BTestCore("");
-//            final TestEventProcessor eventProcessor = new TestEventProcessor();
-//            hb2bTestCore.setEventProcessor(eventProcessor);
-//            HolodeckB2BCoreInterface.setImplementation(hb2bTestCore);
-//
-//            worker.doProcessing();
-//
-//            assertTrue(eventProcessor.allPurgeEvents);
-//            assertEquals(1, eventProcessor.msgIdsPurged.size());
-//            assertEquals(MSGID_2, eventProcessor.msgIdsPurged.get(0));
-//        } catch (final Exception ex) {
-//            Logger.getLogger(PurgeOldMessagesWorkerTest.class.getName()).log(Level.SEVERE, null, ex);
-//            fail("Exception during processing");
-//        }
-//
-//        final EntityManager em = JPAUtil.getEntityManager();
-//        final List<MessageUnit> muInDB = em.createQuery("from MessageUnit", MessageUnit.class).getResultList();
-//
-//        assertEquals(4, muInDB.size());
-//
-//        boolean m2Deleted = true;
-//        for (final MessageUnit mu : muInDB)
-//            m2Deleted &= !MSGID_2.equals(mu.getMessageId());
-//
-//        assertTrue(m2Deleted);
-//    }
-//
-//    @Test
-//    public void test3_EventsOnlyForUserMsg() throws PersistenceException {
-//        final PurgeOldMessagesWorker worker = new PurgeOldMessagesWorker();
-//
-//        final HashMap<String, Object> parameters = new HashMap<>();
-//        parameters.put(PurgeOldMessagesWorker.P_PURGE_AFTER_DAYS, 5);
-//        worker.setParameters(parameters);
-//
-//        try {
-//            // Enable event processing
-//            final HolodeckB2BTestCore hb2bTestCore = new HolodeckB2BTestCore("");
-//            final TestEventProcessor eventProcessor = new TestEventProcessor();
-//            hb2bTestCore.setEventProcessor(eventProcessor);
-//            HolodeckB2BCoreInterface.setImplementation(hb2bTestCore);
-//
-//            worker.doProcessing();
-//
-//            assertTrue(eventProcessor.allPurgeEvents);
-//            assertEquals(1, eventProcessor.msgIdsPurged.size());
-//            assertEquals(MSGID_3, eventProcessor.msgIdsPurged.get(0));
-//        } catch (final Exception ex) {
-//            Logger.getLogger(PurgeOldMessagesWorkerTest.class.getName()).log(Level.SEVERE, null, ex);
-//            fail("Exception during processing");
-//        }
-//
-//        final EntityManager em = JPAUtil.getEntityManager();
-//        final List<MessageUnit> muInDB = em.createQuery("from MessageUnit", MessageUnit.class).getResultList();
-//
-//        assertEquals(2, muInDB.size());
-//
-//        boolean m3Deleted = true;
-//        boolean m4Deleted = true;
-//        for (final MessageUnit mu : muInDB) {
-//            m3Deleted &= !MSGID_3.equals(mu.getMessageId());
-//            m4Deleted &= !MSGID_4.equals(mu.getMessageId());
-//        }
-//        assertTrue(m3Deleted);
-//        assertTrue(m4Deleted);
-//
-//        assertFalse(Paths.get(basePath, "tmp", "3-" + PAYLOAD_1_FILE).toFile().exists());
-//    }
-//
-//    class TestEventProcessor implements IMessageProcessingEventProcessor {
-//
-//        boolean allPurgeEvents = false;
-//        ArrayList<String>   msgIdsPurged = new ArrayList<>();
-//
-//        @Override
-//        public void raiseEvent(final IMessageProcessingEvent event, final MessageContext msgContext) {
-//            allPurgeEvents = event instanceof IMessageUnitPurgedEvent;
-//            if (allPurgeEvents) {
-//                assertNotNull(event.getSubject());
-//                msgIdsPurged.add(event.getSubject().getMessageId());
-//            }
-//
-//        }
-//    }
+    /**
+     * Id of the P-Mode that configures a handler for the purge event
+     */
+    private static final String PMODE_WITH_HANDLER = "purge-event-pmode";
+
+    private static HolodeckB2BTestCore core;
+
+    private static Path payloadDir;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        final String baseDir = PurgeOldMessagesWorkerTest.class.getClassLoader().getResource("handlers").getPath();
+        core = new HolodeckB2BTestCore(baseDir);
+        HolodeckB2BCoreInterface.setImplementation(core);
+        payloadDir = Files.createTempDirectory("purgetest");
+        // Remove message units left by other tests so they are not purged including their payload files
+        TestUtils.cleanOldMessageUnitEntities();
+
+        final EventHandlerConfig handlerCfg = new EventHandlerConfig();
+        handlerCfg.setId("purge-event-handler");
+        handlerCfg.setHandledEvents(
+                Collections.<Class<? extends IMessageProcessingEvent>>singletonList(IMessageUnitPurgedEvent.class));
+        final Leg leg = new Leg();
+        leg.addMessageProcessingEventConfiguration(handlerCfg);
+        final PMode pmode = new PMode();
+        pmode.setId(PMODE_WITH_HANDLER);
+        pmode.addLeg(leg);
+        core.getPModeSet().add(pmode);
+    }
+
+    @After
+    public void tearDown() {
+        core.setStorageManager(null);
+        core.setEventProcessor(new SyncEventProcessor());
+    }
+
+    private List<IUserMessageEntity> storeUserMessages(final int n) throws PersistenceException, IOException {
+        return storeUserMessages(n, null);
+    }
+
+    private List<IUserMessageEntity> storeUserMessages(final int n, final String pmodeId)
+                                                                            throws PersistenceException, IOException {
+        final List<IUserMessageEntity> stored = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            final UserMessage um = new UserMessage();
+            um.setMessageId(MessageIdGenerator.createMessageId());
+            um.setPModeId(pmodeId);
+            final Payload pl = new Payload();
+            pl.setContentLocation(Files.createTempFile(payloadDir, "pl", ".dat").toString());
+            um.addPayload(pl);
+            stored.add((IUserMessageEntity) HolodeckB2BCore.getStorageManager().storeIncomingMessageUnit(um));
+        }
+        return stored;
+    }
+
+    private boolean isPurged(final IUserMessageEntity um) throws PersistenceException {
+        return Utils.isNullOrEmpty(HolodeckB2BCore.getQueryManager().getMessageUnitsWithId(um.getMessageId()));
+    }
+
+    @Test
+    public void test0_NaNPurgeDelay() throws Exception {
+        final List<IUserMessageEntity> stored = storeUserMessages(1);
+
+        final PurgeOldMessagesWorker worker = new PurgeOldMessagesWorker();
+
+        final HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put(PurgeOldMessagesWorker.P_PURGE_AFTER_DAYS, "NaN");
+        parameters.put(PurgeOldMessagesWorker.P_BATCH_SIZE, "-1");
+        worker.setParameters(parameters);
+        worker.doProcessing();
+
+        // The default of 30 days should be used, so the just stored message unit is not expired
+        assertFalse(isPurged(stored.get(0)));
+        assertEquals(1, payloadDir.toFile().list().length);
+    }
+
+    @Test
+    public void test1_PurgeInBatches() throws Exception {
+        final List<IUserMessageEntity> stored = storeUserMessages(5);
+
+        final PurgeOldMessagesWorker worker = new PurgeOldMessagesWorker();
+        final HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put(PurgeOldMessagesWorker.P_PURGE_AFTER_DAYS, 0);
+        parameters.put(PurgeOldMessagesWorker.P_BATCH_SIZE, 2);
+        parameters.put(PurgeOldMessagesWorker.P_BATCH_DELAY, 0);
+        worker.setParameters(parameters);
+        worker.doProcessing();
+
+        for (final IUserMessageEntity um : stored)
+            assertTrue(isPurged(um));
+        assertEquals(0, payloadDir.toFile().list().length);
+    }
+
+    @Test
+    public void test2_MaxBatchesPerRun() throws Exception {
+        final List<IUserMessageEntity> stored = storeUserMessages(5);
+
+        final PurgeOldMessagesWorker worker = new PurgeOldMessagesWorker();
+        final HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put(PurgeOldMessagesWorker.P_PURGE_AFTER_DAYS, 0);
+        parameters.put(PurgeOldMessagesWorker.P_BATCH_SIZE, 2);
+        parameters.put(PurgeOldMessagesWorker.P_BATCH_DELAY, 0);
+        parameters.put(PurgeOldMessagesWorker.P_MAX_BATCHES, 1);
+        worker.setParameters(parameters);
+        worker.doProcessing();
+
+        // Only the first batch with the oldest message units should be purged
+        assertTrue(isPurged(stored.get(0)));
+        assertTrue(isPurged(stored.get(1)));
+        for (int i = 2; i < 5; i++)
+            assertFalse(isPurged(stored.get(i)));
+        assertEquals(3, payloadDir.toFile().list().length);
+
+        // The next run purges the remaining ones
+        worker.doProcessing();
+        worker.doProcessing();
+        for (final IUserMessageEntity um : stored)
+            assertTrue(isPurged(um));
+        assertEquals(0, payloadDir.toFile().list().length);
+    }
+
+    @Test
+    public void test3_PurgedEventRaised() throws Exception {
+        final List<IUserMessageEntity> withHandler = storeUserMessages(2, PMODE_WITH_HANDLER);
+        final List<IUserMessageEntity> withoutHandler = storeUserMessages(1);
+
+        final TestEventProcessor eventProcessor = new TestEventProcessor();
+        core.setEventProcessor(eventProcessor);
+
+        final PurgeOldMessagesWorker worker = new PurgeOldMessagesWorker();
+        final HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put(PurgeOldMessagesWorker.P_PURGE_AFTER_DAYS, 0);
+        worker.setParameters(parameters);
+        worker.doProcessing();
+
+        assertTrue(isPurged(withoutHandler.get(0)));
+        // Only for the User Messages whose P-Mode configures a handler the event should be raised
+        assertEquals(2, eventProcessor.events.size());
+        for (int i = 0; i < 2; i++) {
+            final IMessageProcessingEvent event = eventProcessor.events.get(i);
+            assertTrue(isPurged(withHandler.get(i)));
+            assertTrue(event instanceof IMessageUnitPurgedEvent);
+            assertEquals(withHandler.get(i).getMessageId(), event.getSubject().getMessageId());
+        }
+    }
+
+    @Test
+    public void test4_OneByOneWhenBatchDeleteFails() throws Exception {
+        final List<IUserMessageEntity> stored = storeUserMessages(3);
+        final String failingMsgId = stored.get(1).getMessageId();
+
+        final IUpdateManager failing = spy(new DefaultProvider().getDAOFactory().getUpdateManager());
+        doThrow(new PersistenceException("test")).when(failing)
+                                        .deleteMessageUnits(ArgumentMatchers.<IMessageUnitEntity>anyCollection());
+        doThrow(new PersistenceException("test")).when(failing).deleteMessageUnit(
+                                                                argThat(new ArgumentMatcher<IMessageUnitEntity>() {
+            @Override
+            public boolean matches(final IMessageUnitEntity m) {
+                return m != null && failingMsgId.equals(m.getMessageId());
+            }
+        }));
+        core.setStorageManager(new StorageManager(failing));
+
+        final PurgeOldMessagesWorker worker = new PurgeOldMessagesWorker();
+        final HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put(PurgeOldMessagesWorker.P_PURGE_AFTER_DAYS, 0);
+        worker.setParameters(parameters);
+        worker.doProcessing();
+
+        // The other message units should still be removed when removing the batch at once fails
+        assertTrue(isPurged(stored.get(0)));
+        assertFalse(isPurged(stored.get(1)));
+        assertTrue(isPurged(stored.get(2)));
+
+        // Without the database problem the remaining message unit is purged in the next run
+        core.setStorageManager(null);
+        worker.doProcessing();
+        assertTrue(isPurged(stored.get(1)));
+        assertEquals(0, payloadDir.toFile().list().length);
+    }
 }
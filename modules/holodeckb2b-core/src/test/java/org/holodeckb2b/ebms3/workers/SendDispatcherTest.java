@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.workers;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.namespace.QName;
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.holodeckb2b.common.messagemodel.Receipt;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.persistency.entities.IReceiptEntity;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.module.HolodeckB2BCore;
+import org.holodeckb2b.persistency.DefaultProvider;
+import org.holodeckb2b.persistency.dao.StorageManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the {@link SendDispatcher} starts the send process directly when a message unit becomes ready to push and
+ * that it limits the number of parallel sends per destination.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class SendDispatcherTest {
+
+    private static final long MAX_LATENCY = 1000;
+
+    private final BlockingQueue<IMessageUnitEntity> sent = new LinkedBlockingQueue<>();
+
+    private SendDispatcher  dispatcher;
+    private StorageManager  storageManager;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        final String baseDir = SendDispatcherTest.class.getClassLoader().getResource("handlers").getPath();
+        HolodeckB2BCoreInterface.setImplementation(new HolodeckB2BTestCore(baseDir));
+    }
+
+    @Before
+    public void setUp() {
+        dispatcher = new SendDispatcher(10, 2) {
+            @Override
+            protected void send(final IMessageUnitEntity msgUnit) {
+                sent.add(msgUnit);
+            }
+        };
+        storageManager = new StorageManager(new DefaultProvider().getDAOFactory().getUpdateManager(),
+                                            handOversTo(dispatcher));
+    }
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testSubmittedMessageDispatched() throws Exception {
+        final UserMessage um = new UserMessage();
+        um.setPModeId("pm-dispatch-test");
+        final IUserMessageEntity stored = storageManager.storeOutGoingMessageUnit(um);
+
+        final long start = System.currentTimeMillis();
+        assertTrue(storageManager.setProcessingState(stored, ProcessingState.SUBMITTED,
+                                                     ProcessingState.READY_TO_PUSH));
+        final IMessageUnitEntity dispatched = sent.poll(MAX_LATENCY, TimeUnit.MILLISECONDS);
+        final long latency = System.currentTimeMillis() - start;
+
+        assertNotNull(dispatched);
+        assertTrue("Latency too high: " + latency + "ms", latency < MAX_LATENCY);
+        assertEquals(stored.getMessageId(), dispatched.getMessageId());
+        assertEquals(ProcessingState.READY_TO_PUSH, dispatched.getCurrentProcessingState().getState());
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    public void testReceiptDispatched() throws Exception {
+        final Receipt rcpt = new Receipt();
+        rcpt.setPModeId("pm-dispatch-test");
+        final ArrayList<OMElement> content = new ArrayList<>();
+        content.add(OMAbstractFactory.getOMFactory().createOMElement(new QName("ReceiptContent")));
+        rcpt.setContent(content);
+        final IReceiptEntity stored = storageManager.storeOutGoingMessageUnit(rcpt);
+        storageManager.setProcessingState(stored, ProcessingState.READY_TO_PUSH);
+
+        final IMessageUnitEntity dispatched = sent.poll(MAX_LATENCY, TimeUnit.MILLISECONDS);
+        assertNotNull(dispatched);
+        assertTrue(dispatched instanceof IReceiptEntity);
+        assertEquals(stored.getMessageId(), dispatched.getMessageId());
+    }
+
+    @Test
+    public void testNotDispatchedWhenNoLongerReady() throws Exception {
+        final UserMessage um = new UserMessage();
+        um.setPModeId("pm-dispatch-test");
+        final IUserMessageEntity stored = storageManager.storeOutGoingMessageUnit(um);
+
+        // Use a storage manager without dispatcher to simulate a message that is already taken by the SenderWorker
+        final StorageManager noDispatch = new StorageManager(new DefaultProvider().getDAOFactory().getUpdateManager());
+        noDispatch.setProcessingState(stored, ProcessingState.READY_TO_PUSH);
+        noDispatch.setProcessingState(stored, ProcessingState.PROCESSING);
+        dispatcher.readyToPush(stored);
+
+        assertNull(sent.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testIncomingNotDispatched() throws Exception {
+        final UserMessage um = new UserMessage();
+        um.setMessageId("incoming-dispatch-test@holodeck-b2b.org");
+        um.setPModeId("pm-dispatch-test");
+        final IUserMessageEntity stored = storageManager.storeIncomingMessageUnit(um);
+        storageManager.setProcessingState(stored, ProcessingState.READY_TO_PUSH);
+
+        assertNull(sent.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testSlowDestinationDoesNotBlockOthers() throws Exception {
+        dispatcher.shutdown();
+
+        final CountDownLatch slowReleased = new CountDownLatch(1);
+        final ConcurrentHashMap<String, AtomicInteger> running = new ConcurrentHashMap<>();
+        final AtomicInteger maxSlowRunning = new AtomicInteger();
+        dispatcher = new SendDispatcher(4, 2) {
+            @Override
+            protected void send(final IMessageUnitEntity msgUnit) throws PersistenceException {
+                final String dest = msgUnit.getPModeId();
+                running.putIfAbsent(dest, new AtomicInteger());
+                final int n = running.get(dest).incrementAndGet();
+                try {
+                    if ("pm-slow".equals(dest)) {
+                        synchronized (maxSlowRunning) {
+                            maxSlowRunning.set(Math.max(maxSlowRunning.get(), n));
+                        }
+                        slowReleased.await(10, TimeUnit.SECONDS);
+                    }
+                    // Claim the message unit like the real send process does
+                    if (storageManager.setProcessingState(msgUnit, ProcessingState.READY_TO_PUSH,
+                                                           ProcessingState.PROCESSING))
+                        sent.add(msgUnit);
+                } catch (final InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    running.get(dest).decrementAndGet();
+                }
+            }
+        };
+        storageManager = new StorageManager(new DefaultProvider().getDAOFactory().getUpdateManager(),
+                                            handOversTo(dispatcher));
+
+        final Set<String> slowIds = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            final UserMessage um = new UserMessage();
+            um.setPModeId("pm-slow");
+            final IUserMessageEntity stored = storageManager.storeOutGoingMessageUnit(um);
+            slowIds.add(stored.getMessageId());
+            storageManager.setProcessingState(stored, ProcessingState.READY_TO_PUSH);
+        }
+        final UserMessage um = new UserMessage();
+        um.setPModeId("pm-fast");
+        final IUserMessageEntity fast = storageManager.storeOutGoingMessageUnit(um);
+        storageManager.setProcessingState(fast, ProcessingState.READY_TO_PUSH);
+
+        // The message to the fast destination must be sent while the slow destination is blocked
+        final IMessageUnitEntity first = sent.poll(MAX_LATENCY, TimeUnit.MILLISECONDS);
+        assertNotNull(first);
+        assertEquals(fast.getMessageId(), first.getMessageId());
+        assertEquals(2, maxSlowRunning.get());
+
+        // Queue one of the slow messages again, as the SenderWorker would, which must not lead to a second send
+        dispatcher.readyToPush(HolodeckB2BCore.getQueryManager()
+                                              .getMessageUnitsWithId(slowIds.iterator().next()).iterator().next());
+
+        slowReleased.countDown();
+        final Set<String> sentSlow = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            final IMessageUnitEntity s = sent.poll(5, TimeUnit.SECONDS);
+            assertNotNull(s);
+            assertTrue(sentSlow.add(s.getMessageId()));
+        }
+        assertEquals(slowIds, sentSlow);
+        assertNull(sent.poll(500, TimeUnit.MILLISECONDS));
+        assertEquals(2, maxSlowRunning.get());
+    }
+
+    @Test
+    public void testFullDispatcherDoesNotAccept() throws Exception {
+        dispatcher.shutdown();
+
+        final CountDownLatch released = new CountDownLatch(1);
+        dispatcher = new SendDispatcher(1, 1, 1) {
+            @Override
+            protected void send(final IMessageUnitEntity msgUnit) {
+                try {
+                    released.await(10, TimeUnit.SECONDS);
+                } catch (final InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                sent.add(msgUnit);
+            }
+        };
+        final StorageManager noDispatch = new StorageManager(new DefaultProvider().getDAOFactory().getUpdateManager());
+        final IMessageUnitEntity[] ready = new IMessageUnitEntity[3];
+        for (int i = 0; i < ready.length; i++) {
+            final UserMessage um = new UserMessage();
+            um.setPModeId("pm-dispatch-full");
+            ready[i] = noDispatch.storeOutGoingMessageUnit(um);
+            noDispatch.setProcessingState(ready[i], ProcessingState.READY_TO_PUSH);
+        }
+
+        // The first message unit is taken by the only sender thread, the second waits for it
+        assertTrue(dispatcher.readyToPush(ready[0]));
+        final long deadline = System.currentTimeMillis() + MAX_LATENCY;
+        while (dispatcher.isFull() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue(dispatcher.readyToPush(ready[1]));
+        assertTrue(dispatcher.isFull());
+        // The dispatcher is full, so the third message unit is not accepted
+        assertFalse(dispatcher.readyToPush(ready[2]));
+
+        released.countDown();
+        assertEquals(ready[0].getMessageId(), sent.poll(5, TimeUnit.SECONDS).getMessageId());
+        assertEquals(ready[1].getMessageId(), sent.poll(5, TimeUnit.SECONDS).getMessageId());
+        assertNull(sent.poll(500, TimeUnit.MILLISECONDS));
+        // Now there is room again the third message unit is accepted
+        assertTrue(dispatcher.readyToPush(ready[2]));
+        assertEquals(ready[2].getMessageId(), sent.poll(5, TimeUnit.SECONDS).getMessageId());
+    }
+
+    private static StorageManager.HandOvers handOversTo(final SendDispatcher dispatcher) {
+        final StorageManager.HandOvers handOvers = new StorageManager.HandOvers();
+        handOvers.setSendDispatcher(dispatcher);
+        return handOvers;
+    }
+}
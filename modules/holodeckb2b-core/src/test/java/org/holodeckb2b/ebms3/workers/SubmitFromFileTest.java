@@ -25,7 +25,12 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -67,6 +72,82 @@ public class SubmitFromFileTest {
         assertEquals(1, worker.c);
     }
 
+    @Test
+    public void testParallelSubmission() throws Exception {
+        final Path dir = Files.createTempDirectory("submitfromfiletest");
+        final int files = 40;
+        for (int i = 0; i < files; i++)
+            Files.createFile(dir.resolve("msg-" + i + ".mmd"));
+
+        final ConcurrentMap<String, AtomicInteger> submitted = new ConcurrentHashMap<>();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final HashMap<String, Object> params = new HashMap<>();
+        params.put("watchPath", dir.toString());
+        params.put("parallelSubmissions", "4");
+        // Two instances watching the same directory may never submit the same file
+        final CountingSubmitFromFile worker1 = new CountingSubmitFromFile(submitted, running, maxRunning);
+        final CountingSubmitFromFile worker2 = new CountingSubmitFromFile(submitted, running, maxRunning);
+        worker1.setParameters(params);
+        worker2.setParameters(params);
+
+        final Thread t1 = new Thread(worker1);
+        final Thread t2 = new Thread(worker2);
+        t1.start(); t2.start();
+        t1.join(); t2.join();
+
+        assertEquals(files, submitted.size());
+        for (final AtomicInteger count : submitted.values())
+            assertEquals(1, count.get());
+        assertTrue(maxRunning.get() > 1);
+        for (int i = 0; i < files; i++) {
+            assertFalse(Files.exists(dir.resolve("msg-" + i + ".mmd")));
+            assertTrue(Files.exists(dir.resolve("msg-" + i + ".processing")));
+            Files.delete(dir.resolve("msg-" + i + ".processing"));
+        }
+        Files.delete(dir);
+    }
+
+    @Test(expected = TaskConfigurationException.class)
+    public void testInvalidParallelSubmissions() throws Exception {
+        HashMap<String, Object> params = new HashMap<>();
+        params.put("watchPath", basePath);
+        params.put("parallelSubmissions", "0");
+        worker.setParameters(params);
+    }
+
+    /**
+     * Records the submitted files instead of submitting them and keeps track of the number of parallel submissions.
+     */
+    static class CountingSubmitFromFile extends SubmitFromFile {
+        private final ConcurrentMap<String, AtomicInteger> submitted;
+        private final AtomicInteger running;
+        private final AtomicInteger maxRunning;
+
+        CountingSubmitFromFile(final ConcurrentMap<String, AtomicInteger> submitted, final AtomicInteger running,
+                               final AtomicInteger maxRunning) {
+            this.submitted = submitted;
+            this.running = running;
+            this.maxRunning = maxRunning;
+        }
+
+        @Override
+        protected void submitFile(final File f, final String bFileName) {
+            final int now = running.incrementAndGet();
+            int max;
+            while ((max = maxRunning.get()) < now && !maxRunning.compareAndSet(max, now));
+            final AtomicInteger count = new AtomicInteger();
+            final AtomicInteger existing = submitted.putIfAbsent(bFileName, count);
+            (existing != null ? existing : count).incrementAndGet();
+            try {
+                Thread.sleep(20);
+            } catch (final InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+        }
+    }
+
     class SubmitFromFileImpl extends SubmitFromFile {
         public int c = 0;
 
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.events;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEvent;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventHandler;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventHandlerFactory;
+import org.holodeckb2b.interfaces.pmode.ILeg;
+import org.holodeckb2b.pmode.helpers.EventHandlerConfig;
+import org.holodeckb2b.pmode.helpers.Leg;
+import org.holodeckb2b.pmode.helpers.PMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link AsyncEventProcessor}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class AsyncEventProcessorTest {
+
+    private static final String PMODE_ID = "pm-async-events";
+
+    /**
+     * The threads on which the test handler processed the events
+     */
+    static final BlockingQueue<String> handledOn = new LinkedBlockingQueue<>();
+
+    /**
+     * The number of times the test handler factory was initialized
+     */
+    static final AtomicInteger factoryInits = new AtomicInteger();
+
+    /**
+     * When set the test handler waits until the latch is released
+     */
+    static volatile CountDownLatch handlerBlock;
+
+    private AsyncEventProcessor processor;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        final String baseDir = AsyncEventProcessorTest.class.getClassLoader().getResource("handlers").getPath();
+        final HolodeckB2BTestCore core = new HolodeckB2BTestCore(baseDir);
+        HolodeckB2BCoreInterface.setImplementation(core);
+
+        final EventHandlerConfig handlerCfg = new EventHandlerConfig();
+        handlerCfg.setFactoryClass(TestHandlerFactory.class.getName());
+        final Leg leg = new Leg();
+        leg.setLabel(ILeg.Label.REQUEST);
+        leg.addMessageProcessingEventConfiguration(handlerCfg);
+        final PMode pmode = new PMode();
+        pmode.setId(PMODE_ID);
+        pmode.addLeg(leg);
+        core.getPModeSet().add(pmode);
+    }
+
+    @Before
+    public void setUp() {
+        handledOn.clear();
+        factoryInits.set(0);
+        handlerBlock = null;
+    }
+
+    @After
+    public void tearDown() {
+        if (handlerBlock != null)
+            handlerBlock.countDown();
+        if (processor != null)
+            processor.shutdown();
+    }
+
+    @Test
+    public void testProcessedOnOtherThread() throws Exception {
+        processor = new AsyncEventProcessor(10, 2, AsyncEventProcessor.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 5; i++)
+            processor.raiseEvent(createEvent(), null);
+
+        for (int i = 0; i < 5; i++) {
+            final String thread = handledOn.poll(1, TimeUnit.SECONDS);
+            assertNotNull(thread);
+            assertTrue(thread.startsWith("hb2b-event-processor-"));
+        }
+        // The factory is created only once
+        assertEquals(1, factoryInits.get());
+    }
+
+    @Test
+    public void testRaiseDoesNotWaitForHandler() throws Exception {
+        processor = new AsyncEventProcessor(10, 1, AsyncEventProcessor.OverflowPolicy.BLOCK);
+        handlerBlock = new CountDownLatch(1);
+
+        final long start = System.currentTimeMillis();
+        processor.raiseEvent(createEvent(), null);
+        assertTrue(System.currentTimeMillis() - start < 500);
+        assertNull(handledOn.poll(200, TimeUnit.MILLISECONDS));
+
+        handlerBlock.countDown();
+        assertNotNull(handledOn.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testOverflowDrop() throws Exception {
+        processor = new AsyncEventProcessor(1, 1, AsyncEventProcessor.OverflowPolicy.DROP);
+        handlerBlock = new CountDownLatch(1);
+
+        // First event is taken by the thread, second fills the queue, third is dropped
+        processor.raiseEvent(createEvent(), null);
+        Thread.sleep(200);
+        processor.raiseEvent(createEvent(), null);
+        processor.raiseEvent(createEvent(), null);
+        assertEquals(1, processor.getDroppedEvents());
+
+        handlerBlock.countDown();
+        assertNotNull(handledOn.poll(1, TimeUnit.SECONDS));
+        assertNotNull(handledOn.poll(1, TimeUnit.SECONDS));
+        assertNull(handledOn.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testOverflowInline() throws Exception {
+        processor = new AsyncEventProcessor(1, 1, AsyncEventProcessor.OverflowPolicy.INLINE);
+        handlerBlock = new CountDownLatch(1);
+
+        // First event is taken by the thread, second fills the queue, third is processed by this thread
+        processor.raiseEvent(createEvent(), null);
+        Thread.sleep(200);
+        processor.raiseEvent(createEvent(), null);
+        processor.raiseEvent(createEvent(), null);
+        assertEquals(Thread.currentThread().getName(), handledOn.poll(100, TimeUnit.MILLISECONDS));
+
+        handlerBlock.countDown();
+        assertNotNull(handledOn.poll(1, TimeUnit.SECONDS));
+        assertNotNull(handledOn.poll(1, TimeUnit.SECONDS));
+        assertEquals(0, processor.getDroppedEvents());
+    }
+
+    @Test
+    public void testShutdownDrainsQueue() throws Exception {
+        processor = new AsyncEventProcessor(100, 1, AsyncEventProcessor.OverflowPolicy.BLOCK);
+        handlerBlock = new CountDownLatch(1);
+        for (int i = 0; i < 10; i++)
+            processor.raiseEvent(createEvent(), null);
+        assertTrue(handledOn.isEmpty());
+
+        handlerBlock.countDown();
+        processor.shutdown();
+        assertEquals(10, handledOn.size());
+
+        // Events raised after shutdown are processed directly
+        handledOn.clear();
+        processor.raiseEvent(createEvent(), null);
+        assertEquals(Thread.currentThread().getName(), handledOn.poll(1, TimeUnit.SECONDS));
+    }
+
+    private static IMessageProcessingEvent createEvent() {
+        final UserMessage um = new UserMessage();
+        um.setMessageId("async-event-test@holodeck-b2b.org");
+        um.setPModeId(PMODE_ID);
+        return new MessageUnitPurgedEvent(um);
+    }
+
+    public static class TestHandlerFactory implements IMessageProcessingEventHandlerFactory<TestHandler> {
+
+        @Override
+        public void init(final Map<String, ?> settings) {
+            factoryInits.incrementAndGet();
+        }
+
+        @Override
+        public TestHandler createHandler() {
+            return new TestHandler();
+        }
+    }
+
+    public static class TestHandler implements IMessageProcessingEventHandler {
+
+        @Override
+        public void handleEvent(final IMessageProcessingEvent event) {
+            final CountDownLatch block = handlerBlock;
+            // Only block the event processing threads so events processed inline are handled directly
+            if (block != null && Thread.currentThread().getName().startsWith("hb2b-event-processor-"))
+                try {
+                    block.await(5, TimeUnit.SECONDS);
+                } catch (final InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            handledOn.add(Thread.currentThread().getName());
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.metrics;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import org.holodeckb2b.interfaces.metrics.IGauge;
+import org.holodeckb2b.metrics.DefaultMetricsRegistry.CounterMXBean;
+import org.holodeckb2b.metrics.DefaultMetricsRegistry.GaugeMXBean;
+import org.holodeckb2b.metrics.DefaultMetricsRegistry.Timer;
+import org.holodeckb2b.metrics.DefaultMetricsRegistry.TimerMXBean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link DefaultMetricsRegistry}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class DefaultMetricsRegistryTest {
+
+    private MBeanServer             mbeanServer;
+    private DefaultMetricsRegistry  registry;
+
+    @Before
+    public void setUp() {
+        mbeanServer = MBeanServerFactory.newMBeanServer();
+        registry = new DefaultMetricsRegistry(mbeanServer);
+    }
+
+    @After
+    public void tearDown() {
+        registry.shutdown();
+    }
+
+    @Test
+    public void testCounter() throws Exception {
+        assertTrue(registry.isEnabled());
+
+        for (int i = 0; i < 5; i++)
+            registry.incrementCounter("messages.received");
+
+        assertEquals(5, ((CounterMXBean) registry.getMetric("messages.received")).getCount());
+        assertEquals(5L, mbeanServer.getAttribute(DefaultMetricsRegistry.getObjectName("messages.received"), "Count"));
+    }
+
+    @Test
+    public void testTimer() throws Exception {
+        for (int i = 1; i <= 100; i++)
+            registry.recordTime("handler.Test", i * 1000000L);
+
+        final TimerMXBean timer = (TimerMXBean) registry.getMetric("handler.Test");
+        assertEquals(100, timer.getCount());
+        assertEquals(50.5, timer.getMean(), 0.001);
+        assertEquals(100.0, timer.getMax(), 0.001);
+        // The percentiles are estimates that are at most 25% too high
+        assertTrue(timer.get50thPercentile() >= 50 && timer.get50thPercentile() <= 50 * 1.25);
+        assertTrue(timer.get95thPercentile() >= 95 && timer.get95thPercentile() <= 100);
+        assertTrue(timer.get99thPercentile() >= 99 && timer.get99thPercentile() <= 100);
+
+        assertEquals(100L, mbeanServer.getAttribute(DefaultMetricsRegistry.getObjectName("handler.Test"), "Count"));
+    }
+
+    @Test
+    public void testTimerBuckets() {
+        long previous = -1;
+        for (int bucket = 0; bucket < Timer.BUCKETS; bucket++) {
+            final long upper = Timer.upperBoundOf(bucket);
+            if (bucket >= 4 && bucket < 8)
+                continue; // these buckets are not used
+            assertTrue(upper > previous);
+            assertEquals(bucket, Timer.bucketOf(upper));
+            assertEquals(bucket, Timer.bucketOf(previous + 1));
+            previous = upper;
+        }
+        assertEquals(Long.MAX_VALUE, previous);
+    }
+
+    @Test
+    public void testGauge() throws Exception {
+        registry.registerGauge("state.READY_TO_PUSH", new IGauge() {
+            @Override
+            public long getValue() {
+                return 42;
+            }
+        });
+        assertEquals(42, ((GaugeMXBean) registry.getMetric("state.READY_TO_PUSH")).getValue());
+
+        // Registering again replaces the gauge
+        registry.registerGauge("state.READY_TO_PUSH", new IGauge() {
+            @Override
+            public long getValue() {
+                return 7;
+            }
+        });
+        assertEquals(7L, mbeanServer.getAttribute(DefaultMetricsRegistry.getObjectName("state.READY_TO_PUSH"),
+                                                  "Value"));
+    }
+
+    @Test
+    public void testQuotedName() throws Exception {
+        registry.incrementCounter("worker.name=with,special:chars");
+
+        final ObjectName name = DefaultMetricsRegistry.getObjectName("worker.name=with,special:chars");
+        assertTrue(mbeanServer.isRegistered(name));
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        registry.incrementCounter("messages.sent");
+        registry.recordTime("send.time", 1000);
+        final ObjectName name = DefaultMetricsRegistry.getObjectName("messages.sent");
+        assertTrue(mbeanServer.isRegistered(name));
+
+        registry.shutdown();
+
+        assertFalse(mbeanServer.isRegistered(name));
+        assertFalse(mbeanServer.isRegistered(DefaultMetricsRegistry.getObjectName("send.time")));
+        assertNull(registry.getMetric("messages.sent"));
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.pmode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.holodeckb2b.interfaces.general.EbMSConstants;
+import org.holodeckb2b.interfaces.pmode.IPMode;
+import org.holodeckb2b.interfaces.pmode.PModeSetException;
+import org.holodeckb2b.pmode.helpers.Leg;
+import org.holodeckb2b.pmode.helpers.PMode;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the copy-on-write behaviour of the {@link InMemoryPModeSet}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class InMemoryPModeSetTest {
+
+    private static final int NUM_PMODES = 50;
+    private static final int NUM_READERS = 4;
+    private static final long TEST_DURATION = 2000;
+
+    @Test
+    public void testSnapshotNotAffectedByChanges() throws PModeSetException {
+        final InMemoryPModeSet set = new InMemoryPModeSet();
+        set.add(createPMode("pm-1"));
+        set.add(createPMode("pm-2"));
+
+        final Collection<IPMode> snapshot = set.getAll();
+        set.remove("pm-1");
+        set.add(createPMode("pm-3"));
+
+        assertEquals(2, snapshot.size());
+        assertEquals(2, set.getAll().size());
+        assertFalse(set.containsId("pm-1"));
+        try {
+            snapshot.clear();
+            fail("Snapshot should not be modifiable");
+        } catch (final UnsupportedOperationException expected) {
+            // Okay
+        }
+    }
+
+    @Test
+    public void testUpdateIsAllOrNothing() throws PModeSetException {
+        final InMemoryPModeSet set = new InMemoryPModeSet();
+        final IPMode pm1 = createPMode("pm-1");
+        set.add(pm1);
+        set.add(createPMode("pm-2"));
+
+        final List<IPMode> add = new ArrayList<>();
+        add.add(createPMode("pm-3"));
+        add.add(createPMode("pm-2"));
+        try {
+            set.update(Collections.singletonList("pm-1"), add);
+            fail("Duplicate id should be rejected");
+        } catch (final PModeSetException expected) {
+            // Okay
+        }
+        assertSame(pm1, set.get("pm-1"));
+        assertNull(set.get("pm-3"));
+
+        final IPMode newPm1 = createPMode("pm-1");
+        final String[] ids = set.update(Collections.singletonList("pm-1"), Collections.singletonList(newPm1));
+        assertEquals(1, ids.length);
+        assertEquals("pm-1", ids[0]);
+        assertSame(newPm1, set.get("pm-1"));
+        assertEquals(2, set.getAll().size());
+    }
+
+    @Test
+    public void testManagerUpdateRejectsDuplicates() throws PModeSetException {
+        final PModeManager manager = new PModeManager(null, null);
+        manager.add(createPMode("pm-1"));
+
+        final List<IPMode> add = new ArrayList<>();
+        final IPMode dup = createPMode("pm-1");
+        add.add(dup);
+        add.add(createPMode("pm-2"));
+        final Map<IPMode, PModeSetException> rejected = manager.update(null, add);
+
+        assertEquals(1, rejected.size());
+        assertTrue(rejected.containsKey(dup));
+        assertTrue(manager.containsId("pm-2"));
+        assertTrue(manager.get("pm-1") != dup);
+    }
+
+    @Test
+    public void testNoMissedLookupsDuringReload() throws Exception {
+        final PModeManager manager = new PModeManager(null, null);
+        final List<String> ids = new ArrayList<>();
+        for (int i = 0; i < NUM_PMODES; i++) {
+            final String id = "pm-stress-" + i;
+            manager.add(createPMode(id));
+            ids.add(id);
+        }
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong lookups = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong reloads = new AtomicLong();
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int r = 0; r < NUM_READERS; r++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int i = 0;
+                    while (running.get()) {
+                        final String id = ids.get(i++ % NUM_PMODES);
+                        if (manager.get(id) == null || !manager.containsId(id))
+                            misses.incrementAndGet();
+                        if (manager.getAll().size() != NUM_PMODES)
+                            misses.incrementAndGet();
+                        lookups.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        // The writer continuously reloads P-Modes, both single ones and the complete set
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int i = 0;
+                try {
+                    while (running.get()) {
+                        if (i % 10 == 0) {
+                            final List<IPMode> all = new ArrayList<>();
+                            for (final String id : ids)
+                                all.add(createPMode(id));
+                            manager.update(ids, all);
+                        } else {
+                            final String id = ids.get(i % NUM_PMODES);
+                            manager.update(Collections.singletonList(id),
+                                           Collections.<IPMode>singletonList(createPMode(id)));
+                        }
+                        i++;
+                        reloads.incrementAndGet();
+                    }
+                } catch (final PModeSetException ex) {
+                    misses.incrementAndGet();
+                }
+            }
+        }));
+
+        for (final Thread t : threads)
+            t.start();
+        Thread.sleep(TEST_DURATION);
+        running.set(false);
+        for (final Thread t : threads)
+            t.join();
+
+        assertTrue(lookups.get() > 0);
+        assertTrue(reloads.get() > 0);
+        assertEquals(0, misses.get());
+    }
+
+    private static IPMode createPMode(final String id) {
+        final PMode p = new PMode();
+        p.setId(id);
+        p.setMep(EbMSConstants.ONE_WAY_MEP);
+        p.setMepBinding(EbMSConstants.ONE_WAY_PUSH);
+        p.addLeg(new Leg());
+        return p;
+    }
+}
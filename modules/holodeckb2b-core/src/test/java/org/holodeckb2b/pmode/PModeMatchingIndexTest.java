@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.pmode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import org.holodeckb2b.common.messagemodel.AgreementReference;
+import org.holodeckb2b.common.messagemodel.CollaborationInfo;
+import org.holodeckb2b.common.messagemodel.TradingPartner;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.interfaces.general.EbMSConstants;
+import org.holodeckb2b.interfaces.pmode.IPMode;
+import org.holodeckb2b.pmode.helpers.Agreement;
+import org.holodeckb2b.pmode.helpers.BusinessInfo;
+import org.holodeckb2b.pmode.helpers.Leg;
+import org.holodeckb2b.pmode.helpers.PMode;
+import org.holodeckb2b.pmode.helpers.PartnerConfig;
+import org.holodeckb2b.pmode.helpers.PartyId;
+import org.holodeckb2b.pmode.helpers.Protocol;
+import org.holodeckb2b.pmode.helpers.Service;
+import org.holodeckb2b.pmode.helpers.UserMessageFlow;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that using the {@link PModeMatchingIndex} to find the P-Mode for a received User Message gives the same
+ * result as evaluating all P-Modes.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class PModeMatchingIndexTest {
+
+    private static final String[] PARTIES = { "partyA", "partyB", "partyC", "partyD" };
+    private static final String[] PARTY_TYPES = { null, "urn:type:1" };
+    private static final String[] ROLES = { null, "Sender", "Receiver" };
+    private static final String[] SERVICES = { null, "svc1", "svc2", "svc3" };
+    private static final String[] SERVICE_TYPES = { null, "svcType" };
+    private static final String[] ACTIONS = { null, "", "act1", "act2", "act3" };
+    private static final String[] AGREEMENTS = { null, "", "agr1", "agr2" };
+    private static final String[] MPCS = { null, EbMSConstants.DEFAULT_MPC, "http://mpc.holodeck-b2b.org/test" };
+
+    @Test
+    public void testEquivalenceRandomSets() {
+        final Random rnd = new Random(20170707L);
+        int matched = 0;
+
+        for (int set = 0; set < 50; set++) {
+            final List<IPMode> pmodes = new ArrayList<>();
+            final int size = 1 + rnd.nextInt(300);
+            for (int i = 0; i < size; i++)
+                pmodes.add(createPMode(rnd, "pm-" + set + "-" + i));
+
+            final PModeMatchingIndex index = new PModeMatchingIndex(set, pmodes);
+            for (int m = 0; m < 200; m++) {
+                final UserMessage msg = createMessage(rnd, pmodes);
+                final List<IPMode> candidates = index.getCandidates(msg);
+                assertTrue(candidates.size() <= pmodes.size());
+                final IPMode expected = PModeFinder.findBestMatch(pmodes, msg);
+                assertSame(expected, PModeFinder.findBestMatch(candidates, msg));
+                if (expected != null)
+                    matched++;
+            }
+        }
+        // Ensure the random data actually results in matches
+        assertTrue(matched > 0);
+    }
+
+    @Test
+    public void testSendingPModesNotIndexed() {
+        final PMode pushing = new PMode();
+        pushing.setId("pm-push");
+        pushing.setMep(EbMSConstants.ONE_WAY_MEP);
+        pushing.setMepBinding(EbMSConstants.ONE_WAY_PUSH);
+        final Leg leg = new Leg();
+        final Protocol protocol = new Protocol();
+        protocol.setAddress("http://localhost:8080/msh");
+        leg.setProtocol(protocol);
+        pushing.addLeg(leg);
+
+        final PMode receiving = new PMode();
+        receiving.setId("pm-receive");
+        receiving.setMep(EbMSConstants.ONE_WAY_MEP);
+        receiving.setMepBinding(EbMSConstants.ONE_WAY_PUSH);
+        receiving.addLeg(new Leg());
+
+        final List<IPMode> pmodes = new ArrayList<>();
+        pmodes.add(pushing);
+        pmodes.add(receiving);
+        final PModeMatchingIndex index = new PModeMatchingIndex(0, pmodes);
+
+        final UserMessage msg = new UserMessage();
+        msg.setSender(new TradingPartner());
+        msg.setReceiver(new TradingPartner());
+        msg.setCollaborationInfo(new CollaborationInfo());
+        final List<IPMode> candidates = index.getCandidates(msg);
+        assertEquals(1, candidates.size());
+        assertSame(receiving, candidates.get(0));
+    }
+
+    @Test
+    public void testManagerIndexUpdated() throws Exception {
+        final PModeManager manager = new PModeManager(null, null);
+        final PModeMatchingIndex empty = manager.getMatchingIndex();
+        assertNotNull(empty);
+        assertSame(empty, manager.getMatchingIndex());
+
+        final PMode p = new PMode();
+        p.setId("pm-index-test");
+        p.setMep(EbMSConstants.ONE_WAY_MEP);
+        p.setMepBinding(EbMSConstants.ONE_WAY_PUSH);
+        p.addLeg(new Leg());
+        manager.add(p);
+
+        final PModeMatchingIndex afterAdd = manager.getMatchingIndex();
+        assertTrue(afterAdd != empty);
+
+        final UserMessage msg = new UserMessage();
+        msg.setSender(new TradingPartner());
+        msg.setReceiver(new TradingPartner());
+        msg.setCollaborationInfo(new CollaborationInfo());
+        assertEquals(1, afterAdd.getCandidates(msg).size());
+
+        manager.remove(p.getId());
+        assertTrue(manager.getMatchingIndex().getCandidates(msg).isEmpty());
+    }
+
+    private static <T> T pick(final Random rnd, final T[] values) {
+        return values[rnd.nextInt(values.length)];
+    }
+
+    private static PartnerConfig createPartner(final Random rnd) {
+        if (rnd.nextInt(5) == 0)
+            return null;
+
+        final PartnerConfig partner = new PartnerConfig();
+        partner.setRole(pick(rnd, ROLES));
+        final int n = rnd.nextInt(3);
+        for (int i = 0; i < n; i++) {
+            final PartyId pid = new PartyId();
+            pid.setId(pick(rnd, PARTIES));
+            pid.setType(pick(rnd, PARTY_TYPES));
+            partner.addPartyId(pid);
+        }
+        return partner;
+    }
+
+    private static PMode createPMode(final Random rnd, final String id) {
+        final PMode p = new PMode();
+        p.setId(id);
+        p.setIncludeId(rnd.nextBoolean());
+        p.setMep(EbMSConstants.ONE_WAY_MEP);
+        p.setMepBinding(rnd.nextInt(3) == 0 ? EbMSConstants.ONE_WAY_PULL : EbMSConstants.ONE_WAY_PUSH);
+        p.setInitiator(createPartner(rnd));
+        p.setResponder(createPartner(rnd));
+        if (rnd.nextBoolean()) {
+            final Agreement agreement = new Agreement();
+            agreement.setName(pick(rnd, AGREEMENTS));
+            agreement.setType(rnd.nextBoolean() ? null : "agrType");
+            p.setAgreement(agreement);
+        }
+
+        final Leg leg = new Leg();
+        if (rnd.nextInt(6) == 0) {
+            final Protocol protocol = new Protocol();
+            protocol.setAddress("http://localhost:8080/msh");
+            leg.setProtocol(protocol);
+        }
+        if (rnd.nextInt(5) > 0) {
+            final UserMessageFlow flow = new UserMessageFlow();
+            final BusinessInfo bi = new BusinessInfo();
+            final String svcName = pick(rnd, SERVICES);
+            if (svcName != null) {
+                final Service svc = new Service();
+                svc.setName(svcName);
+                svc.setType(pick(rnd, SERVICE_TYPES));
+                bi.setService(svc);
+            }
+            bi.setAction(pick(rnd, ACTIONS));
+            bi.setMpc(rnd.nextInt(4) == 0 ? pick(rnd, MPCS) : null);
+            flow.setBusinnessInfo(bi);
+            leg.setUserMessageFlow(flow);
+        }
+        p.addLeg(leg);
+
+        return p;
+    }
+
+    private static TradingPartner createMessagePartner(final Random rnd) {
+        final TradingPartner tp = new TradingPartner();
+        tp.setRole(pick(rnd, ROLES));
+        final int n = 1 + rnd.nextInt(2);
+        for (int i = 0; i < n; i++)
+            tp.addPartyId(new org.holodeckb2b.common.messagemodel.PartyId(pick(rnd, PARTIES),
+                                                                          pick(rnd, PARTY_TYPES)));
+        return tp;
+    }
+
+    private static UserMessage createMessage(final Random rnd, final Collection<IPMode> pmodes) {
+        final UserMessage msg = new UserMessage();
+        msg.setMPC(pick(rnd, MPCS));
+        msg.setSender(createMessagePartner(rnd));
+        msg.setReceiver(createMessagePartner(rnd));
+
+        final CollaborationInfo ci = new CollaborationInfo();
+        final String svcName = pick(rnd, SERVICES);
+        ci.setService(new org.holodeckb2b.common.messagemodel.Service(svcName != null ? svcName : "svc1",
+                                                                      pick(rnd, SERVICE_TYPES)));
+        ci.setAction(pick(rnd, ACTIONS));
+        if (rnd.nextBoolean()) {
+            final IPMode ref = new ArrayList<>(pmodes).get(rnd.nextInt(pmodes.size()));
+            ci.setAgreement(new AgreementReference(pick(rnd, AGREEMENTS), rnd.nextBoolean() ? null : "agrType",
+                                                   rnd.nextBoolean() ? ref.getId() : null));
+        }
+        msg.setCollaborationInfo(ci);
+
+        return msg;
+    }
+}
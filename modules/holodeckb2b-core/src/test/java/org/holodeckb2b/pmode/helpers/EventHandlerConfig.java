@@ -40,8 +40,8 @@ public class EventHandlerConfig implements IMessageProcessingEventConfiguration
     }
 
     public void setHandledEvents(final List<Class<? extends IMessageProcessingEvent>> newHandledEvents) {
-        if (!Utils.isNullOrEmpty(handledEvents))
-            this.handledEvents = new ArrayList<>(handledEvents);
+        if (!Utils.isNullOrEmpty(newHandledEvents))
+            this.handledEvents = new ArrayList<>(newHandledEvents);
         else
             this.handledEvents = null;
     }
@@ -24,6 +24,7 @@ import org.holodeckb2b.interfaces.as4.pmode.IAS4PayloadProfile;
 public class PayloadProfile implements IAS4PayloadProfile {
 
     private String  compressionType;
+    private int     compressionLevel = -1;
 
     @Override
     public String getCompressionType() {
@@ -33,4 +34,13 @@ public class PayloadProfile implements IAS4PayloadProfile {
     public void setCompressionType(final String compressionType) {
         this.compressionType = compressionType;
     }
+
+    @Override
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(final int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
 }
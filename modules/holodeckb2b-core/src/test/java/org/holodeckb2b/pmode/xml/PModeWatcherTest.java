@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.pmode.xml;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.pmode.IPMode;
+import org.holodeckb2b.interfaces.pmode.PModeSetException;
+import org.holodeckb2b.pmode.PModeManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
+/**
+ * Is the test class for the {@link PModeWatcher} worker.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class PModeWatcherTest {
+
+    private static String baseDir;
+
+    private static HolodeckB2BTestCore core;
+
+    private File watchDir;
+
+    private PModeManager manager;
+
+    private PModeWatcher watcher;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        baseDir = PModeWatcherTest.class.getClassLoader().getResource("pmodetest").getPath();
+        core = new HolodeckB2BTestCore(baseDir);
+        HolodeckB2BCoreInterface.setImplementation(core);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        watchDir = new File(baseDir, "watched");
+        FileUtils.deleteDirectory(watchDir);
+        watchDir.mkdirs();
+
+        manager = spy(new PModeManager(null, null));
+        core.setPModeSet(manager);
+
+        watcher = new PModeWatcher();
+        final Map<String, String> parameters = new HashMap<>();
+        parameters.put("watchPath", watchDir.getAbsolutePath());
+        watcher.setParameters(parameters);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(watchDir);
+        core.setPModeSet(null);
+    }
+
+    @Test
+    public void testAddPModes() throws Exception {
+        createPModeFile("pm-1.xml", "pmode-1");
+        createPModeFile("pm-2.xml", "pmode-2");
+
+        watcher.run();
+
+        assertTrue(manager.containsId("pmode-1"));
+        assertTrue(manager.containsId("pmode-2"));
+    }
+
+    @Test
+    public void testFailedUpdate() throws Exception {
+        createPModeFile("pm-1.xml", "pmode-1");
+        createPModeFile("pm-2.xml", "pmode-2");
+
+        doThrow(new PModeSetException("Update failed")).when(manager)
+                    .update(ArgumentMatchers.<String>anyCollection(), ArgumentMatchers.<IPMode>anyCollection());
+
+        watcher.run();
+
+        // The changes should be applied one by one as they are not reported again
+        assertTrue(manager.containsId("pmode-1"));
+        assertTrue(manager.containsId("pmode-2"));
+
+        // And the changed file should be loaded one by one as well
+        createPModeFile("pm-1.xml", "pmode-1b");
+        new File(watchDir, "pm-1.xml").setLastModified(System.currentTimeMillis() + 10000);
+
+        watcher.run();
+
+        assertFalse(manager.containsId("pmode-1"));
+        assertTrue(manager.containsId("pmode-1b"));
+        assertTrue(manager.containsId("pmode-2"));
+    }
+
+    /**
+     * Creates a P-Mode file in the watched directory based on the minimal P-Mode with the given id.
+     *
+     * @param fileName  The name of the file to create
+     * @param pmodeId   The id of the P-Mode
+     * @throws Exception When the file can not be created
+     */
+    private void createPModeFile(final String fileName, final String pmodeId) throws Exception {
+        final String minimal = new String(Files.readAllBytes(Paths.get(baseDir, "minimalPMode1.xml")), "UTF-8");
+        final Path pmodeFile = Paths.get(watchDir.getAbsolutePath(), fileName);
+        Files.write(pmodeFile, minimal.replace(">id0<", ">" + pmodeId + "<").getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.security.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyStore;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.Merlin;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.security.util.SecurityUtils.CertType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link CryptoCache}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class CryptoCacheTest {
+
+    @Rule
+    public TemporaryFolder homeDir = new TemporaryFolder();
+
+    private File publicKeys;
+
+    @Before
+    public void setUp() throws Exception {
+        final File securityDir = new File(CryptoCacheTest.class.getClassLoader().getResource("security").getPath());
+        for (final String ks : new String[] { "publickeys.jks", "privatekeys.jks", "trustedcerts.jks" })
+            Files.copy(new File(securityDir, ks).toPath(), new File(homeDir.getRoot(), ks).toPath());
+        publicKeys = new File(homeDir.getRoot(), "publickeys.jks");
+        HolodeckB2BCoreInterface.setImplementation(new HolodeckB2BTestCore(homeDir.getRoot().getAbsolutePath()));
+        CryptoCache.clear();
+        // Check the keystore files on every request, unless a test sets another interval
+        CryptoCache.checkInterval = 0;
+    }
+
+    @After
+    public void tearDown() {
+        CryptoCache.clear();
+        CryptoCache.checkInterval = CryptoCache.DEFAULT_CHECK_INTERVAL;
+    }
+
+    @Test
+    public void testCryptoIsShared() {
+        final Crypto crypto = CryptoCache.getCrypto(CertType.priv);
+        assertNotNull(crypto);
+        assertSame(crypto, CryptoCache.getCrypto(CertType.priv));
+        assertNotSame(crypto, CryptoCache.getCrypto(CertType.pub));
+    }
+
+    @Test
+    public void testCombinedKeystores() throws Exception {
+        final Crypto crypto = CryptoCache.getCrypto(CertType.pub, CertType.trust);
+        assertTrue(crypto instanceof Merlin);
+        assertTrue(((Merlin) crypto).getKeyStore().containsAlias("partya"));
+        assertTrue(((Merlin) crypto).getTrustStore().containsAlias("exampleca"));
+        assertSame(crypto, CryptoCache.getCrypto(CertType.trust, CertType.pub));
+    }
+
+    @Test
+    public void testReloadWhenFileChanged() throws Exception {
+        final Crypto crypto = CryptoCache.getCrypto(CertType.pub);
+        assertTrue(SecurityUtils.isCertificateAvailable("partya", false));
+
+        replacePublicKeys();
+
+        final Crypto reloaded = CryptoCache.getCrypto(CertType.pub);
+        assertNotSame(crypto, reloaded);
+        assertFalse(SecurityUtils.isCertificateAvailable("partya", false));
+        assertTrue(SecurityUtils.isCertificateAvailable("partyb", false));
+    }
+
+    @Test
+    public void testKeepOldWhenReloadFails() throws Exception {
+        final Crypto crypto = CryptoCache.getCrypto(CertType.pub);
+
+        // Simulate a keystore file that is only partly written
+        final long lastModified = publicKeys.lastModified();
+        try (FileOutputStream fos = new FileOutputStream(publicKeys)) {
+            fos.write(new byte[] { (byte) 0xFE, (byte) 0xED, (byte) 0xFE, (byte) 0xED, 0, 0 });
+        }
+        publicKeys.setLastModified(lastModified + 2000);
+
+        assertSame(crypto, CryptoCache.getCrypto(CertType.pub));
+        assertTrue(SecurityUtils.isCertificateAvailable("partya", false));
+        assertEquals(4, ((Merlin) crypto).getKeyStore().size());
+    }
+
+    @Test
+    public void testCheckInterval() throws Exception {
+        CryptoCache.checkInterval = 1000;
+        final Crypto crypto = CryptoCache.getCrypto(CertType.pub);
+
+        replacePublicKeys();
+
+        // The change should not be detected before the check interval has passed
+        assertSame(crypto, CryptoCache.getCrypto(CertType.pub));
+        assertTrue(SecurityUtils.isCertificateAvailable("partya", false));
+
+        Thread.sleep(1100);
+
+        assertNotSame(crypto, CryptoCache.getCrypto(CertType.pub));
+        assertFalse(SecurityUtils.isCertificateAvailable("partya", false));
+    }
+
+    /**
+     * Removes a certificate from the public keys keystore and writes it to a temp file that replaces the current one.
+     */
+    private void replacePublicKeys() throws Exception {
+        final KeyStore ks = KeyStore.getInstance("JKS");
+        try (FileInputStream fis = new FileInputStream(publicKeys)) {
+            ks.load(fis, "nosecrets".toCharArray());
+        }
+        ks.deleteEntry("partya");
+        final File newKeys = homeDir.newFile("new-publickeys.jks");
+        try (FileOutputStream fos = new FileOutputStream(newKeys)) {
+            ks.store(fos, "nosecrets".toCharArray());
+        }
+        newKeys.setLastModified(publicKeys.lastModified() + 2000);
+        Files.move(newKeys.toPath(), publicKeys.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -38,4 +38,14 @@ public interface IAS4PayloadProfile extends IPayloadProfile {
      *          <code>null</code> if compression is not used
      */
     public String getCompressionType();
+
+    /**
+     * Gets the level of compression to use when payloads are compressed. Higher levels result in smaller payloads but
+     * take more time to compress, so for large payloads a lower level can increase the throughput.
+     *
+     * @return  The compression level, from 0 (no compression) to 9 (best compression), or -1 when the default level of
+     *          the compression library should be used
+     * @since  3.1.0
+     */
+    public int getCompressionLevel();
 }
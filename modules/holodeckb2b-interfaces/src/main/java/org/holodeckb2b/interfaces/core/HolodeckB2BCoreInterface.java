@@ -21,6 +21,7 @@ import org.holodeckb2b.interfaces.delivery.IDeliverySpecification;
 import org.holodeckb2b.interfaces.delivery.IMessageDeliverer;
 import org.holodeckb2b.interfaces.delivery.MessageDeliveryException;
 import org.holodeckb2b.interfaces.events.IMessageProcessingEventProcessor;
+import org.holodeckb2b.interfaces.metrics.IMetricsRegistry;
 import org.holodeckb2b.interfaces.persistency.dao.IQueryManager;
 import org.holodeckb2b.interfaces.pmode.IPModeSet;
 import org.holodeckb2b.interfaces.submit.IMessageSubmitter;
@@ -145,6 +146,18 @@ public class HolodeckB2BCoreInterface {
         return coreImplementation.getQueryManager();
     }
 
+    /**
+     * Gets the registry that should be used to record metrics on the processing of messages.
+     * <p>Note that when collecting metrics is disabled a registry is returned that ignores all recorded metrics.
+     *
+     * @return  The {@link IMetricsRegistry} to use for recording metrics
+     * @since  3.1.0
+     */
+    public static IMetricsRegistry getMetricsRegistry() {
+        assertInitialized();
+        return coreImplementation.getMetricsRegistry();
+    }
+
    /**
      * Sets the Holodeck B2B Core implementation that is in use.
      * <p><b>NOTE: </b>This method is for <b>internal use only</b>!
@@ -21,6 +21,7 @@ import org.holodeckb2b.interfaces.delivery.IDeliverySpecification;
 import org.holodeckb2b.interfaces.delivery.IMessageDeliverer;
 import org.holodeckb2b.interfaces.delivery.MessageDeliveryException;
 import org.holodeckb2b.interfaces.events.IMessageProcessingEventProcessor;
+import org.holodeckb2b.interfaces.metrics.IMetricsRegistry;
 import org.holodeckb2b.interfaces.persistency.dao.IQueryManager;
 import org.holodeckb2b.interfaces.pmode.IPMode;
 import org.holodeckb2b.interfaces.pmode.IPModeSet;
@@ -110,4 +111,13 @@ public interface IHolodeckB2BCore {
      * @since  3.0.0
      */
     public IQueryManager getQueryManager();
+
+    /**
+     * Gets the registry that should be used to record metrics on the processing of messages.
+     *
+     * @return  The {@link IMetricsRegistry} of this instance. When collecting metrics is disabled a registry is returned
+     *          that ignores all recorded metrics.
+     * @since  3.1.0
+     */
+    public IMetricsRegistry getMetricsRegistry();
 }
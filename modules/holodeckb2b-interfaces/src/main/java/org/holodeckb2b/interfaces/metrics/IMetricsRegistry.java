@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.interfaces.metrics;
+
+/**
+ * Defines the interface of the component that collects the metrics on the processing of messages by Holodeck B2B, like
+ * the number of messages received and sent, the time needed by each handler and worker and the number of message units
+ * waiting in a processing state. The Core provides a default implementation that makes the metrics available through
+ * JMX, but another implementation can be configured in the <i>MetricsRegistry</i> parameter of the Holodeck B2B
+ * configuration, for example to send the metrics to an external monitoring system.
+ * <p>Metrics are identified by a name consisting of dot separated parts, for example <i>"handler.ReadUserMessage"</i>.
+ * Implementations MUST be thread safe as metrics are recorded concurrently by all threads processing messages.
+ * <p>When collecting metrics is disabled the Core uses an implementation that does nothing and of which the {@link
+ * #isEnabled()} method returns <code>false</code>. Components recording timings SHOULD check this method before
+ * measuring time to ensure there is no overhead when metrics are not collected.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public interface IMetricsRegistry {
+
+    /**
+     * Indicates whether metrics are collected.
+     *
+     * @return  <code>true</code> when metrics are collected,<br><code>false</code> when recorded metrics are ignored
+     */
+    boolean isEnabled();
+
+    /**
+     * Increments the counter with the given name by one. When the counter does not exist yet it is created.
+     *
+     * @param name  The name of the counter
+     */
+    void incrementCounter(String name);
+
+    /**
+     * Records the duration of an event, for example the processing of a message by a handler, in the timer with the
+     * given name. The timer keeps track of the distribution of the recorded durations. When the timer does not exist
+     * yet it is created.
+     *
+     * @param name      The name of the timer
+     * @param nanos     The duration to record in nanoseconds
+     */
+    void recordTime(String name, long nanos);
+
+    /**
+     * Registers a gauge with the given name. A gauge provides the current value of a metric which is only determined
+     * when the metric is read, like the number of message units waiting in a certain processing state. When a gauge
+     * with the same name is already registered it is replaced by the given one.
+     *
+     * @param name      The name of the gauge
+     * @param gauge     The gauge providing the value of the metric
+     */
+    void registerGauge(String name, IGauge gauge);
+
+    /**
+     * Releases the resources used by the registry. Called by the Core when Holodeck B2B is shut down.
+     */
+    void shutdown();
+}
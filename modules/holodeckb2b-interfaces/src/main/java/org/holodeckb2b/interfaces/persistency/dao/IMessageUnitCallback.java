@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.interfaces.persistency.dao;
+
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+
+/**
+ * Defines the callback used by the streaming queries of the {@link IQueryManager} to hand over the message units found
+ * one by one, so the caller does not need to keep all of them in memory. The callback can stop the query from handing
+ * over more message units, for example when it can not process more message units at the moment.
+ *
+ * @param <V>   The type of entity objects handed over to the callback
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public interface IMessageUnitCallback<V extends IMessageUnitEntity> {
+
+    /**
+     * Processes one of the message units found by the query.
+     *
+     * @param messageUnit   The entity object representing the message unit
+     * @return              <code>true</code> if the next message unit should be handed over,<br>
+     *                      <code>false</code> if the query should stop handing over message units
+     * @throws PersistenceException When an error occurs in processing the message unit that should stop the query from
+     *                              handing over more message units
+     */
+    boolean process(V messageUnit) throws PersistenceException;
+}
@@ -19,6 +19,7 @@ package org.holodeckb2b.interfaces.persistency.dao;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
 import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
@@ -58,6 +59,67 @@ public interface IQueryManager {
                                                                         final ProcessingState[] states)
                                                                                         throws PersistenceException;
 
+    /**
+     * Retrieves a page of the message units of the specified type that are in one of the given states and are flowing
+     * in the specified direction. The message units are ordered in the sequence in which they were stored, starting
+     * with the oldest one. The next page is retrieved by passing the last message unit of the current page as the
+     * <code>after</code> parameter, which ensures that no message unit is skipped or returned twice when the processing
+     * state of message units in the previous pages changed or when they were deleted.
+     * <br><b>NOTE:</b> The entity objects in the resulting collection may not be completely loaded! Before a message
+     * unit is going to be processed it must be checked if it is loaded completely.
+     *
+     * @param <T>           Limits the <code>type</code> parameter to only message unit classes
+     * @param <V>           The returned objects will be entity objects. V and T will share the same parent type.
+     * @param type          The type of message units to retrieve specified by the interface they implement
+     * @param direction     The direction of the message units to retrieve
+     * @param states        Array of processing states that the message units to retrieve should be in
+     * @param after         The last message unit of the previous page, or <code>null</code> to get the first page. Must
+     *                      be an entity object returned by this query manager.
+     * @param maxResults    The maximum number of message units to return
+     * @return              The ordered list of at most <code>maxResults</code> entity objects representing the message
+     *                      units of the specified type that are in one of the given states. When there are no more
+     *                      message units an empty list is returned.
+     * @throws PersistenceException When a problem occurs during the retrieval of the message units
+     * @since 3.1.0
+     */
+    <T extends IMessageUnit, V extends IMessageUnitEntity> List<V>
+                                                 getMessageUnitsInState(final Class<T> type,
+                                                                        final IMessageUnit.Direction direction,
+                                                                        final ProcessingState[] states,
+                                                                        final V after,
+                                                                        final int maxResults)
+                                                                                        throws PersistenceException;
+
+    /**
+     * Hands over all message units of the specified type that are in one of the given states and are flowing in the
+     * specified direction to the given callback, in the order in which they were stored. The message units are
+     * retrieved in chunks of the given size so only one chunk needs to be kept in memory regardless of the number of
+     * message units found. No transaction is kept open while the callback processes the message units, so the callback
+     * may change or delete the message units. The message units are handed over until all are processed or the callback
+     * indicates that no more message units should be handed over.
+     * <br><b>NOTE:</b> The entity objects handed over to the callback may not be completely loaded! Before a message
+     * unit is going to be processed it must be checked if it is loaded completely.
+     *
+     * @param <T>           Limits the <code>type</code> parameter to only message unit classes
+     * @param <V>           The entity objects handed to the callback. V and T will share the same parent type.
+     * @param type          The type of message units to retrieve specified by the interface they implement
+     * @param direction     The direction of the message units to retrieve
+     * @param states        Array of processing states that the message units to retrieve should be in
+     * @param chunkSize     The number of message units to retrieve at once
+     * @param callback      The callback that processes the message units
+     * @return              The number of message units handed over to the callback
+     * @throws PersistenceException When a problem occurs during the retrieval of the message units or when the
+     *                              callback threw the exception
+     * @since 3.1.0
+     */
+    <T extends IMessageUnit, V extends IMessageUnitEntity> int
+                                                 processMessageUnitsInState(final Class<T> type,
+                                                                            final IMessageUnit.Direction direction,
+                                                                            final ProcessingState[] states,
+                                                                            final int chunkSize,
+                                                                            final IMessageUnitCallback<V> callback)
+                                                                                        throws PersistenceException;
+
     /**
      * Retrieves all message units with the given <code>MessageId</code>.
      * <p>Although messageIds should be unique there can exist multiple <code>MessageUnits</code> with the same
@@ -85,6 +147,46 @@ public interface IQueryManager {
     Collection<IMessageUnitEntity> getMessageUnitsWithLastStateChangedBefore(final Date maxLastChangeDate)
                                                                                         throws PersistenceException;
 
+    /**
+     * Retrieves a page of the message units of which the last change in processing state occurred before the given date
+     * and time. The message units are ordered in the sequence in which they were stored and the next page is retrieved
+     * by passing the last message unit of the current page as the <code>after</code> parameter.
+     * <br><b>NOTE:</b> The entity objects in the resulting collection may not be completely loaded! Before a message
+     * unit is going to be processed it must be checked if it is loaded completely.
+     *
+     * @param maxLastChangeDate The latest date of a processing state change that is to be included in the result
+     * @param after             The last message unit of the previous page, or <code>null</code> to get the first page.
+     *                          Must be an entity object returned by this query manager.
+     * @param maxResults        The maximum number of message units to return
+     * @return                  The ordered list of at most <code>maxResults</code> entity objects representing the
+     *                          message units which processing state changed at latest at the given date. When there
+     *                          are no more message units an empty list is returned.
+     * @throws PersistenceException If an error occurs while retrieving the message units from the database
+     * @since 3.1.0
+     */
+    List<IMessageUnitEntity> getMessageUnitsWithLastStateChangedBefore(final Date maxLastChangeDate,
+                                                                       final IMessageUnitEntity after,
+                                                                       final int maxResults)
+                                                                                        throws PersistenceException;
+
+    /**
+     * Hands over all message units of which the last change in processing state occurred before the given date and time
+     * to the given callback. As with {@link #processMessageUnitsInState(Class, IMessageUnit.Direction,
+     * ProcessingState[], int, IMessageUnitCallback)} the message units are retrieved in chunks and the callback may
+     * change or delete the message units.
+     *
+     * @param maxLastChangeDate The latest date of a processing state change that is to be included in the result
+     * @param chunkSize         The number of message units to retrieve at once
+     * @param callback          The callback that processes the message units
+     * @return                  The number of message units handed over to the callback
+     * @throws PersistenceException When a problem occurs during the retrieval of the message units or when the
+     *                              callback threw the exception
+     * @since 3.1.0
+     */
+    int processMessageUnitsWithLastStateChangedBefore(final Date maxLastChangeDate, final int chunkSize,
+                                                      final IMessageUnitCallback<IMessageUnitEntity> callback)
+                                                                                        throws PersistenceException;
+
     /**
      * Retrieves all message units of the specified type and that are in the given state and which processing is defined
      * by a P-Mode with one of the given P-Mode ids. The message units are ordered ascending on the timestamp of the
@@ -121,6 +223,19 @@ public interface IQueryManager {
      */
     <V extends IMessageUnitEntity> void ensureCompletelyLoaded(V messageUnit) throws PersistenceException;
 
+    /**
+     * Ensures that all meta-data of the given entity objects is loaded and available for processing. This has the same
+     * result as calling {@link #ensureCompletelyLoaded(IMessageUnitEntity)} for each entity object, but allows the
+     * persistency provider to load the meta-data of all entity objects at once.
+     * <p>NOTE: The implementation of this method by the persistency provider may reload the meta-data from the storage
+     * and overwrite any changes that were made to the entity objects.
+     *
+     * @param messageUnits  The entity objects that need to be loaded completely
+     * @throws PersistenceException When an error occurs while loading the objects
+     * @since 3.1.0
+     */
+    void ensureCompletelyLoaded(Collection<? extends IMessageUnitEntity> messageUnits) throws PersistenceException;
+
     /**
      * Gets the number of times the given <i>User Message</i> message unit has already been sent to the receiver without
      * getting a <i>Receipt</i> back.
@@ -146,4 +261,15 @@ public interface IQueryManager {
      * @throws PersistenceException If an error occurs when executing this query
      */
     boolean isAlreadyDelivered(final String messageId) throws PersistenceException;
+
+    /**
+     * Gets the number of message units per <i>current</i> processing state. The counts include message units of all
+     * types and of both directions.
+     *
+     * @return  Map containing the number of message units for each processing state that at least one message unit is
+     *          currently in. Processing states without message units are not included in the map.
+     * @throws PersistenceException If an error occurs when executing this query
+     * @since  3.1.0
+     */
+    Map<ProcessingState, Long> getNumberOfMessageUnitsPerState() throws PersistenceException;
 }
@@ -34,6 +34,10 @@ import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
  * Also implementations must take into account the "<i>completely loaded</i>" state of the message unit entity when
  * updates are performed, i.e. when all information of the updated message unit entity was loaded before the update it
  * should still be loaded after performing the update.
+ * <p>Since version 3.1.0 the update manager supports <i>units of work</i> which allow the Core to group the updates
+ * made while processing a message into fewer transactions. A unit of work is bound to the thread that started it and
+ * all updates and queries executed by that thread while it is active are part of it. Changes made within a unit of
+ * work only become visible to other threads when it is committed or ended.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  * @since  3.0.0
@@ -128,4 +132,52 @@ public interface IUpdateManager {
      * @throws PersistenceException     When a problem occurs while removing the message unit from the database.
      */
     void deleteMessageUnit(IMessageUnitEntity messageUnit) throws PersistenceException;
+
+    /**
+     * Deletes the meta-data of all given message units from the database. The message units are deleted together, i.e.
+     * either all message units are deleted or, when an error occurs, none of them. This method should be used when many
+     * message units must be deleted, for example when purging old message units, as it is more efficient than deleting
+     * the message units one by one.
+     *
+     * @param messageUnits      The {@link IMessageUnitEntity} objects to be deleted
+     * @throws PersistenceException     When a problem occurs while removing the message units from the database. None
+     *                                  of the message units is removed in that case.
+     * @since 3.1.0
+     */
+    void deleteMessageUnits(Collection<? extends IMessageUnitEntity> messageUnits) throws PersistenceException;
+
+    /**
+     * Starts a unit of work on the current thread. All updates and queries executed by the current thread until the
+     * unit of work is ended are executed within the unit of work.
+     * <p>The conditional change of the processing state using {@link #setProcessingState(IMessageUnitEntity,
+     * ProcessingState, ProcessingState)} must keep its guarantee within a unit of work, i.e. when the method returns
+     * <code>true</code> no other thread can change the processing state of the message unit before the unit of work is
+     * committed. When a unit of work is already active on the current thread a nested unit of work is started that is
+     * part of the active one.
+     *
+     * @throws PersistenceException When the unit of work could not be started
+     * @since 3.1.0
+     */
+    void startUnitOfWork() throws PersistenceException;
+
+    /**
+     * Commits the changes made in the unit of work active on the current thread. The unit of work remains active so
+     * this method can be used to create a checkpoint, for example before an action is executed that can not be undone.
+     * If no unit of work is active this method does nothing.
+     *
+     * @throws PersistenceException When the changes could not be committed. The changes made since the unit of work was
+     *                              started or last committed are rolled back in that case.
+     * @since 3.1.0
+     */
+    void commitUnitOfWork() throws PersistenceException;
+
+    /**
+     * Ends the unit of work active on the current thread. When this is the outermost unit of work the changes made are
+     * committed. If no unit of work is active this method does nothing.
+     *
+     * @throws PersistenceException When the changes could not be committed. The changes made since the unit of work was
+     *                              started or last committed are rolled back in that case and the unit of work is ended.
+     * @since 3.1.0
+     */
+    void endUnitOfWork() throws PersistenceException;
 }
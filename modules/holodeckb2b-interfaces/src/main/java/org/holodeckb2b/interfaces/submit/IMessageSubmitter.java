@@ -17,6 +17,8 @@
 package org.holodeckb2b.interfaces.submit;
 
 
+import java.util.Collection;
+import java.util.List;
 import org.holodeckb2b.interfaces.messagemodel.IPullRequest;
 import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
 
@@ -75,6 +77,24 @@ public interface IMessageSubmitter {
      */
     public String submitMessage(IUserMessage um, boolean deletePayloadFiles) throws MessageSubmitException;
 
+    /**
+     * Submits a collection of <b>User Messages</b> to Holodeck B2B for sending.
+     * <p>This method has the same semantics as {@link #submitMessage(IUserMessage, boolean)} for each of the given
+     * messages but is intended for business applications that submit large numbers of messages at once. The messages
+     * are validated and stored together, so the submission of a large collection takes far fewer database transactions
+     * than submitting each message separately.
+     * <p>Each message is accepted or rejected separately, so a problem with one message does not cause the rejection of
+     * the others. The result of the submission is reported for each message.
+     *
+     * @param messages              The meta data on the user messages to be sent to the other trading partners
+     * @param deletePayloadFiles    Indicator whether the files containing the payload data must be deleted or not
+     * @return                      The results of the submission, one for each of the given messages and in the same
+     *                              order as the messages in the given collection
+     * @since  3.1.0
+     */
+    public List<ISubmissionResult> submitMessages(Collection<? extends IUserMessage> messages,
+                                                  boolean deletePayloadFiles);
+
     /**
      * Submits the specified <b>Pull Request</b> to Holodeck B2B for sending.
      * <p>With this submission the business application that expects to receive a User Message, i.e. the <i>Consumer</i>
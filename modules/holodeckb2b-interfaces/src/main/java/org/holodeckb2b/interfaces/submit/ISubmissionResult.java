@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.interfaces.submit;
+
+import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+
+/**
+ * Describes the result of the submission of one User Message when a collection of User Messages is submitted at once
+ * using {@link IMessageSubmitter#submitMessages(java.util.Collection, boolean)}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public interface ISubmissionResult {
+
+    /**
+     * Gets the meta-data of the User Message as it was submitted.
+     *
+     * @return  The submitted {@link IUserMessage}
+     */
+    public IUserMessage getSubmittedMessage();
+
+    /**
+     * Indicates whether the User Message was accepted for sending.
+     *
+     * @return  <code>true</code> if the message was accepted and Holodeck B2B will try to send it,<br>
+     *          <code>false</code> if the message was rejected
+     */
+    public boolean isAccepted();
+
+    /**
+     * Gets the ebMS message-id assigned to the User Message.
+     *
+     * @return  The message-id of the accepted User Message, <code>null</code> if the message was rejected
+     */
+    public String getMessageId();
+
+    /**
+     * Gets the reason why the User Message was rejected.
+     *
+     * @return  The {@link MessageSubmitException} describing why the message was rejected, <code>null</code> if the
+     *          message was accepted
+     */
+    public MessageSubmitException getRejectionReason();
+}
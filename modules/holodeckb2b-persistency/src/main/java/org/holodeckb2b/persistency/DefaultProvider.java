@@ -24,6 +24,7 @@ import org.holodeckb2b.interfaces.persistency.dao.IQueryManager;
 import org.holodeckb2b.interfaces.persistency.dao.IUpdateManager;
 import org.holodeckb2b.persistency.managers.QueryManager;
 import org.holodeckb2b.persistency.managers.UpdateManager;
+import org.holodeckb2b.persistency.util.DatabaseUpgrade;
 
 /**
  *
@@ -40,8 +41,15 @@ public class DefaultProvider implements IPersistencyProvider {
     }
 
 
+    /**
+     * Initializes the default persistency provider by upgrading the data in an existing database to the current data
+     * model.
+     *
+     * @throws PersistenceException When the database could not be initialized
+     */
     @Override
     public void init() throws PersistenceException {
+        DatabaseUpgrade.upgrade();
     }
 
     /**
@@ -22,13 +22,18 @@ import java.util.Date;
 import java.util.List;
 import javax.persistence.CascadeType;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 import javax.persistence.OneToMany;
 import javax.persistence.OrderBy;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
@@ -37,16 +42,27 @@ import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
 import org.holodeckb2b.interfaces.pmode.ILeg.Label;
 import org.holodeckb2b.interfaces.processingmodel.IMessageUnitProcessingState;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
 
 /**
  * Is the JPA persistency class to store the generic information that applies to all ebMS message unit types as
  * described by the {@link IMessageUnit} interface in the Holodeck B2B messaging model.
+ * <p>Next to the complete history of processing states, which is stored in the <code>MSG_STATE</code> table, the
+ * current processing state and its start time are also stored directly in the <code>MSG_UNIT</code> table. This
+ * allows the queries on the current state of message units to use an index instead of having to determine the last
+ * state of each message unit.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  * @since  3.0.0
  */
 @Entity
-@Table(name = "MSG_UNIT")
+@Table(name = "MSG_UNIT", indexes = {
+        @Index(name = "IDX_MU_STATE", columnList = "CURRENT_PROC_STATE, DIRECTION"),
+        @Index(name = "IDX_MU_PMODE_STATE", columnList = "PMODE_ID, CURRENT_PROC_STATE"),
+        @Index(name = "IDX_MU_STATE_START", columnList = "CURRENT_PROC_STATE_START"),
+        @Index(name = "IDX_MU_MSG_ID", columnList = "MESSAGE_ID"),
+        @Index(name = "IDX_MU_REF_TO_MSG_ID", columnList = "REF_TO_MSG_ID")
+})
 @Inheritance(strategy = InheritanceType.JOINED)
 public abstract class MessageUnit implements IMessageUnit, Serializable {
 
@@ -112,6 +128,22 @@ public abstract class MessageUnit implements IMessageUnit, Serializable {
         newState.setSeqNumber(states.size());
         newState.setMessageUnit(this);
         states.add(newState);
+        syncCurrentState();
+    }
+
+    /**
+     * Ensures that the current processing state info stored with the message unit is equal to the last state in the
+     * list of states. Although the current state info is updated when a new processing state is set, this is also
+     * done before the message unit is written to the database as the start time of a state may have been changed.
+     *
+     * @since 3.1.0
+     */
+    @PrePersist
+    @PreUpdate
+    protected void syncCurrentState() {
+        final IMessageUnitProcessingState current = getCurrentProcessingState();
+        CURRENT_PROC_STATE = current != null ? current.getState() : null;
+        CURRENT_PROC_STATE_START = current != null ? current.getStartTime() : null;
     }
 
     @Override
@@ -206,6 +238,16 @@ public abstract class MessageUnit implements IMessageUnit, Serializable {
     @Temporal(TemporalType.TIMESTAMP)
     private Date    MU_TIMESTAMP;
 
+    /*
+     * The current processing state and its start time, copied from the last entry in the list of states
+     * @since 3.1.0
+     */
+    @Enumerated(EnumType.STRING)
+    private ProcessingState CURRENT_PROC_STATE;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date    CURRENT_PROC_STATE_START;
+
     @OneToMany(mappedBy = "msgUnit", targetEntity = MessageUnitProcessingState.class,
                 cascade = CascadeType.ALL, fetch = FetchType.EAGER)
     @OrderBy("PROC_STATE_NUM")
@@ -16,19 +16,27 @@
  */
 package org.holodeckb2b.persistency.managers;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.TemporalType;
+import javax.persistence.TypedQuery;
 import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.interfaces.general.IProperty;
 import org.holodeckb2b.interfaces.messagemodel.IErrorMessage;
 import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
 import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.dao.IMessageUnitCallback;
 import org.holodeckb2b.interfaces.persistency.dao.IQueryManager;
 import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
 import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
@@ -37,32 +45,53 @@ import org.holodeckb2b.persistency.entities.MessageUnitEntity;
 import org.holodeckb2b.persistency.jpa.ErrorMessage;
 import org.holodeckb2b.persistency.jpa.MessageUnit;
 import org.holodeckb2b.persistency.jpa.UserMessage;
-import org.holodeckb2b.persistency.util.EntityManagerUtil;
 import org.holodeckb2b.persistency.util.JPAEntityHelper;
+import org.holodeckb2b.persistency.util.UnitOfWork;
 
 /**
  * Is the default persistency provider's implementation of the {@link IQueryManager} interface.
+ * <p>Since version 3.1.0 the queries on the current processing state of message units use the current state that is
+ * stored with the message unit itself (see {@link MessageUnit}) instead of selecting the last state from the list of
+ * states. As the states of the message units are fetched in the same query the result can contain the same message
+ * unit multiple times and must therefore be de-duplicated before returning it.
+ * <p>When a {@link UnitOfWork} is active on the current thread the queries are executed within its transaction so they
+ * also see the changes that are not yet committed.
+ * <p>The paged queries use the object id of the message unit as key for paging, i.e. they return the message units
+ * in the order they were stored and select the message units with an object id greater than the one of the last
+ * message unit of the previous page. Contrary to paging by offset this ensures that no message units are skipped when
+ * the message units of the previous pages are changed or deleted. The page is retrieved in two steps, first the object
+ * ids of the message units in the page are selected and then the message units themselves including their states,
+ * because limiting the number of results of a query that also fetches a collection can only be done in memory.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  * @since  3.0.0
  */
 public class QueryManager implements IQueryManager {
 
+    /**
+     * The condition used by the paged queries for message units in a processing state
+     */
+    private static final String IN_STATE_CONDITION = "mu.CURRENT_PROC_STATE IN :states AND mu.DIRECTION = :direction";
+
+    /**
+     * The condition used by the paged queries for message units of which the last state change occurred before a date
+     */
+    private static final String LAST_CHANGE_BEFORE_CONDITION = "mu.CURRENT_PROC_STATE_START <= :beforeDate";
+
     @Override
     public <T extends IMessageUnit, V extends IMessageUnitEntity> List<V> getMessageUnitsInState(
                Class<T> type, IMessageUnit.Direction direction, ProcessingState[] states) throws PersistenceException {
         List<T> jpaResult = null;
-        final EntityManager em = EntityManagerUtil.getEntityManager();
+        final EntityManager em = UnitOfWork.getEntityManager();
 
         Class jpaEntityClass = JPAEntityHelper.determineJPAClass(type);
         final String queryString = "SELECT mu "
-                                 + "FROM " + jpaEntityClass.getSimpleName()  + " mu JOIN FETCH mu.states s1 "
-                                 + "WHERE mu.DIRECTION = :direction "
-                                 + "AND s1.PROC_STATE_NUM = (SELECT MAX(s2.PROC_STATE_NUM) FROM mu.states s2) "
-                                 + "AND s1.STATE IN :states "
+                                 + "FROM " + jpaEntityClass.getSimpleName()  + " mu JOIN FETCH mu.states "
+                                 + "WHERE mu.CURRENT_PROC_STATE IN :states "
+                                 + "AND mu.DIRECTION = :direction "
                                  + "ORDER BY mu.MU_TIMESTAMP";
         try {
-            em.getTransaction().begin();
+            UnitOfWork.beginTransaction(em);
             jpaResult = em.createQuery(queryString, jpaEntityClass)
                                     .setParameter("direction", direction)
                                     .setParameter("states", Arrays.asList(states))
@@ -71,24 +100,47 @@ public class QueryManager implements IQueryManager {
             // Something went wrong during query execution
             throw new PersistenceException("Could not execute query \"getMessageUnitsInState\"", e);
         } finally {
-            em.getTransaction().commit();
-            em.close();
+            UnitOfWork.commitTransaction(em);
+            UnitOfWork.closeEntityManager(em);
         }
 
-        return JPAEntityHelper.wrapInEntity(jpaResult);
+        return JPAEntityHelper.wrapInEntity(removeDuplicates(jpaResult));
+    }
+
+    @Override
+    public <T extends IMessageUnit, V extends IMessageUnitEntity> List<V> getMessageUnitsInState(Class<T> type,
+                                                            IMessageUnit.Direction direction, ProcessingState[] states,
+                                                            V after, int maxResults) throws PersistenceException {
+        final Map<String, Object> parameters = new HashMap<>();
+        parameters.put("states", Arrays.asList(states));
+        parameters.put("direction", direction);
+        return QueryManager.<V>getPage(JPAEntityHelper.determineJPAClass(type), IN_STATE_CONDITION, parameters,
+                                       getOID(after), maxResults, "getMessageUnitsInState").messageUnits;
+    }
+
+    @Override
+    public <T extends IMessageUnit, V extends IMessageUnitEntity> int processMessageUnitsInState(Class<T> type,
+                                                            IMessageUnit.Direction direction, ProcessingState[] states,
+                                                            int chunkSize, IMessageUnitCallback<V> callback)
+                                                                                        throws PersistenceException {
+        final Map<String, Object> parameters = new HashMap<>();
+        parameters.put("states", Arrays.asList(states));
+        parameters.put("direction", direction);
+        return processPages(JPAEntityHelper.determineJPAClass(type), IN_STATE_CONDITION, parameters, chunkSize, callback,
+                            "processMessageUnitsInState");
     }
 
     @Override
     public Collection<IMessageUnitEntity> getMessageUnitsWithId(String messageId) throws PersistenceException {
         List<MessageUnit> jpaResult = null;
-        final EntityManager em = EntityManagerUtil.getEntityManager();
+        final EntityManager em = UnitOfWork.getEntityManager();
 
         final String queryString = "SELECT mu "
                                  + "FROM MessageUnit mu "
                                  + "WHERE mu.MESSAGE_ID = :msgId "
                                  + "ORDER BY mu.MU_TIMESTAMP";
         try {
-            em.getTransaction().begin();
+            UnitOfWork.beginTransaction(em);
             jpaResult = em.createQuery(queryString, MessageUnit.class)
                                         .setParameter("msgId", messageId)
                                         .getResultList();
@@ -96,8 +148,8 @@ public class QueryManager implements IQueryManager {
             // Something went wrong during query execution
             throw new PersistenceException("Could not execute query \"getMessageUnitsWithId\"", e);
         } finally {
-            em.getTransaction().commit();
-            em.close();
+            UnitOfWork.commitTransaction(em);
+            UnitOfWork.closeEntityManager(em);
         }
 
         return JPAEntityHelper.wrapInEntity(jpaResult);
@@ -107,14 +159,13 @@ public class QueryManager implements IQueryManager {
     public Collection<IMessageUnitEntity> getMessageUnitsWithLastStateChangedBefore(Date maxLastChangeDate)
                                                                                         throws PersistenceException {
         List<MessageUnit> jpaResult = null;
-        final EntityManager em = EntityManagerUtil.getEntityManager();
+        final EntityManager em = UnitOfWork.getEntityManager();
 
         final String queryString = "SELECT mu "
-                                 + "FROM MessageUnit mu JOIN FETCH mu.states s1 "
-                                 + "WHERE s1.PROC_STATE_NUM = (SELECT MAX(s2.PROC_STATE_NUM) FROM mu.states s2) "
-                                 + "AND   s1.START <= :beforeDate";
+                                 + "FROM MessageUnit mu JOIN FETCH mu.states "
+                                 + "WHERE mu.CURRENT_PROC_STATE_START <= :beforeDate";
         try {
-            em.getTransaction().begin();
+            UnitOfWork.beginTransaction(em);
             jpaResult = em.createQuery(queryString, MessageUnit.class)
                                         .setParameter("beforeDate", maxLastChangeDate, TemporalType.TIMESTAMP)
                                         .getResultList();
@@ -122,28 +173,48 @@ public class QueryManager implements IQueryManager {
             // Something went wrong during query execution
             throw new PersistenceException("Could not execute query \"getMessageUnitsWithLastStateChangedBefore\"", e);
         } finally {
-            em.getTransaction().commit();
-            em.close();
+            UnitOfWork.commitTransaction(em);
+            UnitOfWork.closeEntityManager(em);
         }
 
-        return JPAEntityHelper.wrapInEntity(jpaResult);
+        return JPAEntityHelper.wrapInEntity(removeDuplicates(jpaResult));
+    }
+
+    @Override
+    public List<IMessageUnitEntity> getMessageUnitsWithLastStateChangedBefore(Date maxLastChangeDate,
+                                                                              IMessageUnitEntity after, int maxResults)
+                                                                                        throws PersistenceException {
+        final Map<String, Object> parameters = new HashMap<>();
+        parameters.put("beforeDate", maxLastChangeDate);
+        return QueryManager.<IMessageUnitEntity>getPage(MessageUnit.class, LAST_CHANGE_BEFORE_CONDITION, parameters,
+                                                        getOID(after), maxResults,
+                                                        "getMessageUnitsWithLastStateChangedBefore").messageUnits;
+    }
+
+    @Override
+    public int processMessageUnitsWithLastStateChangedBefore(Date maxLastChangeDate, int chunkSize,
+                                                             IMessageUnitCallback<IMessageUnitEntity> callback)
+                                                                                        throws PersistenceException {
+        final Map<String, Object> parameters = new HashMap<>();
+        parameters.put("beforeDate", maxLastChangeDate);
+        return processPages(MessageUnit.class, LAST_CHANGE_BEFORE_CONDITION, parameters, chunkSize, callback,
+                            "processMessageUnitsWithLastStateChangedBefore");
     }
 
     @Override
     public <T extends IMessageUnit, V extends IMessageUnitEntity> List<V> getMessageUnitsForPModesInState(Class<T> type,
                                     Collection<String> pmodeIds, ProcessingState state) throws PersistenceException {
         List<T> jpaResult = null;
-        final EntityManager em = EntityManagerUtil.getEntityManager();
+        final EntityManager em = UnitOfWork.getEntityManager();
 
         Class jpaEntityClass = JPAEntityHelper.determineJPAClass(type);
         final String queryString = "SELECT mu "
-                                 + "FROM " + jpaEntityClass.getSimpleName()  + " mu JOIN FETCH mu.states s1 "
+                                 + "FROM " + jpaEntityClass.getSimpleName()  + " mu JOIN FETCH mu.states "
                                  + "WHERE mu.PMODE_ID IN :pmodeIds "
-                                 + "AND s1.PROC_STATE_NUM = (SELECT MAX(s2.PROC_STATE_NUM) FROM mu.states s2) "
-                                 + "AND s1.STATE = :state "
+                                 + "AND mu.CURRENT_PROC_STATE = :state "
                                  + "ORDER BY mu.MU_TIMESTAMP";
         try {
-            em.getTransaction().begin();
+            UnitOfWork.beginTransaction(em);
             jpaResult = em.createQuery(queryString, jpaEntityClass)
                                     .setParameter("pmodeIds", pmodeIds)
                                     .setParameter("state", state)
@@ -152,11 +223,159 @@ public class QueryManager implements IQueryManager {
             // Something went wrong during query execution
             throw new PersistenceException("Could not execute query \"getMessageUnitsForPModesInState\"", e);
         } finally {
-            em.getTransaction().commit();
-            em.close();
+            UnitOfWork.commitTransaction(em);
+            UnitOfWork.closeEntityManager(em);
         }
 
-        return JPAEntityHelper.wrapInEntity(jpaResult);
+        return JPAEntityHelper.wrapInEntity(removeDuplicates(jpaResult));
+    }
+
+    /**
+     * Helper method to retrieve a page of message units that meet the given condition. The message units are ordered by
+     * their object id and only the ones stored after the given message unit are included.
+     *
+     * @param jpaEntityClass    The JPA class of the message units to retrieve
+     * @param condition         The JPQL condition the message units must meet, using <i>mu</i> as alias
+     * @param parameters        The values of the parameters used in the condition
+     * @param afterOID          The object id of the last message unit selected for the previous page, <code>null</code>
+     *                          for the first page
+     * @param maxResults        The maximum number of message units to include in the page
+     * @param queryName         The name of the query, used in the error message if the query fails
+     * @return                  The page of message units, without message units if there are no more message units
+     * @throws PersistenceException When an error occurs executing the query
+     */
+    private static <V extends IMessageUnitEntity> Page<V> getPage(final Class jpaEntityClass, final String condition,
+                                                                  final Map<String, Object> parameters,
+                                                                  final Long afterOID, final int maxResults,
+                                                                  final String queryName)
+                                                                                        throws PersistenceException {
+        if (maxResults <= 0)
+            throw new IllegalArgumentException("Maximum number of results must be positive");
+
+        List<MessageUnit> jpaResult = null;
+        List<Long> oids = null;
+        final EntityManager em = UnitOfWork.getEntityManager();
+
+        final String oidQueryString = "SELECT mu.OID "
+                                    + "FROM " + jpaEntityClass.getSimpleName() + " mu "
+                                    + "WHERE " + condition + " "
+                                    + (afterOID != null ? "AND mu.OID > :after " : "")
+                                    + "ORDER BY mu.OID";
+        final String queryString = "SELECT mu "
+                                 + "FROM " + jpaEntityClass.getSimpleName() + " mu JOIN FETCH mu.states "
+                                 + "WHERE mu.OID IN :oids "
+                                 + "ORDER BY mu.OID";
+        try {
+            UnitOfWork.beginTransaction(em);
+            final TypedQuery<Long> oidQuery = em.createQuery(oidQueryString, Long.class);
+            for (final Map.Entry<String, Object> p : parameters.entrySet())
+                if (p.getValue() instanceof Date)
+                    oidQuery.setParameter(p.getKey(), (Date) p.getValue(), TemporalType.TIMESTAMP);
+                else
+                    oidQuery.setParameter(p.getKey(), p.getValue());
+            if (afterOID != null)
+                oidQuery.setParameter("after", afterOID);
+            oids = oidQuery.setMaxResults(maxResults).getResultList();
+            if (!oids.isEmpty())
+                jpaResult = em.createQuery(queryString, jpaEntityClass)
+                                        .setParameter("oids", oids)
+                                        .getResultList();
+        } catch (final Exception e) {
+            // Something went wrong during query execution
+            throw new PersistenceException("Could not execute query \"" + queryName + "\"", e);
+        } finally {
+            UnitOfWork.commitTransaction(em);
+            UnitOfWork.closeEntityManager(em);
+        }
+
+        // Message units may have been removed after their object id was selected, so the page may contain less message
+        // units than selected. Therefore the object ids are used to determine where the next page starts
+        final List<V> messageUnits = Utils.isNullOrEmpty(jpaResult) ? new ArrayList<V>()
+                                        : JPAEntityHelper.<MessageUnit, V>wrapInEntity(removeDuplicates(jpaResult));
+        return Utils.isNullOrEmpty(oids) ? new Page<>(messageUnits, afterOID, false)
+                                         : new Page<>(messageUnits, oids.get(oids.size() - 1), oids.size() == maxResults);
+    }
+
+    /**
+     * Helper method to hand over all message units that meet the given condition to the given callback. The message
+     * units are retrieved in pages of the given size, see {@link #getPage(Class, String, Map, Long, int, String)}, and
+     * handed over until all are processed or the callback indicates to stop.
+     *
+     * @param jpaEntityClass    The JPA class of the message units to retrieve
+     * @param condition         The JPQL condition the message units must meet, using <i>mu</i> as alias
+     * @param parameters        The values of the parameters used in the condition
+     * @param chunkSize         The number of message units to retrieve at once
+     * @param callback          The callback that processes the message units
+     * @param queryName         The name of the query, used in the error message if the query fails
+     * @return                  The number of message units handed over to the callback
+     * @throws PersistenceException When an error occurs executing the query or when the callback threw the exception
+     */
+    private static <V extends IMessageUnitEntity> int processPages(final Class jpaEntityClass, final String condition,
+                                                                   final Map<String, Object> parameters,
+                                                                   final int chunkSize,
+                                                                   final IMessageUnitCallback<V> callback,
+                                                                   final String queryName)
+                                                                                        throws PersistenceException {
+        int processed = 0;
+        Page<V> page = getPage(jpaEntityClass, condition, parameters, null, chunkSize, queryName);
+        while (true) {
+            for (final V messageUnit : page.messageUnits) {
+                processed++;
+                if (!callback.process(messageUnit))
+                    return processed;
+            }
+            if (!page.full)
+                return processed;
+            page = getPage(jpaEntityClass, condition, parameters, page.lastOID, chunkSize, queryName);
+        }
+    }
+
+    /**
+     * Gets the object id of the given message unit to use as start of the next page.
+     *
+     * @param after     The last message unit of the previous page, <code>null</code> for the first page
+     * @return          The object id of the message unit, <code>null</code> for the first page
+     */
+    private static Long getOID(final IMessageUnitEntity after) {
+        return after != null ? ((MessageUnitEntity) after).getOID() : null;
+    }
+
+    /**
+     * Is a page of message units together with the information needed to retrieve the next page.
+     */
+    private static class Page<V> {
+        /**
+         * The message units in the page
+         */
+        final List<V>   messageUnits;
+        /**
+         * The object id of the last message unit selected for the page
+         */
+        final Long      lastOID;
+        /**
+         * Indicates whether the maximum number of message units was selected, i.e. whether there may be more pages
+         */
+        final boolean   full;
+
+        Page(final List<V> messageUnits, final Long lastOID, final boolean full) {
+            this.messageUnits = messageUnits;
+            this.lastOID = lastOID;
+            this.full = full;
+        }
+    }
+
+    /**
+     * Helper method to remove the duplicate message units from a query result that fetched the states of the message
+     * units. The order of the message units in the result is retained.
+     *
+     * @param jpaResult     The query result
+     * @return              The query result without duplicates
+     */
+    private static <T> List<T> removeDuplicates(final List<T> jpaResult) {
+        if (Utils.isNullOrEmpty(jpaResult))
+            return jpaResult;
+        else
+            return new ArrayList<>(new LinkedHashSet<>(jpaResult));
     }
 
     @Override
@@ -166,9 +385,9 @@ public class QueryManager implements IQueryManager {
             return;
 
         MessageUnitEntity providerEntityObject = (MessageUnitEntity) messageUnit;
-        EntityManager em = EntityManagerUtil.getEntityManager();
+        EntityManager em = UnitOfWork.getEntityManager();
         try {
-            em.getTransaction().begin();
+            UnitOfWork.beginTransaction(em);
 
             final MessageUnit actual = em.find(MessageUnit.class, providerEntityObject.getOID());
             loadCompletely(actual);
@@ -179,8 +398,75 @@ public class QueryManager implements IQueryManager {
             // Something went wrong during query execution
             throw new PersistenceException("Could not load the object from the database", e);
         } finally {
-            em.getTransaction().commit();
-            em.close();
+            UnitOfWork.commitTransaction(em);
+            UnitOfWork.closeEntityManager(em);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>The meta-data of all given message units is loaded using one query per collection of meta-data, so the number
+     * of queries does not depend on the number of message units. The collections that are fetched eagerly, like the
+     * properties of the payloads and the identifiers of the trading partners, are loaded before their owners so they
+     * are not loaded one by one when their owners are loaded.
+     */
+    @Override
+    public void ensureCompletelyLoaded(Collection<? extends IMessageUnitEntity> messageUnits)
+                                                                                        throws PersistenceException {
+        final Map<Long, MessageUnitEntity> toLoad = new HashMap<>();
+        final List<Long> userMsgOIDs = new ArrayList<>();
+        final List<Long> errorOIDs = new ArrayList<>();
+        for (final IMessageUnitEntity mu : messageUnits)
+            if (!mu.isLoadedCompletely()) {
+                final MessageUnitEntity providerEntityObject = (MessageUnitEntity) mu;
+                toLoad.put(providerEntityObject.getOID(), providerEntityObject);
+                if (mu instanceof IUserMessage)
+                    userMsgOIDs.add(providerEntityObject.getOID());
+                else if (mu instanceof IErrorMessage)
+                    errorOIDs.add(providerEntityObject.getOID());
+            }
+        if (toLoad.isEmpty())
+            return;
+
+        EntityManager em = UnitOfWork.getEntityManager();
+        try {
+            UnitOfWork.beginTransaction(em);
+            // No DISTINCT in these queries as Derby does not allow it on the CLOB columns, the fetch joins may
+            // therefore return duplicates which are removed by collecting the results in a set
+            if (!userMsgOIDs.isEmpty()) {
+                em.createQuery("SELECT p FROM Payload p LEFT JOIN FETCH p.properties WHERE p IN "
+                               + "(SELECT pl FROM UserMessage um JOIN um.payloads pl WHERE um.OID IN :oids)")
+                  .setParameter("oids", userMsgOIDs).getResultList();
+                em.createQuery("SELECT tp FROM TradingPartner tp LEFT JOIN FETCH tp.partyIds WHERE tp IN "
+                               + "(SELECT t FROM UserMessage um JOIN um.partners t WHERE um.OID IN :oids)")
+                  .setParameter("oids", userMsgOIDs).getResultList();
+            }
+            final Set<MessageUnit> actuals = new LinkedHashSet<>(
+                                    em.createQuery("SELECT mu FROM MessageUnit mu LEFT JOIN FETCH mu.states "
+                                                   + "WHERE mu.OID IN :oids", MessageUnit.class)
+                                      .setParameter("oids", new ArrayList<>(toLoad.keySet()))
+                                      .getResultList());
+            if (!userMsgOIDs.isEmpty())
+                for (final String collection : new String[] { "payloads", "properties", "partners" })
+                    em.createQuery("SELECT um FROM UserMessage um LEFT JOIN FETCH um." + collection
+                                   + " WHERE um.OID IN :oids").setParameter("oids", userMsgOIDs).getResultList();
+            if (!errorOIDs.isEmpty())
+                em.createQuery("SELECT em FROM ErrorMessage em LEFT JOIN FETCH em.errors "
+                               + "WHERE em.OID IN :oids").setParameter("oids", errorOIDs).getResultList();
+
+            for (final MessageUnit actual : actuals) {
+                // All collections are already fetched, so this does not execute any more queries
+                loadCompletely(actual);
+                final MessageUnitEntity providerEntityObject = toLoad.get(actual.getOID());
+                providerEntityObject.updateJPAObject(actual);
+                providerEntityObject.setMetadataLoaded(true);
+            }
+        } catch (final Exception e) {
+            // Something went wrong during query execution
+            throw new PersistenceException("Could not load the objects from the database", e);
+        } finally {
+            UnitOfWork.commitTransaction(em);
+            UnitOfWork.closeEntityManager(em);
         }
     }
 
@@ -205,14 +491,14 @@ public class QueryManager implements IQueryManager {
     @Override
     public int getNumberOfTransmissions(IUserMessageEntity userMessage) throws PersistenceException {
         int result = 0;
-        final EntityManager em = EntityManagerUtil.getEntityManager();
+        final EntityManager em = UnitOfWork.getEntityManager();
 
         final String query = "SELECT COUNT(s1.STATE) "
                            + "FROM UserMessage um JOIN um.states s1 "
                            + "WHERE um.MESSAGE_ID = :msgId "
                            + "AND s1.STATE = :state";
         try {
-            em.getTransaction().begin();
+            UnitOfWork.beginTransaction(em);
             result = em.createQuery(query, Long.class)
                                     .setParameter("msgId", userMessage.getMessageId())
                                     .setParameter("state", ProcessingState.SENDING)
@@ -223,8 +509,8 @@ public class QueryManager implements IQueryManager {
             // Something went wrong during query execution
             throw new PersistenceException("Could not execute query \"getNumberOfTransmissions\"", e);
         } finally {
-            em.getTransaction().commit();
-            em.close();
+            UnitOfWork.commitTransaction(em);
+            UnitOfWork.closeEntityManager(em);
         }
         return result;
     }
@@ -232,28 +518,50 @@ public class QueryManager implements IQueryManager {
     @Override
     public boolean isAlreadyDelivered(String messageId) throws PersistenceException {
         boolean result = false;
-        final EntityManager em = EntityManagerUtil.getEntityManager();
+        final EntityManager em = UnitOfWork.getEntityManager();
 
-        final String query = "SELECT 'true' "
-                           + "FROM UserMessage um JOIN um.states s1 "
-                           + "WHERE um.DIRECTION = :direction AND um.MESSAGE_ID = :msgId "
-                           + "AND s1.PROC_STATE_NUM = (SELECT MAX(s2.PROC_STATE_NUM) FROM um.states s2) "
-                           + "AND s1.STATE = :state";
+        final String query = "SELECT COUNT(um) "
+                           + "FROM UserMessage um "
+                           + "WHERE um.MESSAGE_ID = :msgId AND um.DIRECTION = :direction "
+                           + "AND um.CURRENT_PROC_STATE = :state";
         try {
-            em.getTransaction().begin();
-            result = "true".equals(em.createQuery(query)
+            UnitOfWork.beginTransaction(em);
+            result = em.createQuery(query, Long.class)
                                      .setParameter("direction", IMessageUnit.Direction.IN)
                                      .setParameter("msgId", messageId)
                                      .setParameter("state", ProcessingState.DELIVERED)
-                                     .getSingleResult());
+                                     .getSingleResult() > 0;
         } catch (final NoResultException nothingFound) {
             result = false;
         } catch (final Exception e) {
             // Something went wrong during query execution
             throw new PersistenceException("Could not execute query \"isAlreadyDelivered\"", e);
         } finally {
-            em.getTransaction().commit();
-            em.close();
+            UnitOfWork.commitTransaction(em);
+            UnitOfWork.closeEntityManager(em);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<ProcessingState, Long> getNumberOfMessageUnitsPerState() throws PersistenceException {
+        final Map<ProcessingState, Long> result = new EnumMap<>(ProcessingState.class);
+        final EntityManager em = UnitOfWork.getEntityManager();
+
+        final String query = "SELECT mu.CURRENT_PROC_STATE, COUNT(mu) "
+                           + "FROM MessageUnit mu "
+                           + "GROUP BY mu.CURRENT_PROC_STATE";
+        try {
+            UnitOfWork.beginTransaction(em);
+            for (final Object[] row : em.createQuery(query, Object[].class).getResultList())
+                if (row[0] != null)
+                    result.put((ProcessingState) row[0], (Long) row[1]);
+        } catch (final Exception e) {
+            // Something went wrong during query execution
+            throw new PersistenceException("Could not execute query \"getNumberOfMessageUnitsPerState\"", e);
+        } finally {
+            UnitOfWork.commitTransaction(em);
+            UnitOfWork.closeEntityManager(em);
         }
         return result;
     }
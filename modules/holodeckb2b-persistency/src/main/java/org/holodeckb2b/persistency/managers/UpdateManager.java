@@ -18,6 +18,7 @@ package org.holodeckb2b.persistency.managers;
 
 import org.holodeckb2b.common.messagemodel.MessageProcessingState;
 import org.holodeckb2b.common.messagemodel.util.MessageUnitUtils;
+import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
 import org.holodeckb2b.interfaces.messagemodel.IPayload;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
@@ -32,8 +33,8 @@ import org.holodeckb2b.persistency.jpa.ErrorMessage;
 import org.holodeckb2b.persistency.jpa.MessageUnit;
 import org.holodeckb2b.persistency.jpa.MessageUnitProcessingState;
 import org.holodeckb2b.persistency.jpa.UserMessage;
-import org.holodeckb2b.persistency.util.EntityManagerUtil;
 import org.holodeckb2b.persistency.util.JPAEntityHelper;
+import org.holodeckb2b.persistency.util.UnitOfWork;
 
 import javax.persistence.EntityManager;
 import javax.persistence.LockModeType;
@@ -41,10 +42,16 @@ import javax.persistence.OptimisticLockException;
 import javax.persistence.RollbackException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Is the default persistency provider's implementation of the {@link IUpdateManager} interface.
+ * <p>Since version 3.1.0 the updates take part in the {@link UnitOfWork} active on the current thread. Within a unit of
+ * work the conditional change of the processing state can not rely on optimistic locking as the version check would
+ * only be done when the unit of work is committed. Therefore the message unit is locked in the database before its
+ * current processing state is checked, see {@link #lockMessageUnit(EntityManager, long)}.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  * @since  3.0.0
@@ -63,17 +70,17 @@ public class UpdateManager implements IUpdateManager {
                     new Class[] { MessageUnitUtils.getMessageUnitType(messageUnit) });
             jpaMsgUnit = (MessageUnit) cons.newInstance(messageUnit);
 
-            em = EntityManagerUtil.getEntityManager();
-            em.getTransaction().begin();
+            em = UnitOfWork.getEntityManager();
+            UnitOfWork.beginTransaction(em);
             em.persist(jpaMsgUnit);
-            em.getTransaction().commit();
+            UnitOfWork.commitTransaction(em);
         } catch (NoSuchMethodException | SecurityException | InstantiationException
                 | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
             // Could not create a JPA entity object for the given message unit
             throw new PersistenceException("An error occurred while saving the message unit's meta-data!", ex);
         } finally {
-            if (em != null && em.isOpen())
-                em.close();
+            if (em != null)
+                UnitOfWork.closeEntityManager(em);
         }
 
         return JPAEntityHelper.wrapInEntity(jpaMsgUnit, true);
@@ -82,18 +89,24 @@ public class UpdateManager implements IUpdateManager {
     @Override
     public boolean setProcessingState(final IMessageUnitEntity msgUnit, final ProcessingState currentProcState,
                                       final ProcessingState newProcState) throws PersistenceException {
-        EntityManager em = EntityManagerUtil.getEntityManager();
+        EntityManager em = UnitOfWork.getEntityManager();
+        final boolean inUnitOfWork = UnitOfWork.isPartOfUnitOfWork(em);
         try {
-            em.getTransaction().begin();
+            UnitOfWork.beginTransaction(em);
             // Reload the entity object from the database so we've actual data and a managed JPA object ready for change
-            MessageUnit jpaMsgUnit = em.find(MessageUnit.class, ((MessageUnitEntity) msgUnit).getOID(),
-                                             LockModeType.OPTIMISTIC_FORCE_INCREMENT);
+            MessageUnit jpaMsgUnit;
+            if (inUnitOfWork)
+                jpaMsgUnit = lockMessageUnit(em, ((MessageUnitEntity) msgUnit).getOID());
+            else
+                jpaMsgUnit = em.find(MessageUnit.class, ((MessageUnitEntity) msgUnit).getOID(),
+                                     LockModeType.OPTIMISTIC_FORCE_INCREMENT);
             // Check that the current state equals the required state
             MessageUnitProcessingState currentState = (MessageUnitProcessingState)
                                                                                 jpaMsgUnit.getCurrentProcessingState();
             if (currentState.getState() != currentProcState) {
-                // Not in the required state, stop execution
-                em.getTransaction().rollback();
+                // Not in the required state, stop execution. Within a unit of work only this change is not executed
+                if (!inUnitOfWork)
+                    em.getTransaction().rollback();
                 return false;
             }
             // Current state is as requested, update to new state
@@ -103,64 +116,116 @@ public class UpdateManager implements IUpdateManager {
             // Ensure that the object stays completely loaded if it was already so previously
             if (msgUnit.isLoadedCompletely())
                 QueryManager.loadCompletely(jpaMsgUnit);
-            em.getTransaction().commit();
+            UnitOfWork.commitTransaction(em);
             // Update the entity object
             ((MessageUnitEntity) msgUnit).updateJPAObject(jpaMsgUnit);
             return true;
         } catch (final OptimisticLockException | RollbackException alreadyChanged) {
             // During transaction the message unit was already updated, so state can not be changed.
             // Rollback and return false
-            if (em.getTransaction().isActive())
-                em.getTransaction().rollback();
+            UnitOfWork.rollbackTransaction(em);
+            if (inUnitOfWork)
+                // The other changes in the unit of work are also rolled back, which must be reported to the caller
+                throw new PersistenceException("The message unit was changed concurrently within the unit of work!",
+                                               alreadyChanged);
             return false;
         } catch (final Exception e) {
             // Another error occured when updating the processing state. Rollback and rethrow as DatabaseException
-            em.getTransaction().rollback();
+            UnitOfWork.rollbackTransaction(em);
             throw new PersistenceException("An error occurred while updating the processing state!", e);
         }finally {
-            em.close();
+            UnitOfWork.closeEntityManager(em);
         }
     }
 
+    /**
+     * Locks the given message unit in the database for the remainder of the unit of work's transaction and loads its
+     * current data. The lock is acquired by incrementing the version of the message unit in the database as this is
+     * supported by all databases, also for entities stored in multiple tables. This will wait for other transactions
+     * that changed the message unit to complete and will let transactions that read the message unit before fail their
+     * optimistic lock check.
+     *
+     * @param em    The entity manager of the unit of work
+     * @param oid   The OID of the message unit to lock
+     * @return      The managed JPA object of the locked message unit, with its current data
+     */
+    private MessageUnit lockMessageUnit(final EntityManager em, final long oid) {
+        // Ensure pending changes, including the insert of a new message unit, are executed before locking
+        em.flush();
+        em.createNativeQuery("UPDATE MSG_UNIT SET VERSION = VERSION + 1 WHERE OID = ?1")
+          .setParameter(1, oid)
+          .executeUpdate();
+        final MessageUnit jpaMsgUnit = em.find(MessageUnit.class, oid);
+        em.refresh(jpaMsgUnit);
+        return jpaMsgUnit;
+    }
+
     @Override
     public void deleteMessageUnit(final IMessageUnitEntity messageUnit) throws PersistenceException {
-        EntityManager em = EntityManagerUtil.getEntityManager();
+        EntityManager em = UnitOfWork.getEntityManager();
         try {
-            em.getTransaction().begin();
+            UnitOfWork.beginTransaction(em);
             // Reload the entity object from the database so we've actual data and a managed JPA object ready for change
             MessageUnit jpaMsgUnit = em.find(MessageUnit.class, ((MessageUnitEntity) messageUnit).getOID());
             em.remove(jpaMsgUnit);
-            em.getTransaction().commit();
+            UnitOfWork.commitTransaction(em);
         } catch (final Exception e) {
             // Something went wrong while executing the update, rollback the transaction (if active) and throw exception
-            if (em.getTransaction().isActive())
-                em.getTransaction().rollback();
+            UnitOfWork.rollbackTransaction(em);
             throw new PersistenceException("An error occurred in the update of the message unit meta-data!", e);
         }finally {
-            em.close();
+            UnitOfWork.closeEntityManager(em);
+        }
+    }
+
+    @Override
+    public void deleteMessageUnits(final Collection<? extends IMessageUnitEntity> messageUnits)
+                                                                                        throws PersistenceException {
+        if (Utils.isNullOrEmpty(messageUnits))
+            return;
+
+        final List<Long> oids = new ArrayList<>(messageUnits.size());
+        for (final IMessageUnitEntity mu : messageUnits)
+            oids.add(((MessageUnitEntity) mu).getOID());
+
+        EntityManager em = UnitOfWork.getEntityManager();
+        try {
+            UnitOfWork.beginTransaction(em);
+            // Load all message units at once and remove them in one flush so the deletes can be batched
+            for (final MessageUnit jpaMsgUnit : em.createQuery("SELECT mu FROM MessageUnit mu WHERE mu.OID IN :oids",
+                                                               MessageUnit.class)
+                                                  .setParameter("oids", oids)
+                                                  .getResultList())
+                em.remove(jpaMsgUnit);
+            UnitOfWork.commitTransaction(em);
+        } catch (final Exception e) {
+            // Something went wrong while executing the delete, rollback the transaction (if active) and throw exception
+            UnitOfWork.rollbackTransaction(em);
+            throw new PersistenceException("An error occurred in the removal of the message units meta-data!", e);
+        }finally {
+            UnitOfWork.closeEntityManager(em);
         }
     }
 
     private void performUpdate(final MessageUnitEntity msgUnitEntity, final UpdateCallback update)
                                                                                           throws PersistenceException {
-        EntityManager em = EntityManagerUtil.getEntityManager();
+        EntityManager em = UnitOfWork.getEntityManager();
         try {
-            em.getTransaction().begin();
+            UnitOfWork.beginTransaction(em);
             // Reload the entity object from the database so we've actual data and a managed JPA object ready for change
             MessageUnit jpaMsgUnit = em.find(MessageUnit.class, msgUnitEntity.getOID());
             update.perform(jpaMsgUnit);
             // Ensure that the object stays completely loaded if it was already so previously
             if (msgUnitEntity.isLoadedCompletely())
                 QueryManager.loadCompletely(jpaMsgUnit);
-            em.getTransaction().commit();
+            UnitOfWork.commitTransaction(em);
             msgUnitEntity.updateJPAObject(jpaMsgUnit);
         } catch (final Exception e) {
             // Something went wrong while executing the update, rollback the transaction (if active) and throw exception
-            if (em.getTransaction().isActive())
-                em.getTransaction().rollback();
+            UnitOfWork.rollbackTransaction(em);
             throw new PersistenceException("An error occurred in the update of the message unit meta-data!", e);
         }finally {
-            em.close();
+            UnitOfWork.closeEntityManager(em);
         }
     }
 
@@ -216,6 +281,21 @@ public class UpdateManager implements IUpdateManager {
         });
     }
 
+    @Override
+    public void startUnitOfWork() throws PersistenceException {
+        UnitOfWork.start();
+    }
+
+    @Override
+    public void commitUnitOfWork() throws PersistenceException {
+        UnitOfWork.commit();
+    }
+
+    @Override
+    public void endUnitOfWork() throws PersistenceException {
+        UnitOfWork.end();
+    }
+
     interface UpdateCallback {
         void perform(final MessageUnit jpaObject);
     }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.persistency.util;
+
+import javax.persistence.EntityManager;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+
+/**
+ * Is a helper class that upgrades the content of an existing database to the current version of the data model. The
+ * changes to the database structure, i.e. new columns and indexes, are applied by Hibernate's schema update when the
+ * <code>EntityManagerFactory</code> is created. This class only takes care of the data that must be converted.
+ * <p>Currently the only conversion needed is to set the current processing state and its start time on the message
+ * units that were stored by a version before 3.1.0, in which the current state was only available as the last entry
+ * in the <code>MSG_STATE</code> table.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public class DatabaseUpgrade {
+
+    private static final Log log = LogFactory.getLog(DatabaseUpgrade.class);
+
+    /*
+     * Native SQL statement to set the current state info on all message units that do not have it yet. Native SQL is
+     * used because the JPQL bulk update on the root of the message unit inheritance hierarchy would require temporary
+     * tables.
+     */
+    private static final String SET_CURRENT_STATE =
+            "UPDATE MSG_UNIT SET "
+          + "CURRENT_PROC_STATE = (SELECT s.STATE FROM MSG_STATE s WHERE s.msgUnit_OID = MSG_UNIT.OID "
+          + "    AND s.PROC_STATE_NUM = (SELECT MAX(s2.PROC_STATE_NUM) FROM MSG_STATE s2 "
+          + "                            WHERE s2.msgUnit_OID = MSG_UNIT.OID)), "
+          + "CURRENT_PROC_STATE_START = (SELECT s.START FROM MSG_STATE s WHERE s.msgUnit_OID = MSG_UNIT.OID "
+          + "    AND s.PROC_STATE_NUM = (SELECT MAX(s2.PROC_STATE_NUM) FROM MSG_STATE s2 "
+          + "                            WHERE s2.msgUnit_OID = MSG_UNIT.OID)) "
+          + "WHERE CURRENT_PROC_STATE IS NULL";
+
+    /**
+     * Upgrades the data in the database to the current version of the data model. Because only message units that
+     * have not been converted yet are changed it is safe to execute the upgrade multiple times.
+     *
+     * @throws PersistenceException When the database could not be upgraded
+     */
+    public static void upgrade() throws PersistenceException {
+        final EntityManager em = EntityManagerUtil.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            final int converted = em.createNativeQuery(SET_CURRENT_STATE).executeUpdate();
+            em.getTransaction().commit();
+            if (converted > 0)
+                log.info("Set current processing state on " + converted + " existing message units");
+        } catch (final Exception e) {
+            if (em.getTransaction().isActive())
+                em.getTransaction().rollback();
+            log.error("Could not upgrade the database! Details: " + e.getMessage());
+            throw new PersistenceException("Could not upgrade the database", e);
+        } finally {
+            em.close();
+        }
+    }
+}
@@ -16,7 +16,14 @@
  */
 package org.holodeckb2b.persistency.util;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -29,28 +36,234 @@ import javax.persistence.spi.ClassTransformer;
 import javax.persistence.spi.PersistenceUnitInfo;
 import javax.persistence.spi.PersistenceUnitTransactionType;
 import javax.sql.DataSource;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.hibernate.dialect.DerbyTenSevenDialect;
 import org.hibernate.jpa.HibernatePersistenceProvider;
+import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
 
 /**
  * Is a helper class to easily get hold of the JPA <code>EntityManager</code> to access the database where the message
- * unit meta-data is stored. This default persistency provider uses a fixed and programmatically built persistency unit
- * that will create an embedded Derby database.
+ * unit meta-data is stored. This default persistency provider uses a programmatically built persistency unit that gets
+ * its connections from a pool of JDBC connections managed by HikariCP.
+ * <p>The database to use and the settings of the connection pool are read from the <code>persistency.properties</code>
+ * file on the class path, which is the <code>conf</code> directory of the Holodeck B2B installation. Another file can be
+ * specified using the <i>"holodeckb2b.persistency.config"</i> system property, either as a file path or as the name of
+ * a resource on the class path. The following properties are supported:<ul>
+ * <li><i>jdbc.driver</i> : the class name of the JDBC driver</li>
+ * <li><i>jdbc.url</i> : the JDBC URL of the database</li>
+ * <li><i>jdbc.user</i> and <i>jdbc.password</i> : the credentials to connect to the database</li>
+ * <li><i>dialect</i> : the class name of the Hibernate dialect for the database. When not specified Hibernate detects
+ * the dialect to use based on the database.</li>
+ * <li><i>pool.maxSize</i> : the maximum number of connections in the pool, default 10</li>
+ * <li><i>pool.minIdle</i> : the minimum number of idle connections kept in the pool, default 2</li>
+ * <li><i>pool.connectionTimeout</i> : the maximum time in milliseconds to wait for a connection, default 30 seconds</li>
+ * <li><i>pool.idleTimeout</i> : the time in milliseconds after which idle connections above the minimum are closed,
+ * default 10 minutes</li>
+ * <li><i>pool.maxLifetime</i> : the maximum time in milliseconds a connection is kept in the pool, default 30
+ * minutes</li>
+ * <li><i>pool.validationQuery</i> : the query to check that a connection is still alive. Only needed for drivers that
+ * do not support the JDBC4 <code>Connection.isValid()</code> method.</li>
+ * <li><i>jpa.additionalClasses</i> : comma separated list of class names of additional JPA entities that should be
+ * managed, for example entities of an extension that uses the same database.</li></ul>
+ * Any property starting with <i>"hibernate."</i> is passed on to Hibernate and can be used to override the default
+ * Hibernate settings. When no configuration file is found the embedded Derby database in <code>db/coreDB</code> is used.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  * @since  3.0.0
  */
 public class EntityManagerUtil {
+
+    private static final Log log = LogFactory.getLog(EntityManagerUtil.class);
+
+    /**
+     * The name of the system property that can be used to specify the configuration file
+     * @since 3.1.0
+     */
+    public static final String CONFIG_FILE_PROPERTY = "holodeckb2b.persistency.config";
+
+    /**
+     * The name of the default configuration file
+     * @since 3.1.0
+     */
+    public static final String DEFAULT_CONFIG_FILE = "persistency.properties";
+
+    /*
+     * The default settings of the database connection and pool
+     */
+    static final String DEFAULT_DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
+    static final String DEFAULT_URL = "jdbc:derby:db/coreDB;databaseName=coreDB;create=true";
+    static final int    DEFAULT_MAX_POOL_SIZE = 10;
+    static final int    DEFAULT_MIN_IDLE = 2;
+    static final long   DEFAULT_CONNECTION_TIMEOUT = 30000;
+    static final long   DEFAULT_IDLE_TIMEOUT = 600000;
+    static final long   DEFAULT_MAX_LIFETIME = 1800000;
+
     // We use SingletonHolder pattern for the reference to the EntityManagerFactory object
     private static final class SingletonHolder
     {
+      static final Properties           config = loadConfiguration();
+      static final HikariDataSource     dataSource = new HikariDataSource(createPoolConfig(config));
       static final EntityManagerFactory instance =  new HibernatePersistenceProvider()
-                                                        .createContainerEntityManagerFactory(getPersistenceUnitInfo(),
-                                                                                             Collections.emptyMap());
+                                                        .createContainerEntityManagerFactory(
+                                                                getPersistenceUnitInfo(dataSource,
+                                                                                       getManagedClasses(config),
+                                                                                       createHibernateSettings(config)),
+                                                                Collections.emptyMap());
+    }
+
+    /**
+     * Loads the configuration of the database connection from the file specified by the <i>
+     * "holodeckb2b.persistency.config"</i> system property or, when not set, from the <code>persistency.properties
+     * </code> resource on the class path.
+     *
+     * @return  The configuration, empty if no configuration file was found
+     * @since 3.1.0
+     */
+    static Properties loadConfiguration() {
+        final String configFile = System.getProperty(CONFIG_FILE_PROPERTY, DEFAULT_CONFIG_FILE);
+        final Properties config = new Properties();
+        InputStream is = null;
+        try {
+            final File f = new File(configFile);
+            if (f.isFile())
+                is = new FileInputStream(f);
+            else
+                is = EntityManagerUtil.class.getClassLoader().getResourceAsStream(configFile);
+            if (is != null) {
+                config.load(is);
+                log.debug("Loaded database configuration from " + configFile);
+            } else
+                log.info("No database configuration found, using default embedded Derby database");
+        } catch (final IOException readFailure) {
+            log.error("Could not read the database configuration from " + configFile + "! Using default settings."
+                     + " Error details: " + readFailure.getMessage());
+        } finally {
+            if (is != null)
+                try { is.close(); } catch (final IOException ignored) {}
+        }
+        return config;
+    }
+
+    /**
+     * Creates the configuration of the connection pool based on the given database configuration.
+     *
+     * @param config    The database configuration
+     * @return          The connection pool configuration
+     * @since 3.1.0
+     */
+    static HikariConfig createPoolConfig(final Properties config) {
+        final HikariConfig poolConfig = new HikariConfig();
+        poolConfig.setPoolName("hb2b-persistency");
+        poolConfig.setDriverClassName(getSetting(config, "jdbc.driver", DEFAULT_DRIVER));
+        poolConfig.setJdbcUrl(getSetting(config, "jdbc.url", DEFAULT_URL));
+        final String user = getSetting(config, "jdbc.user", null);
+        if (user != null) {
+            poolConfig.setUsername(user);
+            poolConfig.setPassword(config.getProperty("jdbc.password"));
+        }
+        poolConfig.setMaximumPoolSize((int) getNumber(config, "pool.maxSize", DEFAULT_MAX_POOL_SIZE));
+        poolConfig.setMinimumIdle((int) getNumber(config, "pool.minIdle", DEFAULT_MIN_IDLE));
+        poolConfig.setConnectionTimeout(getNumber(config, "pool.connectionTimeout", DEFAULT_CONNECTION_TIMEOUT));
+        poolConfig.setIdleTimeout(getNumber(config, "pool.idleTimeout", DEFAULT_IDLE_TIMEOUT));
+        poolConfig.setMaxLifetime(getNumber(config, "pool.maxLifetime", DEFAULT_MAX_LIFETIME));
+        poolConfig.setConnectionTestQuery(getSetting(config, "pool.validationQuery", null));
+        return poolConfig;
     }
 
-    private static PersistenceUnitInfo getPersistenceUnitInfo() {
+    /**
+     * Creates the settings for Hibernate based on the given database configuration.
+     *
+     * @param config    The database configuration
+     * @return          The Hibernate settings
+     * @since 3.1.0
+     */
+    static Properties createHibernateSettings(final Properties config) {
+        final Properties props = new Properties();
+        final String dialect = getSetting(config, "dialect", null);
+        if (dialect != null)
+            props.put(org.hibernate.cfg.AvailableSettings.DIALECT, dialect);
+        else if (getSetting(config, "jdbc.url", null) == null)
+            // Using the default Derby database, no need to detect the dialect
+            props.put(org.hibernate.cfg.AvailableSettings.DIALECT, DerbyTenSevenDialect.class.getName());
+        props.put(org.hibernate.cfg.AvailableSettings.HBM2DDL_AUTO, "update");
+        props.put(org.hibernate.cfg.AvailableSettings.SHOW_SQL, false);
+        props.put(org.hibernate.cfg.AvailableSettings.QUERY_STARTUP_CHECKING, false);
+        props.put(org.hibernate.cfg.AvailableSettings.GENERATE_STATISTICS, false);
+        props.put(org.hibernate.cfg.AvailableSettings.USE_REFLECTION_OPTIMIZER, false);
+        props.put(org.hibernate.cfg.AvailableSettings.USE_SECOND_LEVEL_CACHE, false);
+        props.put(org.hibernate.cfg.AvailableSettings.USE_QUERY_CACHE, false);
+        props.put(org.hibernate.cfg.AvailableSettings.USE_STRUCTURED_CACHE, false);
+        props.put(org.hibernate.cfg.AvailableSettings.STATEMENT_BATCH_SIZE, 20);
+        // Apply the Hibernate settings from the configuration file
+        for (final String name : config.stringPropertyNames())
+            if (name.startsWith("hibernate."))
+                props.put(name, config.getProperty(name).trim());
+        return props;
+    }
+
+    /**
+     * Gets the class names of the JPA entities that should be managed, i.e. the entities of the default provider and
+     * the additional entities specified in the configuration.
+     *
+     * @param config    The database configuration
+     * @return          The class names of all JPA entities to manage
+     * @since 3.1.0
+     */
+    static List<String> getManagedClasses(final Properties config) {
+        final List<String> classes = new ArrayList<>(Arrays.asList(
+                                     "org.holodeckb2b.persistency.jpa.AgreementReference",
+                                     "org.holodeckb2b.persistency.jpa.CollaborationInfo",
+                                     "org.holodeckb2b.persistency.jpa.Description",
+                                     "org.holodeckb2b.persistency.jpa.EbmsError",
+                                     "org.holodeckb2b.persistency.jpa.ErrorMessage",
+                                     "org.holodeckb2b.persistency.jpa.MessageUnit",
+                                     "org.holodeckb2b.persistency.jpa.MessageUnitProcessingState",
+                                     "org.holodeckb2b.persistency.jpa.PartyId",
+                                     "org.holodeckb2b.persistency.jpa.Payload",
+                                     "org.holodeckb2b.persistency.jpa.Property",
+                                     "org.holodeckb2b.persistency.jpa.PullRequest",
+                                     "org.holodeckb2b.persistency.jpa.Receipt",
+                                     "org.holodeckb2b.persistency.jpa.SchemaReference",
+                                     "org.holodeckb2b.persistency.jpa.Service",
+                                     "org.holodeckb2b.persistency.jpa.TradingPartner",
+                                     "org.holodeckb2b.persistency.jpa.UserMessage"));
+        final String additional = getSetting(config, "jpa.additionalClasses", null);
+        if (additional != null)
+            for (final String c : additional.split(","))
+                if (!Utils.isNullOrEmpty(c))
+                    classes.add(c.trim());
+        return classes;
+    }
+
+    /**
+     * Gets the value of the given property, using the default value when the property is not set or empty.
+     */
+    private static String getSetting(final Properties config, final String name, final String defaultValue) {
+        final String value = config.getProperty(name);
+        return Utils.isNullOrEmpty(value) ? defaultValue : value.trim();
+    }
+
+    /**
+     * Gets the numeric value of the given property.
+     */
+    private static long getNumber(final Properties config, final String name, final long defaultValue) {
+        final String value = getSetting(config, name, null);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (final NumberFormatException invalidNumber) {
+            log.warn("Invalid value for " + name + " [" + value + "] in database configuration, using default ("
+                     + defaultValue + ")");
+            return defaultValue;
+        }
+    }
+
+    private static PersistenceUnitInfo getPersistenceUnitInfo(final DataSource dataSource,
+                                                              final List<String> managedClasses,
+                                                              final Properties hibernateSettings) {
         return new PersistenceUnitInfo() {
             @Override
             public String getPersistenceUnitName() {
@@ -74,7 +287,7 @@ public class EntityManagerUtil {
 
             @Override
             public DataSource getNonJtaDataSource() {
-                return null;
+                return dataSource;
             }
 
             @Override
@@ -94,22 +307,7 @@ public class EntityManagerUtil {
 
             @Override
             public List<String> getManagedClassNames() {
-                return Arrays.asList("org.holodeckb2b.persistency.jpa.AgreementReference",
-                                     "org.holodeckb2b.persistency.jpa.CollaborationInfo",
-                                     "org.holodeckb2b.persistency.jpa.Description",
-                                     "org.holodeckb2b.persistency.jpa.EbmsError",
-                                     "org.holodeckb2b.persistency.jpa.ErrorMessage",
-                                     "org.holodeckb2b.persistency.jpa.MessageUnit",
-                                     "org.holodeckb2b.persistency.jpa.MessageUnitProcessingState",
-                                     "org.holodeckb2b.persistency.jpa.PartyId",
-                                     "org.holodeckb2b.persistency.jpa.Payload",
-                                     "org.holodeckb2b.persistency.jpa.Property",
-                                     "org.holodeckb2b.persistency.jpa.PullRequest",
-                                     "org.holodeckb2b.persistency.jpa.Receipt",
-                                     "org.holodeckb2b.persistency.jpa.SchemaReference",
-                                     "org.holodeckb2b.persistency.jpa.Service",
-                                     "org.holodeckb2b.persistency.jpa.TradingPartner",
-                                     "org.holodeckb2b.persistency.jpa.UserMessage");
+                return managedClasses;
             }
 
             @Override
@@ -129,22 +327,7 @@ public class EntityManagerUtil {
 
             @Override
             public Properties getProperties() {
-                Properties props = new Properties();
-                props.put(org.hibernate.cfg.AvailableSettings.DRIVER, "org.apache.derby.jdbc.EmbeddedDriver");
-                props.put(org.hibernate.cfg.AvailableSettings.URL,
-                                                                "jdbc:derby:db/coreDB;databaseName=coreDB;create=true");
-                props.put(org.hibernate.cfg.AvailableSettings.DIALECT, DerbyTenSevenDialect.class);
-                props.put(org.hibernate.cfg.AvailableSettings.HBM2DDL_AUTO, "update");
-                props.put(org.hibernate.cfg.AvailableSettings.SHOW_SQL, false);
-                props.put(org.hibernate.cfg.AvailableSettings.QUERY_STARTUP_CHECKING, false);
-                props.put(org.hibernate.cfg.AvailableSettings.GENERATE_STATISTICS, false);
-                props.put(org.hibernate.cfg.AvailableSettings.USE_REFLECTION_OPTIMIZER, false);
-                props.put(org.hibernate.cfg.AvailableSettings.USE_SECOND_LEVEL_CACHE, false);
-                props.put(org.hibernate.cfg.AvailableSettings.USE_QUERY_CACHE, false);
-                props.put(org.hibernate.cfg.AvailableSettings.USE_STRUCTURED_CACHE, false);
-                props.put(org.hibernate.cfg.AvailableSettings.STATEMENT_BATCH_SIZE, 20);
-
-                return props;
+                return hibernateSettings;
             }
 
             @Override
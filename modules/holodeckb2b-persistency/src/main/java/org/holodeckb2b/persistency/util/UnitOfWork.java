@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.persistency.util;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+
+/**
+ * Manages the <i>unit of work</i> of the current thread. A unit of work groups the database operations executed by the
+ * update and query manager on one thread into as few transactions as possible. While a unit of work is active all
+ * operations use the same {@link EntityManager} and the transaction is only committed when the unit of work is
+ * explicitly committed or ended. When no unit of work is active each operation uses its own entity manager and
+ * transaction, as before.
+ * <p>The transaction of the unit of work is started lazily by the first operation that is executed after the unit of
+ * work is started or committed, so committing a unit of work in which no operation was executed does not access the
+ * database. Units of work can be nested, only ending the outermost one commits the changes and releases the entity
+ * manager.
+ * <p>The operations use the methods {@link #getEntityManager()}, {@link #beginTransaction(EntityManager)}, {@link
+ * #commitTransaction(EntityManager)}, {@link #rollbackTransaction(EntityManager)} and {@link
+ * #closeEntityManager(EntityManager)} instead of managing the entity manager and transaction themselves so they take
+ * part in the unit of work if one is active.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  3.1.0
+ */
+public final class UnitOfWork {
+
+    /**
+     * The unit of work active on the current thread
+     */
+    private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<>();
+
+    /**
+     * The entity manager shared by all operations in the unit of work
+     */
+    private final EntityManager em;
+
+    /**
+     * The number of nested units of work started after the outermost one
+     */
+    private int nesting = 0;
+
+    private UnitOfWork(final EntityManager em) {
+        this.em = em;
+    }
+
+    /**
+     * Starts a unit of work on the current thread. If a unit of work is already active a nested one is started which
+     * is part of the already active unit of work.
+     *
+     * @throws PersistenceException When no entity manager could be created for the unit of work
+     */
+    public static void start() throws PersistenceException {
+        final UnitOfWork uow = current.get();
+        if (uow == null)
+            current.set(new UnitOfWork(EntityManagerUtil.getEntityManager()));
+        else
+            uow.nesting++;
+    }
+
+    /**
+     * Indicates whether a unit of work is active on the current thread.
+     *
+     * @return <code>true</code> if a unit of work is active, <code>false</code> otherwise
+     */
+    public static boolean isActive() {
+        return current.get() != null;
+    }
+
+    /**
+     * Commits the changes made in the unit of work active on the current thread. The unit of work remains active and
+     * subsequent operations are executed in a new transaction. If no unit of work is active this method does nothing.
+     *
+     * @throws PersistenceException When the changes could not be committed. The changes are rolled back in that case.
+     */
+    public static void commit() throws PersistenceException {
+        final UnitOfWork uow = current.get();
+        if (uow != null)
+            uow.commitChanges();
+    }
+
+    /**
+     * Ends the unit of work active on the current thread. If this is the outermost unit of work the changes made are
+     * committed and the entity manager is released. If no unit of work is active this method does nothing.
+     *
+     * @throws PersistenceException When the changes could not be committed. The changes are rolled back in that case
+     *                              but the unit of work is ended nonetheless.
+     */
+    public static void end() throws PersistenceException {
+        final UnitOfWork uow = current.get();
+        if (uow == null)
+            return;
+        if (uow.nesting > 0) {
+            uow.nesting--;
+            return;
+        }
+        current.remove();
+        try {
+            uow.commitChanges();
+        } finally {
+            uow.em.close();
+        }
+    }
+
+    /**
+     * Gets the entity manager to use for a database operation. This is the entity manager of the unit of work if one
+     * is active on the current thread, or else a new entity manager that must be closed by the operation using {@link
+     * #closeEntityManager(EntityManager)}.
+     *
+     * @return  The entity manager to use for the operation
+     * @throws PersistenceException When no entity manager could be created
+     */
+    public static EntityManager getEntityManager() throws PersistenceException {
+        final UnitOfWork uow = current.get();
+        return uow != null ? uow.em : EntityManagerUtil.getEntityManager();
+    }
+
+    /**
+     * Indicates whether the given entity manager is the one of the unit of work active on the current thread.
+     *
+     * @param em    The entity manager to check
+     * @return      <code>true</code> if the entity manager belongs to the active unit of work,<br>
+     *              <code>false</code> otherwise
+     */
+    public static boolean isPartOfUnitOfWork(final EntityManager em) {
+        final UnitOfWork uow = current.get();
+        return uow != null && uow.em == em;
+    }
+
+    /**
+     * Begins the transaction for a database operation. When the entity manager belongs to the unit of work and its
+     * transaction is already active the operation just joins it.
+     *
+     * @param em    The entity manager used for the operation
+     */
+    public static void beginTransaction(final EntityManager em) {
+        final EntityTransaction tx = em.getTransaction();
+        if (!tx.isActive())
+            tx.begin();
+    }
+
+    /**
+     * Commits the transaction of a database operation. When the entity manager belongs to the unit of work the
+     * changes are only committed when the unit of work is committed or ended.
+     *
+     * @param em    The entity manager used for the operation
+     */
+    public static void commitTransaction(final EntityManager em) {
+        if (!isPartOfUnitOfWork(em))
+            em.getTransaction().commit();
+    }
+
+    /**
+     * Rolls back the transaction of a database operation that failed. When the entity manager belongs to the unit of
+     * work this rolls back all changes made in the unit of work since it was started or last committed as the
+     * persistence context can not be used anymore after a failure.
+     *
+     * @param em    The entity manager used for the operation
+     */
+    public static void rollbackTransaction(final EntityManager em) {
+        if (em.getTransaction().isActive())
+            em.getTransaction().rollback();
+        if (isPartOfUnitOfWork(em))
+            em.clear();
+    }
+
+    /**
+     * Closes the entity manager used for a database operation unless it belongs to the unit of work.
+     *
+     * @param em    The entity manager used for the operation
+     */
+    public static void closeEntityManager(final EntityManager em) {
+        if (!isPartOfUnitOfWork(em) && em.isOpen())
+            em.close();
+    }
+
+    /**
+     * Commits the transaction of the unit of work if one was started and clears the persistence context so the next
+     * transaction starts with fresh data from the database.
+     *
+     * @throws PersistenceException When the commit fails
+     */
+    private void commitChanges() throws PersistenceException {
+        final EntityTransaction tx = em.getTransaction();
+        try {
+            if (tx.isActive())
+                tx.commit();
+        } catch (final RuntimeException commitFailure) {
+            if (tx.isActive())
+                tx.rollback();
+            throw new PersistenceException("Could not commit the changes made in the unit of work!", commitFailure);
+        } finally {
+            em.clear();
+        }
+    }
+}
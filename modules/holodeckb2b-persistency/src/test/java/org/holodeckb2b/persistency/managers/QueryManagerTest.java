@@ -16,11 +16,13 @@
  */
 package org.holodeckb2b.persistency.managers;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.holodeckb2b.common.messagemodel.util.CompareUtils;
 import org.holodeckb2b.common.util.Utils;
@@ -29,11 +31,13 @@ import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
 import org.holodeckb2b.interfaces.messagemodel.IPayload;
 import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.dao.IMessageUnitCallback;
 import org.holodeckb2b.interfaces.persistency.dao.IQueryManager;
 import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
 import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
 import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
 import org.holodeckb2b.persistency.entities.ErrorMessageEntity;
+import org.holodeckb2b.persistency.entities.MessageUnitEntity;
 import org.holodeckb2b.persistency.entities.ReceiptEntity;
 import org.holodeckb2b.persistency.entities.UserMessageEntity;
 import org.holodeckb2b.persistency.jpa.UserMessage;
@@ -43,6 +47,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -228,6 +233,163 @@ public class QueryManagerTest {
         assertEquals(5 , result.size());
     }
 
+    @Test
+    public void getPagedMessageUnitsInState() throws PersistenceException {
+        final ProcessingState[] states = new ProcessingState[] { ProcessingState.FAILURE, ProcessingState.RECEIVED,
+                                                                 ProcessingState.DONE };
+        final List<IMessageUnitEntity> all = queryManager.getMessageUnitsInState(IMessageUnit.class,
+                                                                                IMessageUnit.Direction.IN, states);
+        assertEquals(4, all.size());
+
+        List<IMessageUnitEntity> page = queryManager.getMessageUnitsInState(IMessageUnit.class,
+                                                                            IMessageUnit.Direction.IN, states, null, 3);
+        assertEquals(3, page.size());
+        assertOrderedByOID(page);
+        final Set<String> found = new HashSet<>();
+        for (IMessageUnitEntity mu : page)
+            found.add(mu.getMessageId());
+
+        page = queryManager.getMessageUnitsInState(IMessageUnit.class, IMessageUnit.Direction.IN, states,
+                                                   page.get(page.size() - 1), 3);
+        assertEquals(1, page.size());
+        found.add(page.get(0).getMessageId());
+        for (IMessageUnitEntity mu : all)
+            assertTrue(found.contains(mu.getMessageId()));
+
+        // The last page is followed by an empty one
+        page = queryManager.getMessageUnitsInState(IMessageUnit.class, IMessageUnit.Direction.IN, states,
+                                                   page.get(0), 3);
+        assertNotNull(page);
+        assertTrue(page.isEmpty());
+
+        // The complete state history must also be available in the paged result
+        List<IUserMessageEntity> umPage = queryManager.getMessageUnitsInState(IUserMessage.class,
+                                                            IMessageUnit.Direction.OUT,
+                                                            new ProcessingState[] { ProcessingState.DELIVERED }, null, 5);
+        assertEquals(1, umPage.size());
+        assertEquals(TestData.userMsg2.getProcessingStates().size(), umPage.get(0).getProcessingStates().size());
+    }
+
+    @Test
+    public void processMessageUnitsInState() throws PersistenceException {
+        final ProcessingState[] states = new ProcessingState[] { ProcessingState.FAILURE, ProcessingState.RECEIVED,
+                                                                 ProcessingState.DONE };
+        for (int chunkSize = 1; chunkSize <= 5; chunkSize++) {
+            final Set<Long> processed = new HashSet<>();
+            assertEquals(4, queryManager.processMessageUnitsInState(IMessageUnit.class, IMessageUnit.Direction.IN,
+                                                                     states, chunkSize,
+                                                                     new IMessageUnitCallback<IMessageUnitEntity>() {
+                    @Override
+                    public boolean process(IMessageUnitEntity messageUnit) throws PersistenceException {
+                        assertTrue(processed.add(((MessageUnitEntity) messageUnit).getOID()));
+                        return true;
+                    }
+                }));
+            assertEquals(4, processed.size());
+        }
+
+        // No results
+        assertEquals(0, queryManager.processMessageUnitsInState(IMessageUnit.class, IMessageUnit.Direction.IN,
+                                                new ProcessingState[] { ProcessingState.FAILURE }, 10,
+                                                new IMessageUnitCallback<IMessageUnitEntity>() {
+                    @Override
+                    public boolean process(IMessageUnitEntity messageUnit) throws PersistenceException {
+                        fail();
+                        return false;
+                    }
+                }));
+    }
+
+    @Test
+    public void stopProcessingMessageUnitsInState() throws PersistenceException {
+        final ProcessingState[] states = new ProcessingState[] { ProcessingState.FAILURE, ProcessingState.RECEIVED,
+                                                                 ProcessingState.DONE };
+        for (int chunkSize = 1; chunkSize <= 5; chunkSize++) {
+            final Set<Long> processed = new HashSet<>();
+            assertEquals(3, queryManager.processMessageUnitsInState(IMessageUnit.class, IMessageUnit.Direction.IN,
+                                                                     states, chunkSize,
+                                                                     new IMessageUnitCallback<IMessageUnitEntity>() {
+                    @Override
+                    public boolean process(IMessageUnitEntity messageUnit) throws PersistenceException {
+                        processed.add(((MessageUnitEntity) messageUnit).getOID());
+                        // Stop after the third message unit
+                        return processed.size() < 3;
+                    }
+                }));
+            assertEquals(3, processed.size());
+        }
+    }
+
+    @Test
+    public void getPagedMessageUnitsWithLastStateChangedBefore() throws PersistenceException {
+        List<IMessageUnitEntity> page = queryManager.getMessageUnitsWithLastStateChangedBefore(daysBack(6), null, 2);
+        assertEquals(2, page.size());
+        assertOrderedByOID(page);
+        int total = page.size();
+        while (!page.isEmpty()) {
+            page = queryManager.getMessageUnitsWithLastStateChangedBefore(daysBack(6), page.get(page.size() - 1), 2);
+            assertOrderedByOID(page);
+            total += page.size();
+        }
+        assertEquals(5, total);
+
+        final Set<Long> processed = new HashSet<>();
+        assertEquals(5, queryManager.processMessageUnitsWithLastStateChangedBefore(daysBack(6), 2,
+                                                                    new IMessageUnitCallback<IMessageUnitEntity>() {
+                    @Override
+                    public boolean process(IMessageUnitEntity messageUnit) throws PersistenceException {
+                        processed.add(((MessageUnitEntity) messageUnit).getOID());
+                        return true;
+                    }
+                }));
+        assertEquals(5, processed.size());
+    }
+
+    private void assertOrderedByOID(List<IMessageUnitEntity> page) {
+        long last = -1;
+        for (IMessageUnitEntity mu : page) {
+            final long oid = ((MessageUnitEntity) mu).getOID();
+            assertTrue(oid > last);
+            last = oid;
+        }
+    }
+
+    @Test
+    public void stateQueriesReturnCompleteHistory() throws PersistenceException {
+        List<IUserMessageEntity> result = queryManager.getMessageUnitsInState(IUserMessage.class,
+                                                                IMessageUnit.Direction.OUT,
+                                                                new ProcessingState[] { ProcessingState.DELIVERED });
+        assertFalse(Utils.isNullOrEmpty(result));
+        assertEquals(1, result.size());
+        IUserMessageEntity um = result.get(0);
+        assertEquals(TestData.userMsg2.getMessageId(), um.getMessageId());
+        assertEquals(TestData.userMsg2.getProcessingStates().size(), um.getProcessingStates().size());
+        for (int i = 0; i < um.getProcessingStates().size(); i++)
+            assertEquals(TestData.userMsg2.getProcessingStates().get(i).getState(),
+                         um.getProcessingStates().get(i).getState());
+        assertEquals(ProcessingState.DELIVERED, um.getCurrentProcessingState().getState());
+    }
+
+    @Test
+    public void getNumberOfMessageUnitsPerState() throws PersistenceException {
+        Map<ProcessingState, Long> counts = queryManager.getNumberOfMessageUnitsPerState();
+        assertNotNull(counts);
+        assertFalse(counts.isEmpty());
+        // The counts should be equal to the number of message units found for each state in both directions
+        for (ProcessingState state : ProcessingState.values()) {
+            long expected = 0;
+            for (IMessageUnit.Direction d : IMessageUnit.Direction.values()) {
+                List<IMessageUnitEntity> inState = queryManager.getMessageUnitsInState(IMessageUnit.class, d,
+                                                                                new ProcessingState[] { state });
+                expected += inState == null ? 0 : inState.size();
+            }
+            if (expected == 0)
+                assertFalse(counts.containsKey(state));
+            else
+                assertEquals(Long.valueOf(expected), counts.get(state));
+        }
+    }
+
     private Date daysBack(int d) {
         Calendar currentTime = Calendar.getInstance();
         currentTime.add(Calendar.DAY_OF_YEAR, -d);
@@ -287,4 +449,32 @@ public class QueryManagerTest {
         assertEquals(originalError.getErrorCode(), retrievedError.getErrorCode());
         assertEquals(originalError.getErrorDetail(), retrievedError.getErrorDetail());
     }
+
+    @Test
+    public void ensureCompletelyLoadedCollection() throws PersistenceException {
+        final List<IMessageUnitEntity> msgUnits = new ArrayList<>();
+        for (final IMessageUnit mu : new IMessageUnit[] { TestData.userMsg1, TestData.receipt1, TestData.error3,
+                                                          TestData.userMsg2 })
+            msgUnits.addAll(queryManager.getMessageUnitsWithId(mu.getMessageId()));
+        assertEquals(4, msgUnits.size());
+
+        queryManager.ensureCompletelyLoaded(msgUnits);
+
+        for (final IMessageUnitEntity mu : msgUnits)
+            assertTrue(mu.isLoadedCompletely());
+        final UserMessageEntity userMessage = (UserMessageEntity) msgUnits.get(0);
+        assertTrue(CompareUtils.areEqual(TestData.userMsg1.getSender(), userMessage.getSender()));
+        assertTrue(CompareUtils.areEqual(TestData.userMsg1.getReceiver(), userMessage.getReceiver()));
+        assertEquals(TestData.userMsg1.getPayloads().size(), userMessage.getPayloads().size());
+        IPayload retrievedPayload = userMessage.getPayloads().iterator().next();
+        assertFalse(Utils.isNullOrEmpty(retrievedPayload.getProperties()));
+        assertTrue(CompareUtils.areEqual(TestData.userMsg1.getMessageProperties().iterator().next(),
+                                         userMessage.getMessageProperties().iterator().next()));
+        assertEquals(TestData.userMsg1.getCurrentProcessingState().getState(),
+                     userMessage.getCurrentProcessingState().getState());
+        final ErrorMessageEntity error = (ErrorMessageEntity) msgUnits.get(2);
+        assertEquals(TestData.error3.getErrors().iterator().next().getErrorCode(),
+                     error.getErrors().iterator().next().getErrorCode());
+        assertEquals(TestData.userMsg2.getMessageId(), msgUnits.get(3).getMessageId());
+    }
 }
@@ -45,6 +45,7 @@ import org.holodeckb2b.persistency.jpa.UserMessage;
 import org.holodeckb2b.persistency.test.TestData;
 import org.holodeckb2b.persistency.util.EntityManagerUtil;
 import org.holodeckb2b.persistency.util.JPAEntityHelper;
+import org.holodeckb2b.persistency.util.UnitOfWork;
 import org.junit.After;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -179,7 +180,7 @@ public class UpdateManagerTest {
         ProcUpdater updater1 = new ProcUpdater(userMsg,
                                                userMsg.getCurrentProcessingState().getState(), T_NEW_PROC_STATE_1);
         new Thread(updater1).start();
-        synchronized(updater1) { updater1.wait(); }
+        updater1.waitForResult();
         // Check the new processing state is set
         assertTrue(updater1.s);
         assertEquals(T_NEW_PROC_STATE_1, userMsg.getCurrentProcessingState().getState());
@@ -190,8 +191,9 @@ public class UpdateManagerTest {
         assertEquals(2, userMsgJPA.getProcessingStates().size());
 
         // Test that update is rejected when not in correct state
+        updater1.s = null;
         new Thread(updater1).start();
-        synchronized(updater1) { updater1.wait(); }
+        updater1.waitForResult();
         assertFalse(updater1.s);
         assertEquals(T_NEW_PROC_STATE_1, userMsg.getCurrentProcessingState().getState());
         assertEquals(2, userMsg.getProcessingStates().size());
@@ -206,9 +208,8 @@ public class UpdateManagerTest {
                                                userMsg.getCurrentProcessingState().getState(), T_NEW_PROC_STATE_2);
         new Thread(updater1).start();
         new Thread(updater2).start();
-        synchronized(updater1) { updater1.wait(); }
-        if (updater2.s == null)
-            synchronized(updater2) { updater2.wait(); }
+        updater1.waitForResult();
+        updater2.waitForResult();
         // One should have failed!
         assertFalse(updater1.s && updater2.s);
         // But stat should have changed
@@ -239,12 +240,18 @@ public class UpdateManagerTest {
 
         @Override
         public void run() {
+            Boolean r;
             try {
-                s = updManager.setProcessingState(m, c, n);
+                r = updManager.setProcessingState(m, c, n);
             } catch (PersistenceException ex) {
-                s = false;
+                r = false;
             }
-            synchronized(this) { notify(); }
+            synchronized(this) { s = r; notify(); }
+        }
+
+        synchronized void waitForResult() throws InterruptedException {
+            while (s == null)
+                wait();
         }
     }
 
@@ -275,6 +282,32 @@ public class UpdateManagerTest {
         }
     }
 
+    @Test
+    public void deleteMessageUnits() throws PersistenceException {
+        // First create some records
+        TestData.createTestSet();
+
+        em.getTransaction().begin();
+        final List<MessageUnitEntity> allMsgUnits = JPAEntityHelper.wrapInEntity(em.createQuery("from MessageUnit",
+                                                                                      MessageUnit.class)
+                                                                                     .getResultList());
+        em.getTransaction().commit();
+        assertFalse(Utils.isNullOrEmpty(allMsgUnits));
+        assertTrue(allMsgUnits.size() > 2);
+        // Delete all but the first message unit in one go
+        final List<MessageUnitEntity> toDelete = allMsgUnits.subList(1, allMsgUnits.size());
+        updManager.deleteMessageUnits(toDelete);
+
+        em.clear();
+        assertEquals(1L, (long) em.createQuery("select count(*) from MessageUnit", Long.class).getSingleResult());
+        assertNotNull(em.find(MessageUnit.class, allMsgUnits.get(0).getOID()));
+        for (MessageUnitEntity msgUnit : toDelete)
+            assertNull(em.find(MessageUnit.class, msgUnit.getOID()));
+
+        // Deleting nothing should not fail
+        updManager.deleteMessageUnits(new ArrayList<MessageUnitEntity>());
+    }
+
     @Test
     public void setPModeId() throws PersistenceException {
         // Add a message unit to the database so we can change it
@@ -454,4 +487,107 @@ public class UpdateManagerTest {
             // This is expected!
         }
     }
+
+    @Test
+    public void unitOfWork() throws PersistenceException {
+        long oid;
+        updManager.startUnitOfWork();
+        try {
+            UserMessageEntity userMsg = updManager.storeMessageUnit(
+                                                new org.holodeckb2b.common.messagemodel.UserMessage(TestData.userMsg1));
+            oid = userMsg.getOID();
+            updManager.setPModeId(userMsg, T_NEW_PMODE_ID_1);
+            assertTrue(updManager.setProcessingState(userMsg, userMsg.getCurrentProcessingState().getState(),
+                                                     T_NEW_PROC_STATE_1));
+            // Change is rejected when not in correct state, but the other changes should remain
+            assertFalse(updManager.setProcessingState(userMsg, T_NEW_PROC_STATE_2, T_NEW_PROC_STATE_1));
+            assertTrue(updManager.setProcessingState(userMsg, T_NEW_PROC_STATE_1, T_NEW_PROC_STATE_2));
+            assertEquals(T_NEW_PROC_STATE_2, userMsg.getCurrentProcessingState().getState());
+        } finally {
+            updManager.endUnitOfWork();
+        }
+        assertFalse(UnitOfWork.isActive());
+
+        // Check that all changes are saved in the database
+        UserMessage userMsgJPA = em.find(UserMessage.class, oid);
+        em.refresh(userMsgJPA);
+        assertEquals(T_NEW_PMODE_ID_1, userMsgJPA.getPModeId());
+        assertEquals(T_NEW_PROC_STATE_2, userMsgJPA.getCurrentProcessingState().getState());
+        assertEquals(3, userMsgJPA.getProcessingStates().size());
+    }
+
+    @Test
+    public void nestedUnitOfWork() throws PersistenceException {
+        updManager.startUnitOfWork();
+        updManager.startUnitOfWork();
+        UserMessageEntity userMsg = updManager.storeMessageUnit(
+                                                new org.holodeckb2b.common.messagemodel.UserMessage(TestData.userMsg1));
+        updManager.endUnitOfWork();
+        // The outer unit of work should still be active
+        assertTrue(UnitOfWork.isActive());
+        updManager.endUnitOfWork();
+        assertFalse(UnitOfWork.isActive());
+        // Ending when no unit of work is active should do nothing
+        updManager.endUnitOfWork();
+
+        assertNotNull(em.find(UserMessage.class, userMsg.getOID()));
+    }
+
+    @Test
+    public void unitOfWorkRollback() throws PersistenceException {
+        UserMessageEntity committed, rolledBack;
+        updManager.startUnitOfWork();
+        try {
+            committed = updManager.storeMessageUnit(
+                                                new org.holodeckb2b.common.messagemodel.UserMessage(TestData.userMsg1));
+            // Create checkpoint
+            updManager.commitUnitOfWork();
+            assertTrue(UnitOfWork.isActive());
+
+            rolledBack = updManager.storeMessageUnit(
+                                                new org.holodeckb2b.common.messagemodel.UserMessage(TestData.userMsg2));
+            // Changing the state of a message unit that does not exist fails and rolls back the unit of work
+            try {
+                updManager.setProcessingState(new UserMessageEntity(new UserMessage(TestData.userMsg3)),
+                                              ProcessingState.RECEIVED, T_NEW_PROC_STATE_1);
+                fail("State of non existing message unit changed");
+            } catch (PersistenceException expected) {
+                // Okay
+            }
+        } finally {
+            updManager.endUnitOfWork();
+        }
+
+        // The message unit stored before the checkpoint should be saved, the other not
+        assertNotNull(em.find(MessageUnit.class, committed.getOID()));
+        assertNull(em.find(MessageUnit.class, rolledBack.getOID()));
+    }
+
+    @Test
+    public void concurrentUpdateInUnitOfWork() throws PersistenceException, InterruptedException {
+        // Add a message unit to the database so we can change it
+        em.getTransaction().begin();
+        UserMessage userMsgJPA = new UserMessage(TestData.userMsg1);
+        em.persist(userMsgJPA);
+        em.getTransaction().commit();
+        final UserMessageEntity userMsg = new UserMessageEntity(userMsgJPA);
+        final ProcessingState initialState = userMsg.getCurrentProcessingState().getState();
+
+        ProcUpdater concurrent = new ProcUpdater(new UserMessageEntity(userMsgJPA), initialState, T_NEW_PROC_STATE_2);
+        updManager.startUnitOfWork();
+        try {
+            assertTrue(updManager.setProcessingState(userMsg, initialState, T_NEW_PROC_STATE_1));
+            // The change of the other thread must wait for or fail because of the lock held by the unit of work
+            new Thread(concurrent).start();
+            Thread.sleep(200);
+        } finally {
+            updManager.endUnitOfWork();
+        }
+        concurrent.waitForResult();
+        assertFalse(concurrent.s);
+
+        em.refresh(userMsgJPA);
+        assertEquals(T_NEW_PROC_STATE_1, userMsgJPA.getCurrentProcessingState().getState());
+        assertEquals(2, userMsgJPA.getProcessingStates().size());
+    }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.persistency.util;
+
+import java.util.List;
+import javax.persistence.EntityManager;
+import org.holodeckb2b.common.util.Utils;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.persistency.managers.QueryManager;
+import org.holodeckb2b.persistency.test.TestData;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Is the test class for the {@link DatabaseUpgrade} helper.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class DatabaseUpgradeTest {
+
+    @BeforeClass
+    public static void setUpClass() throws PersistenceException {
+        TestData.createTestSet();
+    }
+
+    @Test
+    public void setCurrentStateOnExistingData() throws PersistenceException {
+        // Simulate data stored by a previous version by clearing the current state info
+        EntityManager em = EntityManagerUtil.getEntityManager();
+        em.getTransaction().begin();
+        final int cleared = em.createNativeQuery("UPDATE MSG_UNIT SET CURRENT_PROC_STATE = NULL, "
+                                                 + "CURRENT_PROC_STATE_START = NULL").executeUpdate();
+        em.getTransaction().commit();
+        em.close();
+        assertTrue(cleared > 0);
+
+        final QueryManager queryManager = new QueryManager();
+        assertTrue(Utils.isNullOrEmpty(queryManager.getMessageUnitsInState(IUserMessage.class,
+                                                IMessageUnit.Direction.OUT,
+                                                new ProcessingState[] { ProcessingState.DELIVERED })));
+
+        DatabaseUpgrade.upgrade();
+
+        List<IUserMessageEntity> result = queryManager.getMessageUnitsInState(IUserMessage.class,
+                                                                IMessageUnit.Direction.OUT,
+                                                                new ProcessingState[] { ProcessingState.DELIVERED });
+        assertEquals(1, result.size());
+        assertEquals(TestData.userMsg2.getMessageId(), result.get(0).getMessageId());
+
+        em = EntityManagerUtil.getEntityManager();
+        final Number notConverted = (Number) em.createNativeQuery("SELECT COUNT(*) FROM MSG_UNIT "
+                                                          + "WHERE CURRENT_PROC_STATE IS NULL "
+                                                          + "OR CURRENT_PROC_STATE_START IS NULL").getSingleResult();
+        em.close();
+        assertEquals(0, notConverted.intValue());
+
+        // Executing the upgrade again should not change anything
+        DatabaseUpgrade.upgrade();
+        assertEquals(1, queryManager.getMessageUnitsInState(IUserMessage.class, IMessageUnit.Direction.OUT,
+                                           new ProcessingState[] { ProcessingState.DELIVERED }).size());
+    }
+}
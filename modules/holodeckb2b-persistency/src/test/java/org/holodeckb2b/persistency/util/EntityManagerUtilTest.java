@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.persistency.util;
+
+import com.zaxxer.hikari.HikariConfig;
+import java.util.Properties;
+import javax.persistence.EntityManager;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.dialect.DerbyTenSevenDialect;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Is the test class for the configuration of the database connection by {@link EntityManagerUtil}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class EntityManagerUtilTest {
+
+    @Test
+    public void defaultConfiguration() {
+        final Properties config = new Properties();
+
+        final HikariConfig poolConfig = EntityManagerUtil.createPoolConfig(config);
+        assertEquals(EntityManagerUtil.DEFAULT_DRIVER, poolConfig.getDriverClassName());
+        assertEquals(EntityManagerUtil.DEFAULT_URL, poolConfig.getJdbcUrl());
+        assertNull(poolConfig.getUsername());
+        assertEquals(EntityManagerUtil.DEFAULT_MAX_POOL_SIZE, poolConfig.getMaximumPoolSize());
+        assertEquals(EntityManagerUtil.DEFAULT_MIN_IDLE, poolConfig.getMinimumIdle());
+        assertNull(poolConfig.getConnectionTestQuery());
+
+        final Properties settings = EntityManagerUtil.createHibernateSettings(config);
+        assertEquals(DerbyTenSevenDialect.class.getName(), settings.get(AvailableSettings.DIALECT));
+        assertEquals("update", settings.get(AvailableSettings.HBM2DDL_AUTO));
+    }
+
+    @Test
+    public void customConfiguration() {
+        final Properties config = new Properties();
+        config.setProperty("jdbc.driver", "org.h2.Driver");
+        config.setProperty("jdbc.url", "jdbc:h2:./db/coreDB");
+        config.setProperty("jdbc.user", " hb2b ");
+        config.setProperty("jdbc.password", "secret");
+        config.setProperty("pool.maxSize", "25");
+        config.setProperty("pool.minIdle", "invalid");
+        config.setProperty("pool.validationQuery", "SELECT 1");
+        config.setProperty("hibernate.show_sql", "true");
+
+        final HikariConfig poolConfig = EntityManagerUtil.createPoolConfig(config);
+        assertEquals("org.h2.Driver", poolConfig.getDriverClassName());
+        assertEquals("jdbc:h2:./db/coreDB", poolConfig.getJdbcUrl());
+        assertEquals("hb2b", poolConfig.getUsername());
+        assertEquals("secret", poolConfig.getPassword());
+        assertEquals(25, poolConfig.getMaximumPoolSize());
+        assertEquals(EntityManagerUtil.DEFAULT_MIN_IDLE, poolConfig.getMinimumIdle());
+        assertEquals("SELECT 1", poolConfig.getConnectionTestQuery());
+
+        final Properties settings = EntityManagerUtil.createHibernateSettings(config);
+        // No dialect given for other database, should be detected by Hibernate
+        assertFalse(settings.containsKey(AvailableSettings.DIALECT));
+        assertEquals("true", settings.get(AvailableSettings.SHOW_SQL));
+    }
+
+    @Test
+    public void connectionsArePooled() throws PersistenceException {
+        for (int i = 0; i < 20; i++) {
+            final EntityManager em = EntityManagerUtil.getEntityManager();
+            em.getTransaction().begin();
+            assertTrue(((Number) em.createQuery("SELECT COUNT(mu) FROM MessageUnit mu")
+                                   .getSingleResult()).longValue() >= 0);
+            em.getTransaction().commit();
+            em.close();
+        }
+    }
+}